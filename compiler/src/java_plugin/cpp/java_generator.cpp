@@ -830,10 +830,18 @@ static void PrintStub(
             }
           }
           (*vars)["last_line_prefix"] = client_streaming ? "return " : "";
-          p->Print(
-              *vars,
-              "$last_line_prefix$$calls_method$(\n"
-              "    getChannel().newCall($method_method_name$(), getCallOptions()), $params$);\n");
+          if (!client_streaming && !server_streaming) {
+            // Unary calls pass the channel so that a failed call can fail over to another provider.
+            p->Print(
+                *vars,
+                "$calls_method$(\n"
+                "    getChannel(), $method_method_name$(), getCallOptions(), $params$);\n");
+          } else {
+            p->Print(
+                *vars,
+                "$last_line_prefix$$calls_method$(\n"
+                "    getChannel().newCall($method_method_name$(), getCallOptions()), $params$);\n");
+          }
           break;
         case FUTURE_CALL:
           GRPC_CODEGEN_CHECK(!client_streaming && !server_streaming)
@@ -844,7 +852,7 @@ static void PrintStub(
           p->Print(
               *vars,
               "return $calls_method$(\n"
-              "    getChannel().newCall($method_method_name$(), getCallOptions()), request);\n");
+              "    getChannel(), $method_method_name$(), getCallOptions(), request);\n");
           break;
       }
     }
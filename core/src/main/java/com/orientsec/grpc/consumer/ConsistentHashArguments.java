@@ -19,11 +19,13 @@ package com.orientsec.grpc.consumer;
 import com.google.common.base.Preconditions;
 import com.orientsec.grpc.common.constant.GlobalConstants;
 import com.orientsec.grpc.common.resource.SystemConfig;
+import com.orientsec.grpc.common.util.GrpcUtils;
+import com.orientsec.grpc.common.util.LoadBalanceUtil;
 import com.orientsec.grpc.common.util.StringUtils;
+import io.grpc.CallOptions;
+import io.grpc.NameResolver;
 
-import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.concurrent.ConcurrentHashMap;
@@ -31,40 +33,38 @@ import java.util.concurrent.ConcurrentHashMap;
 /**
  * 一致性Hash参数
  * <p>
- * 存储、获取一致性Hash算法相关的数据
+ * 存储、获取一致性Hash算法相关的数据。
+ * 每次调用的参数值通过{@link io.grpc.ClientCall#setConsistentHashArgument}放在调用的{@link CallOptions}中传递给负载均衡，
+ * 不再使用线程变量，异步调用、延迟选择服务提供者时也能取到正确的参数值。
  * </p>
  *
  * @author sxp
  * @since 2018/10/19
  */
 public class ConsistentHashArguments {
-  /**
-   * 各服务对应的参数列表的值
-   * <p>
-   * key值：服务名称 <br>
-   * value值：参数列表转化为String拼接起来的字符串 <br>
-   * </p>
-   */
-  private volatile static ThreadLocal<ConcurrentHashMap<String, Object>> arguments
-          = new ThreadLocal<ConcurrentHashMap<String, Object>>() {
-    @Override
-    protected ConcurrentHashMap<String, Object> initialValue() {
-      return new ConcurrentHashMap<String, Object>();
-    }
-  };
+  public static final String NULL_VALUE = "${ConsistentHashArguments-NULL}";
 
   /**
-   * 当参数列表的大小达到多少时，开始回收value为空值的数据
+   * 在{@link CallOptions}中传递一致性Hash参数值的key，供负载均衡直接读取
    */
-  private static final int RECYCLE_NULL_VALUE_THRESHOLD = 100;
-
-  public static final String NULL_VALUE = "${ConsistentHashArguments-NULL}";
+  public static final CallOptions.Key<Object> CALL_OPTIONS_KEY =
+          CallOptions.Key.create("orientsec-consistent-hash-argument");
 
   /**
    * 本地配置文件中参数列表
    */
   private static Map<String, Boolean> validArgs;
 
+  /**
+   * 服务注册的参数值提取器
+   * <p>
+   * key值：请求对象的类型 <br>
+   * value值：提取器 <br>
+   * </p>
+   */
+  private static final ConcurrentHashMap<Class<?>, HashKeyExtractor<?>> extractors
+          = new ConcurrentHashMap<Class<?>, HashKeyExtractor<?>>();
+
   static {
     initValidArgs();
   }
@@ -96,77 +96,81 @@ public class ConsistentHashArguments {
     }
   }
 
+  public static Map<String, Boolean> getValidArgs() {
+    return validArgs;
+  }
+
   /**
-   * 设置指定服务的参数列表对应的值
+   * 为指定的请求类型注册一致性Hash参数值的提取器
+   * <p>
+   * 注册之后该类型的请求不再按照配置文件中的参数列表读取参数值，而是调用提取器获取参数值
+   * </p>
    *
+   * @param requestType 请求对象的类型(必须是实际的类型，不能是父类或接口)
    * @author sxp
-   * @since 2018/10/19
+   * @since 2020/3/11
    */
-  public static void setArgument(String serviceName, Object value) {
-    Preconditions.checkNotNull(serviceName, "serviceName");
-    Preconditions.checkNotNull(value, "value");
-
-    ConcurrentHashMap<String, Object> args = arguments.get();
+  public static <ReqT> void registerExtractor(Class<ReqT> requestType, HashKeyExtractor<? super ReqT> extractor) {
+    Preconditions.checkNotNull(requestType, "requestType");
+    Preconditions.checkNotNull(extractor, "extractor");
 
-    args.put(serviceName, value);
+    extractors.put(requestType, extractor);
   }
 
   /**
-   * 将指定服务的参数列表值设置为字符串"null"
+   * 注销指定请求类型的提取器
    *
    * @author sxp
-   * @since 2018/10/19
+   * @since 2020/3/11
    */
-  public static void resetArgument(String serviceName) {
-    if (StringUtils.isEmpty(serviceName)) {
-      return;
-    }
-
-    ConcurrentHashMap<String, Object> args = arguments.get();
-    if (args.containsKey(serviceName)) {
-      args.put(serviceName, NULL_VALUE);// ConcurrentHashMap的key和value至不能为null
-    }
-
-    if (args.size() >= RECYCLE_NULL_VALUE_THRESHOLD) {
-      recycleNullValue();
+  public static void unregisterExtractor(Class<?> requestType) {
+    if (requestType != null) {
+      extractors.remove(requestType);
     }
   }
 
-  // 回收value为空值的数据
-  private static void recycleNullValue() {
-    ConcurrentHashMap<String, Object> args = arguments.get();
-
-    List<String> invalidKeys = new ArrayList<String>();
-
-    for (Map.Entry<String, Object> entry : args.entrySet()) {
-      if (NULL_VALUE.equals(entry.getValue())) {
-        invalidKeys.add(entry.getKey());
-      }
-    }
-
-    if (invalidKeys.size() > 0) {
-      for (String key : invalidKeys) {
-        args.remove(key, NULL_VALUE);
-      }
+  /**
+   * 获取指定请求类型注册的提取器，未注册时返回null
+   *
+   * @author sxp
+   * @since 2020/3/11
+   */
+  @SuppressWarnings("unchecked")
+  public static HashKeyExtractor<Object> getExtractor(Class<?> requestType) {
+    if (requestType == null || extractors.isEmpty()) {
+      return null;
     }
+    return (HashKeyExtractor<Object>) extractors.get(requestType);
   }
 
-
   /**
-   * 获取指定服务的参数列表对应的值
+   * 判断调用的方法是否需要提取一致性Hash的参数值
+   * <p>
+   * 只有负载均衡策略为一致性Hash的方法才需要参数值；无法确定负载均衡策略时(nameResolver为空)按照需要处理
+   * </p>
    *
+   * @param nameResolver   发起调用的Channel中的NameResolver对象
+   * @param fullMethodName 全路径方法名
    * @author sxp
-   * @since 2018/10/19
+   * @since 2020/3/11
    */
-  public static Object getArgument(String serviceName) {
-    if (StringUtils.isEmpty(serviceName)) {
-      return null;
+  public static boolean isArgumentRequired(NameResolver nameResolver, String fullMethodName) {
+    if (nameResolver == null) {
+      return true;
     }
 
-    return arguments.get().get(serviceName);
-  }
+    Map<String, GlobalConstants.LB_STRATEGY> strategyMap = nameResolver.getLoadBlanceStrategyMap();
+    if (strategyMap == null) {
+      return false;
+    }
 
-  public static Map<String, Boolean> getValidArgs() {
-    return validArgs;
+    String method = null;
+    if (!StringUtils.isEmpty(fullMethodName) && fullMethodName.indexOf('/') >= 0) {
+      method = GrpcUtils.getSimpleMethodName(fullMethodName);
+    }
+
+    GlobalConstants.LB_STRATEGY strategy = LoadBalanceUtil.getLoadBalanceStrategy(strategyMap, method);
+    return GlobalConstants.LB_STRATEGY.CONSISTENT_HASH.equals(strategy)
+            || GlobalConstants.LB_STRATEGY.CONSISTENT_HASH_BOUNDED.equals(strategy);
   }
 }
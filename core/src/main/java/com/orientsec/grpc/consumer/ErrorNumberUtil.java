@@ -3,8 +3,10 @@ package com.orientsec.grpc.consumer;
 import com.orientsec.grpc.common.collect.ConcurrentHashSet;
 import com.orientsec.grpc.common.constant.GlobalConstants;
 import com.orientsec.grpc.common.resource.SystemConfig;
+import com.orientsec.grpc.common.util.GrpcUtils;
 import com.orientsec.grpc.common.util.PropertiesUtils;
 import com.orientsec.grpc.common.util.StringUtils;
+import com.orientsec.grpc.consumer.internal.ProviderCallRecorder;
 import com.orientsec.grpc.consumer.internal.ProvidersListener;
 import com.orientsec.grpc.consumer.internal.ZookeeperNameResolver;
 import com.orientsec.grpc.consumer.model.ServiceProvider;
@@ -16,7 +18,6 @@ import io.grpc.internal.SharedResourceHolder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.HashMap;
 import java.util.Map;
 import java.util.Properties;
 import java.util.concurrent.ConcurrentHashMap;
@@ -97,7 +98,7 @@ public class ErrorNumberUtil {
    * 其中consumerId指的是客户端在zk上注册的URL的字符串形式，@是分隔符，IP:port指的是服务提供者的IP和端口
    * <p/>
    */
-  private volatile static Map<String, Long> lastFailingTime = new HashMap<>();
+  private volatile static ConcurrentHashMap<String, Long> lastFailingTime = new ConcurrentHashMap<>();
 
   /**
    * 各个【客户端对应服务提供者】服务调用失败次数
@@ -116,8 +117,10 @@ public class ErrorNumberUtil {
    * @author sxp
    * @since 2018-6-21
    * @since 2019/12/10 modify by wlh 增加调用成功/失败标识，根据标识判断执行服务操作逻辑
+   * @since 2020/3/11 modify by sxp 服务提供者Id由调用方传入，不再重复解析
    */
-  public static <ReqT, RespT> void recordInvokeInfo(ClientCall<ReqT, RespT> call, Channel channel, String method, boolean success, Exception e) {
+  public static <ReqT, RespT> void recordInvokeInfo(ClientCall<ReqT, RespT> call, Channel channel, String method,
+                                                    String providerId, boolean success) {
     if (channel == null) {
       return;
     }
@@ -132,7 +135,6 @@ public class ErrorNumberUtil {
       return;
     }
 
-    String providerId = FailoverUtils.getProviderId(channel, e);
     if (StringUtils.isEmpty(providerId)) {
       return;
     }
@@ -141,19 +143,15 @@ public class ErrorNumberUtil {
       logger.info("Bad provider is: " + providerId);
     }
 
-    Object argument = FailoverUtils.getArgument(nameResolver);
+    Object argument = FailoverUtils.getArgument(call);
 
     String key = consumerId + CONSUMERID_PROVIDERID_SEPARATOR + providerId;
 
     long currentTimestamp = System.currentTimeMillis();
-    long lastTimestamp;  // 最后一次服务调用失败时间
-
-    if (lastFailingTime.containsKey(key)) {
-      lastTimestamp = lastFailingTime.get(key);
-    } else {
+    Long lastTimestamp = lastFailingTime.put(key, currentTimestamp);  // 最后一次服务调用失败时间
+    if (lastTimestamp == null) {
       lastTimestamp = currentTimestamp;
     }
-    lastFailingTime.put(key, currentTimestamp);
 
     // 更新客户端对应服务提供者列表
     updateFailingProviders(consumerId, providerId, success);
@@ -167,6 +165,34 @@ public class ErrorNumberUtil {
     }
   }
 
+  /**
+   * 记录调用情况，连续失败次数直接记录在调用实际使用的服务提供者的调用记录器中
+   * <p>
+   * 调用成功并且之前没有失败时不需要做任何处理，只有调用失败时才解析方法名
+   * </p>
+   *
+   * @author sxp
+   * @since 2020/3/11
+   */
+  static <ReqT, RespT> void recordInvokeInfo(ClientCall<ReqT, RespT> call, Channel channel,
+                                             ProviderCallRecorder recorder, boolean success) {
+    AtomicInteger failTimes = recorder.getFailures();
+    if (success) {
+      if (failTimes.get() != 0) {
+        failTimes.set(0);// 重置失败次数
+      }
+      return;
+    }
+
+    String providerId = recorder.getProviderId();
+    logger.info("Bad provider is: " + providerId);
+
+    failTimes.incrementAndGet();
+
+    String method = GrpcUtils.getSimpleMethodName(call.getFullMethod());
+    switchoverIfNecessary(channel.getNameResolver(), providerId, failTimes, FailoverUtils.getArgument(call), method);
+  }
+
   /**
    * 更新客户端对应服务提供者列表
    *
@@ -223,6 +249,18 @@ public class ErrorNumberUtil {
 
     failTimes.incrementAndGet();
 
+    switchoverIfNecessary(nameResolver, providerId, failTimes, argument, method);
+  }
+
+  /**
+   * 失败次数达到阈值时将当前出错的服务器从备选列表中去除，并重选服务提供者
+   *
+   * @author sxp
+   * @since 2018-6-25
+   * @since 2020/3/11 modify by sxp 从updateFailTimes中独立出来，失败次数由调用方传入
+   */
+  private static void switchoverIfNecessary(NameResolver nameResolver, String providerId, AtomicInteger failTimes,
+                                            Object argument, String method) {
     int consumerProvidersAmount;// 客户端服务列表中服务提供者的数量
     boolean isZkProviderListEmpty = isZkProviderListEmpty(nameResolver);// 注册中心上服务提供者列表是否为空
 
@@ -16,24 +16,21 @@
  */
 package com.orientsec.grpc.consumer;
 
-import com.orientsec.grpc.common.collect.ConcurrentHashSet;
 import com.orientsec.grpc.common.constant.GlobalConstants;
 import com.orientsec.grpc.common.resource.SystemConfig;
-import com.orientsec.grpc.common.util.ExceptionUtils;
 import com.orientsec.grpc.common.util.GrpcUtils;
-import com.orientsec.grpc.common.util.IpPortUtils;
 import com.orientsec.grpc.common.util.MathUtils;
 import com.orientsec.grpc.common.util.Networks;
 import com.orientsec.grpc.common.util.PropertiesUtils;
 import com.orientsec.grpc.common.util.StringUtils;
+import com.orientsec.grpc.consumer.internal.ProviderCallRecorder;
 import com.orientsec.grpc.consumer.model.ServiceProvider;
+import com.orientsec.grpc.consumer.qos.CircuitBreaker;
 import io.grpc.Channel;
 import io.grpc.ClientCall;
 import io.grpc.EquivalentAddressGroup;
 import io.grpc.LoadBalancer;
 import io.grpc.NameResolver;
-import io.grpc.Status;
-import io.grpc.StatusRuntimeException;
 import io.grpc.internal.GrpcUtil;
 import io.grpc.internal.SharedResourceHolder;
 import org.slf4j.Logger;
@@ -43,13 +40,8 @@ import java.net.SocketAddress;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicLong;
-
-import static com.orientsec.grpc.common.constant.GlobalConstants.ProviderStatus;
-
 
 /**
  * 客户端容错工具类
@@ -84,57 +76,8 @@ public class FailoverUtils {
   // 熔断器打开后经过多长时间允许一次请求尝试执行，单位毫秒
   private static int breakerSleepWindowMillis = initBreakerSleepWindowInMilliseconds();
 
-  /**
-   * 总请求次数
-   * <p>
-   * key: consumerId@IP:port   <br>
-   * <p/>
-   */
-  private volatile static ConcurrentHashMap<String, AtomicLong> totalRequestTimes = new ConcurrentHashMap<>();
-
-  /**
-   * 请求失败次数
-   * <p>
-   * key:consumerId@IP:port  <br>
-   * <p/>
-   */
-  private volatile static ConcurrentHashMap<String, AtomicLong> failRequestTimes = new ConcurrentHashMap<>();
-
-  /**
-   * 一个统计熔断周期结束的时间毫秒数
-   * <p>
-   * key：consumerId@IP:port  <br>
-   * value: 毫秒时间戳记录   <br>
-   * <p/>
-   */
-  private volatile static ConcurrentHashMap<String, Long> endCountTimeMillis = new ConcurrentHashMap<>();
-
-  /**
-   * 客户端打开熔断器的时间
-   * <p>
-   * key: consumerId@IP:port      <br>
-   * value: 毫秒时间戳
-   * <p/>
-   */
-  private volatile static ConcurrentHashMap<String, Long> openBreakerTime = new ConcurrentHashMap<>();
-
-  /**
-   * 请求失败的服务端
-   * <p>
-   * key: consumerId@IP:port       <br>
-   * value: 服务端的状态，详见com.orientsec.grpc.common.constant.GlobalConstants.ProviderStatus
-   * <p/>
-   */
-  private volatile static ConcurrentHashMap<String, String> failProviders = new ConcurrentHashMap<>();
-
-  /**
-   * 调用失败的【客户端对应服务提供者列表】
-   * <p>
-   * key值为：consumerId  <br>
-   * value值为: 服务提供者IP:port的列表  <br>
-   * <p/>
-   */
-  private volatile static ConcurrentHashMap<String, ConcurrentHashSet<String>> consumerFailProviderIds = new ConcurrentHashMap<>();
+  // 半熔断状态下最多放行的探测请求数
+  private static int halfOpenRequests = initBreakerHalfOpenRequests();
 
   /**
    * 半熔断使用的线程池
@@ -146,51 +89,42 @@ public class FailoverUtils {
    *
    * @author yulei
    * @since 2019-09-02
+   * @since 2020/3/11 modify by sxp 熔断状态由熔断器对象维护
    */
   private static class HalfBreakerRunnable implements Runnable {
     private NameResolver nameResolver;
     private String method;
-    private String consumerId;
     private String providerId;
+    private CircuitBreaker breaker;
 
     public HalfBreakerRunnable(NameResolver nameResolver, String method,
-                               String consumerId, String providerId) {
+                               String providerId, CircuitBreaker breaker) {
       this.nameResolver = nameResolver;
       this.method = method;
-      this.consumerId = consumerId;
       this.providerId = providerId;
+      this.breaker = breaker;
     }
 
     @Override
     public void run() {
-      String key = consumerId + CONSUMERID_PROVIDERID_SEPARATOR + providerId;
-
-      if (!failProviders.containsKey(key) || !openBreakerTime.containsKey(key)) {
-        return;
-      }
-
       Map<String, ServiceProvider> allProviders = nameResolver.getAllProviders();
       if (allProviders == null || allProviders.isEmpty()
               || !allProviders.containsKey(providerId)) {
         return;
       }
 
-      ServiceProvider serviceProvider;
-      Map<String, ServiceProvider> providersForLoadBalance;
-      String status = failProviders.get(key);
-
-      if (ProviderStatus.BREAKER.equals(status)) {
-        providersForLoadBalance = nameResolver.getProvidersForLoadBalance();
-        serviceProvider = allProviders.get(providerId);
-
-        if (serviceProvider != null) {
-          if (logger.isDebugEnabled()) {
-            logger.debug("将服务[" + providerId + "]标识为半熔断，再重新放到服务列表中");
-          }
-          failProviders.put(key, ProviderStatus.HALF_BREAKER);
-          providersForLoadBalance.put(providerId, serviceProvider);
-          nameResolver.reCalculateProvidersCountAfterLoadBalance(method);
+      ServiceProvider serviceProvider = allProviders.get(providerId);
+      if (serviceProvider == null) {
+        return;
+      }
+
+      if (breaker.halfOpen(System.currentTimeMillis())) {
+        if (logger.isDebugEnabled()) {
+          logger.debug("将服务[" + providerId + "]标识为半熔断，再重新放到服务列表中");
         }
+        Map<String, ServiceProvider> providersForLoadBalance = nameResolver.getProvidersForLoadBalance();
+        providersForLoadBalance.put(providerId, serviceProvider);
+        nameResolver.reCalculateProvidersCountAfterLoadBalance(method);
       }
     }
   }
@@ -265,6 +199,21 @@ public class FailoverUtils {
     return value;
   }
 
+  /**
+   * 初始化半熔断状态下最多放行的探测请求数
+   */
+  private static int initBreakerHalfOpenRequests() {
+    String key = GlobalConstants.CommonKey.BREAKER_HALF_OPEN_REQUESTS;
+    int defaultValue = 1;
+    int value = PropertiesUtils.getValidIntegerValue(properties, key, defaultValue);
+    if (value <= 0) {
+      value = defaultValue;
+    }
+
+    logger.info(key + " = " + value);
+    return value;
+  }
+
   // --------------------------------------------------------
 
   /**
@@ -273,6 +222,8 @@ public class FailoverUtils {
    * @author yulei
    * @since 2019-07-22
    * @since 2019-08-27 modify by sxp 代码完善
+   * @since 2020/3/11 modify by sxp 改为每个服务提供者一个滑动窗口熔断器，不再使用全局的map
+   * @since 2020/3/11 modify by sxp 优先使用调用上记录的服务提供者调用记录器，不再拼接字符串、查找map
    */
   public static <ReqT, RespT> void recordRequest(Channel channel, boolean success, ClientCall<ReqT, RespT> call, Exception e) {
     if (channel == null) {
@@ -294,151 +245,103 @@ public class FailoverUtils {
       e = null;
     }
 
-    String providerId = getProviderId(channel, e);
-    if (StringUtils.isEmpty(providerId)) {
+    // 调用使用的传输连接记录了服务提供者的调用记录器，直接记录到其中的连续失败次数和熔断器
+    ProviderCallRecorder recorder = (call != null) ? call.getProviderRecorder() : null;
+    if (recorder != null) {
+      recordRequest(channel, nameResolver, success, call, recorder);
       return;
     }
 
-    String key = consumerId + CONSUMERID_PROVIDERID_SEPARATOR + providerId;
+    // 没有创建stream就失败的调用(例如连接被拒绝)，按照服务提供者Id查找
+    String providerId = getProviderId(channel, call);
+    if (StringUtils.isEmpty(providerId)) {
+      return;
+    }
 
     String method = GrpcUtils.getSimpleMethodName(call.getFullMethod());
 
-    long currentTime = System.currentTimeMillis();
-
     // 连续多次请求出错，自动切换到提供相同服务的新服务器
-    ErrorNumberUtil.recordInvokeInfo(call, channel, method, success, e);
+    ErrorNumberUtil.recordInvokeInfo(call, channel, method, providerId, success);
 
     // 熔断机制
     if (!enabled) {
       return;
     }
 
-    if (timerService == null) {
-      timerService = SharedResourceHolder.get(GrpcUtil.TIMER_SERVICE);
+    CircuitBreaker breaker = nameResolver.getCircuitBreaker(providerId);
+    if (breaker == null) {
+      return;
     }
 
-    // 对于半熔断的服务端，如果该请求执行成功，说明服务可能已经恢复了正常，关闭熔断器；
-    // 如果该请求执行失败，则认为服务依然不可用，熔断器继续保持打开状态
-    if (failProviders.containsKey(key)) {
-      String status = failProviders.get(key);
-      if (ProviderStatus.HALF_BREAKER.equals(status)) {
-        if (success) {
-          failProviders.remove(key);
-          openBreakerTime.remove(key);
-
-          ConcurrentHashSet<String> ids = consumerFailProviderIds.get(consumerId);
-          if (ids != null) {
-            ids.remove(providerId);
-          }
-        } else {
-          if (logger.isDebugEnabled()) {
-            logger.debug("半熔断的服务端[" + providerId + "]不可用，继续保持熔断状态");
-          }
-          failProviders.put(key, ProviderStatus.BREAKER);
-          openBreakerTime.put(key, currentTime);
-          removeCurrentProvider(nameResolver, providerId, method);
-          saveFailProviderId(consumerId, providerId);
-          // 半熔断的处理
-          HalfBreakerRunnable runnable = new HalfBreakerRunnable(nameResolver, method, consumerId, providerId);
-          timerService.schedule(runnable, breakerSleepWindowMillis, TimeUnit.MILLISECONDS);
-        }
-      }
+    // 无法确定调用发出时的半熔断代数，不作为半熔断状态下的探测结果
+    CircuitBreaker.State newState = breaker.record(success, System.currentTimeMillis(), breaker.getGeneration() - 1);
+    if (newState != null) {
+      onBreakerStateChanged(nameResolver, call, providerId, breaker, newState);
     }
+  }
 
-    if (!totalRequestTimes.containsKey(key)) {
-      AtomicLong totalTimes = new AtomicLong(1);
-      AtomicLong oldValue = totalRequestTimes.putIfAbsent(key, totalTimes);
-      if (oldValue != null) {
-        oldValue.incrementAndGet();
-      }
-
-      AtomicLong failTimes;
-      if (!success) {
-        failTimes = new AtomicLong(1);
-      } else {
-        failTimes = new AtomicLong(0);
-      }
+  private static <ReqT, RespT> void recordRequest(Channel channel, NameResolver nameResolver, boolean success,
+                                                  ClientCall<ReqT, RespT> call, ProviderCallRecorder recorder) {
+    // 连续多次请求出错，自动切换到提供相同服务的新服务器
+    ErrorNumberUtil.recordInvokeInfo(call, channel, recorder, success);
 
-      oldValue = failRequestTimes.putIfAbsent(key, failTimes);
-      if (oldValue != null) {
-        if (!success) {
-          oldValue.incrementAndGet();
-        }
-      }
-    } else {
-      AtomicLong totalTimes = totalRequestTimes.get(key);
-      totalTimes.incrementAndGet();
+    // 熔断机制
+    if (!enabled) {
+      return;
+    }
 
-      if (!success) {
-        AtomicLong failTimes = failRequestTimes.get(key);
-        failTimes.incrementAndGet();
-      }
+    CircuitBreaker breaker = recorder.getCircuitBreaker();
+    if (breaker == null) {
+      return;
     }
 
-    // 当前请求第一次发生，或者已经发生过的请求开启新的统计周期
-    if (!endCountTimeMillis.containsKey(key) || endCountTimeMillis.get(key) == 0L) {
-      long endTime = currentTime + periodMillis;
-      endCountTimeMillis.put(key, endTime);
-    } else {
-      // 一个统计周期结束的处理
-      long endTimeMillis = endCountTimeMillis.get(key);
-      if (currentTime >= endTimeMillis) {
-        AtomicLong totalCounter = totalRequestTimes.get(key);
-        AtomicLong failCounter = failRequestTimes.get(key);
-
-        long total = (totalCounter == null) ? 0 : totalCounter.get();
-        long fail = (failCounter == null) ? 0 : failCounter.get();
-
-        if (total >= requestThreshold) {
-          int percent = (int) MathUtils.round(100D * fail / total, 0);
-
-          if (percent >= errorPercentage) {
-            logger.info("客户端调用服务端[" + providerId + "]时错误率为[" + percent + "]，开启熔断器");
-
-            failProviders.put(key, ProviderStatus.BREAKER);
-            openBreakerTime.put(key, currentTime);
-            removeCurrentProvider(nameResolver, providerId, method);
-            saveFailProviderId(consumerId, providerId);
-            // 半熔断的处理
-            HalfBreakerRunnable runnable = new HalfBreakerRunnable(nameResolver, method, consumerId, providerId);
-            timerService.schedule(runnable, breakerSleepWindowMillis, TimeUnit.MILLISECONDS);
-          }
-        }
+    CircuitBreaker.State newState = breaker.record(success, System.currentTimeMillis(), call.getBreakerGeneration());
+    if (newState != null) {
+      onBreakerStateChanged(nameResolver, call, recorder.getProviderId(), breaker, newState);
+    }
+  }
 
-        // 一个统计周期完成后将数量、时间归零
-        if (totalCounter != null) {
-          totalCounter.set(0L);
-        }
-        if (failCounter != null) {
-          failCounter.set(0L);
-        }
-        endCountTimeMillis.put(key, 0L);
+  /**
+   * 熔断器状态变化后的处理：打开熔断器时将服务提供者从备选列表中去除，经过sleepWindow后转换为半熔断状态
+   *
+   * @author sxp
+   * @since 2020/3/11
+   */
+  private static void onBreakerStateChanged(NameResolver nameResolver, ClientCall<?, ?> call, String providerId,
+                                            CircuitBreaker breaker, CircuitBreaker.State newState) {
+    if (newState == CircuitBreaker.State.CLOSED) {
+      logger.info("半熔断的服务端[" + providerId + "]调用成功，关闭熔断器");
+    } else if (newState == CircuitBreaker.State.OPEN) {
+      logger.info("客户端调用服务端[" + providerId + "]时错误率超过阈值或半熔断时调用失败，开启熔断器");
+
+      String method = GrpcUtils.getSimpleMethodName(call.getFullMethod());
+      removeCurrentProvider(nameResolver, providerId, method, getArgument(call));
+
+      if (timerService == null) {
+        timerService = SharedResourceHolder.get(GrpcUtil.TIMER_SERVICE);
       }
+      // 半熔断的处理
+      HalfBreakerRunnable runnable = new HalfBreakerRunnable(nameResolver, method, providerId, breaker);
+      timerService.schedule(runnable, breakerSleepWindowMillis, TimeUnit.MILLISECONDS);
     }
   }
 
+  /**
+   * 是否启用熔断机制
+   */
+  public static boolean isBreakerEnabled() {
+    return enabled;
+  }
 
   /**
-   * 客户端调用失败的服务端唯一标识
+   * 按照配置文件中的熔断参数创建熔断器
    *
    * @author sxp
-   * @since 2019/8/26
+   * @since 2020/3/11
    */
-  private static void saveFailProviderId(String consumerId, String providerId) {
-    ConcurrentHashSet<String> providerIds;
-
-    if (!consumerFailProviderIds.containsKey(consumerId)) {
-      providerIds = new ConcurrentHashSet<>();
-      providerIds.add(providerId);
-
-      ConcurrentHashSet<String> oldValue = consumerFailProviderIds.putIfAbsent(consumerId, providerIds);
-      if (oldValue != null) {
-        oldValue.add(providerId);
-      }
-    } else {
-      providerIds = consumerFailProviderIds.get(consumerId);
-      providerIds.add(providerId);
-    }
+  public static CircuitBreaker newCircuitBreaker() {
+    return new CircuitBreaker(periodMillis, requestThreshold, errorPercentage,
+            breakerSleepWindowMillis, halfOpenRequests);
   }
 
   /**
@@ -447,7 +350,8 @@ public class FailoverUtils {
    * @author sxp
    * @since 2018-6-21
    */
-  private static void removeCurrentProvider(NameResolver nameResolver, String providerId, String method) {
+  private static void removeCurrentProvider(NameResolver nameResolver, String providerId, String method,
+                                            Object argument) {
     Map<String, ServiceProvider> providersForLoadBalance = nameResolver.getProvidersForLoadBalance();
     if (providersForLoadBalance == null || providersForLoadBalance.size() == 0) {
       return;
@@ -463,7 +367,6 @@ public class FailoverUtils {
       int size = providersForLoadBalance.size();
       if (size > 0) {
         try {
-          Object argument = getArgument(nameResolver);
           logger.info("重选服务提供者......");
           nameResolver.resolveServerInfo(argument, method);
         } catch (Throwable t) {
@@ -478,14 +381,10 @@ public class FailoverUtils {
    *
    * @author sxp
    * @since 2019/8/27
+   * @since 2020/3/11 modify by sxp 参数值从调用中获取，不再使用线程变量
    */
-  static Object getArgument(NameResolver nameResolver) {
-    String serviceName = null;
-    if (nameResolver != null) {
-      serviceName = nameResolver.getServiceName();
-    }
-    Object argument = ConsistentHashArguments.getArgument(serviceName);
-    return argument;
+  static Object getArgument(ClientCall<?, ?> call) {
+    return (call != null) ? call.getConsistentHashArgument() : null;
   }
 
   /**
@@ -495,39 +394,16 @@ public class FailoverUtils {
    * @author sxp
    * @since 2018-6-25
    * @since 2019-11-19 modify by sxp 将获取host:port的代码独立为方法
+   * @since 2020/3/11 modify by sxp 直接使用调用中记录的服务提供者地址，不再解析异常堆栈
    */
-  static String getProviderId(Channel channel, Exception e) {
-    // 先尝试从Exception中获取出错的服务端地址
-    /*
-    io.grpc.StatusRuntimeException: UNAVAILABLE: io exception
-      at io.grpc.stub.ClientCalls.toStatusRuntimeException(ClientCalls.java:414)
-      ...
-    Caused by: io.netty.channel.AbstractChannel$AnnotatedConnectException: Connection refused: no further information: /192.168.106.3:50062
-      at sun.nio.ch.SocketChannelImpl.checkConnect(Native Method)
-      ...
-    */
-    if (e != null && (e instanceof StatusRuntimeException)) {
-      StatusRuntimeException statusException = (StatusRuntimeException) e;
-      Status status = statusException.getStatus();
-      if (Status.Code.UNAVAILABLE.equals(status.getCode())) {
-        String errorMsg = ExceptionUtils.getExceptionStackMsg(e);
-        if (StringUtils.isNotEmpty(errorMsg)) {
-          int startIndex = errorMsg.indexOf("Connection refused: no further information");
-          if (startIndex >= 0) {
-            int endIndex = errorMsg.indexOf("\n", startIndex);
-            if (endIndex >= 0) {
-              String message = errorMsg.substring(startIndex, endIndex);
-              // 提取出IP:port
-              String ipAndPort = IpPortUtils.getAddress(message);
-              if (StringUtils.isNotEmpty(ipAndPort)) {
-                return ipAndPort;
-              }
-            }
-          }
-        }
-      }
+  static String getProviderId(Channel channel, ClientCall<?, ?> call) {
+    // 调用中记录了负载均衡选中的服务提供者或者stream连接的远端地址
+    String providerId = (call != null) ? call.getProviderId() : null;
+    if (providerId != null) {
+      return providerId;
     }
 
+    // 没有创建stream就失败的调用(例如连接被拒绝)，使用channel当前连接的服务提供者
     if (channel == null) {
       return null;
     }
@@ -547,11 +423,7 @@ public class FailoverUtils {
       return null;
     }
 
-    SocketAddress address = addrs.get(0);
-
-    String providerId = Networks.getHostAndPort(address);
-
-    return providerId;
+    return Networks.getHostAndPort(addrs.get(0));
   }
 
   /**
@@ -564,25 +436,7 @@ public class FailoverUtils {
     // 【连续多次请求出错，自动切换到提供相同服务的新服务器】的变量
     ErrorNumberUtil.removeDateByConsumerId(consumerId);
 
-    // 熔断机制的变量
-    if (!consumerFailProviderIds.containsKey(consumerId)) {
-      return;
-    }
-
-    ConcurrentHashSet<String> providerIds = consumerFailProviderIds.get(consumerId);
-
-    String key;
-
-    for (String providerId : providerIds) {
-      key = consumerId + CONSUMERID_PROVIDERID_SEPARATOR + providerId;
-      failProviders.remove(key);
-      openBreakerTime.remove(key);
-      totalRequestTimes.remove(key);
-      failRequestTimes.remove(key);
-      endCountTimeMillis.remove(key);
-    }
-
-    consumerFailProviderIds.remove(consumerId);
+    // 熔断器由NameResolver持有，随NameResolver一起释放
   }
 
 }
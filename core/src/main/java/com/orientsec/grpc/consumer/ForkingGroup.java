@@ -0,0 +1,85 @@
+/*
+ * Copyright 2019 Orient Securities Co., Ltd.
+ * Copyright 2019 BoCloud Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientsec.grpc.consumer;
+
+import io.grpc.CallOptions;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * forking模式下同一次调用分出的一组调用
+ * <p>
+ * 每个调用在{@link CallOptions}中携带自己的{@link Slot}，负载均衡选择服务提供者时通过{@link Slot#claim(Object)}
+ * 占用服务提供者，同一组内已经被其它调用占用的服务提供者不会再被选中，从而保证各调用发给不同的服务提供者。
+ * </p>
+ *
+ * @author sxp
+ * @since 2020/3/11
+ */
+public final class ForkingGroup {
+  /**
+   * 在{@link CallOptions}中传递{@link Slot}的key，供负载均衡直接读取
+   */
+  public static final CallOptions.Key<Slot> CALL_OPTIONS_KEY = CallOptions.Key.create("orientsec-forking-slot");
+
+  /** 已经被占用的服务提供者 */
+  private final Set<Object> claimed = new HashSet<>();
+
+  public Slot newSlot() {
+    return new Slot();
+  }
+
+  /**
+   * 组内的一个调用
+   */
+  public final class Slot {
+    /** 当前调用占用的服务提供者 */
+    private Object provider;
+
+    // Non private to avoid synthetic class
+    Slot() {
+    }
+
+    /**
+     * 占用服务提供者
+     * <p>
+     * 重新选择服务提供者(例如连接状态变化后重新pick)时，先释放之前占用的服务提供者。
+     * </p>
+     *
+     * @param provider 服务提供者的标识(例如地址)
+     * @return 服务提供者没有被组内其它调用占用时返回true
+     */
+    public boolean claim(Object provider) {
+      synchronized (claimed) {
+        if (provider.equals(this.provider)) {
+          return true;
+        }
+        if (claimed.contains(provider)) {
+          return false;
+        }
+
+        if (this.provider != null) {
+          claimed.remove(this.provider);
+        }
+        claimed.add(provider);
+        this.provider = provider;
+        return true;
+      }
+    }
+  }
+}
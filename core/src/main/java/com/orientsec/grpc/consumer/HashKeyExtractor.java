@@ -0,0 +1,43 @@
+/*
+ * Copyright 2019 Orient Securities Co., Ltd.
+ * Copyright 2019 BoCloud Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientsec.grpc.consumer;
+
+/**
+ * 一致性Hash参数值的提取器
+ * <p>
+ * 默认情况下根据配置文件中的参数列表(consumer.consistent.hash.arguments)从请求对象中读取参数值，
+ * 服务可以通过{@link ConsistentHashArguments#registerExtractor}为请求类型注册自己的提取器，
+ * 直接调用请求对象的getter方法计算参数值，不需要经过反射。
+ * </p>
+ *
+ * @param <ReqT> 请求对象的类型
+ * @author sxp
+ * @since 2020/3/11
+ */
+public interface HashKeyExtractor<ReqT> {
+
+  /**
+   * 从请求对象中提取一致性Hash的参数值
+   * <p>
+   * 该方法在每次调用时执行，实现类必须是线程安全的。
+   * 返回null或空字符串时，按照没有取到参数值处理。
+   * </p>
+   *
+   * @param request 请求对象，不为null
+   */
+  Object extract(ReqT request);
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2019 Orient Securities Co., Ltd.
+ * Copyright 2019 BoCloud Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientsec.grpc.consumer;
+
+import com.orientsec.grpc.common.constant.GlobalConstants;
+import com.orientsec.grpc.common.resource.SystemConfig;
+import com.orientsec.grpc.common.util.PropertiesUtils;
+import com.orientsec.grpc.consumer.internal.ProvidersSnapshot;
+import com.orientsec.grpc.consumer.internal.ZookeeperNameResolver;
+import com.orientsec.grpc.consumer.model.ServiceProvider;
+import com.orientsec.grpc.consumer.qos.CircuitBreaker;
+import com.orientsec.grpc.consumer.qos.OutlierDetector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * 异常点检测工具类
+ * <p>
+ * 按照固定周期比较同一服务各个服务提供者的成功率和平均响应时间，
+ * 将异常的服务提供者从服务端候选列表中剔除，剔除时间到期后放回。
+ * 与"连续多次请求出错切换服务器"、熔断机制不同，能够发现响应慢但不报错的服务提供者。
+ * </p>
+ *
+ * @author sxp
+ * @since 2020/3/11
+ */
+public class OutlierDetectionUtils {
+  private static final Logger logger = LoggerFactory.getLogger(OutlierDetectionUtils.class);
+
+  private static Properties properties = SystemConfig.getProperties();
+
+  // 是否启用异常点检测
+  private static boolean enabled = PropertiesUtils.getValidBooleanValue(properties,
+          GlobalConstants.Consumer.Key.OUTLIER_DETECTION_ENABLED, false);
+
+  // 检测周期，单位毫秒
+  private static int intervalMillis = initPositiveInt(GlobalConstants.Consumer.Key.OUTLIER_DETECTION_INTERVAL, 10000);
+
+  private static int baseEjectionMillis = initPositiveInt(
+          GlobalConstants.Consumer.Key.OUTLIER_DETECTION_BASE_EJECTION_TIME, 30000);
+
+  private static int maxEjectionMillis = initPositiveInt(
+          GlobalConstants.Consumer.Key.OUTLIER_DETECTION_MAX_EJECTION_TIME, 300000);
+
+  private static int maxEjectionPercent = initMaxEjectionPercent();
+
+  private static int minimumRequests = initPositiveInt(
+          GlobalConstants.Consumer.Key.OUTLIER_DETECTION_MINIMUM_REQUESTS, 20);
+
+  private static int minimumHosts = initPositiveInt(GlobalConstants.Consumer.Key.OUTLIER_DETECTION_MINIMUM_HOSTS, 3);
+
+  private static double stdevFactor = initDouble(GlobalConstants.Consumer.Key.OUTLIER_DETECTION_STDEV_FACTOR,
+          1.9D, 0D);
+
+  private static double latencyFactor = initDouble(GlobalConstants.Consumer.Key.OUTLIER_DETECTION_LATENCY_FACTOR,
+          3.0D, 1D);
+
+  private static int initPositiveInt(String key, int defaultValue) {
+    int value = PropertiesUtils.getValidIntegerValue(properties, key, defaultValue);
+    if (value <= 0) {
+      value = defaultValue;
+    }
+    return value;
+  }
+
+  private static int initMaxEjectionPercent() {
+    String key = GlobalConstants.Consumer.Key.OUTLIER_DETECTION_MAX_EJECTION_PERCENT;
+    int defaultValue = 50;
+
+    int value = PropertiesUtils.getValidIntegerValue(properties, key, defaultValue);
+    if (value < 0 || value > 100) {
+      value = defaultValue;
+    }
+    return value;
+  }
+
+  private static double initDouble(String key, double defaultValue, double lowerBound) {
+    double value = PropertiesUtils.getValidDoubleValue(properties, key, defaultValue);
+    if (value <= lowerBound) {
+      value = defaultValue;
+    }
+    return value;
+  }
+
+  /**
+   * 是否启用异常点检测
+   */
+  public static boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * 检测周期，单位毫秒
+   */
+  public static int getIntervalMillis() {
+    return intervalMillis;
+  }
+
+  /**
+   * 按照配置文件中的参数创建异常点检测对象
+   */
+  public static OutlierDetector newDetector() {
+    return new OutlierDetector(minimumRequests, minimumHosts, maxEjectionPercent, stdevFactor,
+            latencyFactor, baseEjectionMillis, maxEjectionMillis);
+  }
+
+  /**
+   * 执行一次异常点检测
+   * <p>
+   * 先将剔除时间到期的服务提供者放回，再根据最新的快照判定需要剔除的服务提供者。
+   * 熔断器处于打开状态的服务提供者不放回，由熔断器的半熔断任务负责放回。
+   * </p>
+   *
+   * @param nameResolver 服务对应的nameResolver
+   * @param detector     该服务的异常点检测对象
+   */
+  public static void detect(ZookeeperNameResolver nameResolver, OutlierDetector detector) {
+    long now = System.currentTimeMillis();
+
+    CircuitBreaker breaker;
+    for (String providerId : detector.expire(now)) {
+      breaker = nameResolver.getCircuitBreaker(providerId);
+      if (breaker != null && breaker.getState() == CircuitBreaker.State.OPEN) {
+        logger.info("服务器节点{}的剔除时间已到期，但是熔断器处于打开状态，暂不放回客户端备选服务器列表", providerId);
+        continue;
+      }
+      ErrorNumberUtil.addCurrentProvider(nameResolver, providerId, null);
+    }
+
+    ProvidersSnapshot snapshot = nameResolver.getProvidersSnapshot();
+    if (snapshot == null || snapshot.size() <= 1) {
+      return;
+    }
+
+    List<String> ejected = detector.detect(snapshot.getKeys(), snapshot.getProviderLoads(), now);
+    if (ejected.isEmpty()) {
+      return;
+    }
+
+    Map<String, ServiceProvider> providersForLoadBalance = nameResolver.getProvidersForLoadBalance();
+    if (providersForLoadBalance == null) {
+      return;
+    }
+
+    for (String providerId : ejected) {
+      if (providersForLoadBalance.remove(providerId) != null) {
+        logger.warn("服务器节点{}的成功率或响应时间明显差于其它节点，暂时从客户端备选服务器列表中删除", providerId);
+      }
+    }
+    nameResolver.reCalculateProvidersCountAfterLoadBalance(null);
+  }
+}
@@ -108,5 +108,7 @@ public class ConfiguratorsListener extends AbstractListener implements ConsumerL
     }
     consumerGroupHandler.notify(urls);
 
+    // 权重、过时标志等服务端属性可能发生了变化，重新生成负载均衡使用的快照
+    zookeeperNameResolver.rebuildProvidersSnapshot();
   }
 }
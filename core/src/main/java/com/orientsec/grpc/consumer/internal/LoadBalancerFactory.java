@@ -18,11 +18,16 @@
 package com.orientsec.grpc.consumer.internal;
 
 import com.orientsec.grpc.common.constant.GlobalConstants;
+import com.orientsec.grpc.common.resource.SystemConfig;
+import com.orientsec.grpc.common.util.PropertiesUtils;
 import com.orientsec.grpc.consumer.lb.ConsistentHashLoadBalancer;
+import com.orientsec.grpc.consumer.lb.LeastRequestLoadBalancer;
+import com.orientsec.grpc.consumer.lb.PeakEwmaLoadBalancer;
 import com.orientsec.grpc.consumer.lb.PickFirstLoadBalancer;
 import com.orientsec.grpc.consumer.lb.RoundRobinLoadBalancer;
 import com.orientsec.grpc.consumer.lb.WeightRoundRobinLoadBalancer;
 import com.orientsec.grpc.consumer.model.ServiceProvider;
+import com.orientsec.grpc.consumer.qos.CircuitBreaker;
 
 import java.util.Map;
 import java.util.logging.Level;
@@ -37,6 +42,22 @@ import java.util.logging.Logger;
 public class LoadBalancerFactory {
   private static final Logger logger = Logger.getLogger(LoadBalancerFactory.class.getName());
 
+  /**
+   * 有界负载的一致性Hash允许超出平均负载的比例
+   */
+  private static final double boundedFactor = initBoundedFactor();
+
+  private static double initBoundedFactor() {
+    String key = GlobalConstants.Consumer.Key.HASH_BOUNDED_FACTOR;
+    double defaultValue = 0.25D;
+
+    double factor = PropertiesUtils.getValidDoubleValue(SystemConfig.getProperties(), key, defaultValue);
+    if (factor < 0) {
+      factor = defaultValue;
+    }
+    return factor;
+  }
+
   public static Map<String, ServiceProvider> getServiceProviderByLbStrategy(GlobalConstants.LB_STRATEGY strategy, Map<String, ServiceProvider> serviceProviderMap, String serviceName, Object argument) {
     Map<String, ServiceProvider> serviceProviders;
 
@@ -51,8 +72,15 @@ public class LoadBalancerFactory {
         serviceProviders = WeightRoundRobinLoadBalancer.chooseProvider(serviceProviderMap);
         break;
       case CONSISTENT_HASH:
+      case CONSISTENT_HASH_BOUNDED:
+        // 服务列表中没有负载信息，按照普通的一致性Hash处理
         serviceProviders = ConsistentHashLoadBalancer.chooseProvider(serviceProviderMap, serviceName, argument);
         break;
+      case LEAST_REQUEST:
+      case PEAK_EWMA:
+        // 服务列表中没有负载信息，按照轮询处理
+        serviceProviders = RoundRobinLoadBalancer.chooseProvider(serviceProviderMap);
+        break;
       default:
         serviceProviders = RoundRobinLoadBalancer.chooseProvider(serviceProviderMap);
     }
@@ -61,4 +89,75 @@ public class LoadBalancerFactory {
 
     return serviceProviders;
   }
+
+  /**
+   * 根据负载策略从快照中选取一个服务提供者
+   *
+   * @return 服务提供者在快照中的下标，没有可用的服务提供者时返回-1
+   * @author sxp
+   * @since 2020/3/2
+   * @since 2020/3/11 modify by sxp 跳过处于半熔断状态、并且探测请求已用完的服务提供者
+   */
+  public static int pickProviderIndex(GlobalConstants.LB_STRATEGY strategy, ProvidersSnapshot snapshot, String serviceName, Object argument) {
+    if (snapshot == null || snapshot.isEmpty()) {
+      return -1;
+    }
+    if (snapshot.size() == 1) {
+      return 0;
+    }
+
+    int index = chooseIndex(strategy, snapshot, serviceName, argument);
+    if (index < 0) {
+      return index;
+    }
+
+    CircuitBreaker breaker = snapshot.getCircuitBreaker(index);
+    if (breaker == null || breaker.allowRequest()) {
+      return index;
+    }
+
+    // 半熔断状态下探测请求已用完，选择其它允许请求的服务提供者
+    int size = snapshot.size();
+    int next;
+    for (int i = 1; i < size; i++) {
+      next = (index + i) % size;
+      breaker = snapshot.getCircuitBreaker(next);
+      if (breaker == null || breaker.allowRequest()) {
+        return next;
+      }
+    }
+    return index;
+  }
+
+  private static int chooseIndex(GlobalConstants.LB_STRATEGY strategy, ProvidersSnapshot snapshot,
+                                 String serviceName, Object argument) {
+    switch (strategy) {
+      case WEIGHT_ROUND_ROBIN:
+        return snapshot.getWeightRoundRobin().next();
+      case CONSISTENT_HASH:
+        return snapshot.getConsistentHashRing().select(argument);
+      case CONSISTENT_HASH_BOUNDED:
+        return snapshot.getConsistentHashRing().selectBounded(argument,
+                snapshot.getProviderLoads(), boundedFactor);
+      case LEAST_REQUEST:
+        return LeastRequestLoadBalancer.chooseIndex(snapshot.getProviderLoads());
+      case PEAK_EWMA:
+        return PeakEwmaLoadBalancer.chooseIndex(snapshot.getProviderLoads());
+      case PICK_FIRST:
+        break;
+      default:
+        return snapshot.getRoundRobin().nextIndex();
+    }
+
+    Map<String, ServiceProvider> serviceProviders = getServiceProviderByLbStrategy(
+            strategy, snapshot.getProviderMap(), serviceName, argument);
+    if (serviceProviders == null || serviceProviders.isEmpty()) {
+      return -1;
+    }
+
+    for (String key : serviceProviders.keySet()) {
+      return snapshot.indexOf(key);
+    }
+    return -1;
+  }
 }
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2019 Orient Securities Co., Ltd.
+ * Copyright 2019 BoCloud Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientsec.grpc.consumer.internal;
+
+import com.google.common.base.Preconditions;
+import com.orientsec.grpc.consumer.qos.CircuitBreaker;
+import com.orientsec.grpc.consumer.strategy.ProviderLoad;
+import io.grpc.internal.ClientCallLoadRecorder;
+
+import javax.annotation.Nullable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 记录客户端对某个服务提供者的调用情况
+ * <p>
+ * 每个【客户端对应服务提供者】一个对象，由nameResolver按照ip:port保存，服务提供者从注册中心下线后才删除。
+ * 通道创建传输连接时通过nameResolver获取，传输层的请求开始、结束事件记录到服务提供者的负载对象中；
+ * 调用使用的传输连接同时把该对象记录在调用上，调用结束时直接使用其中的熔断器和连续失败次数，
+ * 不需要再按照服务提供者Id拼接字符串、查找map。
+ * </p>
+ *
+ * @author sxp
+ * @since 2020/3/11
+ */
+public final class ProviderCallRecorder implements ClientCallLoadRecorder {
+  private final String providerId;
+  private final ProviderLoad load;
+  @Nullable
+  private final CircuitBreaker circuitBreaker;
+
+  /** 连续调用失败的次数 */
+  private final AtomicInteger failures = new AtomicInteger();
+
+  /**
+   * @param providerId     服务提供者的ip:port
+   * @param load           服务提供者的负载
+   * @param circuitBreaker 服务提供者的熔断器，未启用熔断机制时为null
+   */
+  public ProviderCallRecorder(String providerId, ProviderLoad load, @Nullable CircuitBreaker circuitBreaker) {
+    this.providerId = Preconditions.checkNotNull(providerId, "providerId");
+    this.load = Preconditions.checkNotNull(load, "load");
+    this.circuitBreaker = circuitBreaker;
+  }
+
+  @Override
+  public void callStarted() {
+    load.callStarted();
+  }
+
+  @Override
+  public void callEnded(boolean success, long elapsedNanos) {
+    load.callEnded(success, elapsedNanos);
+  }
+
+  /**
+   * 服务提供者的ip:port
+   */
+  public String getProviderId() {
+    return providerId;
+  }
+
+  public ProviderLoad getLoad() {
+    return load;
+  }
+
+  @Nullable
+  public CircuitBreaker getCircuitBreaker() {
+    return circuitBreaker;
+  }
+
+  /**
+   * 获取熔断器当前的半熔断代数，未启用熔断机制时返回0
+   */
+  public int getBreakerGeneration() {
+    return (circuitBreaker != null) ? circuitBreaker.getGeneration() : 0;
+  }
+
+  /**
+   * 连续调用失败的次数，调用成功时清零
+   */
+  public AtomicInteger getFailures() {
+    return failures;
+  }
+}
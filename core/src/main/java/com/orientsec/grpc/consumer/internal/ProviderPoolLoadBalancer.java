@@ -0,0 +1,408 @@
+/*
+ * Copyright 2019 Orient Securities Co., Ltd.
+ * Copyright 2019 BoCloud Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientsec.grpc.consumer.internal;
+
+import com.orientsec.grpc.common.constant.GlobalConstants;
+import com.orientsec.grpc.common.enums.LoadBalanceMode;
+import com.orientsec.grpc.common.util.GrpcUtils;
+import com.orientsec.grpc.common.util.LoadBalanceUtil;
+import com.orientsec.grpc.consumer.ConsistentHashArguments;
+import com.orientsec.grpc.consumer.ForkingGroup;
+import io.grpc.Attributes;
+import io.grpc.ConnectivityState;
+import io.grpc.ConnectivityStateInfo;
+import io.grpc.EquivalentAddressGroup;
+import io.grpc.LoadBalancer;
+import io.grpc.NameResolver;
+import io.grpc.Status;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static io.grpc.ConnectivityState.CONNECTING;
+import static io.grpc.ConnectivityState.IDLE;
+import static io.grpc.ConnectivityState.READY;
+import static io.grpc.ConnectivityState.SHUTDOWN;
+import static io.grpc.ConnectivityState.TRANSIENT_FAILURE;
+
+/**
+ * 基于subchannel池的负载均衡器
+ * <p>
+ * 与快照中的每个服务提供者都保持一个subchannel，“请求负载均衡”模式下由picker在每次调用时
+ * 按照负载均衡策略直接选出subchannel，不再需要每次调用都由NameResolver重新推送地址列表；
+ * “连接负载均衡”模式下使用NameResolver选定的服务提供者。
+ * </p>
+ *
+ * @author sxp
+ * @since 2020/3/5
+ */
+final class ProviderPoolLoadBalancer extends LoadBalancer {
+  private static final Logger logger = LoggerFactory.getLogger(ProviderPoolLoadBalancer.class);
+
+  /** 负载均衡策略名称 */
+  static final String POLICY_NAME = "orientsec_provider_pool";
+
+  /** 服务提供者快照 */
+  static final Attributes.Key<ProvidersSnapshot> ATTR_PROVIDERS_SNAPSHOT =
+          Attributes.Key.create("orientsec-providers-snapshot");
+
+  /** “连接负载均衡”模式下NameResolver选定的服务提供者在快照中的下标 */
+  static final Attributes.Key<Integer> ATTR_SELECTED_INDEX =
+          Attributes.Key.create("orientsec-selected-provider-index");
+
+  /** 对应的NameResolver */
+  static final Attributes.Key<NameResolver> ATTR_NAME_RESOLVER =
+          Attributes.Key.create("orientsec-name-resolver");
+
+  private static final Status NO_PROVIDER_STATUS =
+          Status.UNAVAILABLE.withDescription("没有可用的服务提供者");
+
+  private final Helper helper;
+
+  /** key值为服务提供者地址(只在SynchronizationContext中访问) */
+  private final Map<EquivalentAddressGroup, Subchannel> subchannels = new HashMap<>();
+  private final Map<Subchannel, ConnectivityStateInfo> subchannelStates = new HashMap<>();
+
+  /** 全路径方法名与方法名的对应关系，避免每次选择服务提供者时都截取字符串 */
+  private final ConcurrentHashMap<String, String> methodNames = new ConcurrentHashMap<>();
+
+  private ProvidersSnapshot snapshot = ProvidersSnapshot.EMPTY;
+  private NameResolver nameResolver;
+  private int selectedIndex = -1;
+  private ConnectivityState currentState;
+  private Status lastError = NO_PROVIDER_STATUS;
+
+  /** 连接模式下选中的服务提供者地址 */
+  private volatile EquivalentAddressGroup currentAddressGroup;
+
+  ProviderPoolLoadBalancer(Helper helper) {
+    this.helper = checkNotNull(helper, "helper");
+  }
+
+  @Override
+  public void handleResolvedAddressGroups(List<EquivalentAddressGroup> servers, Attributes attributes) {
+    ProvidersSnapshot newSnapshot = attributes.get(ATTR_PROVIDERS_SNAPSHOT);
+    if (newSnapshot == null) {
+      logger.warn("地址列表中缺少服务提供者快照，忽略本次更新");
+      return;
+    }
+
+    nameResolver = attributes.get(ATTR_NAME_RESOLVER);
+    Integer index = attributes.get(ATTR_SELECTED_INDEX);
+    selectedIndex = (index != null && index < newSnapshot.size()) ? index : -1;
+
+    if (newSnapshot != snapshot) {
+      updateSubchannels(newSnapshot);
+      snapshot = newSnapshot;
+    }
+
+    if (selectedIndex >= 0) {
+      currentAddressGroup = newSnapshot.getAddressGroup(selectedIndex);
+    }
+
+    updateBalancingState();
+  }
+
+  /**
+   * 为新增的服务提供者创建subchannel，关闭已经下线的服务提供者的subchannel
+   */
+  private void updateSubchannels(ProvidersSnapshot newSnapshot) {
+    Map<EquivalentAddressGroup, Subchannel> removed = new HashMap<>(subchannels);
+    EquivalentAddressGroup addressGroup;
+    Subchannel subchannel;
+
+    for (int i = 0; i < newSnapshot.size(); i++) {
+      addressGroup = newSnapshot.getAddressGroup(i);
+      if (removed.remove(addressGroup) != null) {
+        continue;
+      }
+
+      subchannel = helper.createSubchannel(addressGroup, Attributes.EMPTY);
+      subchannels.put(addressGroup, subchannel);
+      subchannelStates.put(subchannel, ConnectivityStateInfo.forNonError(IDLE));
+      subchannel.requestConnection();
+    }
+
+    for (Map.Entry<EquivalentAddressGroup, Subchannel> entry : removed.entrySet()) {
+      subchannels.remove(entry.getKey());
+      shutdownSubchannel(entry.getValue());
+    }
+  }
+
+  @Override
+  public void handleNameResolutionError(Status error) {
+    lastError = error;
+    if (currentState != READY) {
+      currentState = TRANSIENT_FAILURE;
+      helper.updateBalancingState(TRANSIENT_FAILURE, new ErrorPicker(error));
+    }
+  }
+
+  @Override
+  public void handleSubchannelState(Subchannel subchannel, ConnectivityStateInfo stateInfo) {
+    if (subchannels.get(subchannel.getAddresses()) != subchannel) {
+      return;
+    }
+    if (stateInfo.getState() == SHUTDOWN) {
+      return;
+    }
+    if (stateInfo.getState() == IDLE) {
+      subchannel.requestConnection();
+    }
+    if (stateInfo.getState() == TRANSIENT_FAILURE) {
+      lastError = stateInfo.getStatus();
+    }
+
+    subchannelStates.put(subchannel, stateInfo);
+    updateBalancingState();
+  }
+
+  /**
+   * 根据当前subchannel的状态生成新的picker
+   */
+  private void updateBalancingState() {
+    int size = snapshot.size();
+    if (size == 0) {
+      currentState = TRANSIENT_FAILURE;
+      helper.updateBalancingState(TRANSIENT_FAILURE, new ErrorPicker(lastError));
+      return;
+    }
+
+    Subchannel[] channels = new Subchannel[size];
+    boolean[] ready = new boolean[size];
+    boolean hasReady = false;
+    boolean allFailed = true;
+    ConnectivityStateInfo stateInfo;
+
+    for (int i = 0; i < size; i++) {
+      channels[i] = subchannels.get(snapshot.getAddressGroup(i));
+      stateInfo = subchannelStates.get(channels[i]);
+      ConnectivityState state = (stateInfo != null) ? stateInfo.getState() : IDLE;
+      ready[i] = (state == READY);
+      hasReady |= ready[i];
+      allFailed &= (state == TRANSIENT_FAILURE);
+    }
+
+    ConnectivityState state;
+    if (hasReady) {
+      state = READY;
+    } else if (allFailed) {
+      state = TRANSIENT_FAILURE;
+    } else {
+      state = CONNECTING;
+    }
+
+    currentState = state;
+    Status errorStatus = allFailed ? lastError : null;
+    helper.updateBalancingState(state, new Picker(this, snapshot, channels, ready, selectedIndex,
+            nameResolver, errorStatus));
+  }
+
+  @Override
+  public void shutdown() {
+    logger.info("正在关闭ProviderPoolLoadBalancer...");
+
+    for (Subchannel subchannel : subchannels.values()) {
+      subchannel.shutdown();
+    }
+    subchannels.clear();
+    subchannelStates.clear();
+  }
+
+  private void shutdownSubchannel(Subchannel subchannel) {
+    subchannelStates.remove(subchannel);
+    subchannel.shutdown();
+  }
+
+  @Override
+  public EquivalentAddressGroup getAddresses() {
+    return currentAddressGroup;
+  }
+
+  @Override
+  public void setAddress(EquivalentAddressGroup addressGroup) {
+    currentAddressGroup = addressGroup;
+  }
+
+  /**
+   * 删除客户端与离线服务端之间的无效subchannel
+   */
+  @Override
+  public void removeInvalidCacheSubchannels(Set<String> removeHostPorts) {
+    if (removeHostPorts == null || removeHostPorts.isEmpty()) {
+      return;
+    }
+
+    EquivalentAddressGroup server;
+    Subchannel subchannel;
+    boolean changed = false;
+
+    for (String hostAndPort : removeHostPorts) {
+      server = getAddressGroupByHostAndPort(hostAndPort);
+      if (server == null) {
+        continue;
+      }
+      subchannel = subchannels.remove(server);
+      if (subchannel != null) {
+        logger.info("关闭" + server + "subchannel");
+        shutdownSubchannel(subchannel);
+        changed = true;
+      }
+    }
+
+    if (changed) {
+      updateBalancingState();
+    }
+  }
+
+  /**
+   * 获取方法名(不含服务名)
+   */
+  String getMethodName(String fullMethodName) {
+    String method = methodNames.get(fullMethodName);
+    if (method == null) {
+      method = GrpcUtils.getSimpleMethodName(fullMethodName);
+      methodNames.putIfAbsent(fullMethodName, method);
+    }
+    return method;
+  }
+
+  /**
+   * 在subchannel池中按负载均衡策略选择服务提供者
+   */
+  private static final class Picker extends SubchannelPicker {
+    private final ProviderPoolLoadBalancer lb;
+    private final ProvidersSnapshot snapshot;
+    private final Subchannel[] subchannels;
+    private final boolean[] ready;
+    private final int selectedIndex;
+    private final NameResolver nameResolver;
+    private final String serviceName;
+    private final Status errorStatus;
+
+    Picker(ProviderPoolLoadBalancer lb, ProvidersSnapshot snapshot, Subchannel[] subchannels,
+           boolean[] ready, int selectedIndex, NameResolver nameResolver, Status errorStatus) {
+      this.lb = lb;
+      this.snapshot = snapshot;
+      this.subchannels = subchannels;
+      this.ready = ready;
+      this.selectedIndex = selectedIndex;
+      this.nameResolver = nameResolver;
+      this.serviceName = (nameResolver != null) ? nameResolver.getServiceName() : null;
+      this.errorStatus = errorStatus;
+    }
+
+    @Override
+    public PickResult pickSubchannel(PickSubchannelArgs args) {
+      int index = choose(args);
+      if (index < 0) {
+        return PickResult.withError(NO_PROVIDER_STATUS);
+      }
+
+      if (!ready[index]) {
+        if (subchannels[index] != null) {
+          subchannels[index].requestConnection();
+        }
+        index = nextReady(index);
+        if (index < 0) {
+          return (errorStatus != null) ? PickResult.withError(errorStatus) : PickResult.withNoResult();
+        }
+      }
+
+      ForkingGroup.Slot slot = args.getCallOptions().getOption(ForkingGroup.CALL_OPTIONS_KEY);
+      if (slot != null) {
+        index = claimDistinct(slot, index);
+      }
+
+      // 选中的服务提供者由调用自身记录(ClientCallImpl.getProviderId)，这里不写共享字段，避免多线程争用
+      return PickResult.withSubchannel(subchannels[index]);
+    }
+
+    private int choose(PickSubchannelArgs args) {
+      String method = lb.getMethodName(args.getMethodDescriptor().getFullMethodName());
+      String mode = LoadBalanceUtil.getLoadBalanceMode(nameResolver, method);
+
+      if (!LoadBalanceMode.request.name().equals(mode) && selectedIndex >= 0) {
+        return selectedIndex;
+      }
+
+      Map<String, GlobalConstants.LB_STRATEGY> strategyMap =
+              (nameResolver != null) ? nameResolver.getLoadBlanceStrategyMap() : null;
+      GlobalConstants.LB_STRATEGY lb = LoadBalanceUtil.getLoadBalanceStrategy(strategyMap, method);
+      Object argument = args.getCallOptions().getOption(ConsistentHashArguments.CALL_OPTIONS_KEY);
+
+      return LoadBalancerFactory.pickProviderIndex(lb, snapshot, serviceName, argument);
+    }
+
+    /**
+     * 选中的服务提供者尚未就绪时，按顺序找下一个就绪的服务提供者
+     */
+    private int nextReady(int index) {
+      int size = ready.length;
+      for (int i = 1; i < size; i++) {
+        int candidate = (index + i) % size;
+        if (ready[candidate]) {
+          return candidate;
+        }
+      }
+      return -1;
+    }
+
+    /**
+     * forking模式下从选中的服务提供者开始，按顺序找一个没有被同组其它调用占用的就绪服务提供者；
+     * 都已经被占用时仍然使用选中的服务提供者
+     */
+    private int claimDistinct(ForkingGroup.Slot slot, int index) {
+      int size = ready.length;
+      for (int i = 0; i < size; i++) {
+        int candidate = (index + i) % size;
+        if (ready[candidate] && slot.claim(snapshot.getAddressGroup(candidate))) {
+          return candidate;
+        }
+      }
+      return index;
+    }
+
+    @Override
+    public void requestConnection() {
+      for (int i = 0; i < subchannels.length; i++) {
+        if (!ready[i] && subchannels[i] != null) {
+          subchannels[i].requestConnection();
+        }
+      }
+    }
+  }
+
+  private static final class ErrorPicker extends SubchannelPicker {
+    private final PickResult result;
+
+    ErrorPicker(Status status) {
+      this.result = PickResult.withError(status);
+    }
+
+    @Override
+    public PickResult pickSubchannel(PickSubchannelArgs args) {
+      return result;
+    }
+  }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2019 Orient Securities Co., Ltd.
+ * Copyright 2019 BoCloud Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientsec.grpc.consumer.internal;
+
+import io.grpc.LoadBalancer;
+import io.grpc.LoadBalancerProvider;
+
+/**
+ * Provider for the "orientsec_provider_pool" balancing policy.
+ *
+ * @author sxp
+ * @since 2020/3/5
+ */
+public final class ProviderPoolLoadBalancerProvider extends LoadBalancerProvider {
+  @Override
+  public boolean isAvailable() {
+    return true;
+  }
+
+  @Override
+  public int getPriority() {
+    return 5;
+  }
+
+  @Override
+  public String getPolicyName() {
+    return ProviderPoolLoadBalancer.POLICY_NAME;
+  }
+
+  @Override
+  public LoadBalancer newLoadBalancer(LoadBalancer.Helper helper) {
+    return new ProviderPoolLoadBalancer(helper);
+  }
+}
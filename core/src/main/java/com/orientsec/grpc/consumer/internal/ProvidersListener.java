@@ -21,6 +21,7 @@ package com.orientsec.grpc.consumer.internal;
 import com.orientsec.grpc.common.util.MapUtils;
 import com.orientsec.grpc.consumer.model.ServiceProvider;
 import com.orientsec.grpc.consumer.watch.ConsumerListener;
+import com.orientsec.grpc.registry.IncrementalNotifyListener;
 import com.orientsec.grpc.registry.common.URL;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -33,8 +34,10 @@ import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * 客户端对服务提供者列表的监听
+ *
+ * @since 2020/3/11 modify by sxp 服务提供者列表没有变化时不再重建服务列表
  */
-public class ProvidersListener extends AbstractListener implements ConsumerListener {
+public class ProvidersListener extends AbstractListener implements ConsumerListener, IncrementalNotifyListener {
   private static final Logger logger = LoggerFactory.getLogger(ProvidersListener.class);
   private boolean initData;
   private boolean isProviderListEmpty = true;
@@ -51,6 +54,41 @@ public class ProvidersListener extends AbstractListener implements ConsumerListe
       logger.info("检测到已经连接上zookeeper");
     }
 
+    updateProviders(urls);
+
+    initData = false;
+  }
+
+  /**
+   * 注册中心推送的服务提供者列表与上一次相比没有变化时(例如合并窗口内服务提供者下线后又上线)，跳过服务列表的重建
+   * <p>
+   * 主备服务端、分组等规则需要根据全量列表计算，列表有变化时仍然全量重建。
+   * </p>
+   *
+   * @author sxp
+   * @since 2020/3/11
+   */
+  @Override
+  public void notify(List<URL> urls, List<URL> added, List<URL> removed) {
+    if (!initData && added.isEmpty() && removed.isEmpty()) {
+      logger.debug("{}的服务提供者列表没有变化", zookeeperNameResolver.getServiceName());
+      return;
+    }
+
+    notify(urls);
+  }
+
+  /**
+   * 使用注册中心本地缓存文件中的服务提供者列表，此时还没有连接上注册中心
+   *
+   * @author sxp
+   * @since 2020/3/11
+   */
+  public void notifyFromCache(List<URL> urls) {
+    updateProviders(urls);
+  }
+
+  private void updateProviders(List<URL> urls) {
     Map<String, ServiceProvider> newProviders = zookeeperNameResolver.getProvidersByUrls(urls);
     int newSize = newProviders.size();
 
@@ -65,16 +103,10 @@ public class ProvidersListener extends AbstractListener implements ConsumerListe
 
     dealOfflineProviders(newProviders);
 
-    Map<String, ServiceProvider> services = zookeeperNameResolver.getServiceProviderMap();
-
     Object lock = zookeeperNameResolver.getLock();
     synchronized (lock) {
-      if (services != null) {
-        services.clear();
-      } else {
-        services = new ConcurrentHashMap<String, ServiceProvider>();
-      }
-      services.putAll(newProviders);
+      // 使用新的map替换，不清空正在被负载均衡使用的旧数据
+      zookeeperNameResolver.setServiceProviderMap(new ConcurrentHashMap<String, ServiceProvider>(newProviders));
 
       // 服务列表变化后，重置providersForLoadBalance
       zookeeperNameResolver.setProvidersForLoadBalance(new ConcurrentHashMap<String, ServiceProvider>());
@@ -83,8 +115,6 @@ public class ProvidersListener extends AbstractListener implements ConsumerListe
 
     // 为了支持zk不可用时客户端也能正常启动，这个地方判断initData的限制去掉
     zookeeperNameResolver.resolveServerInfoWithLock();
-
-    initData = false;
   }
 
   /**
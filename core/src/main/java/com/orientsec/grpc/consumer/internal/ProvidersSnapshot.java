@@ -0,0 +1,433 @@
+/*
+ * Copyright 2019 Orient Securities Co., Ltd.
+ * Copyright 2019 BoCloud Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientsec.grpc.consumer.internal;
+
+import com.orientsec.grpc.common.util.MapUtils;
+import com.orientsec.grpc.consumer.lb.ConsistentHashLoadBalancer;
+import com.orientsec.grpc.consumer.lb.RoundRobinLoadBalancer;
+import com.orientsec.grpc.consumer.lb.WeightRoundRobinLoadBalancer;
+import com.orientsec.grpc.consumer.model.ServiceProvider;
+import com.orientsec.grpc.consumer.qos.CircuitBreaker;
+import com.orientsec.grpc.consumer.strategy.ConsistentHashRing;
+import com.orientsec.grpc.consumer.strategy.ProviderLoad;
+import com.orientsec.grpc.consumer.strategy.RoundRobin;
+import com.orientsec.grpc.consumer.strategy.WeightRoundRobin;
+import io.grpc.EquivalentAddressGroup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 参与负载均衡的服务提供者快照
+ * <p>
+ * 快照在服务列表、路由规则、配置信息发生变化时重新生成，生成之后不再修改。
+ * 服务提供者按照ip:port排序存放在数组中，并预先解析好每个服务提供者的{@link EquivalentAddressGroup}，
+ * 请求负载均衡模式下每次调用只需要选出一个下标，不需要再做域名解析和对象分配。
+ * </p>
+ *
+ * @author sxp
+ * @since 2020/3/2
+ */
+public final class ProvidersSnapshot {
+  private static final Logger logger = LoggerFactory.getLogger(ProvidersSnapshot.class);
+
+  /** 空快照 */
+  static final ProvidersSnapshot EMPTY = new ProvidersSnapshot(0L,
+          new String[0], new ServiceProvider[0], new EquivalentAddressGroup[0], new CircuitBreaker[0],
+          new ProviderLoad[0]);
+
+  private final long version;
+  private final String[] keys;
+  private final ServiceProvider[] providers;
+  private final EquivalentAddressGroup[] addressGroups;
+
+  /** 下标与数组一一对应，元素为服务提供者的熔断器，未启用熔断机制时元素为null */
+  private final CircuitBreaker[] circuitBreakers;
+
+  /** 下标与数组一一对应，元素为只包含一个服务提供者的地址列表 */
+  private final List<List<EquivalentAddressGroup>> servers;
+  private final List<EquivalentAddressGroup> allServers;
+
+  /** 下标与数组一一对应，元素为只包含一个服务提供者的map */
+  private final List<Map<String, ServiceProvider>> singletonMaps;
+
+  private final Map<String, Integer> indexes;
+  private final Map<String, ServiceProvider> providerMap;
+
+  /** 轮询选择器，第一次使用时创建 */
+  private volatile RoundRobin roundRobin;
+
+  /** 加权轮询调度表，第一次使用时创建 */
+  private volatile WeightRoundRobin weightRoundRobin;
+
+  /** 一致性Hash环，第一次使用时创建 */
+  private volatile ConsistentHashRing consistentHashRing;
+
+  /** 下标与数组一一对应，元素为服务提供者的负载 */
+  private final ProviderLoad[] providerLoads;
+
+  private ProvidersSnapshot(long version, String[] keys, ServiceProvider[] providers,
+                            EquivalentAddressGroup[] addressGroups, CircuitBreaker[] circuitBreakers,
+                            ProviderLoad[] providerLoads) {
+    int size = keys.length;
+
+    this.version = version;
+    this.keys = keys;
+    this.providers = providers;
+    this.addressGroups = addressGroups;
+    this.circuitBreakers = circuitBreakers;
+    this.providerLoads = providerLoads;
+
+    List<List<EquivalentAddressGroup>> servers = new ArrayList<>(size);
+    List<Map<String, ServiceProvider>> singletonMaps = new ArrayList<>(size);
+    Map<String, Integer> indexes = new HashMap<>(MapUtils.capacity(size));
+    Map<String, ServiceProvider> providerMap = new LinkedHashMap<>(MapUtils.capacity(size));
+
+    for (int i = 0; i < size; i++) {
+      servers.add(Collections.singletonList(addressGroups[i]));
+      singletonMaps.add(Collections.singletonMap(keys[i], providers[i]));
+      indexes.put(keys[i], i);
+      providerMap.put(keys[i], providers[i]);
+    }
+
+    this.servers = Collections.unmodifiableList(servers);
+    this.allServers = Collections.unmodifiableList(Arrays.asList(addressGroups));
+    this.singletonMaps = Collections.unmodifiableList(singletonMaps);
+    this.indexes = indexes;
+    this.providerMap = Collections.unmodifiableMap(providerMap);
+  }
+
+  /**
+   * 根据服务提供者列表生成快照
+   * <p>
+   * 无法解析IP地址的服务提供者不会放入快照中。
+   * </p>
+   *
+   * @param version 快照版本号，每次重新生成快照时递增
+   * @param providerMap key值为ip:port
+   */
+  static ProvidersSnapshot create(long version, Map<String, ServiceProvider> providerMap) {
+    return create(version, providerMap, null);
+  }
+
+  /**
+   * 根据服务提供者列表生成快照
+   * <p>
+   * 无法解析IP地址的服务提供者不会放入快照中。
+   * </p>
+   *
+   * @param version 快照版本号，每次重新生成快照时递增
+   * @param providerMap key值为ip:port
+   * @param breakers 各服务提供者的熔断器，key值为ip:port，可以为null
+   * @author sxp
+   * @since 2020/3/11
+   */
+  static ProvidersSnapshot create(long version, Map<String, ServiceProvider> providerMap,
+                                  Map<String, CircuitBreaker> breakers) {
+    return create(version, providerMap, breakers, null);
+  }
+
+  /**
+   * 根据服务提供者列表生成快照，上一个快照中已经解析过的服务提供者直接复用其地址，不再做域名解析
+   * <p>
+   * 容错策略剔除服务提供者时只是过滤服务列表，复用地址可以避免在请求出错的处理过程中做域名解析。
+   * </p>
+   *
+   * @param version 快照版本号，每次重新生成快照时递增
+   * @param providerMap key值为ip:port
+   * @param breakers 各服务提供者的熔断器，key值为ip:port，可以为null
+   * @param previous 上一个快照，可以为null
+   * @author sxp
+   * @since 2020/3/11
+   */
+  static ProvidersSnapshot create(long version, Map<String, ServiceProvider> providerMap,
+                                  Map<String, CircuitBreaker> breakers, ProvidersSnapshot previous) {
+    return create(version, providerMap, breakers, null, previous);
+  }
+
+  /**
+   * 根据服务提供者列表生成快照，上一个快照中已经解析过的服务提供者直接复用其地址，不再做域名解析
+   * <p>
+   * 调用记录器(包含负载对象)由nameResolver按照ip:port保存，服务提供者被容错策略剔除后再放回时依然使用原来的负载对象。
+   * </p>
+   *
+   * @param version 快照版本号，每次重新生成快照时递增
+   * @param providerMap key值为ip:port
+   * @param breakers 各服务提供者的熔断器，key值为ip:port，可以为null
+   * @param recorders 各服务提供者的调用记录器，key值为ip:port，可以为null
+   * @param previous 上一个快照，可以为null
+   * @author sxp
+   * @since 2020/3/11
+   */
+  static ProvidersSnapshot create(long version, Map<String, ServiceProvider> providerMap,
+                                  Map<String, CircuitBreaker> breakers, Map<String, ProviderCallRecorder> recorders,
+                                  ProvidersSnapshot previous) {
+    if (providerMap == null || providerMap.isEmpty()) {
+      return new ProvidersSnapshot(version, new String[0], new ServiceProvider[0],
+              new EquivalentAddressGroup[0], new CircuitBreaker[0], new ProviderLoad[0]);
+    }
+
+    Map<String, ServiceProvider> copy = new HashMap<>(providerMap);
+    String[] sortedKeys = copy.keySet().toArray(new String[0]);
+    Arrays.sort(sortedKeys);
+
+    int size = sortedKeys.length;
+    List<String> keys = new ArrayList<>(size);
+    List<ServiceProvider> providers = new ArrayList<>(size);
+    List<EquivalentAddressGroup> addressGroups = new ArrayList<>(size);
+
+    ServiceProvider provider;
+    InetAddress inetAddr;
+
+    for (String key : sortedKeys) {
+      provider = copy.get(key);
+      if (provider == null) {
+        continue;
+      }
+
+      EquivalentAddressGroup addressGroup = (previous != null) ? previous.findAddressGroup(key, provider) : null;
+      if (addressGroup == null) {
+        try {
+          inetAddr = InetAddress.getByName(provider.getHost());
+        } catch (UnknownHostException e) {
+          logger.error("解析服务提供者IP地址出错", e);
+          continue;
+        }
+        addressGroup = new EquivalentAddressGroup(new InetSocketAddress(inetAddr, provider.getPort()));
+      }
+
+      keys.add(key);
+      providers.add(provider);
+      addressGroups.add(addressGroup);
+    }
+
+    size = keys.size();
+    CircuitBreaker[] circuitBreakers = new CircuitBreaker[size];
+    if (breakers != null && !breakers.isEmpty()) {
+      for (int i = 0; i < size; i++) {
+        circuitBreakers[i] = breakers.get(keys.get(i));
+      }
+    }
+
+    ProviderLoad[] providerLoads = new ProviderLoad[size];
+    ProviderCallRecorder recorder;
+    for (int i = 0; i < size; i++) {
+      recorder = (recorders != null) ? recorders.get(keys.get(i)) : null;
+      providerLoads[i] = (recorder != null) ? recorder.getLoad() : new ProviderLoad();
+    }
+
+    return new ProvidersSnapshot(version, keys.toArray(new String[size]),
+            providers.toArray(new ServiceProvider[size]),
+            addressGroups.toArray(new EquivalentAddressGroup[size]), circuitBreakers, providerLoads);
+  }
+
+  /**
+   * 查找快照中同一个服务提供者(主机和端口都相同)已经解析好的地址，不存在时返回null
+   */
+  private EquivalentAddressGroup findAddressGroup(String key, ServiceProvider provider) {
+    Integer index = indexes.get(key);
+    if (index == null) {
+      return null;
+    }
+
+    ServiceProvider old = providers[index];
+    if (old.getPort() != provider.getPort() || !String.valueOf(old.getHost()).equals(provider.getHost())) {
+      return null;
+    }
+    return addressGroups[index];
+  }
+
+  public long getVersion() {
+    return version;
+  }
+
+  public int size() {
+    return keys.length;
+  }
+
+  public boolean isEmpty() {
+    return keys.length == 0;
+  }
+
+  /**
+   * 获取服务提供者的ip:port
+   */
+  public String getKey(int index) {
+    return keys[index];
+  }
+
+  /**
+   * 按照ip:port排序的服务提供者的ip:port数组
+   * <p>
+   * 返回的是内部数组，调用方不能修改
+   * </p>
+   */
+  public String[] getKeys() {
+    return keys;
+  }
+
+  public ServiceProvider getProvider(int index) {
+    return providers[index];
+  }
+
+  /**
+   * 按照ip:port排序的服务提供者数组
+   * <p>
+   * 返回的是内部数组，调用方不能修改
+   * </p>
+   */
+  public ServiceProvider[] getProviders() {
+    return providers;
+  }
+
+  public EquivalentAddressGroup getAddressGroup(int index) {
+    return addressGroups[index];
+  }
+
+  /**
+   * 获取服务提供者的熔断器，快照生成时还没有熔断器的服务提供者返回null
+   */
+  public CircuitBreaker getCircuitBreaker(int index) {
+    return circuitBreakers[index];
+  }
+
+  /**
+   * 只包含指定服务提供者的地址列表(预先生成，不可修改)
+   */
+  public List<EquivalentAddressGroup> getServers(int index) {
+    return servers.get(index);
+  }
+
+  /**
+   * 快照中所有服务提供者的地址列表(不可修改)
+   */
+  public List<EquivalentAddressGroup> getAllServers() {
+    return allServers;
+  }
+
+  /**
+   * 只包含指定服务提供者的map(预先生成，不可修改)
+   */
+  public Map<String, ServiceProvider> getSingletonMap(int index) {
+    return singletonMaps.get(index);
+  }
+
+  /**
+   * 快照中所有服务提供者组成的map(不可修改)
+   */
+  public Map<String, ServiceProvider> getProviderMap() {
+    return providerMap;
+  }
+
+  /**
+   * 获取轮询选择器
+   * <p>
+   * 选择器与快照的生命周期相同，快照重新生成时才会重新创建
+   * </p>
+   */
+  public RoundRobin getRoundRobin() {
+    RoundRobin rr = roundRobin;
+    if (rr == null) {
+      synchronized (this) {
+        rr = roundRobin;
+        if (rr == null) {
+          rr = RoundRobinLoadBalancer.newRoundRobin(version, providers);
+          roundRobin = rr;
+        }
+      }
+    }
+    return rr;
+  }
+
+  /**
+   * 获取加权轮询调度表
+   * <p>
+   * 调度表与快照的生命周期相同，快照重新生成时才会重新创建
+   * </p>
+   */
+  public WeightRoundRobin getWeightRoundRobin() {
+    WeightRoundRobin wrr = weightRoundRobin;
+    if (wrr == null) {
+      synchronized (this) {
+        wrr = weightRoundRobin;
+        if (wrr == null) {
+          wrr = WeightRoundRobinLoadBalancer.newWeightRoundRobin(version, providers);
+          weightRoundRobin = wrr;
+        }
+      }
+    }
+    return wrr;
+  }
+
+  /**
+   * 获取一致性Hash环
+   * <p>
+   * Hash环与快照的生命周期相同，快照重新生成时才会重新创建
+   * </p>
+   */
+  public ConsistentHashRing getConsistentHashRing() {
+    ConsistentHashRing ring = consistentHashRing;
+    if (ring == null) {
+      synchronized (this) {
+        ring = consistentHashRing;
+        if (ring == null) {
+          ring = ConsistentHashLoadBalancer.newConsistentHashRing(version, keys);
+          consistentHashRing = ring;
+        }
+      }
+    }
+    return ring;
+  }
+
+  /**
+   * 获取各服务提供者的负载
+   * <p>
+   * 负载对象由nameResolver按照ip:port保存，快照重新生成后依然保留原来的统计值
+   * </p>
+   */
+  public ProviderLoad[] getProviderLoads() {
+    return providerLoads;
+  }
+
+  /**
+   * 获取服务提供者在快照中的下标，不存在时返回-1
+   *
+   * @param key ip:port
+   */
+  public int indexOf(String key) {
+    if (key == null) {
+      return -1;
+    }
+    Integer index = indexes.get(key);
+    return (index != null) ? index : -1;
+  }
+
+  @Override
+  public String toString() {
+    return "ProvidersSnapshot{version=" + version + ", providers=" + Arrays.toString(keys) + "}";
+  }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2019 Orient Securities Co., Ltd.
+ * Copyright 2019 BoCloud Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientsec.grpc.consumer.internal;
+
+import com.orientsec.grpc.common.constant.GlobalConstants;
+import com.orientsec.grpc.common.resource.SystemConfig;
+import com.orientsec.grpc.common.util.PropertiesUtils;
+import io.grpc.internal.GrpcUtil;
+import io.grpc.internal.SharedResourceHolder.Resource;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+
+import static com.orientsec.grpc.common.constant.RegistryConstants.CLIENT_REGISTRY_THREAD_NAME;
+
+/**
+ * 客户端注册相关的共享线程池
+ * <p>
+ * 所有客户端的注册、查询注册中心、定时重新查找注册中心等任务共享一个线程数固定的守护线程池，
+ * 通过{@link io.grpc.internal.SharedResourceHolder}管理，最后一个使用者释放后自动关闭。
+ * 创建大量客户端时注册任务并行执行，线程数不会随客户端个数增长。
+ * </p>
+ *
+ * @author sxp
+ * @since 2020/3/11
+ */
+public final class RegistryExecutors {
+  private static final int DEFAULT_THREADS = 4;
+
+  private RegistryExecutors() {
+  }
+
+  /**
+   * 注册、查询注册中心使用的线程池，同时可以执行定时任务
+   */
+  public static final Resource<ScheduledExecutorService> SHARED_REGISTRY_EXECUTOR =
+          new Resource<ScheduledExecutorService>() {
+            @Override
+            public ScheduledExecutorService create() {
+              ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(getThreads(),
+                      GrpcUtil.getThreadFactory(CLIENT_REGISTRY_THREAD_NAME + "-%d", true));
+              // 取消的定时任务立即从队列中删除
+              executor.setRemoveOnCancelPolicy(true);
+              return executor;
+            }
+
+            @Override
+            public void close(ScheduledExecutorService instance) {
+              instance.shutdown();
+            }
+
+            @Override
+            public String toString() {
+              return CLIENT_REGISTRY_THREAD_NAME;
+            }
+          };
+
+  private static int getThreads() {
+    int threads = PropertiesUtils.getValidIntegerValue(SystemConfig.getProperties(),
+            GlobalConstants.Consumer.Key.REGISTRY_THREADS, DEFAULT_THREADS);
+    return (threads > 0) ? threads : DEFAULT_THREADS;
+  }
+}
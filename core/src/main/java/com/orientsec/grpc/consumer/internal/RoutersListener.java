@@ -63,11 +63,11 @@ public class RoutersListener extends  AbstractListener implements ConsumerListen
     Object lock = getZookeeperNameResolver().getLock();
     synchronized (lock) {
       zookeeperNameResolver.getAllByName(serviceName);
-    }
 
-    // 路由规则变化后，重置providersForLoadBalance
-    getZookeeperNameResolver().setProvidersForLoadBalance(new ConcurrentHashMap<String, ServiceProvider>());
-    getZookeeperNameResolver().setProvidersForLoadBalanceFlag(0);
+      // 路由规则变化后，重置providersForLoadBalance(需要与生成快照互斥)
+      getZookeeperNameResolver().setProvidersForLoadBalance(new ConcurrentHashMap<String, ServiceProvider>());
+      getZookeeperNameResolver().setProvidersForLoadBalanceFlag(0);
+    }
 
     //第一次调用时(订阅时)不刷新providers缓存
     if (!initData){
@@ -28,33 +28,42 @@ import com.orientsec.grpc.common.util.ConfigFileHelper;
 import com.orientsec.grpc.common.util.IpUtils;
 import com.orientsec.grpc.common.util.LoadBalanceUtil;
 import com.orientsec.grpc.common.util.MapUtils;
+import com.orientsec.grpc.common.util.PropertiesUtils;
 import com.orientsec.grpc.common.util.StringUtils;
 import com.orientsec.grpc.common.util.ThreadUtils;
 import com.orientsec.grpc.consumer.FailoverUtils;
+import com.orientsec.grpc.consumer.OutlierDetectionUtils;
 import com.orientsec.grpc.consumer.check.CheckDeprecatedService;
 import com.orientsec.grpc.consumer.core.ConsumerServiceRegistry;
 import com.orientsec.grpc.consumer.model.ServiceProvider;
+import com.orientsec.grpc.consumer.qos.CircuitBreaker;
+import com.orientsec.grpc.consumer.qos.OutlierDetector;
 import com.orientsec.grpc.consumer.routers.Router;
+import com.orientsec.grpc.consumer.strategy.ProviderLoad;
+import com.orientsec.grpc.registry.common.Constants;
 import com.orientsec.grpc.registry.common.URL;
 import com.orientsec.grpc.registry.common.utils.CollectionUtils;
 import com.orientsec.grpc.registry.common.utils.UrlUtils;
 import com.orientsec.grpc.registry.service.Consumer;
+import com.orientsec.grpc.registry.support.AbstractRegistry;
 import io.grpc.Attributes;
 import io.grpc.EquivalentAddressGroup;
 import io.grpc.ManagedChannel;
 import io.grpc.NameResolver;
 import io.grpc.Status;
+import io.grpc.internal.GrpcAttributes;
 import io.grpc.internal.SharedResourceHolder;
 import io.grpc.internal.SharedResourceHolder.Resource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.concurrent.GuardedBy;
-import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.net.SocketAddress;
 import java.net.URI;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -63,7 +72,6 @@ import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
-import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
@@ -108,9 +116,46 @@ public class ZookeeperNameResolver extends NameResolver {
 
   // 配置文件中指定的服务提供者
   private Set<ServiceProvider> configFileProviders = new ConcurrentHashSet<>();
-  private Map<String, ServiceProvider> serviceProviderMap = new ConcurrentHashMap<String, ServiceProvider>();
-  private Map<String, ServiceProvider> providersForLoadBalance = new ConcurrentHashMap<String, ServiceProvider>();
+  private volatile Map<String, ServiceProvider> serviceProviderMap = new ConcurrentHashMap<String, ServiceProvider>();
+  private volatile Map<String, ServiceProvider> providersForLoadBalance = new ConcurrentHashMap<String, ServiceProvider>();
   private volatile int providersForLoadBalanceFlag = 0;
+
+  // 负载均衡选中的服务提供者(只有一条数据或者为空)，与serviceProviderMap分开保存，不可修改
+  private volatile Map<String, ServiceProvider> selectedProviderMap = Collections.emptyMap();
+
+  // providersForLoadBalance对应的快照，请求负载均衡模式下直接从快照中选取服务提供者
+  private volatile ProvidersSnapshot providersSnapshot = ProvidersSnapshot.EMPTY;
+  @GuardedBy("lock")
+  private long providersSnapshotVersion = 0L;
+
+  // 各服务提供者的熔断器，key值为ip:port
+  private final ConcurrentHashMap<String, CircuitBreaker> circuitBreakers = new ConcurrentHashMap<>();
+
+  // 各服务提供者的调用记录器(负载、熔断器、连续失败次数)，key值为ip:port；服务提供者被容错策略剔除后依然保留，从注册中心下线后才删除
+  private final ConcurrentHashMap<String, ProviderCallRecorder> callRecorders = new ConcurrentHashMap<>();
+
+  // 异常点检测，未启用时为null
+  private final OutlierDetector outlierDetector = OutlierDetectionUtils.isEnabled()
+          ? OutlierDetectionUtils.newDetector() : null;
+  private ScheduledFuture<?> outlierDetectionFuture;
+  private final Runnable outlierDetectionTask = new Runnable() {
+    @Override
+    public void run() {
+      try {
+        OutlierDetectionUtils.detect(ZookeeperNameResolver.this, outlierDetector);
+      } catch (Throwable t) {
+        logger.error("异常点检测出错", t);
+      }
+    }
+  };
+
+  /** 是否启用subchannel池 */
+  private final boolean providerPoolEnabled = PropertiesUtils.getValidBooleanValue(
+          SystemConfig.getProperties(), GlobalConstants.Consumer.Key.LOADBALANCE_POOL_ENABLED, false);
+
+  /** subchannel池使用的service config */
+  private static final Map<String, Object> PROVIDER_POOL_SERVICE_CONFIG = Collections.<String, Object>singletonMap(
+          "loadBalancingPolicy", ProviderPoolLoadBalancer.POLICY_NAME);
   private volatile int providersCountAfterLoadBalance = Integer.MAX_VALUE;// 经过负载均衡算法之后的服务提供者个数
 
   private volatile Map<String, LB_STRATEGY> loadBlanceStrategyMap = null;
@@ -130,7 +175,9 @@ public class ZookeeperNameResolver extends NameResolver {
   /** 是否手工指定了服务端地址列表 */
   private volatile boolean hasServiveServerList = false;
 
-  private volatile ScheduledExecutorService findZkExecutor = Executors.newScheduledThreadPool(1);;
+  // 查找服务端所在的注册中心的定时任务使用所有客户端共享的注册线程池，需要时才获取
+  @GuardedBy("this")
+  private ScheduledExecutorService findZkExecutor;
   private volatile ScheduledFuture<?> findZkFuture;
   private final Runnable findZkTask = new Runnable() {
     @Override
@@ -171,8 +218,14 @@ public class ZookeeperNameResolver extends NameResolver {
     }
   }
 
+  /**
+   * 获取负载均衡之后的服务器列表(只有一条数据)
+   *
+   * @since 2020/3/11 modify by sxp 负载均衡的结果单独保存，不再覆盖serviceProviderMap
+   */
+  @Override
   public Map<String, ServiceProvider> getServiceProviderMap() {
-    return serviceProviderMap;
+    return selectedProviderMap;
   }
 
   public void setServiceProviderMap(Map<String, ServiceProvider> serviceProviderMap) {
@@ -202,7 +255,7 @@ public class ZookeeperNameResolver extends NameResolver {
       zkUrl = findProviderZk();
       if (zkUrl == null) {
         logger.warn(cannotFindZkMsg);
-        findZkFuture = findZkExecutor.schedule(findZkTask, FIND_DELAY, TimeUnit.SECONDS);
+        scheduleFindZk();
 
         // 暂时将客户端注册到公共注册中心
         zkUrl = UrlUtils.getRegisterURL(key);
@@ -270,7 +323,7 @@ public class ZookeeperNameResolver extends NameResolver {
 
     if (zkUrl == null) {
       logger.warn(cannotFindZkMsg);
-      findZkFuture = findZkExecutor.schedule(findZkTask, FIND_DELAY, TimeUnit.SECONDS);
+      scheduleFindZk();
     } else {
       if (!zkUrl.equals(zkRegistryURL)) {
         // 注销客户端注册信息
@@ -289,7 +342,30 @@ public class ZookeeperNameResolver extends NameResolver {
     }
   }
 
+  /**
+   * 延迟一段时间后再次查找服务端所在的注册中心
+   *
+   * @author sxp
+   * @since 2020/3/11
+   */
+  private synchronized void scheduleFindZk() {
+    if (shutdown) {
+      return;
+    }
+    if (findZkExecutor == null) {
+      findZkExecutor = SharedResourceHolder.get(RegistryExecutors.SHARED_REGISTRY_EXECUTOR);
+    }
+    findZkFuture = findZkExecutor.schedule(findZkTask, FIND_DELAY, TimeUnit.SECONDS);
+  }
+
   public void registry() {
+    synchronized (this) {
+      if (shutdown) {
+        // 通道已关闭（已注销），不再注册
+        return;
+      }
+    }
+
     if (hasServiveServerList) {
       // 手工指定服务端地址列表后，忽略注册中心
 
@@ -313,6 +389,9 @@ public class ZookeeperNameResolver extends NameResolver {
       routersListener.init(this, this.registry);
       configuratorsListener.init(this, this.registry);
 
+      // 先使用本地缓存文件中的服务提供者列表，不需要等待连接上注册中心
+      loadProvidersFromCache();
+
       Map<String, Object> params = new ConcurrentHashMap<String, Object>();
       params.put(GlobalConstants.Consumer.Key.INTERFACE, serviceName);
       params.put(GlobalConstants.Consumer.Key.CONSUMER_GROUP_KEY, invokeGroup);
@@ -328,6 +407,13 @@ public class ZookeeperNameResolver extends NameResolver {
       }
 
       hasInitProvidersData = true;
+
+      synchronized (this) {
+        if (shutdown) {
+          // 注册过程中通道被关闭，shutdown中的注销可能早于注册完成，这里再注销一次(注销可重复执行)
+          unRegistry();
+        }
+      }
     }
   }
 
@@ -445,6 +531,33 @@ public class ZookeeperNameResolver extends NameResolver {
   }
 
 
+  /**
+   * 从注册中心的本地缓存文件中加载服务提供者列表
+   * <p>
+   * 连接上注册中心后，注册中心推送的数据会覆盖缓存的数据；路由规则、配置信息依赖注册中心，等连接上注册中心后再处理。
+   * </p>
+   *
+   * @author sxp
+   * @since 2020/3/11
+   */
+  private void loadProvidersFromCache() {
+    List<URL> providerUrls = new ArrayList<>();
+    for (URL url : AbstractRegistry.getCachedUrls(zkRegistryURL, RegistryConstants.CONSUMER_SIDE, serviceName,
+            RegistryConstants.PROVIDERS_CATEGORY)) {
+      if (!Constants.EMPTY_PROTOCOL.equals(url.getProtocol())) {
+        providerUrls.add(url);
+      }
+    }
+
+    if (providerUrls.isEmpty()) {
+      return;
+    }
+
+    logger.info("服务[" + serviceName + "]先使用本地缓存文件中的服务提供者列表，个数为" + providerUrls.size());
+    providersListener.notifyFromCache(providerUrls);
+    hasInitProvidersData = true;
+  }
+
   public void unRegistry() {
     if (registry != null && subscribeId != null && subscribeId.length() > 0) {
       // 删除与当前客户端相关的数据(服务调用出错次数、时间、当前客户端对应的服务提供者列表)
@@ -462,6 +575,12 @@ public class ZookeeperNameResolver extends NameResolver {
     executor = SharedResourceHolder.get(executorResource);
     this.listener = Preconditions.checkNotNull(listener, "listener");
     resolve();
+
+    if (outlierDetector != null) {
+      long interval = OutlierDetectionUtils.getIntervalMillis();
+      outlierDetectionFuture = timerService.scheduleWithFixedDelay(outlierDetectionTask,
+              interval, interval, TimeUnit.MILLISECONDS);
+    }
   }
 
   @Override
@@ -479,10 +598,10 @@ public class ZookeeperNameResolver extends NameResolver {
   /**
    * 黑白名单、负载均衡等过滤、选择算法过在此处调用
    */
-  private void applyFilter() {
+  private int applyFilter() {
     applyRoute();
     generateProvidersForLB();
-    loadBalancer(null);
+    return loadBalancer(providersSnapshot, null, null);
   }
 
   /**
@@ -619,14 +738,97 @@ public class ZookeeperNameResolver extends NameResolver {
   }
 
   /**
-   * 将serviceProviderMap的数据拷贝至一个providersForLoadBalance存储起来
+   * 将serviceProviderMap的数据拷贝至一个providersForLoadBalance存储起来，并重新生成快照
+   *
+   * @return 是否重新生成了快照
+   * @since 2020/3/2 modify by sxp 拷贝的同时生成快照，并加锁防止多个请求线程重复拷贝
    */
-  private void generateProvidersForLB() {
+  private boolean generateProvidersForLB() {
     if (providersForLoadBalanceFlag != 0) {
-      return;
+      return false;
+    }
+
+    synchronized (lock) {
+      if (providersForLoadBalanceFlag != 0) {
+        return false;
+      }
+      MapUtils.mapCopy(serviceProviderMap, providersForLoadBalance);
+      doRebuildProvidersSnapshot();
+      providersForLoadBalanceFlag = 1;
+    }
+
+    return true;
+  }
+
+  /**
+   * 根据providersForLoadBalance重新生成快照
+   * <p>
+   * 容错策略直接修改providersForLoadBalance、配置信息修改服务提供者属性之后都需要调用该方法
+   * </p>
+   *
+   * @author sxp
+   * @since 2020/3/2
+   */
+  public void rebuildProvidersSnapshot() {
+    doRebuildProvidersSnapshot();
+
+    Listener savedListener = listener;
+    if (providerPoolEnabled && savedListener != null && !shutdown) {
+      synchronized (lock) {
+        ProvidersSnapshot snapshot = providersSnapshot;
+        int index = loadBalancer(snapshot, null, null);
+        if (index >= 0) {
+          notifyListener(savedListener, snapshot, index);
+        }
+      }
+    }
+  }
+
+  private void doRebuildProvidersSnapshot() {
+    synchronized (lock) {
+      // 已经下线的服务提供者不再保留熔断器
+      if (!circuitBreakers.isEmpty()) {
+        circuitBreakers.keySet().retainAll(allProviders.keySet());
+      }
+
+      // 已经下线的服务提供者不再保留调用记录器
+      if (!callRecorders.isEmpty()) {
+        callRecorders.keySet().retainAll(allProviders.keySet());
+      }
+      for (String providerId : providersForLoadBalance.keySet()) {
+        if (!callRecorders.containsKey(providerId)) {
+          callRecorders.putIfAbsent(providerId,
+                  new ProviderCallRecorder(providerId, new ProviderLoad(), getCircuitBreaker(providerId)));
+        }
+      }
+
+      // 复用当前快照中已经解析好的地址，容错策略频繁剔除服务提供者时不需要重复做域名解析
+      ProvidersSnapshot snapshot = ProvidersSnapshot.create(++providersSnapshotVersion, providersForLoadBalance,
+              circuitBreakers, callRecorders, providersSnapshot);
+
+      //----begin----判定是否打印告警日志、提示服务已经有新版本上线----
+
+      for (int i = 0; i < snapshot.size(); i++) {
+        if (snapshot.getProvider(i).isDeprecated()) {
+          CheckDeprecatedService.check(snapshot.getSingletonMap(i));
+          break;
+        }
+      }
+
+      //----end----判定是否打印告警日志、提示服务已经有新版本上线----
+
+      providersSnapshot = snapshot;
     }
-    providersForLoadBalanceFlag = 1;
-    MapUtils.mapCopy(serviceProviderMap, providersForLoadBalance);
+  }
+
+  /**
+   * 获取参与负载均衡的服务提供者快照
+   *
+   * @author sxp
+   * @since 2020/3/2
+   */
+  public ProvidersSnapshot getProvidersSnapshot() {
+    return providersSnapshot;
   }
 
   private final Runnable resolutionRunnable = new Runnable() {
@@ -656,9 +858,19 @@ public class ZookeeperNameResolver extends NameResolver {
    */
   public void reCalculateProvidersCountAfterLoadBalance(String method) {
     if (serviceProviderMap != null) {
-      generateProvidersForLB();// 不需要每次请求时都调用路由规则过滤服务端列表
-      loadBalancer(method);
-      providersCountAfterLoadBalance = serviceProviderMap.size();
+      // 不需要每次请求时都调用路由规则过滤服务端列表
+      if (!generateProvidersForLB()) {
+        doRebuildProvidersSnapshot();// 容错策略修改了providersForLoadBalance
+      }
+      ProvidersSnapshot snapshot = providersSnapshot;
+      int index = loadBalancer(snapshot, method, null);
+      providersCountAfterLoadBalance = (index >= 0) ? 1 : 0;
+
+      // subchannel池需要及时拿到容错策略修改后的服务列表
+      Listener savedListener = listener;
+      if (providerPoolEnabled && index >= 0 && savedListener != null) {
+        notifyListener(savedListener, snapshot, index);
+      }
     } else {
       providersCountAfterLoadBalance = 0;
     }
@@ -697,6 +909,7 @@ public class ZookeeperNameResolver extends NameResolver {
 
     try {
       boolean inBlackList = false;
+      int index;
 
       try {
         if (!hasInitProvidersData) {
@@ -712,15 +925,10 @@ public class ZookeeperNameResolver extends NameResolver {
         }
 
         // 应用过滤器
-        applyFilter();
+        index = applyFilter();
+        providersCountAfterLoadBalance = (index >= 0) ? 1 : 0;
 
-        if (serviceProviderMap != null) {
-          providersCountAfterLoadBalance = serviceProviderMap.size();
-        } else {
-          providersCountAfterLoadBalance = 0;
-        }
-
-        if (serviceProviderMap == null || providersCountAfterLoadBalance == 0) {
+        if (providersCountAfterLoadBalance == 0) {
           inBlackList = true;
           String msg = "注册中心上存在服务名称为[" + serviceName + "]的服务，但是当前客户端处于黑名单中，或者该服务未对当前客户端开放权限！";
           throw new UnknownHostException(msg);
@@ -739,30 +947,8 @@ public class ZookeeperNameResolver extends NameResolver {
         return;
       }
 
-      //----begin----判定是否打印告警日志、提示服务已经有新版本上线----
-
-      CheckDeprecatedService.check(serviceProviderMap);
-
-      //----end----判定是否打印告警日志、提示服务已经有新版本上线----
-
-      List<EquivalentAddressGroup> servers = new ArrayList<>();
-      InetAddress inetAddr;
-      InetSocketAddress inetSocketAddr;
-
-      for (Map.Entry<String, ServiceProvider> entry : serviceProviderMap.entrySet()) {
-        try {
-          inetAddr = InetAddress.getByName(entry.getValue().getHost());
-          inetSocketAddr = new InetSocketAddress(inetAddr, entry.getValue().getPort());
-          servers.add(new EquivalentAddressGroup(inetSocketAddr));
-        } catch (UnknownHostException e) {
-          logger.error("解析服务提供者IP地址出错", e);
-          // 应用过滤器之后，这里只剩下一个服务提供者了，所以出错后直接返回
-          savedListener.onError(Status.UNAVAILABLE.withCause(e));
-          return;
-        }
-      }
-
-      savedListener.onAddresses(servers, Attributes.EMPTY);
+      // 地址已在生成快照时解析好
+      notifyListener(savedListener, providersSnapshot, index);
     } finally {
       resolving = false;
     }
@@ -801,8 +987,8 @@ public class ZookeeperNameResolver extends NameResolver {
   public void getAllByName(String serviceName) {
     if (hasServiveServerList) {
       // 手工指定服务端地址列表后，忽略注册中心
-      // 但是由于容错策略的存在，这个缓存可能为空，这个时候需要重新生成一遍
-      if (serviceProviderMap.isEmpty()) {
+      // 但是由于容错策略的存在，这个缓存可能为空(负载均衡没有可选的服务提供者)，这个时候需要重新生成一遍
+      if (serviceProviderMap.isEmpty() || selectedProviderMap.isEmpty()) {
         genProvidersCacheByConfigFile();
       }
       return;
@@ -838,8 +1024,8 @@ public class ZookeeperNameResolver extends NameResolver {
 
       Map<String, ServiceProvider> newProviders = getProvidersByUrls(urls);
 
-      serviceProviderMap.clear();
-      serviceProviderMap.putAll(newProviders);
+      // 使用新的map，避免正在做负载均衡的线程读到清空了一半的数据
+      serviceProviderMap = new ConcurrentHashMap<String, ServiceProvider>(newProviders);
 
       applyRoute();// 需要根据路由规则过滤一下
 
@@ -1072,6 +1258,10 @@ public class ZookeeperNameResolver extends NameResolver {
       return;
     }
     shutdown = true;
+    if (outlierDetectionFuture != null) {
+      outlierDetectionFuture.cancel(false);
+      outlierDetectionFuture = null;
+    }
     if (timerService != null) {
       timerService = SharedResourceHolder.release(timerServiceResource, timerService);
     }
@@ -1085,7 +1275,7 @@ public class ZookeeperNameResolver extends NameResolver {
       findZkFuture.cancel(false);
     }
     if (findZkExecutor != null) {
-      findZkExecutor.shutdown();
+      findZkExecutor = SharedResourceHolder.release(RegistryExecutors.SHARED_REGISTRY_EXECUTOR, findZkExecutor);
     }
 
     unRegistry();
@@ -1106,6 +1296,47 @@ public class ZookeeperNameResolver extends NameResolver {
     return providersForLoadBalance;
   }
 
+  /**
+   * 获取服务提供者对应的熔断器，不存在时创建
+   *
+   * @author sxp
+   * @since 2020/3/11
+   */
+  @Override
+  public CircuitBreaker getCircuitBreaker(String providerId) {
+    if (providerId == null || !FailoverUtils.isBreakerEnabled()) {
+      return null;
+    }
+
+    CircuitBreaker breaker = circuitBreakers.get(providerId);
+    if (breaker == null) {
+      CircuitBreaker newBreaker = FailoverUtils.newCircuitBreaker();
+      breaker = circuitBreakers.putIfAbsent(providerId, newBreaker);
+      if (breaker == null) {
+        breaker = newBreaker;
+      }
+    }
+    return breaker;
+  }
+
+  /**
+   * 获取服务提供者的调用记录器
+   * <p>
+   * 地址中的主机名(或IP)与端口拼成ip:port后查找，不在注册中心服务列表中的地址返回null
+   * </p>
+   *
+   * @author sxp
+   * @since 2020/3/11
+   */
+  @Override
+  public ProviderCallRecorder getCallRecorder(SocketAddress address) {
+    if (!(address instanceof InetSocketAddress)) {
+      return null;
+    }
+    InetSocketAddress inetAddress = (InetSocketAddress) address;
+    return callRecorders.get(inetAddress.getHostString() + ":" + inetAddress.getPort());
+  }
+
   public void setProvidersForLoadBalance(Map<String, ServiceProvider> newValue) {
     providersForLoadBalance = newValue;
   }
@@ -1232,9 +1463,7 @@ public class ZookeeperNameResolver extends NameResolver {
       return;
     }
 
-    this.listener.setArgument(argument);
-
-    resolveServerFun(method);
+    resolveServerFun(argument, method);
   }
 
   /**
@@ -1243,14 +1472,18 @@ public class ZookeeperNameResolver extends NameResolver {
    *
    * @Author yuanzhonglin
    * @since 2019/4/17
+   * @since 2020/3/2 modify by sxp 直接从快照中选取服务提供者，避免每次调用都做域名解析、创建地址列表
+   * @since 2020/3/11 modify by sxp 一致性Hash的参数作为方法参数传入，并发调用之间不再共用listener中的参数
    */
-  private void resolveServerFun(String method) {
+  private void resolveServerFun(Object argument, String method) {
     if (shutdown) {
       return;
     }
 
     Listener savedListener = listener;
     boolean inBlackList = false;
+    ProvidersSnapshot snapshot;
+    int index;
 
     try {
       if (!hasInitProvidersData) {
@@ -1266,15 +1499,11 @@ public class ZookeeperNameResolver extends NameResolver {
       }
 
       generateProvidersForLB();// 不需要每次请求时都调用路由规则过滤服务端列表
-      loadBalancer(method);
-
-      if (serviceProviderMap != null) {
-        providersCountAfterLoadBalance = serviceProviderMap.size();
-      } else {
-        providersCountAfterLoadBalance = 0;
-      }
+      snapshot = providersSnapshot;
+      index = loadBalancer(snapshot, method, argument);
+      providersCountAfterLoadBalance = (index >= 0) ? 1 : 0;
 
-      if (serviceProviderMap == null || providersCountAfterLoadBalance == 0) {
+      if (providersCountAfterLoadBalance == 0) {
         inBlackList = true;
         String msg = "注册中心上存在服务名称为[" + serviceName + "]的服务，但是该服务未对当前客户端开放权限，或者该服务不可用！";
         throw new UnknownHostException(msg);
@@ -1293,48 +1522,67 @@ public class ZookeeperNameResolver extends NameResolver {
       return;
     }
 
-    //----begin----判定是否打印告警日志、提示服务已经有新版本上线----
-
-    CheckDeprecatedService.check(serviceProviderMap);
-
-    //----end----判定是否打印告警日志、提示服务已经有新版本上线----
-
-    List<EquivalentAddressGroup> servers = new ArrayList<>();
-    InetAddress inetAddr;
-    InetSocketAddress inetSocketAddr;
+    // 地址列表在生成快照时已经创建好，这里不需要再做域名解析
+    notifyListener(savedListener, snapshot, index);
+  }
 
-    for (Map.Entry<String, ServiceProvider> entry : serviceProviderMap.entrySet()) {
-      try {
-        inetAddr = InetAddress.getByName(entry.getValue().getHost());
-        inetSocketAddr = new InetSocketAddress(inetAddr, entry.getValue().getPort());
-        servers.add(new EquivalentAddressGroup(inetSocketAddr));
-      } catch (UnknownHostException e) {
-        logger.error("解析服务提供者IP地址出错", e);
-        // 应用过滤器之后，这里只剩下一个服务提供者了，所以出错后直接返回
-        savedListener.onError(Status.UNAVAILABLE.withCause(e));
-        return;
-      }
+  /**
+   * 将选中的服务提供者通知给listener
+   * <p>
+   * 启用subchannel池时推送快照中的所有服务提供者，由{@link ProviderPoolLoadBalancer}负责选择；
+   * 否则只推送选中的服务提供者。
+   * </p>
+   *
+   * @author sxp
+   * @since 2020/3/5
+   */
+  private void notifyListener(Listener savedListener, ProvidersSnapshot snapshot, int index) {
+    if (!providerPoolEnabled) {
+      savedListener.onAddresses(snapshot.getServers(index), Attributes.EMPTY);
+      return;
     }
 
-    savedListener.onAddresses(servers, Attributes.EMPTY);
+    Attributes attributes = Attributes.newBuilder()
+            .set(GrpcAttributes.NAME_RESOLVER_SERVICE_CONFIG, PROVIDER_POOL_SERVICE_CONFIG)
+            .set(ProviderPoolLoadBalancer.ATTR_PROVIDERS_SNAPSHOT, snapshot)
+            .set(ProviderPoolLoadBalancer.ATTR_SELECTED_INDEX, index)
+            .set(ProviderPoolLoadBalancer.ATTR_NAME_RESOLVER, this)
+            .build();
+    savedListener.onAddresses(snapshot.getAllServers(), attributes);
+  }
+
+  /**
+   * 是否启用了subchannel池
+   *
+   * @author sxp
+   * @since 2020/3/5
+   */
+  @Override
+  public boolean isProviderPoolEnabled() {
+    return providerPoolEnabled;
   }
 
   /**
    * 根据负载策略选择一台服务器
    *
+   * @param argument 一致性Hash的参数，由当前调用传入，可以为null
    * @Author yuanzhonglin
    * @since 2019/4/17
    */
-  private void loadBalancer(String method) {
-    Preconditions.checkNotNull(providersForLoadBalance, "providersForLoadBalance");
-
-    Object argument = this.listener.getArgument();
+  private int loadBalancer(ProvidersSnapshot snapshot, String method, Object argument) {
+    Preconditions.checkNotNull(snapshot, "providersSnapshot");
 
     LB_STRATEGY lb = LoadBalanceUtil.getLoadBalanceStrategy(loadBlanceStrategyMap, method);
 
     // loadBlanceStrategy已经计算好了，直接拿过来使用
-    serviceProviderMap = LoadBalancerFactory.getServiceProviderByLbStrategy(
-            lb, providersForLoadBalance, serviceName, argument);
+    int index = LoadBalancerFactory.pickProviderIndex(lb, snapshot, serviceName, argument);
+    if (index >= 0) {
+      selectedProviderMap = snapshot.getSingletonMap(index);
+    } else {
+      selectedProviderMap = Collections.emptyMap();
+    }
+
+    return index;
   }
 
   /**
@@ -1447,14 +1695,15 @@ public class ZookeeperNameResolver extends NameResolver {
     }
 
     allProviders.clear();
-    serviceProviderMap.clear();
+    Map<String, ServiceProvider> newProviders = new ConcurrentHashMap<>(MapUtils.capacity(size));
 
     String providerId;
     for (ServiceProvider provider : configFileProviders) {
       providerId = provider.getHost() + ":" + provider.getPort();
       allProviders.put(providerId, provider);
-      serviceProviderMap.put(providerId, provider);
+      newProviders.put(providerId, provider);
     }
+    serviceProviderMap = newProviders;
 
     // 服务列表变化后，重置providersForLoadBalance
     providersForLoadBalance = new ConcurrentHashMap<>(MapUtils.capacity(size));
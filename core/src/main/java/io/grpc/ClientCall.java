@@ -16,6 +16,8 @@
 
 package io.grpc;
 
+import com.orientsec.grpc.consumer.internal.ProviderCallRecorder;
+
 import javax.annotation.Nullable;
 
 /**
@@ -280,4 +282,76 @@ public abstract class ClientCall<ReqT, RespT> {
   public String getFullMethod(){
     return "";
   }
+
+  /**
+   * 获取发起调用的Channel中的NameResolver对象
+   *
+   * @author sxp
+   * @since 2020/3/11
+   */
+  @Nullable
+  public NameResolver getNameResolver() {
+    return null;
+  }
+
+  /**
+   * 设置一致性Hash负载均衡算法的参数值
+   * <p>
+   * 参数值随调用的{@link CallOptions}传递给负载均衡，必须在{@link #start}之前设置
+   * </p>
+   *
+   * @author sxp
+   * @since 2020/3/11
+   */
+  public void setConsistentHashArgument(@Nullable Object argument) {
+  }
+
+  /**
+   * 获取一致性Hash负载均衡算法的参数值，未设置时返回null
+   *
+   * @author sxp
+   * @since 2020/3/11
+   */
+  @Nullable
+  public Object getConsistentHashArgument() {
+    return null;
+  }
+
+  /**
+   * 获取本次调用实际使用的服务提供者，以IP:port的形式表示
+   * <p>
+   * 调用开始之前或者无法确定服务提供者时返回null
+   * </p>
+   *
+   * @author sxp
+   * @since 2020/3/11
+   */
+  @Nullable
+  public String getProviderId() {
+    return null;
+  }
+
+  /**
+   * 获取本次调用实际使用的服务提供者的调用记录器
+   * <p>
+   * 调用结束时直接使用其中的熔断器和连续失败次数，不需要再按照服务提供者Id查找；无法确定服务提供者时返回null
+   * </p>
+   *
+   * @author sxp
+   * @since 2020/3/11
+   */
+  @Nullable
+  public ProviderCallRecorder getProviderRecorder() {
+    return null;
+  }
+
+  /**
+   * 获取本次调用发出时服务提供者熔断器的半熔断代数，在{@link #getProviderRecorder()}之后调用
+   *
+   * @author sxp
+   * @since 2020/3/11
+   */
+  public int getBreakerGeneration() {
+    return 0;
+  }
 }
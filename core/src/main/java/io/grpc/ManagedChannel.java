@@ -16,6 +16,9 @@
 
 package io.grpc;
 
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
 import javax.annotation.concurrent.ThreadSafe;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
@@ -164,4 +167,17 @@ public abstract class ManagedChannel extends Channel {
   public void setLoadBalanceModeMap(Map<String, String> map) {
 
   }
+
+  /**
+   * 获取客户端注册的结果，注册完成后结束
+   * <p>
+   * 不需要注册的实现直接返回已经结束的结果。
+   * </p>
+   *
+   * @author sxp
+   * @since 2020/3/11
+   */
+  public ListenableFuture<Void> getRegistryFuture() {
+    return Futures.immediateFuture(null);
+  }
 }
@@ -18,8 +18,10 @@ package io.grpc;
 
 import com.orientsec.grpc.common.constant.GlobalConstants;
 import com.orientsec.grpc.consumer.core.ConsumerServiceRegistry;
+import com.orientsec.grpc.consumer.internal.ProviderCallRecorder;
 import com.orientsec.grpc.consumer.internal.ProvidersListener;
 import com.orientsec.grpc.consumer.model.ServiceProvider;
+import com.orientsec.grpc.consumer.qos.CircuitBreaker;
 import com.orientsec.grpc.registry.common.URL;
 
 import javax.annotation.Nullable;
@@ -27,6 +29,7 @@ import javax.annotation.concurrent.ThreadSafe;
 import java.lang.annotation.Documented;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
+import java.net.SocketAddress;
 import java.net.URI;
 import java.util.List;
 import java.util.Map;
@@ -158,6 +161,35 @@ public abstract class NameResolver {
     return null;
   }
 
+  /**
+   * 获取服务提供者对应的熔断器
+   * <p>
+   * 未启用熔断机制时返回null
+   * </p>
+   *
+   * @param providerId 服务提供者的ip:port
+   * @author sxp
+   * @since 2020/3/11
+   */
+  public CircuitBreaker getCircuitBreaker(String providerId) {
+    return null;
+  }
+
+  /**
+   * 获取服务提供者的调用记录器，subchannel在请求开始、结束时更新其中的负载，调用结束时使用其中的熔断器
+   * <p>
+   * 不需要记录调用情况时返回null
+   * </p>
+   *
+   * @param address 服务提供者的地址
+   * @author sxp
+   * @since 2020/3/11
+   */
+  @Nullable
+  public ProviderCallRecorder getCallRecorder(SocketAddress address) {
+    return null;
+  }
+
   /**
    * 获取负载均衡之后的服务器列表(只有一条数据)
    *
@@ -278,6 +310,16 @@ public abstract class NameResolver {
   public void removeInvalidCacheSubchannels(Set<String> removeHostPorts) {
   }
 
+  /**
+   * 是否由subchannel池负责请求负载均衡(picker直接选择服务提供者，不需要每次调用都重新解析)
+   *
+   * @author sxp
+   * @since 2020/3/5
+   */
+  public boolean isProviderPoolEnabled() {
+    return false;
+  }
+
   /**
    * Factory that creates {@link NameResolver} instances.
    *
@@ -347,22 +389,6 @@ public abstract class NameResolver {
      */
     void onError(Status error);
 
-    /**
-     * 获取参数
-     *
-     * @author sxp
-     * @since 2018/10/20
-     */
-    Object getArgument();
-
-    /**
-     * 设置参数
-     *
-     * @author sxp
-     * @since 2018/10/20
-     */
-    void setArgument(Object argument);
-
     /**
      * 删除客户端与离线服务端之间的无效subchannel
      *
@@ -17,6 +17,7 @@
 package io.grpc;
 
 import com.google.common.base.MoreObjects;
+import com.orientsec.grpc.consumer.internal.ProviderCallRecorder;
 import javax.annotation.Nullable;
 
 /**
@@ -70,6 +71,66 @@ abstract class PartialForwardingClientCall<ReqT, RespT> extends ClientCall<ReqT,
     return delegate().getFullMethod();
   }
 
+  /**
+   * 获取发起调用的Channel中的NameResolver对象
+   *
+   * @author sxp
+   * @since 2020/3/11
+   */
+  @Override
+  public NameResolver getNameResolver() {
+    return delegate().getNameResolver();
+  }
+
+  /**
+   * 设置一致性Hash负载均衡算法的参数值
+   *
+   * @author sxp
+   * @since 2020/3/11
+   */
+  @Override
+  public void setConsistentHashArgument(Object argument) {
+    delegate().setConsistentHashArgument(argument);
+  }
+
+  /**
+   * 获取一致性Hash负载均衡算法的参数值
+   *
+   * @author sxp
+   * @since 2020/3/11
+   */
+  @Override
+  public Object getConsistentHashArgument() {
+    return delegate().getConsistentHashArgument();
+  }
+
+  /**
+   * 获取本次调用实际使用的服务提供者
+   *
+   * @author sxp
+   * @since 2020/3/11
+   */
+  @Override
+  public String getProviderId() {
+    return delegate().getProviderId();
+  }
+
+  /**
+   * 获取本次调用实际使用的服务提供者的调用记录器
+   *
+   * @author sxp
+   * @since 2020/3/11
+   */
+  @Override
+  public ProviderCallRecorder getProviderRecorder() {
+    return delegate().getProviderRecorder();
+  }
+
+  @Override
+  public int getBreakerGeneration() {
+    return delegate().getBreakerGeneration();
+  }
+
   @Override
   public String toString() {
     return MoreObjects.toStringHelper(this).add("delegate", delegate()).toString();
@@ -18,6 +18,9 @@ package io.grpc.internal;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.MoreObjects;
+import com.orientsec.grpc.common.util.Networks;
+import com.orientsec.grpc.consumer.ConsistentHashArguments;
+import com.orientsec.grpc.consumer.internal.ProviderCallRecorder;
 import io.grpc.Attributes;
 import io.grpc.CallOptions;
 import io.grpc.ClientCall;
@@ -28,15 +31,18 @@ import io.grpc.Context;
 import io.grpc.Context.CancellationListener;
 import io.grpc.Deadline;
 import io.grpc.DecompressorRegistry;
+import io.grpc.Grpc;
 import io.grpc.InternalDecompressorRegistry;
 import io.grpc.LoadBalancer.PickSubchannelArgs;
 import io.grpc.Metadata;
 import io.grpc.MethodDescriptor;
 import io.grpc.MethodDescriptor.MethodType;
+import io.grpc.NameResolver;
 import io.grpc.Status;
 
 import javax.annotation.Nullable;
 import java.io.InputStream;
+import java.net.SocketAddress;
 import java.nio.charset.Charset;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.Executor;
@@ -73,7 +79,7 @@ final class ClientCallImpl<ReqT, RespT> extends ClientCall<ReqT, RespT> {
   private final Context context;
   private volatile ScheduledFuture<?> deadlineCancellationFuture;
   private final boolean unaryRequest;
-  private final CallOptions callOptions;
+  private CallOptions callOptions;
   private final boolean retryEnabled;
   private ClientStream stream;
   private volatile boolean cancelListenersShouldBeRemoved;
@@ -85,6 +91,13 @@ final class ClientCallImpl<ReqT, RespT> extends ClientCall<ReqT, RespT> {
   private boolean fullStreamDecompression;
   private DecompressorRegistry decompressorRegistry = DecompressorRegistry.getDefaultInstance();
   private CompressorRegistry compressorRegistry = CompressorRegistry.getDefaultInstance();
+  private NameResolver nameResolver;
+  // 本次调用使用的服务提供者，调用结束后由其它线程读取
+  private volatile SocketAddress providerAddress;
+  private volatile String providerId;
+  // 本次调用使用的服务提供者的调用记录器，以及调用发出时熔断器的半熔断代数
+  private volatile ProviderCallRecorder providerRecorder;
+  private volatile int breakerGeneration;
 
   ClientCallImpl(
       MethodDescriptor<ReqT, RespT> method, Executor executor, CallOptions callOptions,
@@ -152,6 +165,11 @@ final class ClientCallImpl<ReqT, RespT> extends ClientCall<ReqT, RespT> {
     return this;
   }
 
+  ClientCallImpl<ReqT, RespT> setNameResolver(NameResolver nameResolver) {
+    this.nameResolver = nameResolver;
+    return this;
+  }
+
   @VisibleForTesting
   static void prepareHeaders(
       Metadata headers,
@@ -241,6 +259,13 @@ final class ClientCallImpl<ReqT, RespT> extends ClientCall<ReqT, RespT> {
       } else {
         ClientTransport transport = clientTransportProvider.get(
             new PickSubchannelArgsImpl(method, headers, callOptions));
+        if (transport instanceof ConnectionClientTransport) {
+          // 负载均衡选中的服务提供者
+          providerAddress = ((ConnectionClientTransport) transport).getAddress();
+        }
+        if (transport instanceof InternalSubchannel.CallTracingTransport) {
+          stampProviderRecorder(((InternalSubchannel.CallTracingTransport) transport).getLoadRecorder());
+        }
         Context origContext = context.attach();
         try {
           stream = transport.newStream(method, headers, callOptions);
@@ -623,4 +648,105 @@ final class ClientCallImpl<ReqT, RespT> extends ClientCall<ReqT, RespT> {
   public String getFullMethod() {
     return this.method.getFullMethodName();
   }
+
+  /**
+   * 获取发起调用的Channel中的NameResolver对象
+   *
+   * @author sxp
+   * @since 2020/3/11
+   */
+  @Override
+  public NameResolver getNameResolver() {
+    return nameResolver;
+  }
+
+  /**
+   * 设置一致性Hash负载均衡算法的参数值，参数值放在CallOptions中传递给负载均衡
+   *
+   * @author sxp
+   * @since 2020/3/11
+   */
+  @Override
+  public void setConsistentHashArgument(Object argument) {
+    checkState(stream == null, "Already started");
+    callOptions = callOptions.withOption(ConsistentHashArguments.CALL_OPTIONS_KEY, argument);
+  }
+
+  /**
+   * 获取一致性Hash负载均衡算法的参数值
+   *
+   * @author sxp
+   * @since 2020/3/11
+   */
+  @Override
+  public Object getConsistentHashArgument() {
+    return callOptions.getOption(ConsistentHashArguments.CALL_OPTIONS_KEY);
+  }
+
+  /**
+   * 获取本次调用实际使用的服务提供者
+   * <p>
+   * 优先使用负载均衡选中的地址；transport还没有就绪时负载均衡延后进行，这时使用stream连接的远端地址
+   * </p>
+   *
+   * @author sxp
+   * @since 2020/3/11
+   */
+  @Override
+  public String getProviderId() {
+    String id = providerId;
+    if (id != null) {
+      return id;
+    }
+
+    ProviderCallRecorder recorder = providerRecorder;
+    if (recorder != null) {
+      return recorder.getProviderId();
+    }
+
+    SocketAddress address = providerAddress;
+    if (address == null && stream != null) {
+      address = stream.getAttributes().get(Grpc.TRANSPORT_ATTR_REMOTE_ADDR);
+    }
+    if (address == null) {
+      return null;
+    }
+
+    id = Networks.getHostAndPort(address);
+    providerId = id;
+    return id;
+  }
+
+  /**
+   * 获取本次调用实际使用的服务提供者的调用记录器
+   * <p>
+   * 负载均衡选中的transport已经就绪时在调用开始时记录；transport还没有就绪时负载均衡延后进行，这时从stream的属性中获取
+   * </p>
+   *
+   * @author sxp
+   * @since 2020/3/11
+   */
+  @Override
+  public ProviderCallRecorder getProviderRecorder() {
+    ProviderCallRecorder recorder = providerRecorder;
+    if (recorder == null && stream != null) {
+      stampProviderRecorder(stream.getAttributes().get(GrpcAttributes.ATTR_CALL_LOAD_RECORDER));
+      recorder = providerRecorder;
+    }
+    return recorder;
+  }
+
+  @Override
+  public int getBreakerGeneration() {
+    return breakerGeneration;
+  }
+
+  private void stampProviderRecorder(@Nullable ClientCallLoadRecorder recorder) {
+    if (recorder instanceof ProviderCallRecorder) {
+      ProviderCallRecorder providerCallRecorder = (ProviderCallRecorder) recorder;
+      // 先记录代数再发布记录器，读取到记录器的线程一定能读取到对应的代数
+      breakerGeneration = providerCallRecorder.getBreakerGeneration();
+      providerRecorder = providerCallRecorder;
+    }
+  }
 }
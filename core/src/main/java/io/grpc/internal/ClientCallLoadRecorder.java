@@ -0,0 +1,38 @@
+/*
+ * Copyright 2019 Orient Securities Co., Ltd.
+ * Copyright 2019 BoCloud Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.grpc.internal;
+
+/**
+ * Records the calls made on the transports to one address.  Obtained from
+ * {@link InternalSubchannel.Callback#getCallLoadRecorder} when a transport is created; the
+ * subchannel reports every stream started on the transport, so the load balancer can use
+ * in-flight counts and latencies of each address.
+ */
+public interface ClientCallLoadRecorder {
+  /**
+   * Called when a stream is started.
+   */
+  void callStarted();
+
+  /**
+   * Called when a stream started by {@link #callStarted} is closed.
+   *
+   * @param success whether the call ended with an OK status
+   * @param elapsedNanos time between the start and the close of the stream
+   */
+  void callEnded(boolean success, long elapsedNanos);
+}
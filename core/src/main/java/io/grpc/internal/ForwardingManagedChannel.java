@@ -17,6 +17,7 @@
 package io.grpc.internal;
 
 import com.google.common.base.MoreObjects;
+import com.google.common.util.concurrent.ListenableFuture;
 import io.grpc.CallOptions;
 import io.grpc.ClientCall;
 import io.grpc.ConnectivityState;
@@ -101,6 +102,11 @@ abstract class ForwardingManagedChannel extends ManagedChannel {
     return delegate.getLoadBalancer();
   }
 
+  @Override
+  public ListenableFuture<Void> getRegistryFuture() {
+    return delegate.getRegistryFuture();
+  }
+
   @Override
   public String toString() {
     return MoreObjects.toStringHelper(this).add("delegate", delegate).toString();
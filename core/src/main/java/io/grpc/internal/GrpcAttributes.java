@@ -59,5 +59,13 @@ public final class GrpcAttributes {
   public static final Attributes.Key<SecurityLevel> ATTR_SECURITY_LEVEL =
       io.grpc.CallCredentials.ATTR_SECURITY_LEVEL;
 
+  /**
+   * The {@link ClientCallLoadRecorder} of the transport a stream was created on.  It is a
+   * stream-level attribute, present when the subchannel was given a recorder for the address.
+   */
+  @Grpc.TransportAttr
+  public static final Attributes.Key<ClientCallLoadRecorder> ATTR_CALL_LOAD_RECORDER =
+      Attributes.Key.create("io.grpc.internal.callLoadRecorder");
+
   private GrpcAttributes() {}
 }
@@ -256,7 +256,8 @@ public final class InternalSubchannel implements InternalInstrumented<ChannelSta
           .setProxyParameters(proxy);
     ConnectionClientTransport transport =
         new CallTracingTransport(
-            transportFactory.newClientTransport(address, options), callsTracer);
+            transportFactory.newClientTransport(address, options), callsTracer,
+            callback.getCallLoadRecorder(address));
     channelz.addClientSocket(transport);
     pendingTransport = transport;
     transports.add(transport);
@@ -671,16 +672,30 @@ public final class InternalSubchannel implements InternalInstrumented<ChannelSta
      */
     @ForOverride
     void onNotInUse(InternalSubchannel is) { }
+
+    /**
+     * Returns the recorder of the calls made to {@code address}, or {@code null} if the load of
+     * the address is not needed.  Called when a new transport is created.
+     */
+    @ForOverride
+    @Nullable
+    ClientCallLoadRecorder getCallLoadRecorder(SocketAddress address) {
+      return null;
+    }
   }
 
   @VisibleForTesting
   static final class CallTracingTransport extends ForwardingConnectionClientTransport {
     private final ConnectionClientTransport delegate;
     private final CallTracer callTracer;
+    @Nullable
+    private final ClientCallLoadRecorder loadRecorder;
 
-    private CallTracingTransport(ConnectionClientTransport delegate, CallTracer callTracer) {
+    private CallTracingTransport(ConnectionClientTransport delegate, CallTracer callTracer,
+        @Nullable ClientCallLoadRecorder loadRecorder) {
       this.delegate = delegate;
       this.callTracer = callTracer;
+      this.loadRecorder = loadRecorder;
     }
 
     @Override
@@ -688,6 +703,11 @@ public final class InternalSubchannel implements InternalInstrumented<ChannelSta
       return delegate;
     }
 
+    @Nullable
+    ClientCallLoadRecorder getLoadRecorder() {
+      return loadRecorder;
+    }
+
     @Override
     public ClientStream newStream(
         MethodDescriptor<?, ?> method, Metadata headers, CallOptions callOptions) {
@@ -698,9 +718,22 @@ public final class InternalSubchannel implements InternalInstrumented<ChannelSta
           return streamDelegate;
         }
 
+        @Override
+        public Attributes getAttributes() {
+          Attributes attrs = super.getAttributes();
+          if (loadRecorder == null) {
+            return attrs;
+          }
+          return attrs.toBuilder().set(GrpcAttributes.ATTR_CALL_LOAD_RECORDER, loadRecorder).build();
+        }
+
         @Override
         public void start(final ClientStreamListener listener) {
           callTracer.reportCallStarted();
+          final long startNanos = System.nanoTime();
+          if (loadRecorder != null) {
+            loadRecorder.callStarted();
+          }
           super.start(new ForwardingClientStreamListener() {
             @Override
             protected ClientStreamListener delegate() {
@@ -710,6 +743,9 @@ public final class InternalSubchannel implements InternalInstrumented<ChannelSta
             @Override
             public void closed(Status status, Metadata trailers) {
               callTracer.reportCallEnded(status.isOk());
+              if (loadRecorder != null) {
+                loadRecorder.callEnded(status.isOk(), System.nanoTime() - startNanos);
+              }
               super.closed(status, trailers);
             }
 
@@ -717,6 +753,9 @@ public final class InternalSubchannel implements InternalInstrumented<ChannelSta
             public void closed(
                 Status status, RpcProgress rpcProgress, Metadata trailers) {
               callTracer.reportCallEnded(status.isOk());
+              if (loadRecorder != null) {
+                loadRecorder.callEnded(status.isOk(), System.nanoTime() - startNanos);
+              }
               super.closed(status, rpcProgress, trailers);
             }
           });
@@ -29,10 +29,10 @@ import com.orientsec.grpc.common.enums.LoadBalanceMode;
 import com.orientsec.grpc.common.resource.SystemConfig;
 import com.orientsec.grpc.common.util.*;
 import com.orientsec.grpc.consumer.ConsistentHashArguments;
-import com.orientsec.grpc.consumer.ThreadLocalVariableUtils;
 import com.orientsec.grpc.consumer.core.ConsumerServiceRegistry;
 import com.orientsec.grpc.consumer.core.ConsumerServiceRegistryFactory;
 import com.orientsec.grpc.consumer.internal.ProvidersListener;
+import com.orientsec.grpc.consumer.internal.RegistryExecutors;
 import io.grpc.Attributes;
 import io.grpc.CallOptions;
 import io.grpc.Channel;
@@ -95,7 +95,6 @@ import java.util.regex.Pattern;
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
-import static com.orientsec.grpc.common.constant.RegistryConstants.CLIENT_REGISTRY_THREAD_NAME;
 import static io.grpc.ConnectivityState.IDLE;
 import static io.grpc.ConnectivityState.SHUTDOWN;
 import static io.grpc.ConnectivityState.TRANSIENT_FAILURE;
@@ -185,6 +184,13 @@ public final class ManagedChannelImpl extends ManagedChannel implements
   // Must be accessed from the syncContext.
   private boolean nameResolverStarted;
 
+  // 所有客户端共享的注册线程池，通道终止时释放
+  private final ScheduledExecutorService registryExecutor =
+      SharedResourceHolder.get(RegistryExecutors.SHARED_REGISTRY_EXECUTOR);
+
+  // 最近一次注册的结果
+  private volatile ListenableFuture<Void> registryFuture;
+
   // null when channel is in idle mode.  Must be assigned from syncContext.
   @Nullable
   private LbHelperImpl lbHelper;
@@ -381,7 +387,7 @@ public final class ManagedChannelImpl extends ManagedChannel implements
    * <p>Must be called from syncContext
    */
   @VisibleForTesting
-  void exitIdleMode(final Object argument) {
+  void exitIdleMode() {
     if (shutdown.get() || panicMode) {
       return;
     }
@@ -404,7 +410,7 @@ public final class ManagedChannelImpl extends ManagedChannel implements
     // may throw. We don't want to confuse our state, even if we will enter panic mode.
     this.lbHelper = lbHelper;
 
-    NameResolverListenerImpl listener = new NameResolverListenerImpl(lbHelper, argument);
+    NameResolverListenerImpl listener = new NameResolverListenerImpl(lbHelper);
     try {
       nameResolver.start(listener);
       nameResolverStarted = true;
@@ -426,11 +432,8 @@ public final class ManagedChannelImpl extends ManagedChannel implements
     channelLogger.log(ChannelLogLevel.INFO, "Entering IDLE state");
     channelStateManager.gotoState(IDLE);
     if (inUseStateAggregator.isInUse()) {
-      //----begin----获取一致性Hash的参数值----
-      final Object argument = getArgument();
-      //----end------获取一致性Hash的参数值----
-
-      exitIdleMode(argument);
+      // 一致性Hash的参数值随调用的CallOptions传递，这里没有具体的调用
+      exitIdleMode();
     }
 
     //----begin----超时后对新创建的nameResolver需要增加一个额外的操作----
@@ -439,7 +442,7 @@ public final class ManagedChannelImpl extends ManagedChannel implements
     }
     nameResolver.setRegistry(consumerServiceRegistry);
     nameResolver.setManagedChannel(this);
-    new Thread(registryRunnable, CLIENT_REGISTRY_THREAD_NAME).start();
+    startRegistry();
     //----end----超时后对新创建的nameResolver需要增加一个额外的操作----
   }
 
@@ -509,16 +512,17 @@ public final class ManagedChannelImpl extends ManagedChannel implements
       }
 
       //----begin----获取一致性Hash的参数值----
-      final Object argument = getArgument();
+      final Object argument = args.getCallOptions().getOption(ConsistentHashArguments.CALL_OPTIONS_KEY);
       //----end------获取一致性Hash的参数值----
 
+      String method = getMethod(args);
       String lbMode = "";
 
       if (pickerCopy == null) {
         final class ExitIdleModeForTransport implements Runnable {
           @Override
           public void run() {
-            exitIdleMode(argument);
+            exitIdleMode();
           }
         }
 
@@ -528,11 +532,13 @@ public final class ManagedChannelImpl extends ManagedChannel implements
         //----begin----请求负载均衡----
 
         // 如果负载均衡模式为“请求负载均衡”，每次都触发负载均衡算法
-        lbMode = getloadBalanceMode(nameResolver);
+        lbMode = LoadBalanceUtil.getLoadBalanceMode(nameResolver, method);
         if (LoadBalanceMode.request.name().equals(lbMode)) {
-          String method = getMethod(nameResolver);
-          nameResolver.resolveServerInfo(argument, method);
-          pickerCopy = subchannelPicker;// 切换服务器会导致subchannelPicker发生变化
+          // 启用subchannel池时由picker根据CallOptions中的参数值直接选择服务提供者
+          if (!nameResolver.isProviderPoolEnabled()) {
+            nameResolver.resolveServerInfo(argument, method);
+            pickerCopy = subchannelPicker;// 切换服务器会导致subchannelPicker发生变化
+          }
         } else {
           if (lastSwitchConnMillisecond == 0) {
             lastSwitchConnMillisecond = System.currentTimeMillis();
@@ -540,7 +546,6 @@ public final class ManagedChannelImpl extends ManagedChannel implements
             long currentTimeMillis = System.currentTimeMillis();
             if (currentTimeMillis - lastSwitchConnMillisecond >= configSwitchConnMillisecond) {
               lastSwitchConnMillisecond = currentTimeMillis;
-              String method = getMethod(nameResolver);
               nameResolver.resolveServerInfo(argument, method);
               pickerCopy = subchannelPicker;// 切换服务器会导致subchannelPicker发生变化
             }
@@ -625,7 +630,8 @@ public final class ManagedChannelImpl extends ManagedChannel implements
       } else {
         // 当客户端与服务端连接没建立好的时候，等待连接创建成功
         boolean invalid = (transport == null || (transport instanceof FailingClientTransport));
-        if (invalid && LoadBalanceMode.request.name().equals(lbMode)) {
+        if (invalid && LoadBalanceMode.request.name().equals(lbMode)
+            && !nameResolver.isProviderPoolEnabled()) {
           transport = getTransportFromLb(args, false);
         }
       }
@@ -834,18 +840,57 @@ public final class ManagedChannelImpl extends ManagedChannel implements
 
     //----begin----注册Consumer信息，调用注册方法----
 
-    new Thread(registryRunnable, CLIENT_REGISTRY_THREAD_NAME).start();
+    startRegistry();
 
     //----end----功能描述，调用注册方法----
   }
 
-  private Runnable registryRunnable = new Runnable() {
-    @Override
-    public void run() {
-      nameResolver = nameResolver.build();
-      nameResolver.registry();
-    }
-  };
+  /**
+   * 在共享的注册线程池中注册Consumer信息，多个通道的注册并行执行
+   * <p>
+   * 注册任务可能在通道关闭之后才被执行，此时不再注册，并将registryFuture置为取消状态
+   * </p>
+   *
+   * @author sxp
+   * @since 2020/3/11
+   */
+  private void startRegistry() {
+    final SettableFuture<Void> future = SettableFuture.create();
+    registryFuture = future;
+
+    registryExecutor.execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          if (shutdown.get()) {
+            future.cancel(false);
+            return;
+          }
+          nameResolver = nameResolver.build();
+          if (shutdown.get()) {
+            future.cancel(false);
+            return;
+          }
+          nameResolver.registry();
+          future.set(null);
+        } catch (Throwable t) {
+          logger.error("客户端注册失败", t);
+          future.setException(t);
+        }
+      }
+    });
+  }
+
+  /**
+   * 客户端注册完成(注册中心的服务提供者列表已经获取)时结束
+   *
+   * @author sxp
+   * @since 2020/3/11
+   */
+  @Override
+  public ListenableFuture<Void> getRegistryFuture() {
+    return registryFuture;
+  }
 
   @VisibleForTesting
   static NameResolver getNameResolver(String target, NameResolver.Factory nameResolverFactory,
@@ -1045,7 +1090,8 @@ public final class ManagedChannelImpl extends ManagedChannel implements
               retryEnabled)
           .setFullStreamDecompression(fullStreamDecompression)
           .setDecompressorRegistry(decompressorRegistry)
-          .setCompressorRegistry(compressorRegistry);
+          .setCompressorRegistry(compressorRegistry)
+          .setNameResolver(nameResolver);
     }
 
     @Override
@@ -1069,6 +1115,7 @@ public final class ManagedChannelImpl extends ManagedChannel implements
       terminatedLatch.countDown();
       executorPool.returnObject(executor);
       balancerRpcExecutorHolder.release();
+      SharedResourceHolder.release(RegistryExecutors.SHARED_REGISTRY_EXECUTOR, registryExecutor);
       // Release the transport factory so that it can deallocate any resources.
       transportFactory.close();
     }
@@ -1081,11 +1128,8 @@ public final class ManagedChannelImpl extends ManagedChannel implements
       final class RequestConnection implements Runnable {
         @Override
         public void run() {
-          //----begin----获取一致性Hash的参数值----
-          final Object argument = getArgument();
-          //----end------获取一致性Hash的参数值----
-
-          exitIdleMode(argument);
+          // 一致性Hash的参数值随调用的CallOptions传递，这里没有具体的调用
+          exitIdleMode();
           if (subchannelPicker != null) {
             subchannelPicker.requestConnection();
           }
@@ -1298,6 +1342,11 @@ public final class ManagedChannelImpl extends ManagedChannel implements
         void onNotInUse(InternalSubchannel is) {
           inUseStateAggregator.updateObjectInUse(is, false);
         }
+
+        @Override
+        ClientCallLoadRecorder getCallLoadRecorder(SocketAddress address) {
+          return nr.getCallRecorder(address);
+        }
       }
 
       final InternalSubchannel internalSubchannel = new InternalSubchannel(
@@ -1491,11 +1540,9 @@ public final class ManagedChannelImpl extends ManagedChannel implements
 
   private class NameResolverListenerImpl implements NameResolver.Listener {
     final LbHelperImpl helper;
-    Object argument;
 
-    NameResolverListenerImpl(LbHelperImpl helperImpl, Object argument) {
+    NameResolverListenerImpl(LbHelperImpl helperImpl) {
       this.helper = helperImpl;
-      this.argument = argument;
     }
 
     @Override
@@ -1591,16 +1638,6 @@ public final class ManagedChannelImpl extends ManagedChannel implements
       syncContext.execute(new NameResolverErrorHandler());
     }
 
-    @Override
-    public Object getArgument() {
-      return argument;
-    }
-
-    @Override
-    public void setArgument(Object argument){
-      this.argument = argument;
-    }
-
     /**
      * 删除客户端与离线服务端之间的无效subchannel
      *
@@ -1781,11 +1818,8 @@ public final class ManagedChannelImpl extends ManagedChannel implements
   private final class IdleModeStateAggregator extends InUseStateAggregator<Object> {
     @Override
     protected void handleInUse() {
-      //----begin----获取一致性Hash的参数值----
-      final Object argument = getArgument();
-      //----end------获取一致性Hash的参数值----
-
-      exitIdleMode(argument);
+      // 一致性Hash的参数值随调用的CallOptions传递，这里没有具体的调用
+      exitIdleMode();
     }
 
     @Override
@@ -1797,46 +1831,15 @@ public final class ManagedChannelImpl extends ManagedChannel implements
     }
   }
 
-  /**
-   * 获取一致性Hash负载均衡算法的参数值
-   *
-   * @author sxp
-   * @since 2019/4/1
-   */
-  private Object getArgument() {
-    String serviceName = null;
-    if (nameResolver != null) {
-      serviceName = nameResolver.getServiceName();
-    }
-    final Object argument = ConsistentHashArguments.getArgument(serviceName);
-    if (argument != null) {
-      ConsistentHashArguments.resetArgument(serviceName);
-    }
-    return argument;
-  }
-
-  /**
-   * 获取负载均衡模式
-   *
-   * @Author yuanzhonglin
-   * @since 2019/4/15
-   */
-  private String getloadBalanceMode(NameResolver nameResolver) {
-    String method = getMethod(nameResolver);
-    String mode = LoadBalanceUtil.getLoadBalanceMode(nameResolver, method);
-    return mode;
-  }
-
   /**
    * 当前调用的服务方法
    *
    * @Author yuanzhonglin
    * @since 2019/4/17
+   * @since 2020/3/11 modify by sxp 从调用的MethodDescriptor中获取，不再使用线程变量
    */
-  private String getMethod(NameResolver nameResolver) {
-    String serviceName = nameResolver.getServiceName();
-    String method = ThreadLocalVariableUtils.getServiceMethodName(serviceName);
-    return method;
+  private static String getMethod(PickSubchannelArgs args) {
+    return GrpcUtils.getSimpleMethodName(args.getMethodDescriptor().getFullMethodName());
   }
 
 
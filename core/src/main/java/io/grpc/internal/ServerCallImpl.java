@@ -20,18 +20,18 @@ package io.grpc.internal;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.util.concurrent.MoreExecutors;
-import com.orientsec.grpc.common.constant.GlobalConstants;
 import com.orientsec.grpc.common.util.DateUtils;
-import com.orientsec.grpc.common.util.GrpcUtils;
-import com.orientsec.grpc.common.util.StringUtils;
-import com.orientsec.grpc.provider.core.ServiceConfigUtils;
+import com.orientsec.grpc.provider.core.ProviderPolicy;
+import com.orientsec.grpc.provider.core.ProviderPolicyUtils;
+import com.orientsec.grpc.provider.qos.AdmissionQueue;
+import com.orientsec.grpc.provider.qos.ProviderQueueWaitUtils;
 import com.orientsec.grpc.provider.qos.ProviderRequestsControllerUtils;
-import com.orientsec.grpc.provider.qos.RequestsController;
 import io.grpc.Attributes;
 import io.grpc.Codec;
 import io.grpc.Compressor;
 import io.grpc.CompressorRegistry;
 import io.grpc.Context;
+import io.grpc.Deadline;
 import io.grpc.DecompressorRegistry;
 import io.grpc.InternalDecompressorRegistry;
 import io.grpc.Metadata;
@@ -42,8 +42,11 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.InputStream;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -68,6 +71,9 @@ final class ServerCallImpl<ReqT, RespT> extends ServerCall<ReqT, RespT> {
   private final CompressorRegistry compressorRegistry;
   private CallTracer serverCallTracer;
 
+  // 当前方法的服务策略
+  private final AtomicReference<ProviderPolicy> policy;
+
   // state
   private volatile boolean cancelled;
   private boolean sendHeadersCalled;
@@ -87,6 +93,7 @@ final class ServerCallImpl<ReqT, RespT> extends ServerCall<ReqT, RespT> {
     this.compressorRegistry = compressorRegistry;
     this.serverCallTracer = serverCallTracer;
     this.serverCallTracer.reportCallStarted();
+    this.policy = ProviderPolicyUtils.getPolicyReference(method.getFullMethodName());
   }
 
   @Override
@@ -204,6 +211,16 @@ final class ServerCallImpl<ReqT, RespT> extends ServerCall<ReqT, RespT> {
     return new ServerStreamListenerImpl<ReqT>(this, listener, context);
   }
 
+  /**
+   * @param callExecutor 当前调用的回调使用的(串行)线程池，排队的请求被放行后在其中继续处理
+   * @author sxp
+   * @since 2020/3/11
+   */
+  ServerStreamListener newServerStreamListener(ServerCall.Listener<ReqT> listener,
+      Executor callExecutor) {
+    return new ServerStreamListenerImpl<ReqT>(this, listener, context, callExecutor);
+  }
+
   @Override
   public Attributes getAttributes() {
     return stream.getAttributes();
@@ -239,13 +256,30 @@ final class ServerCallImpl<ReqT, RespT> extends ServerCall<ReqT, RespT> {
     private final ServerCallImpl<ReqT, ?> call;
     private final ServerCall.Listener<ReqT> listener;
     private final Context.CancellableContext context;
+    private final Executor callExecutor;
+
+    // key值为服务接口名称，value值为该接口上一次记录deprecated日志的时间戳
+    private static Map<String, Long> lastLogDeprecatedTimes = new ConcurrentHashMap<>();
+
+    // 请求通过请求数控制的时间(System.nanoTime)，为0表示没有计入当前请求数
+    private long admittedNanos;
 
-    // key值为服务接口名称，value值为该接口上一次记录deprecated日志的时间戳(此处不需要严格地控制并发)
-    private static Map<String, Long> lastLogDeprecatedTimes = new HashMap<>();
+    // 计入当前请求数时使用的服务策略
+    private ProviderPolicy admittedPolicy;
+
+    // 正在排队等待的请求，为null表示没有排队
+    private volatile QueuedRequest queuedRequest;
 
     public ServerStreamListenerImpl(
         ServerCallImpl<ReqT, ?> call, ServerCall.Listener<ReqT> listener,
         Context.CancellableContext context) {
+      this(call, listener, context, MoreExecutors.directExecutor());
+    }
+
+    public ServerStreamListenerImpl(
+        ServerCallImpl<ReqT, ?> call, ServerCall.Listener<ReqT> listener,
+        Context.CancellableContext context, Executor callExecutor) {
+      this.callExecutor = checkNotNull(callExecutor, "callExecutor");
       this.call = checkNotNull(call, "call");
       this.listener = checkNotNull(listener, "listener must not be null");
       this.context = checkNotNull(context, "context");
@@ -294,62 +328,39 @@ final class ServerCallImpl<ReqT, RespT> extends ServerCall<ReqT, RespT> {
         return;
       }
 
-      // ----begin----对服务过时的判断------
-      Map<String, Map<String, Object>> currentServicesConfig;
-      Map<String, Object> serviceConfig;
-      boolean deprecated = false;
-
-      String methodName = call.method.getFullMethodName();
-      String interfaceName = GrpcUtils.getInterfaceNameByFullMethodName(methodName);
-
-      currentServicesConfig = ServiceConfigUtils.getCurrentServicesConfig();
-      if (currentServicesConfig.containsKey(interfaceName)) {
-        serviceConfig = currentServicesConfig.get(interfaceName);
-        deprecated = Boolean.valueOf(serviceConfig.get(GlobalConstants.Provider.Key.DEPRECATED).toString()).booleanValue();
+      if (closeIfDeadlineExceeded()) {
+        return;
       }
 
-      if(deprecated){
-        long lastLogTime;// 上一次记录deprecated日志的时间戳
-
-        if (!lastLogDeprecatedTimes.containsKey(interfaceName)) {
-          lastLogTime = 0L;
-          lastLogDeprecatedTimes.put(interfaceName, lastLogTime);
-        } else {
-          lastLogTime = lastLogDeprecatedTimes.get(interfaceName);
-        }
+      // ----begin----对服务过时的判断------
 
-        // 1天只打印一条日志
-        long currentTime = System.currentTimeMillis();
-        if (currentTime - lastLogTime >= DateUtils.DAY_IN_MILLIS) {
-          String msg = "当前服务[" + interfaceName + "]已经过时，请检查是否新服务上线替代了该服务";
-          logger.warn(msg);
+      // 服务策略在服务注册时预先解析，配置发生变化时整体替换，此处只需要读取字段
+      ProviderPolicy policy = call.policy.get();
+      String interfaceName = policy.getInterfaceName();
 
-          lastLogDeprecatedTimes.put(interfaceName, currentTime);// 更新一下记录日志时间
-        }
+      if (policy.isDeprecated()) {
+        logDeprecated(interfaceName);
       }
 
       // ----end----对服务过时的判断------
 
       // ----begin----服务流量控制：请求数控制------
 
-      if (!StringUtils.isEmpty(interfaceName)) {
-        int maxRequests = ProviderRequestsControllerUtils.getMaxRequests(interfaceName);
-
-        if (maxRequests != RequestsController.NO_LIMIT_NUM) {
-          if (!ProviderRequestsControllerUtils.checkRequests(interfaceName)) {
-            closeRequest(interfaceName, maxRequests);
-            return;
-          }
-
-          boolean successful = ProviderRequestsControllerUtils.increaseRequest(interfaceName);
+      if (policy.isLimited()) {
+        // 已经有请求在排队时，新到达的请求排在它们后面，不能抢先占用其它请求归还的名额
+        boolean successful = !ProviderRequestsControllerUtils.hasQueuedRequests(interfaceName)
+                && policy.getController().increase();
 
-          if (!successful) {
-            // 在调用increaseConnection的同时，如果另一个线程调小了服务的最大连接数，会进入该分支
-            closeRequest(interfaceName, maxRequests);
-            return;
+        if (!successful) {
+          // 并发请求数已经达到上限(或者另一个线程调小了服务的最大连接数)，或者已经有请求在排队
+          if (enqueue(policy)) {
+            return;// 排队等待，其它请求处理结束后放行
           }
+          closeRequest(interfaceName, policy.getController().getLimit());
+          return;
         }
-
+        admittedPolicy = policy;
+        admittedNanos = Math.max(1L, System.nanoTime());
       }
 
       // ----end----服务流量控制：请求数控制------
@@ -357,15 +368,166 @@ final class ServerCallImpl<ReqT, RespT> extends ServerCall<ReqT, RespT> {
       listener.onHalfClose();
     }
 
+    /**
+     * 请求在开始处理之前已经超过截止时间时直接结束，不再执行业务逻辑
+     *
+     * @author sxp
+     * @since 2020/3/11
+     */
+    private boolean closeIfDeadlineExceeded() {
+      Deadline deadline = context.getDeadline();
+      if (deadline == null || !deadline.isExpired()) {
+        return false;
+      }
+
+      ProviderQueueWaitUtils.recordExpired(call.method.getFullMethodName());
+      call.close(Status.DEADLINE_EXCEEDED.withDescription("请求在开始处理之前已经超过截止时间"), new Metadata());
+      return true;
+    }
+
+    /**
+     * 服务已经过时，1天只打印一条日志
+     *
+     * @author sxp
+     * @since 2020/3/11
+     */
+    private static void logDeprecated(String interfaceName) {
+      Long lastLogTime = lastLogDeprecatedTimes.get(interfaceName);// 上一次记录deprecated日志的时间戳
+      long currentTime = System.currentTimeMillis();
+
+      if (lastLogTime == null || currentTime - lastLogTime.longValue() >= DateUtils.DAY_IN_MILLIS) {
+        String msg = "当前服务[" + interfaceName + "]已经过时，请检查是否新服务上线替代了该服务";
+        logger.warn(msg);
+
+        lastLogDeprecatedTimes.put(interfaceName, currentTime);// 更新一下记录日志时间
+      }
+    }
+
     /**
      * 当连接数已经达到上限时，直接将调用关闭
      *
      * @author sxp
      * @since 2018-4-13
+     * @since 2020/3/11 modify by sxp 返回RESOURCE_EXHAUSTED，客户端可以据此立即切换服务提供者
      */
     private void closeRequest(String interfaceName, int maxRequests) {
       String msg = "服务[" + interfaceName + "]的并发请求数已经达到上限[" + maxRequests + "]，请稍后重试！";
-      call.close(Status.INTERNAL.withDescription(msg), new Metadata());
+      call.close(Status.RESOURCE_EXHAUSTED.withDescription(msg), new Metadata());
+    }
+
+    /**
+     * 请求进入排队队列，没有启用排队或者队列已满时返回false
+     *
+     * @author sxp
+     * @since 2020/3/11
+     */
+    private boolean enqueue(ProviderPolicy policy) {
+      if (!ProviderRequestsControllerUtils.isQueueEnabled()) {
+        return false;
+      }
+
+      long deadlineNanos = AdmissionQueue.NO_DEADLINE;
+      Deadline deadline = context.getDeadline();
+      if (deadline != null) {
+        deadlineNanos = System.nanoTime() + deadline.timeRemaining(TimeUnit.NANOSECONDS);
+      }
+
+      // 入队时可能立即被放行，需要先记录
+      QueuedRequest request = new QueuedRequest(policy);
+      queuedRequest = request;
+
+      if (!ProviderRequestsControllerUtils.enqueueRequest(policy.getInterfaceName(), request, deadlineNanos)) {
+        queuedRequest = null;
+        return false;
+      }
+      return true;
+    }
+
+    /**
+     * 排队的请求被放行，在当前调用的线程池中执行
+     */
+    private void onAdmitted(QueuedRequest request) {
+      if (queuedRequest != request || call.cancelled) {
+        // 请求在排队期间已经结束，归还名额
+        queuedRequest = null;
+        ProviderRequestsControllerUtils.decreaseRequest(request.policy.getInterfaceName());
+        return;
+      }
+
+      queuedRequest = null;
+
+      if (closeIfDeadlineExceeded()) {
+        ProviderRequestsControllerUtils.decreaseRequest(request.policy.getInterfaceName());
+        return;
+      }
+
+      admittedPolicy = request.policy;
+      admittedNanos = Math.max(1L, System.nanoTime());
+
+      try {
+        listener.onHalfClose();
+      } catch (RuntimeException e) {
+        call.stream.close(Status.UNKNOWN, new Metadata());
+        throw e;
+      } catch (Error e) {
+        call.stream.close(Status.UNKNOWN, new Metadata());
+        throw e;
+      }
+    }
+
+    /**
+     * 排队的请求超时，在当前调用的线程池中执行
+     */
+    private void onExpired(QueuedRequest request, long waitNanos, boolean deadlineExceeded) {
+      if (queuedRequest != request) {
+        return;
+      }
+      queuedRequest = null;
+
+      if (call.cancelled) {
+        return;
+      }
+
+      String interfaceName = request.policy.getInterfaceName();
+      long waitMillis = TimeUnit.NANOSECONDS.toMillis(waitNanos);
+      if (deadlineExceeded) {
+        String msg = "服务[" + interfaceName + "]的请求排队" + waitMillis + "毫秒后已经无法在截止时间之前完成";
+        call.close(Status.DEADLINE_EXCEEDED.withDescription(msg), new Metadata());
+      } else {
+        String msg = "服务[" + interfaceName + "]的请求排队" + waitMillis + "毫秒后仍未获得处理，请稍后重试！";
+        call.close(Status.RESOURCE_EXHAUSTED.withDescription(msg), new Metadata());
+      }
+    }
+
+    /**
+     * 排队队列的回调可能在其它请求的线程中执行，统一转到当前调用的线程池中处理
+     */
+    private final class QueuedRequest implements AdmissionQueue.Waiter {
+      private final ProviderPolicy policy;
+
+      QueuedRequest(ProviderPolicy policy) {
+        this.policy = policy;
+      }
+
+      @Override
+      public void admit(long waitNanos) {
+        callExecutor.execute(new ContextRunnable(context) {
+          @Override
+          public void runInContext() {
+            onAdmitted(QueuedRequest.this);
+          }
+        });
+      }
+
+      @Override
+      public void expire(final long waitNanos, final boolean deadlineExceeded) {
+        callExecutor.execute(new ContextRunnable(context) {
+          @Override
+          public void runInContext() {
+            onExpired(QueuedRequest.this, waitNanos, deadlineExceeded);
+          }
+        });
+      }
     }
 
     @Override
@@ -380,14 +542,19 @@ final class ServerCallImpl<ReqT, RespT> extends ServerCall<ReqT, RespT> {
       } finally {
         // ----begin----服务流量控制：请求数控制------
 
-        String methodName = call.method.getFullMethodName();
-        String interfaceName = GrpcUtils.getInterfaceNameByFullMethodName(methodName);
-        if (!StringUtils.isEmpty(interfaceName)) {
-          int maxRequests = ProviderRequestsControllerUtils.getMaxRequests(interfaceName);
+        // 仍在排队的请求移出队列
+        QueuedRequest request = queuedRequest;
+        if (request != null) {
+          queuedRequest = null;
+          ProviderRequestsControllerUtils.removeQueuedRequest(request.policy.getInterfaceName(), request);
+        }
 
-          if (maxRequests != RequestsController.NO_LIMIT_NUM) {
-            ProviderRequestsControllerUtils.decreaseRequest(interfaceName);
-          }
+        // 只有计入了当前请求数的请求才需要减1，处理时间同时提供给自适应算法
+        if (admittedNanos != 0L) {
+          ProviderRequestsControllerUtils.decreaseRequest(admittedPolicy.getController(),
+              admittedPolicy.getInterfaceName(), System.nanoTime() - admittedNanos, isOverload(status));
+          admittedNanos = 0L;
+          admittedPolicy = null;
         }
 
         // ----end----服务流量控制：请求数控制------
@@ -398,6 +565,19 @@ final class ServerCallImpl<ReqT, RespT> extends ServerCall<ReqT, RespT> {
       }
     }
 
+    /**
+     * 只有超时、取消和资源耗尽是过载的信号，业务错误不应该减小自适应的并发请求数上限
+     *
+     * @author sxp
+     * @since 2020/3/11
+     */
+    private static boolean isOverload(Status status) {
+      Status.Code code = status.getCode();
+      return code == Status.Code.DEADLINE_EXCEEDED
+          || code == Status.Code.CANCELLED
+          || code == Status.Code.RESOURCE_EXHAUSTED;
+    }
+
     @Override
     public void onReady() {
       if (call.cancelled) {
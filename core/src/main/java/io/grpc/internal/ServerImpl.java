@@ -25,12 +25,15 @@ import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.SettableFuture;
 import com.orientsec.grpc.common.constant.GlobalConstants;
 import com.orientsec.grpc.common.util.GrpcUtils;
+import com.orientsec.grpc.provider.core.ProviderPolicyUtils;
 import com.orientsec.grpc.provider.core.ProviderServiceRegistry;
 import com.orientsec.grpc.provider.core.ProviderServiceRegistryFactory;
+import com.orientsec.grpc.provider.qos.ProviderQueueWaitUtils;
 import io.grpc.Attributes;
 import io.grpc.BinaryLog;
 import io.grpc.CompressorRegistry;
 import io.grpc.Context;
+import io.grpc.Deadline;
 import io.grpc.Decompressor;
 import io.grpc.DecompressorRegistry;
 import io.grpc.HandlerRegistry;
@@ -181,6 +184,16 @@ public final class ServerImpl extends io.grpc.Server implements InternalInstrume
       executor = Preconditions.checkNotNull(executorPool.getObject(), "executor");
       started = true;
 
+      //----begin----预先解析各方法的服务策略----
+      List<String> fullMethodNames = new ArrayList<>();
+      for (ServerServiceDefinition item : getServices()) {
+        for (MethodDescriptor<?, ?> md : item.getServiceDescriptor().getMethods()) {
+          fullMethodNames.add(md.getFullMethodName());
+        }
+      }
+      ProviderPolicyUtils.register(fullMethodNames);
+      //----end----预先解析各方法的服务策略----
+
       //----begin----服务启动时，自动向zk注册Provider信息----
       new Thread(registerRunnable, SERVER_REGISTRY_THREAD_NAME).start();
       //----end----服务启动时，自动向zk注册Provider信息----
@@ -548,6 +561,9 @@ public final class ServerImpl extends io.grpc.Server implements InternalInstrume
       // are delivered, including any errors. Callbacks can still be triggered, but they will be
       // queued.
 
+      // 请求到达的时间，用于统计请求在线程池中的排队时间
+      final long createdNanos = System.nanoTime();
+
       final class StreamCreated extends ContextRunnable {
 
         StreamCreated() {
@@ -574,7 +590,24 @@ public final class ServerImpl extends io.grpc.Server implements InternalInstrume
               context.cancel(null);
               return;
             }
-            listener = startCall(stream, methodName, method, headers, context, statsTraceCtx);
+
+            // ----begin----请求排队时间统计；已经超过截止时间的请求不再处理------
+            long waitNanos = System.nanoTime() - createdNanos;
+            ProviderQueueWaitUtils.recordWait(methodName, waitNanos);
+
+            Deadline deadline = context.getDeadline();
+            if (deadline != null && deadline.isExpired()) {
+              ProviderQueueWaitUtils.recordExpired(methodName);
+              Status status = Status.DEADLINE_EXCEEDED.withDescription("请求在线程池中排队"
+                  + TimeUnit.NANOSECONDS.toMillis(waitNanos) + "毫秒，已经超过截止时间");
+              stream.close(status, new Metadata());
+              context.cancel(null);
+              return;
+            }
+            // ----end----请求排队时间统计；已经超过截止时间的请求不再处理------
+
+            listener = startCall(stream, methodName, method, headers, context, statsTraceCtx,
+                wrappedExecutor);
           } catch (RuntimeException e) {
             stream.close(Status.fromThrowable(e), new Metadata());
             context.cancel(null);
@@ -624,7 +657,7 @@ public final class ServerImpl extends io.grpc.Server implements InternalInstrume
     /** Never returns {@code null}. */
     private <ReqT, RespT> ServerStreamListener startCall(ServerStream stream, String fullMethodName,
         ServerMethodDefinition<ReqT, RespT> methodDef, Metadata headers,
-        Context.CancellableContext context, StatsTraceContext statsTraceCtx) {
+        Context.CancellableContext context, StatsTraceContext statsTraceCtx, Executor callExecutor) {
       // TODO(ejona86): should we update fullMethodName to have the canonical path of the method?
       statsTraceCtx.serverCallStarted(
           new ServerCallInfoImpl<ReqT, RespT>(
@@ -638,7 +671,7 @@ public final class ServerImpl extends io.grpc.Server implements InternalInstrume
       ServerMethodDefinition<ReqT, RespT> interceptedDef = methodDef.withServerCallHandler(handler);
       ServerMethodDefinition<?, ?> wMethodDef = binlog == null
           ? interceptedDef : binlog.wrapMethodDefinition(interceptedDef);
-      return startWrappedCall(fullMethodName, wMethodDef, stream, headers, context);
+      return startWrappedCall(fullMethodName, wMethodDef, stream, headers, context, callExecutor);
     }
 
     private <WReqT, WRespT> ServerStreamListener startWrappedCall(
@@ -646,7 +679,8 @@ public final class ServerImpl extends io.grpc.Server implements InternalInstrume
         ServerMethodDefinition<WReqT, WRespT> methodDef,
         ServerStream stream,
         Metadata headers,
-        Context.CancellableContext context) {
+        Context.CancellableContext context,
+        Executor callExecutor) {
       ServerCallImpl<WReqT, WRespT> call = new ServerCallImpl<WReqT, WRespT>(
           stream,
           methodDef.getMethodDescriptor(),
@@ -662,7 +696,7 @@ public final class ServerImpl extends io.grpc.Server implements InternalInstrume
         throw new NullPointerException(
             "startCall() returned a null listener for method " + fullMethodName);
       }
-      return call.newServerStreamListener(listener);
+      return call.newServerStreamListener(listener, callExecutor);
     }
   }
 
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2019 Orient Securities Co., Ltd.
+ * Copyright 2019 BoCloud Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientsec.grpc.consumer.internal;
+
+import com.orientsec.grpc.consumer.model.ServiceProvider;
+import com.orientsec.grpc.consumer.strategy.ProviderLoad;
+import io.grpc.EquivalentAddressGroup;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Test for ProvidersSnapshot
+ *
+ * @author sxp
+ * @since 2020/3/5
+ */
+public class ProvidersSnapshotTest {
+
+  private static ServiceProvider newProvider(String host, int port) {
+    ServiceProvider provider = new ServiceProvider();
+    provider.setHost(host);
+    provider.setPort(port);
+    return provider;
+  }
+
+  @Test
+  public void create() throws Exception {
+    Map<String, ServiceProvider> providers = new HashMap<>();
+    providers.put("127.0.0.1:50002", newProvider("127.0.0.1", 50002));
+    providers.put("127.0.0.1:50001", newProvider("127.0.0.1", 50001));
+    providers.put("127.0.0.1:50003", newProvider("127.0.0.1", 50003));
+
+    ProvidersSnapshot snapshot = ProvidersSnapshot.create(7L, providers);
+
+    Assert.assertEquals(7L, snapshot.getVersion());
+    Assert.assertEquals(3, snapshot.size());
+    Assert.assertEquals(3, snapshot.getAllServers().size());
+
+    // 按照ip:port排序
+    Assert.assertEquals("127.0.0.1:50001", snapshot.getKey(0));
+    Assert.assertEquals("127.0.0.1:50003", snapshot.getKey(2));
+    Assert.assertEquals(1, snapshot.indexOf("127.0.0.1:50002"));
+    Assert.assertEquals(-1, snapshot.indexOf("127.0.0.1:50004"));
+
+    InetSocketAddress address = (InetSocketAddress) snapshot.getAddressGroup(0).getAddresses().get(0);
+    Assert.assertEquals(50001, address.getPort());
+
+    // 预先生成的对象每次返回的都是同一个
+    Assert.assertSame(snapshot.getServers(1), snapshot.getServers(1));
+    Assert.assertSame(snapshot.getSingletonMap(1), snapshot.getSingletonMap(1));
+    Assert.assertEquals(1, snapshot.getSingletonMap(1).size());
+    Assert.assertSame(snapshot.getProvider(1), snapshot.getSingletonMap(1).get("127.0.0.1:50002"));
+  }
+
+  @Test
+  public void immutable() throws Exception {
+    Map<String, ServiceProvider> providers = new HashMap<>();
+    providers.put("127.0.0.1:50001", newProvider("127.0.0.1", 50001));
+
+    ProvidersSnapshot snapshot = ProvidersSnapshot.create(1L, providers);
+
+    // 修改原始数据不影响快照
+    providers.clear();
+    Assert.assertEquals(1, snapshot.size());
+    Assert.assertEquals(1, snapshot.getProviderMap().size());
+
+    try {
+      snapshot.getProviderMap().clear();
+      Assert.fail();
+    } catch (UnsupportedOperationException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void reuseResolvedAddresses() throws Exception {
+    Map<String, ServiceProvider> providers = new HashMap<>();
+    providers.put("127.0.0.1:50001", newProvider("127.0.0.1", 50001));
+    providers.put("127.0.0.1:50002", newProvider("127.0.0.1", 50002));
+    ProvidersSnapshot previous = ProvidersSnapshot.create(1L, providers);
+
+    // 容错策略剔除一个服务提供者后重新生成快照，剩下的服务提供者复用已经解析好的地址
+    providers.remove("127.0.0.1:50001");
+    ProvidersSnapshot snapshot = ProvidersSnapshot.create(2L, providers, null, previous);
+    Assert.assertEquals(1, snapshot.size());
+    Assert.assertSame(previous.getAddressGroup(1), snapshot.getAddressGroup(0));
+  }
+
+  @Test
+  public void providerLoadsKeptAcrossEjection() throws Exception {
+    Map<String, ServiceProvider> providers = new HashMap<>();
+    providers.put("127.0.0.1:50001", newProvider("127.0.0.1", 50001));
+    providers.put("127.0.0.1:50002", newProvider("127.0.0.1", 50002));
+
+    Map<String, ProviderCallRecorder> recorders = new HashMap<>();
+    recorders.put("127.0.0.1:50001", new ProviderCallRecorder("127.0.0.1:50001", new ProviderLoad(), null));
+    recorders.put("127.0.0.1:50002", new ProviderCallRecorder("127.0.0.1:50002", new ProviderLoad(), null));
+
+    ProvidersSnapshot first = ProvidersSnapshot.create(1L, providers, null, recorders, null);
+    Assert.assertSame(recorders.get("127.0.0.1:50001").getLoad(), first.getProviderLoads()[0]);
+
+    // 剔除后再放回的服务提供者使用原来的负载对象，地址与按照ip:port新建的地址相等
+    ServiceProvider ejected = providers.remove("127.0.0.1:50001");
+    ProvidersSnapshot second = ProvidersSnapshot.create(2L, providers, null, recorders, first);
+    providers.put("127.0.0.1:50001", ejected);
+    ProvidersSnapshot third = ProvidersSnapshot.create(3L, providers, null, recorders, second);
+
+    Assert.assertSame(recorders.get("127.0.0.1:50001").getLoad(), third.getProviderLoads()[0]);
+    Assert.assertEquals(first.getAddressGroup(0), third.getAddressGroup(0));
+    Assert.assertEquals(new EquivalentAddressGroup(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 50001)),
+            third.getAddressGroup(0));
+  }
+
+  @Test
+  public void empty() throws Exception {
+    ProvidersSnapshot snapshot = ProvidersSnapshot.create(1L, null);
+    Assert.assertTrue(snapshot.isEmpty());
+    Assert.assertEquals(-1, LoadBalancerFactory.pickProviderIndex(null, snapshot, "com.sxp.TestService", null));
+  }
+}
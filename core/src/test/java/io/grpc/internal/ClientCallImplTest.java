@@ -29,6 +29,7 @@ import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Matchers.same;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.times;
@@ -39,6 +40,7 @@ import static org.mockito.Mockito.when;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.util.concurrent.MoreExecutors;
 import com.google.common.util.concurrent.SettableFuture;
+import com.orientsec.grpc.consumer.ConsistentHashArguments;
 import io.grpc.Attributes;
 import io.grpc.Attributes.Key;
 import io.grpc.CallOptions;
@@ -49,6 +51,7 @@ import io.grpc.Context;
 import io.grpc.Deadline;
 import io.grpc.Decompressor;
 import io.grpc.DecompressorRegistry;
+import io.grpc.Grpc;
 import io.grpc.Metadata;
 import io.grpc.MethodDescriptor;
 import io.grpc.MethodDescriptor.MethodType;
@@ -59,6 +62,7 @@ import io.grpc.testing.TestMethodDescriptors;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.InetSocketAddress;
 import java.util.Set;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CountDownLatch;
@@ -161,6 +165,69 @@ public class ClientCallImplTest {
 
     verify(callListener).onClose(same(status), Matchers.isA(Metadata.class));
   }
+  @Test
+  public void consistentHashArgumentCarriedInCallOptions() {
+    ClientCallImpl<Void, Void> call = new ClientCallImpl<Void, Void>(
+        method,
+        MoreExecutors.directExecutor(),
+        baseCallOptions,
+        provider,
+        deadlineCancellationExecutor,
+        channelCallTracer,
+        false /* retryEnabled */);
+    assertNull(call.getConsistentHashArgument());
+
+    call.setConsistentHashArgument("user-7");
+    assertEquals("user-7", call.getConsistentHashArgument());
+
+    call.start(callListener, new Metadata());
+    ArgumentCaptor<PickSubchannelArgsImpl> argsCaptor =
+        ArgumentCaptor.forClass(PickSubchannelArgsImpl.class);
+    verify(provider).get(argsCaptor.capture());
+    assertEquals("user-7",
+        argsCaptor.getValue().getCallOptions().getOption(ConsistentHashArguments.CALL_OPTIONS_KEY));
+  }
+
+  @Test
+  public void providerIdFromStreamRemoteAddress() {
+    when(stream.getAttributes()).thenReturn(Attributes.newBuilder()
+        .set(Grpc.TRANSPORT_ATTR_REMOTE_ADDR, new InetSocketAddress("127.0.0.1", 50062))
+        .build());
+    ClientCallImpl<Void, Void> call = new ClientCallImpl<Void, Void>(
+        method,
+        MoreExecutors.directExecutor(),
+        baseCallOptions,
+        provider,
+        deadlineCancellationExecutor,
+        channelCallTracer,
+        false /* retryEnabled */);
+    assertNull(call.getProviderId());
+
+    call.start(callListener, new Metadata());
+    assertEquals("127.0.0.1:50062", call.getProviderId());
+  }
+
+  @Test
+  public void providerIdFromPickedTransport() {
+    ConnectionClientTransport picked = mock(ConnectionClientTransport.class);
+    when(picked.getAddress()).thenReturn(new InetSocketAddress("127.0.0.1", 50063));
+    when(picked.newStream(
+        any(MethodDescriptor.class), any(Metadata.class), any(CallOptions.class)))
+        .thenReturn(stream);
+    when(provider.get(any(PickSubchannelArgsImpl.class))).thenReturn(picked);
+    ClientCallImpl<Void, Void> call = new ClientCallImpl<Void, Void>(
+        method,
+        MoreExecutors.directExecutor(),
+        baseCallOptions,
+        provider,
+        deadlineCancellationExecutor,
+        channelCallTracer,
+        false /* retryEnabled */);
+
+    call.start(callListener, new Metadata());
+    assertEquals("127.0.0.1:50063", call.getProviderId());
+  }
+
 
   @Test
   public void exceptionInOnMessageTakesPrecedenceOverServer() {
@@ -64,15 +64,6 @@ public class ForwardingNameResolverTest {
       @Override
       public void onError(Status error) { }
 
-      @Override
-      public Object getArgument() {
-        return null;
-      }
-
-      @Override
-      public void setArgument(Object argument) {
-
-      }
       @Override
       public void removeInvalidCacheSubchannels(Set<String> removeHostPorts) {
 
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2019 Orient Securities Co., Ltd.
+ * Copyright 2019 BoCloud Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.grpc.internal;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import io.grpc.Attributes;
+import io.grpc.ManagedChannel;
+import io.grpc.NameResolver;
+import java.net.URI;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * ManagedChannelImpl#getRegistryFuture的测试类
+ *
+ * @author sxp
+ * @since 2020/3/11
+ */
+@RunWith(JUnit4.class)
+public class ManagedChannelImplRegistryTest {
+  private static final String TARGET = "fake://registry.test";
+
+  private final FakeClock timer = new FakeClock();
+
+  @Test
+  public void registryFutureSucceeds() throws Exception {
+    FakeNameResolver resolver = new FakeNameResolver();
+    ManagedChannel channel = createChannel(resolver);
+    try {
+      assertNull(channel.getRegistryFuture().get(5, TimeUnit.SECONDS));
+      assertTrue(resolver.registered);
+    } finally {
+      channel.shutdownNow();
+    }
+  }
+
+  @Test
+  public void registryFutureFails() throws Exception {
+    final RuntimeException error = new RuntimeException("registry failed");
+    FakeNameResolver resolver = new FakeNameResolver() {
+      @Override
+      public void registry() {
+        throw error;
+      }
+    };
+    ManagedChannel channel = createChannel(resolver);
+    try {
+      channel.getRegistryFuture().get(5, TimeUnit.SECONDS);
+      fail("Should have thrown");
+    } catch (ExecutionException e) {
+      assertSame(error, e.getCause());
+    } finally {
+      channel.shutdownNow();
+    }
+  }
+
+  @Test
+  public void registryFutureCancelledAfterShutdown() throws Exception {
+    final CountDownLatch building = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    FakeNameResolver resolver = new FakeNameResolver() {
+      @Override
+      public NameResolver build() {
+        building.countDown();
+        try {
+          release.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        return this;
+      }
+    };
+    ManagedChannel channel = createChannel(resolver);
+    ListenableFuture<Void> future = channel.getRegistryFuture();
+
+    assertTrue(building.await(5, TimeUnit.SECONDS));
+    channel.shutdownNow();
+    release.countDown();
+
+    try {
+      future.get(5, TimeUnit.SECONDS);
+      fail("Should have thrown");
+    } catch (CancellationException expected) {
+      // 通道关闭后不再注册
+    }
+    assertTrue(future.isCancelled());
+    assertFalse(resolver.registered);
+  }
+
+  private ManagedChannel createChannel(final NameResolver resolver) {
+    final ClientTransportFactory transportFactory = mock(ClientTransportFactory.class);
+    when(transportFactory.getScheduledExecutorService())
+        .thenReturn(timer.getScheduledExecutorService());
+
+    final class FakeNameResolverFactory extends NameResolver.Factory {
+      @Nullable
+      @Override
+      public NameResolver newNameResolver(URI targetUri, Attributes params) {
+        return resolver;
+      }
+
+      @Override
+      public String getDefaultScheme() {
+        return "fake";
+      }
+    }
+
+    final class TestBuilder extends AbstractManagedChannelImplBuilder<TestBuilder> {
+      TestBuilder() {
+        super(TARGET);
+      }
+
+      @Override
+      protected ClientTransportFactory buildTransportFactory() {
+        return transportFactory;
+      }
+    }
+
+    return new TestBuilder().nameResolverFactory(new FakeNameResolverFactory()).build();
+  }
+
+  private static class FakeNameResolver extends NameResolver {
+    volatile boolean registered;
+
+    @Override
+    public String getServiceAuthority() {
+      return "registry.test";
+    }
+
+    @Override
+    public void start(Listener listener) {
+    }
+
+    @Override
+    public void shutdown() {
+    }
+
+    @Override
+    public void registry() {
+      registered = true;
+    }
+  }
+}
@@ -188,7 +188,7 @@ public class ManagedChannelImplTest {
       int numExpectedTasks = 0;
 
       // Force-exit the initial idle-mode
-      channel.exitIdleMode(null);
+      channel.exitIdleMode();
       if (channelBuilder.idleTimeoutMillis != ManagedChannelImpl.IDLE_TIMEOUT_MILLIS_DISABLE) {
         numExpectedTasks += 1;
       }
@@ -1864,7 +1864,7 @@ public class ManagedChannelImplTest {
     verifyPanicMode(panicReason);
 
     // Cannot be revived by exitIdleMode()
-    channel.exitIdleMode(null);
+    channel.exitIdleMode();
     verifyPanicMode(panicReason);
 
     // Can still shutdown normally
@@ -25,14 +25,22 @@ import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.isA;
 import static org.mockito.Matchers.same;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import com.google.common.io.CharStreams;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.orientsec.grpc.provider.core.ProviderPolicy;
+import com.orientsec.grpc.provider.core.ProviderPolicyUtils;
+import com.orientsec.grpc.provider.qos.ProviderRequestsControllerUtils;
+import com.orientsec.grpc.provider.qos.RequestsController;
 import io.grpc.CompressorRegistry;
 import io.grpc.Context;
+import io.grpc.Deadline;
 import io.grpc.DecompressorRegistry;
 import io.grpc.InternalChannelz.ServerStats;
 import io.grpc.Metadata;
@@ -46,6 +54,9 @@ import io.grpc.internal.testing.SingleMessageProducer;
 import java.io.ByteArrayInputStream;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -82,6 +93,16 @@ public class ServerCallImplTest {
           .setResponseMarshaller(new LongMarshaller())
           .build();
 
+  private static final String LIMITED_SERVICE = "limited.service";
+
+  private static final MethodDescriptor<Long, Long> LIMITED_METHOD =
+      MethodDescriptor.<Long, Long>newBuilder()
+          .setType(MethodType.UNARY)
+          .setFullMethodName(LIMITED_SERVICE + "/method")
+          .setRequestMarshaller(new LongMarshaller())
+          .setResponseMarshaller(new LongMarshaller())
+          .build();
+
   private final Metadata requestHeaders = new Metadata();
 
   @Before
@@ -93,6 +114,14 @@ public class ServerCallImplTest {
         serverCallTracer);
   }
 
+  @After
+  public void tearDown() {
+    ProviderRequestsControllerUtils.setQueueConfig(0, false, 1000L);
+    ProviderRequestsControllerUtils.getControllers().remove(LIMITED_SERVICE);
+    ProviderPolicyUtils.getPolicyReference(LIMITED_METHOD.getFullMethodName())
+        .set(new ProviderPolicy(LIMITED_SERVICE, false, null));
+  }
+
   @Test
   public void callTracer_success() {
     callTracer0(Status.OK);
@@ -447,6 +476,218 @@ public class ServerCallImplTest {
     streamListener.messagesAvailable(new SingleMessageProducer(inputStream));
   }
 
+  @Test
+  public void streamListener_limitReached_rejectedWithoutQueue() {
+    RequestsController controller = limitRequests(1, 0, 1000L);
+    ServerStream stream1 = mock(ServerStream.class);
+    ServerStream stream2 = mock(ServerStream.class);
+    ServerCall.Listener<Long> listener1 = newCallListener();
+    ServerCall.Listener<Long> listener2 = newCallListener();
+    ServerStreamListenerImpl<Long> first = limitedStreamListener(stream1, listener1,
+        Context.ROOT.withCancellation(), MoreExecutors.directExecutor());
+    ServerStreamListenerImpl<Long> second = limitedStreamListener(stream2, listener2,
+        Context.ROOT.withCancellation(), MoreExecutors.directExecutor());
+
+    first.halfClosed();
+    second.halfClosed();
+
+    verify(listener1).onHalfClose();
+    verify(listener2, never()).onHalfClose();
+    ArgumentCaptor<Status> statusCaptor = ArgumentCaptor.forClass(Status.class);
+    verify(stream2).close(statusCaptor.capture(), any(Metadata.class));
+    assertEquals(Status.Code.RESOURCE_EXHAUSTED, statusCaptor.getValue().getCode());
+    assertEquals(1, controller.getCurrent());
+
+    second.closed(Status.CANCELLED);
+    assertEquals(1, controller.getCurrent());
+    first.closed(Status.OK);
+    assertEquals(0, controller.getCurrent());
+  }
+
+  @Test
+  public void streamListener_limitReached_queuedUntilSlotReturned() {
+    RequestsController controller = limitRequests(1, 10, 10000L);
+    ServerStream stream2 = mock(ServerStream.class);
+    ServerCall.Listener<Long> listener1 = newCallListener();
+    ServerCall.Listener<Long> listener2 = newCallListener();
+    ServerStreamListenerImpl<Long> first = limitedStreamListener(mock(ServerStream.class),
+        listener1, Context.ROOT.withCancellation(), MoreExecutors.directExecutor());
+    ServerStreamListenerImpl<Long> second = limitedStreamListener(stream2, listener2,
+        Context.ROOT.withCancellation(), MoreExecutors.directExecutor());
+
+    first.halfClosed();
+    second.halfClosed();
+
+    verify(listener1).onHalfClose();
+    verify(listener2, never()).onHalfClose();
+    verify(stream2, never()).close(any(Status.class), any(Metadata.class));
+    assertEquals(1, ProviderRequestsControllerUtils.getQueuedRequests(LIMITED_SERVICE));
+
+    // 第一个请求处理结束后归还的名额直接交给排队的请求
+    first.closed(Status.OK);
+    verify(listener2).onHalfClose();
+    assertEquals(0, ProviderRequestsControllerUtils.getQueuedRequests(LIMITED_SERVICE));
+    assertEquals(1, controller.getCurrent());
+
+    second.closed(Status.OK);
+    assertEquals(0, controller.getCurrent());
+  }
+
+  @Test
+  public void streamListener_newcomerQueuedBehindWaitingRequests() {
+    RequestsController controller = limitRequests(1, 10, 10000L);
+    ServerCall.Listener<Long> listener1 = newCallListener();
+    ServerCall.Listener<Long> listener2 = newCallListener();
+    ServerCall.Listener<Long> listener3 = newCallListener();
+    ServerStreamListenerImpl<Long> first = limitedStreamListener(mock(ServerStream.class),
+        listener1, Context.ROOT.withCancellation(), MoreExecutors.directExecutor());
+    ServerStreamListenerImpl<Long> second = limitedStreamListener(mock(ServerStream.class),
+        listener2, Context.ROOT.withCancellation(), MoreExecutors.directExecutor());
+    ServerStreamListenerImpl<Long> third = limitedStreamListener(mock(ServerStream.class),
+        listener3, Context.ROOT.withCancellation(), MoreExecutors.directExecutor());
+
+    first.halfClosed();
+    second.halfClosed();
+
+    // 第一个请求的名额已经归还但还没有放行排队的请求，新到达的请求不能抢先占用
+    controller.decrease();
+    third.halfClosed();
+
+    verify(listener2).onHalfClose();
+    verify(listener3, never()).onHalfClose();
+    assertEquals(1, ProviderRequestsControllerUtils.getQueuedRequests(LIMITED_SERVICE));
+    assertEquals(1, controller.getCurrent());
+
+    second.closed(Status.OK);
+    verify(listener3).onHalfClose();
+    third.closed(Status.OK);
+    assertEquals(0, controller.getCurrent());
+  }
+
+  @Test
+  public void streamListener_queuedRequestExpired() {
+    RequestsController controller = limitRequests(1, 10, 50L);
+    ServerStream stream2 = mock(ServerStream.class);
+    ServerCall.Listener<Long> listener2 = newCallListener();
+    ServerStreamListenerImpl<Long> first = limitedStreamListener(mock(ServerStream.class),
+        newCallListener(), Context.ROOT.withCancellation(), MoreExecutors.directExecutor());
+    ServerStreamListenerImpl<Long> second = limitedStreamListener(stream2, listener2,
+        Context.ROOT.withCancellation(), MoreExecutors.directExecutor());
+
+    first.halfClosed();
+    second.halfClosed();
+
+    ArgumentCaptor<Status> statusCaptor = ArgumentCaptor.forClass(Status.class);
+    verify(stream2, timeout(5000)).close(statusCaptor.capture(), any(Metadata.class));
+    assertEquals(Status.Code.RESOURCE_EXHAUSTED, statusCaptor.getValue().getCode());
+    assertEquals(0, ProviderRequestsControllerUtils.getQueuedRequests(LIMITED_SERVICE));
+
+    second.closed(Status.CANCELLED);
+    first.closed(Status.OK);
+    verify(listener2, never()).onHalfClose();
+    assertEquals(0, controller.getCurrent());
+  }
+
+  @Test
+  public void streamListener_cancelledWhileQueued() {
+    RequestsController controller = limitRequests(1, 10, 10000L);
+    ServerStream stream2 = mock(ServerStream.class);
+    ServerCall.Listener<Long> listener2 = newCallListener();
+    ServerStreamListenerImpl<Long> first = limitedStreamListener(mock(ServerStream.class),
+        newCallListener(), Context.ROOT.withCancellation(), MoreExecutors.directExecutor());
+    ServerStreamListenerImpl<Long> second = limitedStreamListener(stream2, listener2,
+        Context.ROOT.withCancellation(), MoreExecutors.directExecutor());
+
+    first.halfClosed();
+    second.halfClosed();
+    second.closed(Status.CANCELLED);
+
+    verify(listener2).onCancel();
+    assertEquals(0, ProviderRequestsControllerUtils.getQueuedRequests(LIMITED_SERVICE));
+
+    first.closed(Status.OK);
+    verify(listener2, never()).onHalfClose();
+    verify(stream2, never()).close(any(Status.class), any(Metadata.class));
+    assertEquals(0, controller.getCurrent());
+  }
+
+  @Test
+  public void streamListener_cancelledAfterAdmitted_slotReturned() {
+    RequestsController controller = limitRequests(1, 10, 10000L);
+    FakeClock callExecutor = new FakeClock();
+    ServerCall.Listener<Long> listener2 = newCallListener();
+    ServerStreamListenerImpl<Long> first = limitedStreamListener(mock(ServerStream.class),
+        newCallListener(), Context.ROOT.withCancellation(), MoreExecutors.directExecutor());
+    ServerStreamListenerImpl<Long> second = limitedStreamListener(mock(ServerStream.class),
+        listener2, Context.ROOT.withCancellation(), callExecutor.getScheduledExecutorService());
+
+    first.halfClosed();
+    second.halfClosed();
+
+    // 名额已经交给排队的请求，但请求在线程池中执行之前被取消
+    first.closed(Status.OK);
+    assertEquals(1, controller.getCurrent());
+    second.closed(Status.CANCELLED);
+    assertEquals(1, controller.getCurrent());
+
+    assertEquals(1, callExecutor.runDueTasks());
+    verify(listener2, never()).onHalfClose();
+    assertEquals(0, controller.getCurrent());
+  }
+
+  @Test
+  public void streamListener_deadlineExceededBeforeHalfClose_dropped() throws Exception {
+    RequestsController controller = limitRequests(1, 10, 10000L);
+    ServerStream stream1 = mock(ServerStream.class);
+    ServerCall.Listener<Long> listener1 = newCallListener();
+    // 截止时间的定时任务不执行，模拟截止时间已过但context还没有被取消
+    FakeClock timer = new FakeClock();
+    Context.CancellableContext deadlineContext =
+        Context.ROOT.withDeadlineAfter(1, TimeUnit.MILLISECONDS, timer.getScheduledExecutorService());
+    ServerStreamListenerImpl<Long> streamListener = limitedStreamListener(stream1, listener1,
+        deadlineContext, MoreExecutors.directExecutor());
+    Deadline deadline = deadlineContext.getDeadline();
+    while (!deadline.isExpired()) {
+      Thread.sleep(1);
+    }
+
+    streamListener.halfClosed();
+
+    verify(listener1, never()).onHalfClose();
+    ArgumentCaptor<Status> statusCaptor = ArgumentCaptor.forClass(Status.class);
+    verify(stream1).close(statusCaptor.capture(), any(Metadata.class));
+    assertEquals(Status.Code.DEADLINE_EXCEEDED, statusCaptor.getValue().getCode());
+    assertEquals(0, controller.getCurrent());
+    assertEquals(0, ProviderRequestsControllerUtils.getQueuedRequests(LIMITED_SERVICE));
+
+    streamListener.closed(Status.CANCELLED);
+    assertEquals(0, controller.getCurrent());
+    assertEquals(0, timer.numPendingTasks());
+  }
+
+  private RequestsController limitRequests(int max, int queueSize, long maxWaitMillis) {
+    ProviderRequestsControllerUtils.setQueueConfig(queueSize, false, maxWaitMillis);
+    RequestsController controller = new RequestsController(max);
+    ProviderRequestsControllerUtils.getControllers().put(LIMITED_SERVICE, controller);
+    ProviderPolicyUtils.getPolicyReference(LIMITED_METHOD.getFullMethodName())
+        .set(new ProviderPolicy(LIMITED_SERVICE, false, controller));
+    return controller;
+  }
+
+  private ServerStreamListenerImpl<Long> limitedStreamListener(ServerStream stream,
+      ServerCall.Listener<Long> listener, Context.CancellableContext context,
+      Executor callExecutor) {
+    ServerCallImpl<Long, Long> limitedCall = new ServerCallImpl<Long, Long>(stream,
+        LIMITED_METHOD, requestHeaders, context, DecompressorRegistry.getDefaultInstance(),
+        CompressorRegistry.getDefaultInstance(), serverCallTracer);
+    return new ServerStreamListenerImpl<Long>(limitedCall, listener, context, callExecutor);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static ServerCall.Listener<Long> newCallListener() {
+    return mock(ServerCall.Listener.class);
+  }
+
   private static class LongMarshaller implements Marshaller<Long> {
     @Override
     public InputStream stream(Long value) {
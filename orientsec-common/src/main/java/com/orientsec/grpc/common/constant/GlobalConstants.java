@@ -151,6 +151,21 @@ public class GlobalConstants {
    */
   public static final String REGISTRY_RETRY_TIME = "zookeeper.retry.time";
 
+  /**
+   * 是否将注册中心的数据缓存到本地磁盘文件
+   */
+  public static final String REGISTRY_CACHE_ENABLED = "zookeeper.cache.enabled";
+
+  /**
+   * 注册中心本地缓存文件所在的目录
+   */
+  public static final String REGISTRY_CACHE_DIR = "zookeeper.cache.dir";
+
+  /**
+   * 注册中心变更通知的合并窗口(毫秒)
+   */
+  public static final String REGISTRY_NOTIFY_DEBOUNCE_MILLIS = "zookeeper.notify.debounceMillis";
+
   /**
    * 访问控制列表用户名
    */
@@ -231,7 +246,10 @@ public class GlobalConstants {
     PICK_FIRST("pick_first"),
     ROUND_ROBIN("round_robin"),
     WEIGHT_ROUND_ROBIN("weight_round_robin"),
-    CONSISTENT_HASH("consistent_hash");
+    CONSISTENT_HASH("consistent_hash"),
+    CONSISTENT_HASH_BOUNDED("consistent_hash_bounded"),
+    LEAST_REQUEST("least_request"),
+    PEAK_EWMA("peak_ewma");
 
     private String simpleName;
 
@@ -255,6 +273,12 @@ public class GlobalConstants {
       ret = LB_STRATEGY.WEIGHT_ROUND_ROBIN;
     } else if ("consistent_hash".equalsIgnoreCase(strategy)) {
       ret = LB_STRATEGY.CONSISTENT_HASH;
+    } else if ("consistent_hash_bounded".equalsIgnoreCase(strategy)) {
+      ret = LB_STRATEGY.CONSISTENT_HASH_BOUNDED;
+    } else if ("least_request".equalsIgnoreCase(strategy)) {
+      ret = LB_STRATEGY.LEAST_REQUEST;
+    } else if ("peak_ewma".equalsIgnoreCase(strategy)) {
+      ret = LB_STRATEGY.PEAK_EWMA;
     } else {
       ret = LB_STRATEGY.ROUND_ROBIN;
     }
@@ -403,6 +427,11 @@ public class GlobalConstants {
      */
     public final static String BREAKER_SLEEPWINDOWINMiLLISECONDS = "common.breaker.sleepWindowInMilliseconds";
 
+    /**
+     * 半熔断状态下最多放行的探测请求数
+     */
+    public final static String BREAKER_HALF_OPEN_REQUESTS = "common.breaker.halfOpenRequests";
+
   }
 
   /**
@@ -458,6 +487,39 @@ public class GlobalConstants {
       /** 服务的真实的端口号的KEY */
       public static final String REAL_PORT = "real.port";
 
+      /** 并发请求数上限的自适应算法：fixed、aimd、gradient */
+      public static final String REQUESTS_LIMIT_ALGORITHM = "provider.requests.limit.algorithm";
+
+      /** 自适应算法的初始上限 */
+      public static final String REQUESTS_LIMIT_INITIAL = "provider.requests.limit.initial";
+
+      /** 自适应算法的上限的最小值 */
+      public static final String REQUESTS_LIMIT_MIN = "provider.requests.limit.min";
+
+      /** 最大并发请求数配置为不限制时，自适应算法的上限的最大值 */
+      public static final String REQUESTS_LIMIT_MAX = "provider.requests.limit.max";
+
+      /** aimd算法：处理时间超过该值(毫秒)时减小上限 */
+      public static final String REQUESTS_LIMIT_AIMD_TIMEOUT = "provider.requests.limit.aimd.timeout";
+
+      /** aimd算法：减小上限时乘以的系数 */
+      public static final String REQUESTS_LIMIT_AIMD_BACKOFF_RATIO = "provider.requests.limit.aimd.backoffRatio";
+
+      /** gradient算法：允许短期处理时间超过长期平均值的倍数 */
+      public static final String REQUESTS_LIMIT_GRADIENT_TOLERANCE = "provider.requests.limit.gradient.tolerance";
+
+      /** gradient算法：调整上限时的平滑系数 */
+      public static final String REQUESTS_LIMIT_GRADIENT_SMOOTHING = "provider.requests.limit.gradient.smoothing";
+
+      /** 并发请求数达到上限时排队队列的长度，0表示不排队 */
+      public static final String REQUESTS_QUEUE_SIZE = "provider.requests.queue.size";
+
+      /** 排队请求的放行顺序：fifo、lifo */
+      public static final String REQUESTS_QUEUE_ORDER = "provider.requests.queue.order";
+
+      /** 请求排队等待的最长时间(毫秒) */
+      public static final String REQUESTS_QUEUE_MAX_WAIT = "provider.requests.queue.maxWaitMillis";
+
     }
   }
 
@@ -487,6 +549,15 @@ public class GlobalConstants {
       /** 负载均衡connection模式切换连接时间 */
       public static final String LOADBALANCE_CONNECTION_SWITCHTIME = "consumer.loadbalance.connection.switchTime";
 
+      /** 是否启用subchannel池(与所有服务提供者保持连接，请求负载均衡时由picker直接选择服务提供者) */
+      public static final String LOADBALANCE_POOL_ENABLED = "consumer.loadbalance.pool.enabled";
+
+      /** 负载均衡策略为peak_ewma时，响应时间的衰减时间(毫秒) */
+      public static final String LOADBALANCE_PEAK_EWMA_DECAYTIME = "consumer.loadbalance.peakEwma.decayTime";
+
+      /** 所有客户端共享的注册、查询注册中心的线程数 */
+      public static final String REGISTRY_THREADS = "consumer.registry.threads";
+
       /**
        * 负载均衡模式的key值 ---- 客户端监听注册中心数据变化使用
        */
@@ -496,6 +567,12 @@ public class GlobalConstants {
 
       public static final String DEFAULT_REQUESTS = "consumer.default.requests";
 
+      /** 客户端流控令牌桶允许的突发时长(毫秒) */
+      public static final String REQUESTS_BURST_MILLIS = "consumer.requests.burstMillis";
+
+      /** 客户端流控没有可用令牌时最多等待的时间(毫秒) */
+      public static final String REQUESTS_MAX_WAIT_MILLIS = "consumer.requests.maxWaitMillis";
+
       /**
        * 连续多少次请求出错，自动切换到提供相同服务的新服务器
        */
@@ -504,6 +581,33 @@ public class GlobalConstants {
       /** 服务恢复时间 */
       public static final String RECOVERY_MILLISECONDS = "consumer.service.recoveryMilliseconds";
 
+      /** 是否启用异常点检测(按照成功率、响应时间与其它服务提供者比较，剔除异常的服务提供者) */
+      public static final String OUTLIER_DETECTION_ENABLED = "consumer.outlierDetection.enabled";
+
+      /** 异常点检测的周期(毫秒) */
+      public static final String OUTLIER_DETECTION_INTERVAL = "consumer.outlierDetection.interval";
+
+      /** 异常点第一次被剔除的时间(毫秒)，之后每次连续被剔除时间加倍 */
+      public static final String OUTLIER_DETECTION_BASE_EJECTION_TIME = "consumer.outlierDetection.baseEjectionTime";
+
+      /** 异常点被剔除的最长时间(毫秒) */
+      public static final String OUTLIER_DETECTION_MAX_EJECTION_TIME = "consumer.outlierDetection.maxEjectionTime";
+
+      /** 最多允许剔除的服务提供者百分比 */
+      public static final String OUTLIER_DETECTION_MAX_EJECTION_PERCENT = "consumer.outlierDetection.maxEjectionPercent";
+
+      /** 一个检测周期内参与统计的服务提供者至少需要的请求数 */
+      public static final String OUTLIER_DETECTION_MINIMUM_REQUESTS = "consumer.outlierDetection.minimumRequests";
+
+      /** 进行比较至少需要的服务提供者个数 */
+      public static final String OUTLIER_DETECTION_MINIMUM_HOSTS = "consumer.outlierDetection.minimumHosts";
+
+      /** 成功率低于(平均值 - 系数 * 标准差)时剔除 */
+      public static final String OUTLIER_DETECTION_STDEV_FACTOR = "consumer.outlierDetection.successRateStdevFactor";
+
+      /** 平均响应时间超过(中位数 * 系数)时剔除 */
+      public static final String OUTLIER_DETECTION_LATENCY_FACTOR = "consumer.outlierDetection.latencyFactor";
+
       /**
        * 服务提供者不可用时的惩罚时间
        */
@@ -514,6 +618,11 @@ public class GlobalConstants {
        */
       public static final String HASH_ARGUMENTS = "consumer.consistent.hash.arguments";
 
+      /**
+       * 负载均衡策略选择是consistent_hash_bounded(有界负载的一致性Hash)，每个服务提供者允许超出平均并发请求数的比例
+       */
+      public static final String HASH_BOUNDED_FACTOR = "consumer.consistent.hash.bounded.factor";
+
       /**
        * grpc断线重连指数回退协议"随机抖动因子"参数
        */
@@ -539,6 +648,21 @@ public class GlobalConstants {
        */
       public static final String CONSUME_RDEFAULT_RETRIES = "consumer.default.retries";
 
+      /** 允许的失败重试次数占请求数的百分比 */
+      public static final String RETRY_BUDGET_PERCENT = "consumer.retry.budget.percent";
+
+      /** 失败重试预算中最多保存的令牌数 */
+      public static final String RETRY_BUDGET_MAX_TOKENS = "consumer.retry.budget.maxTokens";
+
+      /** 集群容错模式，可以按服务、方法配置 */
+      public static final String DEFAULT_CLUSTER = "consumer.default.cluster";
+
+      /** forking模式下同时调用的服务提供者个数 */
+      public static final String FORKING_FORKS = "consumer.forking.forks";
+
+      /** forking模式下所有服务额外发出的、尚未结束的调用数的上限 */
+      public static final String FORKING_MAX_EXTRA_REQUESTS = "consumer.forking.maxExtraRequests";
+
       /** 客户端配置的GROUP的key值 */
       public static final String CONSUMER_GROUP_KEY = "invoke.group";
     }
@@ -0,0 +1,220 @@
+/*
+ * Copyright 2019 Orient Securities Co., Ltd.
+ * Copyright 2019 BoCloud Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientsec.grpc.common.util;
+
+/**
+ * MurmurHash3散列算法(x64_128版本，取结果的低64位)
+ * <p>
+ * 非加密散列算法，速度快、分布均匀，计算过程中不分配对象。
+ * 字符串按照UTF-16LE编码的字节序列计算散列值，不需要先转换为字节数组，
+ * 因此{@code hash64(s)}与{@code hash64(s.getBytes("UTF-16LE"))}的结果相同。
+ * </p>
+ * <p>
+ * 参考资料：https://github.com/aappleby/smhasher/blob/master/src/MurmurHash3.cpp
+ * </p>
+ *
+ * @author sxp
+ * @since 2020/3/8
+ */
+public final class MurmurHash3 {
+  private static final long C1 = 0x87c37b91114253d5L;
+  private static final long C2 = 0x4cf5ad432745937fL;
+
+  private MurmurHash3() {
+  }
+
+  /**
+   * 计算字符串的64位散列值
+   */
+  public static long hash64(CharSequence data) {
+    return hash64(data, 0);
+  }
+
+  /**
+   * 计算字符串的64位散列值
+   *
+   * @param seed 种子
+   */
+  public static long hash64(CharSequence data, int seed) {
+    int length = data.length();
+    long h1 = seed & 0xFFFFFFFFL;
+    long h2 = h1;
+    long k1, k2;
+
+    // 每个块16个字节，即8个字符
+    int blocks = length >> 3;
+    int offset;
+
+    for (int i = 0; i < blocks; i++) {
+      offset = i << 3;
+      k1 = getLong(data, offset);
+      k2 = getLong(data, offset + 4);
+
+      h1 ^= mixK1(k1);
+      h1 = Long.rotateLeft(h1, 27);
+      h1 += h2;
+      h1 = h1 * 5 + 0x52dce729;
+
+      h2 ^= mixK2(k2);
+      h2 = Long.rotateLeft(h2, 31);
+      h2 += h1;
+      h2 = h2 * 5 + 0x38495ab5;
+    }
+
+    // 剩余不足8个字符的部分
+    offset = blocks << 3;
+    k1 = 0;
+    k2 = 0;
+
+    for (int i = length - offset - 1; i >= 0; i--) {
+      if (i >= 4) {
+        k2 |= ((long) data.charAt(offset + i)) << ((i - 4) << 4);
+      } else {
+        k1 |= ((long) data.charAt(offset + i)) << (i << 4);
+      }
+    }
+
+    if (length - offset > 4) {
+      h2 ^= mixK2(k2);
+    }
+    if (length - offset > 0) {
+      h1 ^= mixK1(k1);
+    }
+
+    return finish(h1, h2, ((long) length) << 1);
+  }
+
+  /**
+   * 计算字节数组的64位散列值
+   */
+  public static long hash64(byte[] data) {
+    return hash64(data, 0);
+  }
+
+  /**
+   * 计算字节数组的64位散列值
+   *
+   * @param seed 种子
+   */
+  public static long hash64(byte[] data, int seed) {
+    int length = data.length;
+    long h1 = seed & 0xFFFFFFFFL;
+    long h2 = h1;
+    long k1, k2;
+
+    int blocks = length >> 4;
+    int offset;
+
+    for (int i = 0; i < blocks; i++) {
+      offset = i << 4;
+      k1 = getLong(data, offset);
+      k2 = getLong(data, offset + 8);
+
+      h1 ^= mixK1(k1);
+      h1 = Long.rotateLeft(h1, 27);
+      h1 += h2;
+      h1 = h1 * 5 + 0x52dce729;
+
+      h2 ^= mixK2(k2);
+      h2 = Long.rotateLeft(h2, 31);
+      h2 += h1;
+      h2 = h2 * 5 + 0x38495ab5;
+    }
+
+    offset = blocks << 4;
+    k1 = 0;
+    k2 = 0;
+
+    for (int i = length - offset - 1; i >= 0; i--) {
+      if (i >= 8) {
+        k2 |= ((long) (data[offset + i] & 0xFF)) << ((i - 8) << 3);
+      } else {
+        k1 |= ((long) (data[offset + i] & 0xFF)) << (i << 3);
+      }
+    }
+
+    if (length - offset > 8) {
+      h2 ^= mixK2(k2);
+    }
+    if (length - offset > 0) {
+      h1 ^= mixK1(k1);
+    }
+
+    return finish(h1, h2, length);
+  }
+
+  /**
+   * 按照小端字节序将4个字符拼接成一个long
+   */
+  private static long getLong(CharSequence data, int offset) {
+    return ((long) data.charAt(offset))
+            | ((long) data.charAt(offset + 1)) << 16
+            | ((long) data.charAt(offset + 2)) << 32
+            | ((long) data.charAt(offset + 3)) << 48;
+  }
+
+  /**
+   * 按照小端字节序将8个字节拼接成一个long
+   */
+  private static long getLong(byte[] data, int offset) {
+    return (data[offset] & 0xFFL)
+            | (data[offset + 1] & 0xFFL) << 8
+            | (data[offset + 2] & 0xFFL) << 16
+            | (data[offset + 3] & 0xFFL) << 24
+            | (data[offset + 4] & 0xFFL) << 32
+            | (data[offset + 5] & 0xFFL) << 40
+            | (data[offset + 6] & 0xFFL) << 48
+            | (data[offset + 7] & 0xFFL) << 56;
+  }
+
+  private static long mixK1(long k1) {
+    k1 *= C1;
+    k1 = Long.rotateLeft(k1, 31);
+    k1 *= C2;
+    return k1;
+  }
+
+  private static long mixK2(long k2) {
+    k2 *= C2;
+    k2 = Long.rotateLeft(k2, 33);
+    k2 *= C1;
+    return k2;
+  }
+
+  private static long finish(long h1, long h2, long length) {
+    h1 ^= length;
+    h2 ^= length;
+
+    h1 += h2;
+    h2 += h1;
+
+    h1 = fmix64(h1);
+    h2 = fmix64(h2);
+
+    h1 += h2;
+    return h1;
+  }
+
+  private static long fmix64(long k) {
+    k ^= k >>> 33;
+    k *= 0xff51afd7ed558ccdL;
+    k ^= k >>> 33;
+    k *= 0xc4ceb9fe1a85ec53L;
+    k ^= k >>> 33;
+    return k;
+  }
+}
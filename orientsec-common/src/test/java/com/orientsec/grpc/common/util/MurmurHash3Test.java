@@ -0,0 +1,51 @@
+/*
+ * Copyright 2019 Orient Securities Co., Ltd.
+ * Copyright 2019 BoCloud Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientsec.grpc.common.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test for MurmurHash3
+ *
+ * @author sxp
+ * @since 2020/3/8
+ */
+public class MurmurHash3Test {
+  @Test
+  public void hash64() throws Exception {
+    // 与MurmurHash3_x64_128算法结果的低64位一致
+    Assert.assertEquals(0L, MurmurHash3.hash64(new byte[0]));
+    Assert.assertEquals(-3758069500696749310L, MurmurHash3.hash64("hello".getBytes("UTF-8")));
+    Assert.assertEquals(-7805805680839525889L, MurmurHash3.hash64("127.0.0.1:50051"));
+  }
+
+  @Test
+  public void hash64OfString() throws Exception {
+    StringBuilder sb = new StringBuilder();
+
+    // 覆盖完整块和各种长度的剩余部分
+    for (int i = 0; i < 40; i++) {
+      String s = sb.toString();
+      Assert.assertEquals(MurmurHash3.hash64(s.getBytes("UTF-16LE")), MurmurHash3.hash64(s));
+      sb.append((char) ('a' + i * 31 % 26));
+    }
+
+    Assert.assertEquals(MurmurHash3.hash64("中文参数".getBytes("UTF-16LE")), MurmurHash3.hash64("中文参数"));
+    Assert.assertNotEquals(MurmurHash3.hash64("jobId-1"), MurmurHash3.hash64("jobId-2"));
+  }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2019 Orient Securities Co., Ltd.
+ * Copyright 2019 BoCloud Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientsec.grpc.consumer.lb;
+
+import com.orientsec.grpc.consumer.strategy.ConsistentHashRing;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 一致性Hash选择服务提供者的性能测试
+ * <p>
+ * 运行方式：
+ * ./gradlew -PjmhIncludeSingleClass=ConsistentHashBenchmark :orientsec-grpc-consumer:jmh
+ * </p>
+ *
+ * @author sxp
+ * @since 2020/3/8
+ */
+@State(Scope.Benchmark)
+public class ConsistentHashBenchmark {
+  private static final int ARGUMENT_COUNT = 1024;
+
+  @Param({"2", "10", "50", "200"})
+  public int providerCount;
+
+  private ConsistentHashRing ring;
+  private String[] arguments;
+  private int cursor;
+
+  @Setup
+  public void setUp() {
+    String[] keys = new String[providerCount];
+    for (int i = 0; i < providerCount; i++) {
+      keys[i] = "192.168.0." + i + ":50051";
+    }
+    ring = ConsistentHashLoadBalancer.newConsistentHashRing(1L, keys);
+
+    arguments = new String[ARGUMENT_COUNT];
+    for (int i = 0; i < ARGUMENT_COUNT; i++) {
+      arguments[i] = "jobId-" + (i * 7919);
+    }
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public int select() {
+    String argument = arguments[cursor++ & (ARGUMENT_COUNT - 1)];
+    return ring.select(argument);
+  }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2019 Orient Securities Co., Ltd.
+ * Copyright 2019 BoCloud Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientsec.grpc.consumer.lb;
+
+import com.orientsec.grpc.consumer.model.ServiceProvider;
+import com.orientsec.grpc.consumer.strategy.WeightRoundRobin;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 加权轮询选择服务提供者的性能测试
+ * <p>
+ * 选择的开销应该与服务提供者的数量无关，运行方式：
+ * ./gradlew -PjmhIncludeSingleClass=WeightRoundRobinBenchmark :orientsec-grpc-consumer:jmh
+ * </p>
+ *
+ * @author sxp
+ * @since 2020/3/6
+ */
+@State(Scope.Benchmark)
+public class WeightRoundRobinBenchmark {
+
+  @Param({"2", "10", "50", "200"})
+  public int providerCount;
+
+  private WeightRoundRobin weightRoundRobin;
+
+  @Setup
+  public void setUp() {
+    ServiceProvider[] providers = new ServiceProvider[providerCount];
+    ServiceProvider provider;
+
+    for (int i = 0; i < providerCount; i++) {
+      provider = new ServiceProvider();
+      provider.setHost("192.168.0." + i);
+      provider.setPort(50051);
+      provider.setWeight(100 + (i % 5) * 50);
+      providers[i] = provider;
+    }
+
+    weightRoundRobin = WeightRoundRobinLoadBalancer.newWeightRoundRobin(1L, providers);
+  }
+
+  /**
+   * 单线程选择
+   */
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public int next() {
+    return weightRoundRobin.next();
+  }
+
+  /**
+   * 多线程并发选择
+   */
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  @Threads(8)
+  public int nextConcurrent() {
+    return weightRoundRobin.next();
+  }
+}
@@ -18,13 +18,11 @@ package com.orientsec.grpc.consumer.lb;
 
 import com.google.common.base.Preconditions;
 import com.orientsec.grpc.consumer.model.ServiceProvider;
+import com.orientsec.grpc.consumer.strategy.ConsistentHashRing;
 
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Map;
-import java.util.Set;
-import java.util.SortedMap;
-import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
@@ -45,13 +43,30 @@ import java.util.concurrent.ConcurrentMap;
  *
  * @author sxp
  * @since 2018/10/19
+ * @since 2020/3/8 modify by sxp 使用long数组存放的一致性Hash环，根据服务列表的版本号重建
  */
 public class ConsistentHashLoadBalancer {
   /**
    * key值为服务名称
    */
-  private static final ConcurrentMap<String, ConsistentHashSelector> selectors
-          = new ConcurrentHashMap<String, ConsistentHashSelector>();
+  private static final ConcurrentMap<String, KeyedConsistentHashRing> selectors
+          = new ConcurrentHashMap<String, KeyedConsistentHashRing>();
+
+  /**
+   * 根据服务提供者的ip:port创建一致性Hash环
+   * <p>
+   * Hash环只与服务列表的版本相关，调用方在服务列表的版本发生变化时重新创建即可。
+   * </p>
+   *
+   * @param version 服务列表的版本号
+   * @param keys    服务提供者的ip:port，下标与服务提供者数组一一对应
+   * @author sxp
+   * @since 2020/3/8
+   */
+  public static ConsistentHashRing newConsistentHashRing(long version, String[] keys) {
+    Preconditions.checkArgument(keys != null && keys.length > 0, "keys");
+    return ConsistentHashRing.create(version, keys);
+  }
 
   /**
    * 选择服务提供者
@@ -67,130 +82,42 @@ public class ConsistentHashLoadBalancer {
       return serviceProviderMap;
     }
 
-    String arg;
-    if (argument instanceof String) {
-      arg = (String) argument;
-    } else {
-      arg = String.valueOf(argument);
-    }
+    // 服务列表发生变化时，需要重新构造Hash环
+    KeyedConsistentHashRing selector = selectors.get(serviceName);
+    if (selector == null || !selector.isSame(serviceProviderMap)) {
+      String[] keys = serviceProviderMap.keySet().toArray(new String[0]);
+      Arrays.sort(keys);
 
-    // 通过identityHashCode判断服务列表是否发生变化，如果发生变化，需要重新构造选择器
-    int identityHashCode = System.identityHashCode(serviceProviderMap);
-    ConsistentHashSelector selector = selectors.get(serviceName);
-    if (selector == null || selector.getIdentityHashCode() != identityHashCode) {
-      selectors.put(serviceName, new ConsistentHashSelector(serviceProviderMap, identityHashCode));
-      selector = selectors.get(serviceName);
+      selector = new KeyedConsistentHashRing(keys, ConsistentHashRing.create(0L, keys));
+      selectors.put(serviceName, selector);
     }
 
-    Map<String, ServiceProvider> result = selector.select(arg);
-    return result;
+    String key = selector.keys[selector.ring.select(argument)];
+    return Collections.singletonMap(key, serviceProviderMap.get(key));
   }
 
   /**
-   * 一致性Hash算法选择器
-   * <p>
-   * <pre>
-   * 一致性Hash算法的资料
-   * http://blog.csdn.net/cywosp/article/details/23397179/
-   * http://www.cnblogs.com/hapjin/p/4737207.html
-   * com.alibaba.dubbo.rpc.cluster.loadbalance.ConsistentHashLoadBalance
-   * </pre>
-   *
-   * @author sxp
-   * @since 2018/10/20
+   * 一致性Hash环及其对应的服务提供者(ip:port)
    */
-  private static final class ConsistentHashSelector {
-    // 节点的复制因子，虚拟节点个数 = 实际节点个数 * REPLICA_NUMBER，目的是增加算法的平衡性
-    private final int REPLICA_NUMBER = 160;
-
-    private final int identityHashCode;
+  private static final class KeyedConsistentHashRing {
+    final String[] keys;
+    final ConsistentHashRing ring;
 
-    // 虚拟节点的hash值到真实节点的映射
-    private final SortedMap<Long, Map.Entry<String, ServiceProvider>> circle
-            = new TreeMap<Long, Map.Entry<String, ServiceProvider>>();
-
-    public ConsistentHashSelector(Map<String, ServiceProvider> serviceProviderMap, int identityHashCode) {
-      this.identityHashCode = identityHashCode;
-
-      Set<Map.Entry<String, ServiceProvider>> entries = serviceProviderMap.entrySet();
-      Preconditions.checkArgument(entries.size() > 0, "serviceProviderMap的大小不能等于0");
-
-      for (Map.Entry<String, ServiceProvider> entry : entries) {
-        add(entry);
-      }
+    KeyedConsistentHashRing(String[] keys, ConsistentHashRing ring) {
+      this.keys = keys;
+      this.ring = ring;
     }
 
-    /**
-     * 将服务提供者条件到long值做键值的集合中
-     *
-     * @author sxp
-     * @since 2018/12/1
-     */
-    private void add(Map.Entry<String, ServiceProvider> node) {
-      String key;
-
-      for (int i = 0; i < REPLICA_NUMBER; i++) {
-        key = node.getKey() + "#" + i;// ip:port#0, ip:port#1, ...
-        circle.put(md5Hash(key), node);
+    boolean isSame(Map<String, ServiceProvider> serviceProviderMap) {
+      if (keys.length != serviceProviderMap.size()) {
+        return false;
       }
-    }
-
-    /**
-     * 将字符串进行MD5散列并转化为长整数
-     *
-     * @author sxp
-     * @since 2018/12/1
-     */
-    private long md5Hash(String key) {
-      try {
-        MessageDigest md = MessageDigest.getInstance("MD5");
-        byte[] digest = md.digest(key.getBytes());// 128bit, 16byte
-
-        // 取值范围：0 ~ 2^32-1
-        long result = (((long) (digest[3] & 0xFF) << 24)
-                | ((long) (digest[2] & 0xFF) << 16)
-                | ((long) (digest[1] & 0xFF) << 8)
-                | (digest[0] & 0xFF))
-                & 0xFFFFFFFFL;
-
-        return result;
-      } catch (NoSuchAlgorithmException e) {
-        return 1L;
+      for (String key : keys) {
+        if (!serviceProviderMap.containsKey(key)) {
+          return false;
+        }
       }
+      return true;
     }
-
-    /**
-     * 根据参数值选择指定的服务提供者
-     *
-     * @author sxp
-     * @since 2018/10/20
-     */
-    public Map<String, ServiceProvider> select(String arg) {
-      long hash = md5Hash(arg);
-
-      // 数据映射在两台虚拟机器所在环之间，按顺时针方向寻找机器
-      if (!circle.containsKey(hash)) {
-        SortedMap<Long, Map.Entry<String, ServiceProvider>> tailMap = circle.tailMap(hash);
-        hash = tailMap.isEmpty() ? circle.firstKey() : tailMap.firstKey();
-      }
-
-      Map.Entry<String, ServiceProvider> providerEntry = circle.get(hash);
-
-      Map<String, ServiceProvider> result = new ConcurrentHashMap<String, ServiceProvider>();
-      result.put(providerEntry.getKey(), providerEntry.getValue());
-
-      return result;
-    }
-
-    /**
-     * 获取身份Hash值
-     *
-     * @author sxp
-     * @since 2018/12/1
-     */
-    public int getIdentityHashCode() {
-      return identityHashCode;
-    }
-
   }
 }
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2019 Orient Securities Co., Ltd.
+ * Copyright 2019 BoCloud Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientsec.grpc.consumer.lb;
+
+import com.orientsec.grpc.consumer.strategy.ProviderLoad;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 最少并发请求数(Power of Two Choices)
+ * <p>
+ * 每次随机选出两个服务提供者，将请求发给正在执行的请求数较少的那一个。
+ * 响应慢或者发生GC停顿的服务提供者上积压的请求较多，会自动减少分配给它的请求。
+ * 与遍历所有服务提供者选出最小值相比，随机选两个可以避免大量客户端同时涌向同一个服务提供者。
+ * </p>
+ * <p>
+ * 资料：https://www.eecs.harvard.edu/~michaelm/postscripts/mythesis.pdf
+ * </p>
+ *
+ * @author sxp
+ * @since 2020/3/10
+ */
+public class LeastRequestLoadBalancer {
+
+  /**
+   * 选择服务提供者
+   *
+   * @param loads 服务提供者的负载，下标与服务提供者数组一一对应
+   * @return 服务提供者的下标，没有服务提供者时返回-1
+   * @author sxp
+   * @since 2020/3/10
+   */
+  public static int chooseIndex(ProviderLoad[] loads) {
+    if (loads == null || loads.length == 0) {
+      return -1;
+    }
+
+    int size = loads.length;
+    if (size == 1) {
+      return 0;
+    }
+
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    int first = random.nextInt(size);
+    int second = random.nextInt(size - 1);
+    if (second >= first) {
+      second++;// 保证两次选出的服务提供者不同
+    }
+
+    return (loads[second].getInFlight() < loads[first].getInFlight()) ? second : first;
+  }
+}
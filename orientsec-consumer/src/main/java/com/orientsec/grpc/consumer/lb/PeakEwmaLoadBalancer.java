@@ -0,0 +1,67 @@
+/*
+ * Copyright 2019 Orient Securities Co., Ltd.
+ * Copyright 2019 BoCloud Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientsec.grpc.consumer.lb;
+
+import com.orientsec.grpc.consumer.strategy.ProviderLoad;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 响应时间加权(Peak EWMA)
+ * <p>
+ * 每次随机选出两个服务提供者，将请求发给“响应时间的峰值指数加权移动平均值 * (正在执行的请求数 + 1)”较小的那一个。
+ * 响应时间变长时代价立即升高，恢复后按照衰减时间逐渐降低，
+ * 因此响应慢的服务提供者会很快减少分配给它的请求，而不必等到请求积压。
+ * 响应时间在每次请求结束时由传输层记录，连接负载均衡模式和请求负载均衡模式都可以使用。
+ * </p>
+ * <p>
+ * 资料：https://linkerd.io/2016/03/16/beyond-round-robin-load-balancing-for-latency/
+ * </p>
+ *
+ * @author sxp
+ * @since 2020/3/11
+ */
+public class PeakEwmaLoadBalancer {
+
+  /**
+   * 选择服务提供者
+   *
+   * @param loads 服务提供者的负载，下标与服务提供者数组一一对应
+   * @return 服务提供者的下标，没有服务提供者时返回-1
+   * @author sxp
+   * @since 2020/3/11
+   */
+  public static int chooseIndex(ProviderLoad[] loads) {
+    if (loads == null || loads.length == 0) {
+      return -1;
+    }
+
+    int size = loads.length;
+    if (size == 1) {
+      return 0;
+    }
+
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    int first = random.nextInt(size);
+    int second = random.nextInt(size - 1);
+    if (second >= first) {
+      second++;// 保证两次选出的服务提供者不同
+    }
+
+    return (loads[second].getPeakEwmaCost() < loads[first].getPeakEwmaCost()) ? second : first;
+  }
+}
@@ -47,13 +47,13 @@
 
 package com.orientsec.grpc.consumer.lb;
 
+import com.google.common.base.Preconditions;
 import com.orientsec.grpc.consumer.model.ServiceProvider;
+import com.orientsec.grpc.consumer.strategy.RoundRobin;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Map;
-import java.util.Random;
-import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
@@ -62,9 +62,32 @@ import java.util.concurrent.ConcurrentHashMap;
  * @author yangzhenrong
  * @since 2018-04-13 13:37
  * @since 2018-5-25 modify by sxp 该场景不需要严格地控制并发，只需要在大体上体现出轮询的效果即可
+ * @since 2020-3-7 modify by sxp 缓存排好序的服务提供者数组，使用原子游标轮询
  */
 public class RoundRobinLoadBalancer {
-  private static Map<String, Integer> indexMap = new ConcurrentHashMap<String, Integer>();
+  /**
+   * 接口对应的轮询选择器
+   * <p>
+   * key值为接口名称
+   * <p/>
+   */
+  private static ConcurrentHashMap<String, KeyedRoundRobin> serviceMap = new ConcurrentHashMap<>();
+
+  /**
+   * 根据服务提供者数组创建轮询选择器
+   * <p>
+   * 选择器只与服务列表的版本相关，调用方在服务列表的版本发生变化时重新创建即可。
+   * </p>
+   *
+   * @param version   服务列表的版本号
+   * @param providers 按照ip:port排好序的服务提供者数组
+   * @author sxp
+   * @since 2020/3/7
+   */
+  public static RoundRobin newRoundRobin(long version, ServiceProvider[] providers) {
+    Preconditions.checkArgument(providers != null && providers.length > 0, "providers");
+    return RoundRobin.create(version, providers);
+  }
 
   /**
    * 选择服务提供者
@@ -78,44 +101,49 @@ public class RoundRobinLoadBalancer {
       return serviceProviderMap;
     }
 
-    Map<String, ServiceProvider> result = new ConcurrentHashMap<String, ServiceProvider>();
-
-    Set<String> keySet = serviceProviderMap.keySet();
-    ArrayList<String> keyList = new ArrayList<String>();
-    keyList.addAll(keySet);
-    Collections.sort(keyList);
-
-    int serviceCount = keySet.size();
     String interfaceName = getInterfaceName(serviceProviderMap);
-    String serverKey;
+    Preconditions.checkNotNull(interfaceName, "interfaceName");
 
-    // 使用一个临时变量tempIndex避免keyList.get(tempIndex)时数组越界
-    int tempIndex = getIndex(interfaceName, serviceCount) + 1;
-    if (tempIndex >= serviceCount) {
-      tempIndex = tempIndex % serviceCount;
-    }
-    serverKey = keyList.get(tempIndex);
+    KeyedRoundRobin rr = serviceMap.get(interfaceName);
+    if (rr == null || !rr.isSame(serviceProviderMap)) {
+      String[] keys = serviceProviderMap.keySet().toArray(new String[0]);
+      Arrays.sort(keys);
 
-    indexMap.put(interfaceName, tempIndex);
+      ServiceProvider[] providers = new ServiceProvider[keys.length];
+      for (int i = 0; i < keys.length; i++) {
+        providers[i] = serviceProviderMap.get(keys[i]);
+      }
 
-    result.put(serverKey, serviceProviderMap.get(serverKey));
+      rr = new KeyedRoundRobin(keys, RoundRobin.create(0L, providers));
+      serviceMap.put(interfaceName, rr);
+    }
 
-    return result;
+    String serverKey = rr.keys[rr.roundRobin.nextIndex()];
+    return Collections.singletonMap(serverKey, serviceProviderMap.get(serverKey));
   }
 
   /**
-   * 获取当前的下标值
-   * <p>第一次取值总是使用随机数</p>
-   *
-   * @author sxp
-   * @since 2018/12/1
+   * 轮询选择器及其对应的服务提供者(ip:port)
    */
-  private static Integer getIndex(String interfaceName, int serviceCount) {
-    if (null == indexMap || !indexMap.containsKey(interfaceName)) {
-      Random random = new Random();
-      return random.nextInt(serviceCount);
-    } else {
-      return indexMap.get(interfaceName);
+  private static final class KeyedRoundRobin {
+    final String[] keys;
+    final RoundRobin roundRobin;
+
+    KeyedRoundRobin(String[] keys, RoundRobin roundRobin) {
+      this.keys = keys;
+      this.roundRobin = roundRobin;
+    }
+
+    boolean isSame(Map<String, ServiceProvider> serviceProviderMap) {
+      if (keys.length != serviceProviderMap.size()) {
+        return false;
+      }
+      for (String key : keys) {
+        if (!serviceProviderMap.containsKey(key)) {
+          return false;
+        }
+      }
+      return true;
     }
   }
 
@@ -49,11 +49,9 @@ package com.orientsec.grpc.consumer.lb;
 
 import com.google.common.base.Preconditions;
 import com.orientsec.grpc.consumer.model.ServiceProvider;
-import com.orientsec.grpc.consumer.strategy.Server;
 import com.orientsec.grpc.consumer.strategy.WeightRoundRobin;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -63,15 +61,38 @@ import java.util.concurrent.ConcurrentHashMap;
  * @author bona
  * @since 2018-04-13 13:43
  * @since 2018-4-20 modify by sxp 用ConcurrentHashMap来取代对象锁
+ * @since 2020-3-6 modify by sxp 使用预先计算的调度表，解决多线程并发修改当前权重的问题
  */
 public class WeightRoundRobinLoadBalancer {
   /**
-   * 作为全局变量存放，接口对应的服务列表
+   * 作为全局变量存放，接口对应的调度表
    * <p>
    * key值为接口名称
    * <p/>
    */
-  private static ConcurrentHashMap<String, WeightRoundRobin> serviceMap = new ConcurrentHashMap<>();
+  private static ConcurrentHashMap<String, KeyedWeightRoundRobin> serviceMap = new ConcurrentHashMap<>();
+
+  /**
+   * 根据服务提供者数组创建调度表
+   * <p>
+   * 调度表只与服务列表的版本相关，调用方在服务列表的版本发生变化时重新创建即可，每次选择不需要再校验服务列表是否变化。
+   * </p>
+   *
+   * @param version   服务列表的版本号
+   * @param providers 服务提供者数组
+   * @author sxp
+   * @since 2020/3/6
+   */
+  public static WeightRoundRobin newWeightRoundRobin(long version, ServiceProvider[] providers) {
+    Preconditions.checkArgument(providers != null && providers.length > 0, "providers");
+
+    int[] weights = new int[providers.length];
+    for (int i = 0; i < providers.length; i++) {
+      weights[i] = providers[i].getWeight();
+    }
+
+    return WeightRoundRobin.create(version, weights);
+  }
 
   /**
    * 对提供的服务列表运用权重负载均衡算法，获取一条服务供调用
@@ -87,100 +108,42 @@ public class WeightRoundRobinLoadBalancer {
     String interfaceName = RoundRobinLoadBalancer.getInterfaceName(serviceProviders);
     Preconditions.checkNotNull(interfaceName, "interfaceName");
 
-    Server server = getWeightRoundRobin(interfaceName, serviceProviders).getBestServer();
-    Preconditions.checkNotNull(server, "server");
+    String[] keys = serviceProviders.keySet().toArray(new String[0]);
+    Arrays.sort(keys);
 
-    Map<String, ServiceProvider> serverMap = new ConcurrentHashMap<String, ServiceProvider>();
-    serverMap.put(server.getKey(), serviceProviders.get(server.getKey()));
-    return serverMap;
-  }
-
-  /**
-   * 获取接口名称，权重对象
-   *
-   * @param interfaceName    接口名称
-   * @param serviceProviders 服务类别
-   * @return 权重算法对象
-   */
-  private static WeightRoundRobin getWeightRoundRobin(String interfaceName, Map<String, ServiceProvider> serviceProviders) {
-    WeightRoundRobin wrr;
-
-    if (!serviceMap.containsKey(interfaceName)) {
-      wrr = newWeightRoundRobin(serviceProviders);
-      if (null != wrr) {
-        WeightRoundRobin oldValue = serviceMap.putIfAbsent(interfaceName, wrr);
-        if (oldValue != null) {
-          wrr = oldValue;// 考虑多线程
-        }
-      }
-    } else {
-      wrr = serviceMap.get(interfaceName);
-
-      if (isChanged(wrr, serviceProviders)) {
-        WeightRoundRobin newWrr = newWeightRoundRobin(serviceProviders);
-        if (null != newWrr) {
-          serviceMap.put(interfaceName, newWrr);
-        }
-        wrr = newWrr;
-      }
+    int[] weights = new int[keys.length];
+    for (int i = 0; i < keys.length; i++) {
+      weights[i] = serviceProviders.get(keys[i]).getWeight();
     }
 
-    return wrr;
-  }
-
-  /**
-   * 根据serviceProviders构建WeightRoundRobin对象
-   *
-   * @param serviceProviders 经过黑白名单筛选的服务列表
-   */
-  private static WeightRoundRobin newWeightRoundRobin(Map<String, ServiceProvider> serviceProviders) {
-    WeightRoundRobin wrr = new WeightRoundRobin();
-
-    // 将Map里面的value值放到一个List中
-    List<Server> serverList = new ArrayList<>();
-
-    for (Map.Entry<String, ServiceProvider> entry : serviceProviders.entrySet()) {
-      Server server = new Server(entry.getKey(), entry.getValue().getWeight());
-      serverList.add(server);
+    KeyedWeightRoundRobin wrr = serviceMap.get(interfaceName);
+    if (wrr == null || !wrr.isSame(keys, weights)) {
+      wrr = new KeyedWeightRoundRobin(keys, WeightRoundRobin.create(0L, weights));
+      serviceMap.put(interfaceName, wrr);
     }
 
-    wrr.setServers(serverList);
+    String key = wrr.keys[wrr.weightRoundRobin.next()];
 
-    return wrr;
+    Map<String, ServiceProvider> serverMap = new ConcurrentHashMap<String, ServiceProvider>();
+    serverMap.put(key, serviceProviders.get(key));
+    return serverMap;
   }
 
   /**
-   * 校验服务列表获取权重值是否已经发生变更.
-   *
-   * @param wrr              暂存的服务对象
-   * @param serviceProviders 当前获取到的服务列表
-   * @return true 服务列表或权重发生变化 false 服务列表或权重未发生变化
+   * 调度表及其对应的服务提供者(ip:port)
    */
-  private static boolean isChanged(WeightRoundRobin wrr, Map<String, ServiceProvider> serviceProviders) {
-    if (null == wrr) {
-      return true;
-    }
+  private static final class KeyedWeightRoundRobin {
+    final String[] keys;
+    final WeightRoundRobin weightRoundRobin;
 
-    List<Server> serverList = wrr.getServers();
-    if (serverList.isEmpty()) {
-      return true;
+    KeyedWeightRoundRobin(String[] keys, WeightRoundRobin weightRoundRobin) {
+      this.keys = keys;
+      this.weightRoundRobin = weightRoundRobin;
     }
 
-    if (serverList.size() != serviceProviders.size()) {
-      return true;
+    boolean isSame(String[] keys, int[] weights) {
+      return Arrays.equals(this.keys, keys) && weightRoundRobin.hasSameWeights(weights);
     }
-
-    for (Server server : serverList) {
-      if (!serviceProviders.containsKey(server.getKey())) {
-        return true;
-      }
-      // weight值发生变更
-      if (serviceProviders.get(server.getKey()).getWeight() != server.getWeight()) {
-        return true;
-      }
-    }
-
-    return false;
   }
 
 }
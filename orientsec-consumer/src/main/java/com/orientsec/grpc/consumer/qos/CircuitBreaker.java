@@ -0,0 +1,266 @@
+/*
+ * Copyright 2019 Orient Securities Co., Ltd.
+ * Copyright 2019 BoCloud Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientsec.grpc.consumer.qos;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 客户端调用某个服务提供者的熔断器
+ * <p>
+ * 每个【客户端对应服务提供者】一个熔断器对象，使用滑动窗口统计请求次数和失败次数：
+ * 统计周期被划分为{@link #BUCKET_COUNT}个时间桶，桶按照时间循环复用，过期的桶在下一次写入时通过CAS替换，
+ * 因此统计结果随时间平滑滚动，不会在统计周期的边界上整体清零。
+ * </p>
+ * <p>
+ * 状态转换全部通过CAS完成：<br>
+ * CLOSED -> OPEN：滑动窗口内的请求数达到阈值并且错误百分比达到阈值 <br>
+ * OPEN -> HALF_OPEN：熔断器打开后经过sleepWindow由定时任务转换 <br>
+ * HALF_OPEN -> CLOSED：探测请求执行成功 <br>
+ * HALF_OPEN -> OPEN：探测请求执行失败 <br>
+ * 半熔断状态下最多放行halfOpenRequests个探测请求。
+ * </p>
+ * <p>
+ * 每次转换为半熔断状态时代数加1，调用发出时通过{@link #getGeneration()}记录当时的代数，
+ * 半熔断状态下只有代数与当前代数相同的调用(即进入半熔断状态之后放行的探测请求)的结果才会改变熔断器的状态，
+ * 进入半熔断状态之前发出、之后才返回的调用不作为探测结果。
+ * </p>
+ *
+ * @author sxp
+ * @since 2020/3/11
+ */
+public final class CircuitBreaker {
+  /**
+   * 熔断器的状态
+   */
+  public enum State {
+    CLOSED, OPEN, HALF_OPEN
+  }
+
+  /** 滑动窗口中时间桶的个数 */
+  static final int BUCKET_COUNT = 10;
+
+  private final long bucketMillis;
+  private final int requestThreshold;
+  private final int errorPercentage;
+  private final long sleepWindowMillis;
+  private final int halfOpenRequests;
+
+  private final AtomicReferenceArray<Bucket> buckets = new AtomicReferenceArray<Bucket>(BUCKET_COUNT);
+  private final AtomicReference<State> state = new AtomicReference<State>(State.CLOSED);
+
+  /** 进入当前状态(或者上一次补充探测请求数)的时间 */
+  private volatile long stateTime;
+
+  /** 半熔断状态下剩余可以放行的探测请求数 */
+  private final AtomicInteger probes = new AtomicInteger();
+
+  /** 半熔断代数，每次转换为半熔断状态时加1 */
+  private final AtomicInteger generation = new AtomicInteger();
+
+  /**
+   * @param periodMillis      统计周期(滑动窗口的长度)，单位毫秒
+   * @param requestThreshold  统计周期中至少请求多少次才会触发熔断
+   * @param errorPercentage   熔断器打开的错误百分比阈值
+   * @param sleepWindowMillis 熔断器打开后经过多长时间允许请求尝试执行，单位毫秒
+   * @param halfOpenRequests  半熔断状态下最多放行的探测请求数
+   */
+  public CircuitBreaker(long periodMillis, int requestThreshold, int errorPercentage,
+                        long sleepWindowMillis, int halfOpenRequests) {
+    if (periodMillis <= 0 || requestThreshold <= 0 || errorPercentage <= 0
+            || sleepWindowMillis <= 0 || halfOpenRequests <= 0) {
+      throw new IllegalArgumentException("熔断器的参数必须大于0");
+    }
+
+    this.bucketMillis = Math.max(1L, periodMillis / BUCKET_COUNT);
+    this.requestThreshold = requestThreshold;
+    this.errorPercentage = errorPercentage;
+    this.sleepWindowMillis = sleepWindowMillis;
+    this.halfOpenRequests = halfOpenRequests;
+  }
+
+  /**
+   * 记录一次调用的结果
+   *
+   * @param success    调用是否成功
+   * @param now        当前时间的毫秒数
+   * @param generation 调用发出时通过{@link #getGeneration()}获取的半熔断代数
+   * @return 本次调用导致熔断器转换到的新状态，状态没有变化时返回null
+   * @since 2020/3/11 modify by sxp 半熔断状态下只统计进入半熔断状态之后放行的探测请求
+   */
+  public State record(boolean success, long now, int generation) {
+    State current = state.get();
+
+    if (current == State.HALF_OPEN) {
+      if (generation != this.generation.get()) {
+        return null;// 不是本轮半熔断放行的探测请求
+      }
+      if (success) {
+        if (state.compareAndSet(State.HALF_OPEN, State.CLOSED)) {
+          clearWindow();
+          stateTime = now;
+          return State.CLOSED;
+        }
+      } else if (state.compareAndSet(State.HALF_OPEN, State.OPEN)) {
+        stateTime = now;
+        return State.OPEN;
+      }
+      return null;
+    }
+
+    long epoch = now / bucketMillis;
+    Bucket bucket = currentBucket(epoch);
+    bucket.total.incrementAndGet();
+    if (success) {
+      return null;
+    }
+    bucket.failures.incrementAndGet();
+
+    // 只在失败时才需要判断是否打开熔断器
+    if (current == State.CLOSED && isErrorRateExceeded(epoch)
+            && state.compareAndSet(State.CLOSED, State.OPEN)) {
+      stateTime = now;
+      return State.OPEN;
+    }
+    return null;
+  }
+
+  private Bucket currentBucket(long epoch) {
+    int index = (int) (epoch % BUCKET_COUNT);
+    Bucket bucket = buckets.get(index);
+
+    if (bucket == null || bucket.epoch != epoch) {
+      Bucket newBucket = new Bucket(epoch);
+      if (buckets.compareAndSet(index, bucket, newBucket)) {
+        bucket = newBucket;
+      } else {
+        bucket = buckets.get(index);// 其他线程已经替换
+      }
+    }
+    return bucket;
+  }
+
+  private boolean isErrorRateExceeded(long epoch) {
+    long total = 0;
+    long failures = 0;
+    Bucket bucket;
+
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      bucket = buckets.get(i);
+      if (bucket != null && epoch - bucket.epoch < BUCKET_COUNT) {
+        total += bucket.total.get();
+        failures += bucket.failures.get();
+      }
+    }
+
+    return total >= requestThreshold && failures * 100 >= total * errorPercentage;
+  }
+
+  private void clearWindow() {
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      buckets.set(i, null);
+    }
+  }
+
+  /**
+   * 熔断器打开一段时间后转换为半熔断状态
+   *
+   * @return 是否转换成功
+   */
+  public boolean halfOpen(long now) {
+    if (state.get() != State.OPEN) {
+      return false;
+    }
+
+    // 先增加代数再转换状态，保证进入半熔断状态时之前发出的调用已经不是当前代数
+    generation.incrementAndGet();
+    if (state.compareAndSet(State.OPEN, State.HALF_OPEN)) {
+      // 只有转换成功的线程才补充探测请求数，避免其它状态下的并发调用改写计数
+      probes.set(halfOpenRequests);
+      stateTime = now;
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * 是否允许向该服务提供者发送请求
+   * <p>
+   * 半熔断状态下放行的探测请求数达到上限后不再放行，直到探测请求返回结果；
+   * 如果经过sleepWindow探测请求依然没有结果，重新补充探测请求数
+   * </p>
+   */
+  public boolean allowRequest() {
+    State current = state.get();
+    if (current == State.CLOSED) {
+      return true;
+    }
+    if (current == State.OPEN) {
+      return false;
+    }
+
+    int remaining;
+    while ((remaining = probes.get()) > 0) {
+      if (probes.compareAndSet(remaining, remaining - 1)) {
+        return true;
+      }
+    }
+
+    long now = System.currentTimeMillis();
+    if (now - stateTime >= sleepWindowMillis) {
+      stateTime = now;
+      probes.set(halfOpenRequests - 1);
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * 获取当前的半熔断代数
+   * <p>
+   * 调用发出时记录，调用结束时传给{@link #record(boolean, long, int)}，用于判断调用是否为本轮半熔断放行的探测请求
+   * </p>
+   */
+  public int getGeneration() {
+    return generation.get();
+  }
+
+  public State getState() {
+    return state.get();
+  }
+
+  @Override
+  public String toString() {
+    return "CircuitBreaker{state=" + state.get() + "}";
+  }
+
+  /**
+   * 滑动窗口中的一个时间桶
+   */
+  private static final class Bucket {
+    /** 时间桶的序号，即时间戳除以时间桶的长度 */
+    final long epoch;
+    final AtomicLong total = new AtomicLong();
+    final AtomicLong failures = new AtomicLong();
+
+    Bucket(long epoch) {
+      this.epoch = epoch;
+    }
+  }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2019 Orient Securities Co., Ltd.
+ * Copyright 2019 BoCloud Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientsec.grpc.consumer.qos;
+
+import com.orientsec.grpc.common.constant.GlobalConstants;
+import com.orientsec.grpc.common.resource.SystemConfig;
+import com.orientsec.grpc.common.util.GrpcUtils;
+import com.orientsec.grpc.common.util.PropertiesUtils;
+import com.orientsec.grpc.common.util.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 客户端forking集群容错模式工具类
+ * <p>
+ * forking模式下一次调用同时发给多个不同的服务提供者，使用最先成功返回的结果。
+ * 除第一个调用之外的调用都是额外的负载，所有服务额外发出的、尚未结束的调用数受全局上限控制。
+ * </p>
+ *
+ * @author sxp
+ * @since 2020/3/11
+ */
+public class ConsumerForkingUtils {
+  private static final Logger logger = LoggerFactory.getLogger(ConsumerForkingUtils.class);
+
+  private static final String FORKING = GlobalConstants.CLUSTER.FORKING.name().toLowerCase();
+
+  private static Properties properties = SystemConfig.getProperties();
+
+  /**
+   * 同时调用的服务提供者个数
+   */
+  private static int forks = initForks();
+
+  /**
+   * 额外调用数的上限
+   */
+  private static int maxExtraRequests = initMaxExtraRequests();
+
+  /**
+   * 当前额外发出的、尚未结束的调用数
+   */
+  private static final AtomicInteger extraRequests = new AtomicInteger();
+
+  /**
+   * 各方法是否使用forking模式，key值为方法全名，即interface/method
+   */
+  private static final ConcurrentHashMap<String, Boolean> forkingMethods = new ConcurrentHashMap<>();
+
+  private static int initForks() {
+    String key = GlobalConstants.Consumer.Key.FORKING_FORKS;
+    int defaultValue = 2;
+
+    int value = PropertiesUtils.getValidIntegerValue(properties, key, defaultValue);
+    if (value < 1) {
+      value = defaultValue;
+    }
+    return value;
+  }
+
+  private static int initMaxExtraRequests() {
+    String key = GlobalConstants.Consumer.Key.FORKING_MAX_EXTRA_REQUESTS;
+    int defaultValue = 100;
+
+    int value = PropertiesUtils.getValidIntegerValue(properties, key, defaultValue);
+    if (value < 0) {
+      value = defaultValue;
+    }
+    return value;
+  }
+
+  /**
+   * 方法是否使用forking模式
+   * <p>
+   * 1. 从配置文件中获取指定Method的集群容错模式 <br>
+   * 2. 如果Method没有配置，则取服务的配置 <br>
+   * 3. 如果服务没有配置，则取默认配置
+   * </p>
+   */
+  public static boolean isForking(String fullMethodName) {
+    Boolean value = forkingMethods.get(fullMethodName);
+    if (value != null) {
+      return value.booleanValue();
+    }
+
+    String interfaceName = GrpcUtils.getInterfaceNameNoneException(fullMethodName);
+    String methodName = GrpcUtils.getSimpleMethodName(fullMethodName);
+    String key = GlobalConstants.Consumer.Key.DEFAULT_CLUSTER;
+
+    String cluster = getProperty(key + "[" + interfaceName + "." + methodName + "]");
+    if (cluster == null) {
+      cluster = getProperty(key + "[" + interfaceName + "]");
+    }
+    if (cluster == null) {
+      cluster = getProperty(key);
+    }
+
+    boolean forking = FORKING.equalsIgnoreCase(cluster);
+    if (forking) {
+      logger.info("方法[" + fullMethodName + "]使用forking集群容错模式，同时调用的服务提供者个数为" + forks);
+    }
+
+    forkingMethods.putIfAbsent(fullMethodName, forking);
+    return forking;
+  }
+
+  private static String getProperty(String key) {
+    if (properties == null) {
+      return null;
+    }
+    String value = properties.getProperty(key);
+    return StringUtils.isEmpty(value) ? null : value.trim();
+  }
+
+  /**
+   * 同时调用的服务提供者个数
+   */
+  public static int getForks() {
+    return forks;
+  }
+
+  /**
+   * 申请发出额外的调用
+   *
+   * @param wanted 需要的额外调用数
+   * @return 实际允许的额外调用数，调用结束后需要通过{@link #releaseExtraRequest()}逐个归还
+   */
+  public static int acquireExtraRequests(int wanted) {
+    return acquireExtraRequests(extraRequests, maxExtraRequests, wanted);
+  }
+
+  static int acquireExtraRequests(AtomicInteger counter, int max, int wanted) {
+    int current;
+    int granted;
+
+    do {
+      current = counter.get();
+      granted = Math.min(wanted, max - current);
+      if (granted <= 0) {
+        return 0;
+      }
+    } while (!counter.compareAndSet(current, current + granted));
+
+    return granted;
+  }
+
+  /**
+   * 一个额外的调用结束
+   */
+  public static void releaseExtraRequest() {
+    extraRequests.decrementAndGet();
+  }
+
+  /**
+   * 当前额外发出的、尚未结束的调用数
+   */
+  public static int getExtraRequests() {
+    return extraRequests.get();
+  }
+}
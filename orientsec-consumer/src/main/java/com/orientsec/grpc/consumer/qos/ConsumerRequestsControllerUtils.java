@@ -16,96 +16,164 @@
  */
 package com.orientsec.grpc.consumer.qos;
 
+import com.orientsec.grpc.common.constant.GlobalConstants;
+import com.orientsec.grpc.common.resource.SystemConfig;
 import com.orientsec.grpc.common.util.GrpcUtils;
+import com.orientsec.grpc.common.util.PropertiesUtils;
 import com.orientsec.grpc.common.util.StringUtils;
 
+import java.util.Properties;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * 客户端请求数控制器工具类
+ * <p>
+ * 2020/3/11 modify by sxp: 由"每秒重新计数"改为令牌桶，令牌按照每秒钟的请求次数匀速补充，
+ * 避免每秒开始时突发大量请求、随后一直被拒绝的情况；同时支持按服务和按方法配置。
+ * </p>
  *
  * @author sxp
  * @since V1.0 2017/3/29
  */
 public class ConsumerRequestsControllerUtils {
+  private static Properties properties = SystemConfig.getProperties();
+
+  /**
+   * 令牌桶允许的突发时长(毫秒)，桶的容量 = 每秒钟的请求次数 * burstMillis / 1000
+   */
+  private static long burstMillis = initPositiveLong(GlobalConstants.Consumer.Key.REQUESTS_BURST_MILLIS, 1000L);
+
+  /**
+   * 没有可用令牌时最多等待的时间(毫秒)，0表示立即失败
+   */
+  private static long maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(
+          initNonNegativeLong(GlobalConstants.Consumer.Key.REQUESTS_MAX_WAIT_MILLIS, 0L));
+
   /**
    * 客户端请求数控制器的数据集
    * <p>
-   * key值为服务接口名，即interface
+   * key值为服务接口名(即interface)或者方法全名(即interface/method)，方法的配置优先
    * </p>
    */
   private volatile static ConcurrentHashMap<String, Long> maxRequestsMap
           = new ConcurrentHashMap<>();
 
   /**
-   * 上一次服务调用的时间，当前时间和上次时间超过1秒会更新数据
+   * 各服务(方法)的令牌桶，key值与maxRequestsMap相同
    */
-  private volatile static ConcurrentHashMap<String, Long> lastInvokeTime
+  private volatile static ConcurrentHashMap<String, TokenBucket> buckets
           = new ConcurrentHashMap<>();
 
-  /**
-   * 记录各服务1秒钟之内发起服务调用请求数，当前时间和上次时间超过1秒重新计数
-   */
-  private volatile static ConcurrentHashMap<String, AtomicLong> requestNumCounters
-          = new ConcurrentHashMap<>();
+  private static long initPositiveLong(String key, long defaultValue) {
+    long value = PropertiesUtils.getValidLongValue(properties, key, defaultValue);
+    if (value <= 0) {
+      value = defaultValue;
+    }
+    return value;
+  }
 
+  private static long initNonNegativeLong(String key, long defaultValue) {
+    long value = PropertiesUtils.getValidLongValue(properties, key, defaultValue);
+    if (value < 0) {
+      value = defaultValue;
+    }
+    return value;
+  }
 
   /**
    * 增加请求数
+   * <p>
+   * 2020/3/11 modify by sxp: 从令牌桶中获取令牌，没有可用令牌时按照配置短暂等待或者立即失败，
+   * 失败时抛出{@link RequestsLimitException}。
+   * </p>
    */
   public static void addRequestNum(String fullMethodName) {
-    String serviceName = GrpcUtils.getInterfaceNameNoneException(fullMethodName);
-    if (StringUtils.isEmpty(serviceName)) {
+    String key = getControlKey(fullMethodName);
+    if (key == null) {
       return;
     }
 
-    //当前指定的服务不需要进行流控
-    if (!maxRequestsMap.containsKey(serviceName)) {
+    Long maxRequestsObject = maxRequestsMap.get(key);
+    if (maxRequestsObject == null || maxRequestsObject.longValue() <= 0) {
       return;
     }
+    long maxRequests = maxRequestsObject.longValue();
 
-    long maxRequests = maxRequestsMap.get(serviceName).longValue();
+    TokenBucket bucket = getBucket(key, maxRequests);
+    long waitNanos = bucket.reserve(System.nanoTime(), maxWaitNanos);
 
-    if (maxRequests <= 0) {
-      return;
+    if (waitNanos < 0) {
+      throw new RequestsLimitException("当前客户端调用服务[" + key + "]的请求数超出限制值[" + maxRequests
+              + "]，请求失败！");
     }
 
-    AtomicLong currentRequestNum;
-    long currentTime = System.currentTimeMillis();
+    if (waitNanos > 0) {
+      LockSupport.parkNanos(waitNanos);
+    }
+  }
 
-    if (requestNumCounters.containsKey(serviceName)) {
-      currentRequestNum = requestNumCounters.get(serviceName);
+  /**
+   * 获取令牌桶，每秒钟的请求次数发生变化时重新创建
+   *
+   * @author sxp
+   * @since 2020/3/11
+   */
+  private static TokenBucket getBucket(String key, long maxRequests) {
+    TokenBucket bucket = buckets.get(key);
+    if (bucket != null && bucket.getRate() == maxRequests) {
+      return bucket;
+    }
 
-      Long lastTimeObject = lastInvokeTime.get(serviceName);
-      if (lastTimeObject == null) {
-        lastTimeObject = 0L;
-      }
-      long lastTime = lastTimeObject.longValue();
+    long burst = Math.max(1L, maxRequests * burstMillis / 1000L);
+    TokenBucket newBucket = new TokenBucket(maxRequests, burst);
 
-      if(currentTime - lastTime > 1000) {
-        lastInvokeTime.put(serviceName, currentTime);// 超过1秒时间更新
-        currentRequestNum.set(0);// 超过1秒重新计数
-      }
-    } else {
-      lastInvokeTime.put(serviceName, currentTime);
+    if (bucket == null) {
+      bucket = buckets.putIfAbsent(key, newBucket);
+      return (bucket == null) ? newBucket : bucket;
+    }
 
-      currentRequestNum = new AtomicLong(0);
-      AtomicLong oldValue = requestNumCounters.putIfAbsent(serviceName, currentRequestNum);
-      if (oldValue != null) {
-        currentRequestNum = oldValue;
-      }
+    // 防止其他线程在这段时间内已经替换了令牌桶
+    if (buckets.replace(key, bucket, newBucket)) {
+      return newBucket;
+    }
+    bucket = buckets.get(key);
+    return (bucket == null) ? newBucket : bucket;
+  }
+
+  /**
+   * 获取流控配置对应的key值：优先使用方法全名，其次使用服务接口名；不需要流控时返回null
+   *
+   * @author sxp
+   * @since 2020/3/11
+   */
+  private static String getControlKey(String fullMethodName) {
+    if (StringUtils.isEmpty(fullMethodName)) {
+      return null;
+    }
+
+    if (maxRequestsMap.containsKey(fullMethodName)) {
+      return fullMethodName;
+    }
+
+    String serviceName = GrpcUtils.getInterfaceNameNoneException(fullMethodName);
+    if (StringUtils.isEmpty(serviceName)) {
+      return null;
     }
 
-    if (currentRequestNum.get() >= maxRequests) {
-      throw new RuntimeException("当前客户端调用服务[" + serviceName + "]的请求数超出限制值[" + maxRequests + "]，请求失败！");
+    if (maxRequestsMap.containsKey(serviceName)) {
+      return serviceName;
     }
 
-    currentRequestNum.incrementAndGet();
+    return null;
   }
 
   /**
    * 设置调用某服务的最大请求数
+   * <p>
+   * key值为服务接口名或者方法全名
+   * </p>
    */
   public static void setMaxRequestsMap(String key, long maxRequests) {
     if (StringUtils.isEmpty(key)) {
@@ -114,6 +182,7 @@ public class ConsumerRequestsControllerUtils {
     if (maxRequestsMap.containsKey(key)) {
       if (maxRequests <= 0) {
         maxRequestsMap.remove(key);
+        buckets.remove(key);
       } else {
         maxRequestsMap.put(key, maxRequests);
       }
@@ -153,17 +222,7 @@ public class ConsumerRequestsControllerUtils {
       return false;
     }
 
-    String serviceName = GrpcUtils.getInterfaceNameNoneException(fullMethodName);
-    if (StringUtils.isEmpty(serviceName)) {
-      return false;
-    }
-
-    //当前指定的服务不需要进行流控
-    if (!maxRequestsMap.containsKey(serviceName)) {
-      return false;
-    }
-
-    return true;
+    return getControlKey(fullMethodName) != null;
   }
 
 }
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2019 Orient Securities Co., Ltd.
+ * Copyright 2019 BoCloud Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientsec.grpc.consumer.qos;
+
+import com.orientsec.grpc.common.constant.GlobalConstants;
+import com.orientsec.grpc.common.resource.SystemConfig;
+import com.orientsec.grpc.common.util.GrpcUtils;
+import com.orientsec.grpc.common.util.PropertiesUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 客户端失败重试工具类
+ * <p>
+ * 各方法的重试次数第一次使用时解析并缓存，之后不再读取配置文件；
+ * 同一服务的所有方法共享一个{@link RetryBudget}。
+ * </p>
+ *
+ * @author sxp
+ * @since 2020/3/11
+ */
+public class ConsumerRetryUtils {
+  private static final Logger logger = LoggerFactory.getLogger(ConsumerRetryUtils.class);
+
+  private static Properties properties = SystemConfig.getProperties();
+
+  /**
+   * 失败重试次数
+   */
+  private static int failureRetryNum = initFailureRetryNum();
+
+  /**
+   * 允许的重试次数占请求数的百分比
+   */
+  private static int budgetPercent = initBudgetPercent();
+
+  /**
+   * 重试预算中最多保存的令牌数
+   */
+  private static int budgetMaxTokens = initBudgetMaxTokens();
+
+  /**
+   * 各方法的重试次数，key值为方法全名，即interface/method
+   */
+  private static final ConcurrentHashMap<String, Integer> retries = new ConcurrentHashMap<>();
+
+  /**
+   * 各服务的重试预算，key值为服务接口名，即interface
+   */
+  private static final ConcurrentHashMap<String, RetryBudget> budgets = new ConcurrentHashMap<>();
+
+  private static int initFailureRetryNum() {
+    String key = GlobalConstants.Consumer.Key.CONSUME_RDEFAULT_RETRIES;
+    int defaultValue = 0;
+
+    int num = PropertiesUtils.getValidIntegerValue(properties, key, defaultValue);
+    if (num < 0) {
+      num = defaultValue;
+    }
+
+    logger.info(key + " = " + num);
+
+    return num;
+  }
+
+  private static int initBudgetPercent() {
+    String key = GlobalConstants.Consumer.Key.RETRY_BUDGET_PERCENT;
+    int defaultValue = 20;
+
+    int value = PropertiesUtils.getValidIntegerValue(properties, key, defaultValue);
+    if (value < 0 || value > 100) {
+      value = defaultValue;
+    }
+    return value;
+  }
+
+  private static int initBudgetMaxTokens() {
+    String key = GlobalConstants.Consumer.Key.RETRY_BUDGET_MAX_TOKENS;
+    int defaultValue = 10;
+
+    int value = PropertiesUtils.getValidIntegerValue(properties, key, defaultValue);
+    if (value <= 0) {
+      value = defaultValue;
+    }
+    return value;
+  }
+
+  /**
+   * 获取方法的失败重试次数
+   * <p>
+   * 1. 从配置文件中获取指定Method的重试次数 <br>
+   * 2. 如果Method没有配置，则取服务的配置次数 <br>
+   * 3. 如果服务没有配置，则取默认次数
+   * </p>
+   */
+  public static int getRetries(String fullMethodName) {
+    Integer value = retries.get(fullMethodName);
+    if (value != null) {
+      return value.intValue();
+    }
+
+    String interfaceName = GrpcUtils.getInterfaceNameNoneException(fullMethodName);
+    String methodName = GrpcUtils.getSimpleMethodName(fullMethodName);
+    String serviceRetryConfKey = GlobalConstants.Consumer.Key.CONSUME_RDEFAULT_RETRIES + "[" + interfaceName + "]";
+    String methodRetryConfKey = GlobalConstants.Consumer.Key.CONSUME_RDEFAULT_RETRIES
+            + "[" + interfaceName + "." + methodName + "]";
+
+    int methodRetryNum = PropertiesUtils.getValidIntegerValue(properties, methodRetryConfKey, 0);
+    int serviceRetryNum = PropertiesUtils.getValidIntegerValue(properties, serviceRetryConfKey, 0);
+
+    int retryNum;
+    if (methodRetryNum > 0) {
+      retryNum = methodRetryNum;
+    } else if (serviceRetryNum > 0) {
+      retryNum = serviceRetryNum;
+    } else {
+      retryNum = failureRetryNum;
+    }
+
+    retries.putIfAbsent(fullMethodName, retryNum);
+    return retryNum;
+  }
+
+  /**
+   * 获取服务的重试预算
+   */
+  public static RetryBudget getBudget(String fullMethodName) {
+    String interfaceName = GrpcUtils.getInterfaceNameNoneException(fullMethodName);
+
+    RetryBudget budget = budgets.get(interfaceName);
+    if (budget == null) {
+      budget = new RetryBudget(budgetPercent / 100D, budgetMaxTokens);
+      RetryBudget oldValue = budgets.putIfAbsent(interfaceName, budget);
+
+      if (oldValue != null) {
+        // 防止其他线程在这段时间内已经向budgets中写入了新数据
+        budget = oldValue;
+      }
+    }
+    return budget;
+  }
+}
@@ -0,0 +1,299 @@
+/*
+ * Copyright 2019 Orient Securities Co., Ltd.
+ * Copyright 2019 BoCloud Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientsec.grpc.consumer.qos;
+
+import com.orientsec.grpc.consumer.strategy.ProviderLoad;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 异常点检测
+ * <p>
+ * 每个检测周期比较同一服务各个服务提供者的成功率和平均响应时间：
+ * 成功率低于(平均值 - stdevFactor * 标准差)，或者平均响应时间超过(中位数 * latencyFactor)的服务提供者被判定为异常点。
+ * 异常点被剔除的时间为 baseEjectionMillis * 2^(连续剔除次数 - 1)，不超过maxEjectionMillis；
+ * 不再异常的服务提供者每个周期将连续剔除次数减一。
+ * 同时被剔除的服务提供者不超过maxEjectionPercent，并且至少保留一个服务提供者。
+ * </p>
+ * <p>
+ * 请求数、响应时间从{@link ProviderLoad}的累计值中按周期计算增量，调用过程中不需要额外的计数器。
+ * 检测和恢复由定时任务调用，方法之间通过对象锁互斥。
+ * </p>
+ * <p>
+ * 资料：
+ * https://www.envoyproxy.io/docs/envoy/latest/intro/arch_overview/upstream/outlier
+ * https://github.com/grpc/proposal/blob/master/A50-xds-outlier-detection.md
+ * </p>
+ *
+ * @author sxp
+ * @since 2020/3/11
+ */
+public final class OutlierDetector {
+  private final int minimumRequests;
+  private final int minimumHosts;
+  private final int maxEjectionPercent;
+  private final double stdevFactor;
+  private final double latencyFactor;
+  private final long baseEjectionMillis;
+  private final long maxEjectionMillis;
+
+  /** 各服务提供者的统计状态，key值为ip:port */
+  private final Map<String, Stats> stats = new HashMap<>();
+
+  public OutlierDetector(int minimumRequests, int minimumHosts, int maxEjectionPercent,
+                         double stdevFactor, double latencyFactor,
+                         long baseEjectionMillis, long maxEjectionMillis) {
+    if (minimumRequests <= 0 || minimumHosts <= 0 || maxEjectionPercent < 0 || maxEjectionPercent > 100
+            || stdevFactor <= 0 || latencyFactor <= 1 || baseEjectionMillis <= 0) {
+      throw new IllegalArgumentException("异常点检测的参数不合法");
+    }
+
+    this.minimumRequests = minimumRequests;
+    this.minimumHosts = minimumHosts;
+    this.maxEjectionPercent = maxEjectionPercent;
+    this.stdevFactor = stdevFactor;
+    this.latencyFactor = latencyFactor;
+    this.baseEjectionMillis = baseEjectionMillis;
+    this.maxEjectionMillis = Math.max(baseEjectionMillis, maxEjectionMillis);
+  }
+
+  /**
+   * 对一个检测周期的数据进行分析
+   *
+   * @param keys  参与负载均衡的服务提供者(不包括已经被剔除的)的ip:port
+   * @param loads 服务提供者的负载，下标与keys一一对应
+   * @param now   当前时间的毫秒数
+   * @return 需要剔除的服务提供者的ip:port
+   */
+  public synchronized List<String> detect(String[] keys, ProviderLoad[] loads, long now) {
+    int size = keys.length;
+    if (loads == null || loads.length != size) {
+      throw new IllegalArgumentException("服务提供者与负载数组的长度不一致");
+    }
+
+    double[] successRates = new double[size];
+    double[] latencies = new double[size];
+    Arrays.fill(successRates, -1D);
+    Arrays.fill(latencies, -1D);
+
+    Set<String> present = new HashSet<>(size * 2);
+    Stats s;
+    long successes, failures, latencyNanos, total;
+
+    for (int i = 0; i < size; i++) {
+      present.add(keys[i]);
+      s = stats.get(keys[i]);
+      if (s == null) {
+        // 负载对象中保存的是累计值，第一次出现时只记录累计值作为基准
+        s = new Stats();
+        s.lastSuccesses = loads[i].getSuccesses();
+        s.lastFailures = loads[i].getFailures();
+        s.lastLatencyNanos = loads[i].getLatencyNanos();
+        stats.put(keys[i], s);
+        continue;
+      }
+
+      // 从累计值计算本周期的增量
+      successes = loads[i].getSuccesses() - s.lastSuccesses;
+      failures = loads[i].getFailures() - s.lastFailures;
+      latencyNanos = loads[i].getLatencyNanos() - s.lastLatencyNanos;
+      s.lastSuccesses += successes;
+      s.lastFailures += failures;
+      s.lastLatencyNanos += latencyNanos;
+
+      total = successes + failures;
+      if (s.ejectedUntil == 0L && total >= minimumRequests) {
+        successRates[i] = (double) successes / total;
+        if (successes > 0) {
+          latencies[i] = (double) latencyNanos / successes;
+        }
+      }
+    }
+
+    // 已经下线、并且没有被剔除的服务提供者不再保留统计状态
+    Iterator<Map.Entry<String, Stats>> it = stats.entrySet().iterator();
+    Map.Entry<String, Stats> entry;
+    int ejectedCount = 0;
+    while (it.hasNext()) {
+      entry = it.next();
+      if (entry.getValue().ejectedUntil != 0L) {
+        ejectedCount++;
+      } else if (!present.contains(entry.getKey())) {
+        it.remove();
+      }
+    }
+
+    boolean[] outliers = new boolean[size];
+    int outlierCount = markSuccessRateOutliers(successRates, outliers);
+    outlierCount += markLatencyOutliers(latencies, outliers);
+
+    List<String> result = Collections.emptyList();
+    if (outlierCount > 0) {
+      int allowed = (size + ejectedCount) * maxEjectionPercent / 100;
+      allowed = Math.min(allowed, size - 1) - ejectedCount;// 至少保留一个服务提供者
+
+      result = new ArrayList<>();
+      for (int i = 0; i < size && result.size() < allowed; i++) {
+        if (outliers[i]) {
+          eject(stats.get(keys[i]), now);
+          result.add(keys[i]);
+        }
+      }
+    }
+
+    // 本周期没有被剔除的服务提供者，连续剔除次数逐步恢复
+    for (String key : keys) {
+      s = stats.get(key);
+      if (s.ejectedUntil == 0L && s.multiplier > 0) {
+        s.multiplier--;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * 成功率明显低于其它服务提供者
+   */
+  private int markSuccessRateOutliers(double[] successRates, boolean[] outliers) {
+    int count = 0;
+    double sum = 0D;
+    for (double rate : successRates) {
+      if (rate >= 0) {
+        count++;
+        sum += rate;
+      }
+    }
+    if (count < minimumHosts) {
+      return 0;
+    }
+
+    double mean = sum / count;
+    double variance = 0D;
+    for (double rate : successRates) {
+      if (rate >= 0) {
+        variance += (rate - mean) * (rate - mean);
+      }
+    }
+    double threshold = mean - stdevFactor * Math.sqrt(variance / count);
+
+    int marked = 0;
+    for (int i = 0; i < successRates.length; i++) {
+      if (successRates[i] >= 0 && successRates[i] < threshold && !outliers[i]) {
+        outliers[i] = true;
+        marked++;
+      }
+    }
+    return marked;
+  }
+
+  /**
+   * 平均响应时间明显高于其它服务提供者
+   */
+  private int markLatencyOutliers(double[] latencies, boolean[] outliers) {
+    double[] valid = new double[latencies.length];
+    int count = 0;
+    for (double latency : latencies) {
+      if (latency >= 0) {
+        valid[count++] = latency;
+      }
+    }
+    if (count < minimumHosts) {
+      return 0;
+    }
+
+    Arrays.sort(valid, 0, count);
+    double median = (count % 2 == 1) ? valid[count / 2] : (valid[count / 2 - 1] + valid[count / 2]) / 2;
+    double threshold = median * latencyFactor;
+
+    int marked = 0;
+    for (int i = 0; i < latencies.length; i++) {
+      if (latencies[i] >= 0 && latencies[i] > threshold && !outliers[i]) {
+        outliers[i] = true;
+        marked++;
+      }
+    }
+    return marked;
+  }
+
+  private void eject(Stats s, long now) {
+    if (s.multiplier < 31) {
+      s.multiplier++;
+    }
+
+    long duration = baseEjectionMillis << Math.min(s.multiplier - 1, 30);
+    if (duration <= 0 || duration > maxEjectionMillis) {
+      duration = maxEjectionMillis;
+    }
+    s.ejectedUntil = now + duration;
+  }
+
+  /**
+   * 获取剔除时间已经到期的服务提供者
+   *
+   * @param now 当前时间的毫秒数
+   * @return 需要放回服务端候选列表的服务提供者的ip:port
+   */
+  public synchronized List<String> expire(long now) {
+    List<String> result = null;
+    Stats s;
+
+    for (Map.Entry<String, Stats> entry : stats.entrySet()) {
+      s = entry.getValue();
+      if (s.ejectedUntil != 0L && s.ejectedUntil <= now) {
+        s.ejectedUntil = 0L;
+        if (result == null) {
+          result = new ArrayList<>();
+        }
+        result.add(entry.getKey());
+      }
+    }
+
+    return (result != null) ? result : Collections.<String>emptyList();
+  }
+
+  /**
+   * 服务提供者是否处于被剔除状态
+   */
+  public synchronized boolean isEjected(String key) {
+    Stats s = stats.get(key);
+    return s != null && s.ejectedUntil != 0L;
+  }
+
+  /**
+   * 单个服务提供者的统计状态，只在持有对象锁时访问
+   */
+  private static final class Stats {
+    /** 上一个检测周期结束时的累计值 */
+    long lastSuccesses;
+    long lastFailures;
+    long lastLatencyNanos;
+
+    /** 连续被剔除的次数 */
+    int multiplier;
+
+    /** 剔除结束的时间，0表示没有被剔除 */
+    long ejectedUntil;
+  }
+}
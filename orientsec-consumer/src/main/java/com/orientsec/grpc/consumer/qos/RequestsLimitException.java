@@ -0,0 +1,36 @@
+/*
+ * Copyright 2019 Orient Securities Co., Ltd.
+ * Copyright 2019 BoCloud Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientsec.grpc.consumer.qos;
+
+import com.orientsec.grpc.common.exception.BusinessException;
+
+/**
+ * 客户端调用服务的请求数超出限制值
+ * <p>
+ * 调用方(stub)将其转换为RESOURCE_EXHAUSTED状态。
+ * </p>
+ *
+ * @author sxp
+ * @since 2020/3/11
+ */
+public class RequestsLimitException extends BusinessException {
+  private static final long serialVersionUID = 4120954873371226485L;
+
+  public RequestsLimitException(String message) {
+    super(message);
+  }
+}
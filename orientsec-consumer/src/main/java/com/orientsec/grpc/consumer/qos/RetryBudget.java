@@ -0,0 +1,98 @@
+/*
+ * Copyright 2019 Orient Securities Co., Ltd.
+ * Copyright 2019 BoCloud Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientsec.grpc.consumer.qos;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 失败重试预算
+ * <p>
+ * 每个请求向预算中存入ratio个令牌，每次重试取出1个令牌，预算中最多保存maxTokens个令牌。
+ * 这样持续重试的次数不超过请求数的ratio倍，服务整体不可用时不会因为重试成倍地放大请求量；
+ * 请求量很小时依靠预算中已经保存的令牌仍然可以进行少量重试。
+ * 令牌数按照千分之一个令牌为单位保存在一个long中，通过CAS更新，不需要加锁。
+ * </p>
+ *
+ * @author sxp
+ * @since 2020/3/11
+ */
+public final class RetryBudget {
+  private static final long UNIT = 1000L;
+
+  private final long deposit;
+  private final long maxBalance;
+  private final AtomicLong balance;
+
+  /**
+   * @param ratio     允许的重试次数与请求数的比例，取值范围[0, 1]
+   * @param maxTokens 预算中最多保存的令牌数
+   */
+  public RetryBudget(double ratio, int maxTokens) {
+    if (ratio < 0 || ratio > 1 || maxTokens <= 0) {
+      throw new IllegalArgumentException("重试预算的参数不合法");
+    }
+
+    this.deposit = (long) (ratio * UNIT);
+    this.maxBalance = maxTokens * UNIT;
+    this.balance = new AtomicLong(maxBalance);
+  }
+
+  /**
+   * 记录一个请求(不包括重试)
+   */
+  public void deposit() {
+    if (deposit == 0L) {
+      return;
+    }
+
+    long current;
+    long next;
+    do {
+      current = balance.get();
+      if (current >= maxBalance) {
+        return;
+      }
+      next = Math.min(maxBalance, current + deposit);
+    } while (!balance.compareAndSet(current, next));
+  }
+
+  /**
+   * 获取一次重试的许可，预算不足时返回false
+   */
+  public boolean tryWithdraw() {
+    long current;
+    do {
+      current = balance.get();
+      if (current < UNIT) {
+        return false;
+      }
+    } while (!balance.compareAndSet(current, current - UNIT));
+    return true;
+  }
+
+  /**
+   * 当前预算中的令牌数
+   */
+  public double getBalance() {
+    return (double) balance.get() / UNIT;
+  }
+
+  @Override
+  public String toString() {
+    return "RetryBudget{balance=" + getBalance() + "}";
+  }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2019 Orient Securities Co., Ltd.
+ * Copyright 2019 BoCloud Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientsec.grpc.consumer.qos;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 令牌桶
+ * <p>
+ * 令牌按照rate(每秒)匀速补充，桶中最多保存burst个令牌。<br>
+ * 实现上使用GCRA算法：只保存一个long值，即"下一个令牌的理论到达时间"(纳秒)，
+ * 该值同时表示了桶中剩余的令牌数和上次补充令牌的时间，通过CAS更新，不需要加锁。
+ * </p>
+ * <p>
+ * 资料：https://en.wikipedia.org/wiki/Generic_cell_rate_algorithm
+ * </p>
+ *
+ * @author sxp
+ * @since 2020/3/11
+ */
+public final class TokenBucket {
+  private final long rate;
+  private final long burst;
+
+  /** 每个令牌的补充间隔(纳秒) */
+  private final long intervalNanos;
+
+  /** 桶满时理论到达时间最多超前当前时间的值(纳秒) */
+  private final long toleranceNanos;
+
+  /** 下一个令牌的理论到达时间(纳秒) */
+  private final AtomicLong theoreticalArrival;
+
+  /**
+   * @param rate  每秒补充的令牌数
+   * @param burst 桶中最多保存的令牌数
+   */
+  public TokenBucket(long rate, long burst) {
+    this(rate, burst, System.nanoTime());
+  }
+
+  TokenBucket(long rate, long burst, long nowNanos) {
+    if (rate <= 0 || burst <= 0) {
+      throw new IllegalArgumentException("令牌桶的参数不合法");
+    }
+
+    this.rate = rate;
+    this.burst = burst;
+    this.intervalNanos = Math.max(1L, TimeUnit.SECONDS.toNanos(1) / rate);
+    this.toleranceNanos = intervalNanos * (burst - 1);
+    this.theoreticalArrival = new AtomicLong(nowNanos - toleranceNanos);// 初始时桶是满的
+  }
+
+  public long getRate() {
+    return rate;
+  }
+
+  public long getBurst() {
+    return burst;
+  }
+
+  /**
+   * 获取一个令牌，没有可用令牌时立即返回false
+   */
+  public boolean tryAcquire() {
+    return reserve(System.nanoTime(), 0L) == 0L;
+  }
+
+  /**
+   * 预约一个令牌
+   * <p>
+   * 需要等待的时间不超过maxWaitNanos时预约成功，返回需要等待的时间(纳秒)，可用令牌立即可用时返回0；
+   * 否则不消耗令牌，返回-1。
+   * </p>
+   *
+   * @param nowNanos     当前时间(纳秒)
+   * @param maxWaitNanos 允许等待的最长时间(纳秒)
+   */
+  public long reserve(long nowNanos, long maxWaitNanos) {
+    long current;
+    long next;
+    long waitNanos;
+
+    do {
+      current = theoreticalArrival.get();
+      long start = (current - nowNanos > 0) ? current : nowNanos;// 空闲期间令牌已经补满
+      next = start + intervalNanos;
+      waitNanos = next - nowNanos - toleranceNanos - intervalNanos;
+      if (waitNanos < 0) {
+        waitNanos = 0L;
+      }
+
+      if (waitNanos > maxWaitNanos) {
+        return -1L;
+      }
+    } while (!theoreticalArrival.compareAndSet(current, next));
+
+    return waitNanos;
+  }
+
+  @Override
+  public String toString() {
+    return "TokenBucket{rate=" + rate + ", burst=" + burst + "}";
+  }
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright 2019 Orient Securities Co., Ltd.
+ * Copyright 2019 BoCloud Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientsec.grpc.consumer.strategy;
+
+import com.orientsec.grpc.common.util.MurmurHash3;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * 一致性Hash环
+ *
+ * <p>
+ * 虚拟节点的散列值按照从小到大的顺序存放在long数组中，并用一个int数组记录每个虚拟节点对应的服务提供者下标。
+ * 选择时对参数计算64位的MurmurHash3散列值，然后通过二分查找按顺时针方向找到第一个虚拟节点，
+ * 整个过程不需要装箱和分配对象。
+ * 对象创建后不再修改，服务列表发生变化时需要重新创建。
+ * </p>
+ *
+ * <pre>
+ * 一致性Hash算法的资料
+ * http://blog.csdn.net/cywosp/article/details/23397179/
+ * http://www.cnblogs.com/hapjin/p/4737207.html
+ * com.alibaba.dubbo.rpc.cluster.loadbalance.ConsistentHashLoadBalance
+ * </pre>
+ *
+ * @author sxp
+ * @since 2020/3/8
+ */
+public final class ConsistentHashRing {
+  /**
+   * 节点的复制因子，虚拟节点个数 = 实际节点个数 * REPLICA_NUMBER，目的是增加算法的平衡性
+   */
+  static final int REPLICA_NUMBER = 160;
+
+  private final long version;
+  private final int size;
+
+  /** 虚拟节点的散列值，从小到大排列 */
+  private final long[] hashes;
+
+  /** 下标与hashes一一对应，元素为服务提供者的下标 */
+  private final int[] indexes;
+
+  private ConsistentHashRing(long version, int size, long[] hashes, int[] indexes) {
+    this.version = version;
+    this.size = size;
+    this.hashes = hashes;
+    this.indexes = indexes;
+  }
+
+  /**
+   * 创建一致性Hash环
+   *
+   * @param version 服务列表的版本号
+   * @param keys    服务提供者的ip:port，下标与服务提供者数组一一对应
+   */
+  public static ConsistentHashRing create(long version, String[] keys) {
+    if (keys == null || keys.length == 0) {
+      throw new IllegalArgumentException("服务提供者数组不能为空");
+    }
+
+    int total = keys.length * REPLICA_NUMBER;
+    final long[] nodeHashes = new long[total];
+    Integer[] order = new Integer[total];
+    int n = 0;
+
+    for (int i = 0; i < keys.length; i++) {
+      for (int j = 0; j < REPLICA_NUMBER; j++) {
+        nodeHashes[n] = MurmurHash3.hash64(keys[i] + "#" + j);// ip:port#0, ip:port#1, ...
+        order[n] = n;
+        n++;
+      }
+    }
+
+    // 按照散列值排序，散列值相同时保留下标较小的节点
+    Arrays.sort(order, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer o1, Integer o2) {
+        int result = compareLong(nodeHashes[o1], nodeHashes[o2]);
+        return (result != 0) ? result : o1.compareTo(o2);
+      }
+    });
+
+    long[] hashes = new long[total];
+    int[] indexes = new int[total];
+    int count = 0;
+    int node;
+
+    for (int i = 0; i < total; i++) {
+      node = order[i];
+      if (count > 0 && hashes[count - 1] == nodeHashes[node]) {
+        continue;
+      }
+      hashes[count] = nodeHashes[node];
+      indexes[count] = node / REPLICA_NUMBER;
+      count++;
+    }
+
+    if (count < total) {
+      hashes = Arrays.copyOf(hashes, count);
+      indexes = Arrays.copyOf(indexes, count);
+    }
+
+    return new ConsistentHashRing(version, keys.length, hashes, indexes);
+  }
+
+  private static int compareLong(long x, long y) {
+    return (x < y) ? -1 : ((x == y) ? 0 : 1);
+  }
+
+  /**
+   * 根据参数值选择服务提供者
+   *
+   * @return 服务提供者的下标
+   */
+  public int select(Object argument) {
+    CharSequence arg;
+    if (argument instanceof CharSequence) {
+      arg = (CharSequence) argument;
+    } else {
+      arg = String.valueOf(argument);
+    }
+
+    return selectByHash(MurmurHash3.hash64(arg));
+  }
+
+  /**
+   * 根据散列值选择服务提供者
+   * <p>
+   * 数据映射在两个虚拟节点之间时，按顺时针方向寻找虚拟节点
+   * </p>
+   *
+   * @return 服务提供者的下标
+   */
+  public int selectByHash(long hash) {
+    return indexes[position(hash)];
+  }
+
+  /**
+   * 散列值在Hash环上对应的虚拟节点的位置
+   */
+  private int position(long hash) {
+    int position = Arrays.binarySearch(hashes, hash);
+    if (position < 0) {
+      position = -position - 1;
+      if (position == hashes.length) {
+        position = 0;
+      }
+    }
+    return position;
+  }
+
+  /**
+   * 根据参数值选择服务提供者，并且限制每个服务提供者的负载(Consistent Hashing with Bounded Loads)
+   * <p>
+   * 每个服务提供者的并发请求数上限为 ceil((1 + balanceFactor) * (总并发请求数 + 1) / 服务提供者数量)，
+   * 参数值映射到的服务提供者达到上限时，沿Hash环顺时针方向寻找第一个未达到上限的服务提供者。
+   * 上限不小于平均值，因此总能找到满足条件的服务提供者。
+   * </p>
+   * <p>
+   * 资料：https://arxiv.org/abs/1608.01350
+   * </p>
+   *
+   * @param loads         服务提供者的负载，下标与服务提供者数组一一对应
+   * @param balanceFactor 允许超出平均负载的比例，大于等于0
+   * @return 服务提供者的下标
+   */
+  public int selectBounded(Object argument, ProviderLoad[] loads, double balanceFactor) {
+    CharSequence arg;
+    if (argument instanceof CharSequence) {
+      arg = (CharSequence) argument;
+    } else {
+      arg = String.valueOf(argument);
+    }
+
+    int position = position(MurmurHash3.hash64(arg));
+    if (loads == null || loads.length != size) {
+      return indexes[position];
+    }
+
+    long total = 0;
+    for (ProviderLoad load : loads) {
+      total += Math.max(0, load.getInFlight());
+    }
+
+    long capacity = (long) Math.ceil((1 + balanceFactor) * (total + 1) / size);
+
+    int index;
+    for (int i = 0, length = hashes.length; i < length; i++) {
+      index = indexes[position];
+      if (loads[index].getInFlight() < capacity) {
+        return index;
+      }
+      if (++position == length) {
+        position = 0;
+      }
+    }
+
+    // 并发修改负载时可能所有服务提供者都达到上限，这时不再限制负载
+    return indexes[position];
+  }
+
+  public long getVersion() {
+    return version;
+  }
+
+  /**
+   * 服务提供者的数量
+   */
+  public int size() {
+    return size;
+  }
+}
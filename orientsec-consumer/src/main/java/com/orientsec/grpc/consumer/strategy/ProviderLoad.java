@@ -0,0 +1,197 @@
+/*
+ * Copyright 2019 Orient Securities Co., Ltd.
+ * Copyright 2019 BoCloud Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientsec.grpc.consumer.strategy;
+
+import com.orientsec.grpc.common.constant.GlobalConstants;
+import com.orientsec.grpc.common.resource.SystemConfig;
+import com.orientsec.grpc.common.util.PropertiesUtils;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 客户端调用某个服务提供者的负载情况
+ * <p>
+ * 在请求开始、结束时更新，供需要感知负载的负载均衡算法使用。
+ * 除正在执行的请求数外，还记录响应时间的峰值指数加权移动平均值(Peak EWMA)：
+ * 响应时间超过当前值时立即取新值，否则按照距离上次更新的时间指数衰减，
+ * 更新时通过CAS完成，不需要加锁。
+ * 另外累计记录成功、失败的请求数和成功请求的响应时间之和，供异常点检测按周期计算增量。
+ * </p>
+ *
+ * @author sxp
+ * @since 2020/3/9
+ */
+public final class ProviderLoad {
+  /**
+   * 没有响应时间数据但有请求正在执行时的代价，保证新上线的服务提供者先用少量请求探测响应时间
+   */
+  static final double PENALTY = (double) (Long.MAX_VALUE >> 16);
+
+  /** 响应时间的衰减时间(纳秒) */
+  private static final double decayNanos = initDecayNanos();
+
+  /** 正在执行的请求数 */
+  private final AtomicInteger inFlight = new AtomicInteger();
+
+  /** 响应时间的加权平均值(纳秒)，按照Double.doubleToRawLongBits存放 */
+  private final AtomicLong cost = new AtomicLong(Double.doubleToRawLongBits(0D));
+
+  /** 上次更新响应时间的时间戳(System.nanoTime) */
+  private volatile long stamp = System.nanoTime();
+
+  /** 累计成功的请求数 */
+  private final AtomicLong successes = new AtomicLong();
+
+  /** 累计失败的请求数 */
+  private final AtomicLong failures = new AtomicLong();
+
+  /** 累计成功请求的响应时间之和(纳秒) */
+  private final AtomicLong latencyNanos = new AtomicLong();
+
+  private static double initDecayNanos() {
+    String key = GlobalConstants.Consumer.Key.LOADBALANCE_PEAK_EWMA_DECAYTIME;
+    int defaultValue = 10000;
+
+    int decayTime = PropertiesUtils.getValidIntegerValue(SystemConfig.getProperties(), key, defaultValue);
+    if (decayTime <= 0) {
+      decayTime = defaultValue;
+    }
+    return (double) TimeUnit.MILLISECONDS.toNanos(decayTime);
+  }
+
+  /**
+   * 请求开始
+   */
+  public void callStarted() {
+    inFlight.incrementAndGet();
+  }
+
+  /**
+   * 请求结束
+   */
+  public void callEnded() {
+    inFlight.decrementAndGet();
+  }
+
+  /**
+   * 请求结束，并记录响应时间
+   * <p>
+   * 失败的请求往往很快返回，只有当它的响应时间超过当前值时才记录，避免出错的服务提供者看起来响应更快
+   * </p>
+   *
+   * @param ok           请求是否成功
+   * @param latencyNanos 响应时间(纳秒)
+   */
+  public void callEnded(boolean ok, long latencyNanos) {
+    inFlight.decrementAndGet();
+    latencyNanos = Math.max(0L, latencyNanos);
+    if (ok) {
+      successes.incrementAndGet();
+      this.latencyNanos.addAndGet(latencyNanos);
+    } else {
+      failures.incrementAndGet();
+    }
+    observe(ok, latencyNanos, System.nanoTime());
+  }
+
+  void observe(boolean ok, long latencyNanos, long now) {
+    double rtt = (double) latencyNanos;
+    long oldBits;
+    double oldCost;
+    double newCost;
+
+    do {
+      oldBits = cost.get();
+      oldCost = Double.longBitsToDouble(oldBits);
+
+      if (rtt > oldCost) {
+        newCost = rtt;
+      } else if (ok) {
+        double weight = weight(now);
+        newCost = oldCost * weight + rtt * (1D - weight);
+      } else {
+        return;
+      }
+    } while (!cost.compareAndSet(oldBits, Double.doubleToRawLongBits(newCost)));
+
+    stamp = now;
+  }
+
+  /**
+   * 距离上次更新的时间越长，旧值的权重越小
+   */
+  private double weight(long now) {
+    long elapsed = Math.max(0L, now - stamp);
+    return Math.exp(-elapsed / decayNanos);
+  }
+
+  /**
+   * 正在执行的请求数
+   */
+  public int getInFlight() {
+    return inFlight.get();
+  }
+
+  /**
+   * 调用该服务提供者的代价，值越小越优先
+   * <p>
+   * 代价 = 衰减后的响应时间 * (正在执行的请求数 + 1)，读取时不修改内部状态
+   * </p>
+   */
+  public double getPeakEwmaCost() {
+    return getPeakEwmaCost(System.nanoTime());
+  }
+
+  double getPeakEwmaCost(long now) {
+    int pending = Math.max(0, inFlight.get());
+    double current = Double.longBitsToDouble(cost.get()) * weight(now);
+
+    if (current == 0D && pending != 0) {
+      return PENALTY + pending;
+    }
+    return current * (pending + 1);
+  }
+
+  /**
+   * 累计成功的请求数
+   */
+  public long getSuccesses() {
+    return successes.get();
+  }
+
+  /**
+   * 累计失败的请求数
+   */
+  public long getFailures() {
+    return failures.get();
+  }
+
+  /**
+   * 累计成功请求的响应时间之和(纳秒)
+   */
+  public long getLatencyNanos() {
+    return latencyNanos.get();
+  }
+
+  @Override
+  public String toString() {
+    return "ProviderLoad{inFlight=" + inFlight.get()
+            + ", cost=" + Double.longBitsToDouble(cost.get()) + "}";
+  }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2019 Orient Securities Co., Ltd.
+ * Copyright 2019 BoCloud Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientsec.grpc.consumer.strategy;
+
+import com.orientsec.grpc.consumer.model.ServiceProvider;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 轮询选择器
+ *
+ * <p>
+ * 服务提供者按照ip:port排好序后存放在数组中，每次选择只需要原子地移动游标，不需要排序和分配对象。
+ * 对象创建后服务提供者数组不再修改，服务列表发生变化时需要重新创建。
+ * </p>
+ *
+ * @author sxp
+ * @since 2020/3/7
+ */
+public final class RoundRobin {
+  private static final Random random = new Random();
+
+  private final long version;
+  private final ServiceProvider[] providers;
+  private final AtomicInteger cursor;
+
+  private RoundRobin(long version, ServiceProvider[] providers) {
+    this.version = version;
+    this.providers = providers;
+
+    // 第一次选择总是使用随机数
+    this.cursor = new AtomicInteger(random.nextInt(providers.length));
+  }
+
+  /**
+   * 创建轮询选择器
+   *
+   * @param version   服务列表的版本号
+   * @param providers 按照ip:port排好序的服务提供者数组
+   */
+  public static RoundRobin create(long version, ServiceProvider[] providers) {
+    if (providers == null || providers.length == 0) {
+      throw new IllegalArgumentException("服务提供者数组不能为空");
+    }
+
+    return new RoundRobin(version, Arrays.copyOf(providers, providers.length));
+  }
+
+  /**
+   * 选择下一个服务提供者的下标
+   */
+  public int nextIndex() {
+    int index = cursor.getAndIncrement() & Integer.MAX_VALUE;
+    return index % providers.length;
+  }
+
+  /**
+   * 选择下一个服务提供者
+   */
+  public ServiceProvider next() {
+    return providers[nextIndex()];
+  }
+
+  public long getVersion() {
+    return version;
+  }
+
+  /**
+   * 服务提供者的数量
+   */
+  public int size() {
+    return providers.length;
+  }
+}
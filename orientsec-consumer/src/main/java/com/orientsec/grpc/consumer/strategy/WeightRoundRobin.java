@@ -16,54 +16,180 @@
  */
 package com.orientsec.grpc.consumer.strategy;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * 含有服务名称和服务提供者列表的包装对象
+ * 平滑的加权轮询调度表
+ *
+ * <p>
+ * 创建对象时按照平滑加权轮询算法预先计算出一个完整周期的选择顺序，之后每次选择只需要原子地移动游标，
+ * 选择的开销与服务提供者的数量无关，并且多线程并发调用时不会破坏权重的分布。
+ * 对象创建后不再修改，服务列表或权重发生变化时需要重新创建。
+ * </p>
+ *
+ * <p>
+ * 资料：
+ * https://blog.csdn.net/gqtcgq/article/details/52076997
+ * https://tenfy.cn/2018/11/12/smooth-weighted-round-robin/
+ * <p/>
+ *
+ * @author sxp
+ * @since 2020/3/6
  */
-public class WeightRoundRobin {
-  private List<Server> servers = new ArrayList<>();
+public final class WeightRoundRobin {
+  /**
+   * 调度表的最大长度
+   * <p>
+   * 权重之和超过该值时按比例缩小权重，避免调度表占用过多内存
+   * </p>
+   */
+  static final int MAX_SCHEDULE_LENGTH = 1 << 14;
 
-  public void setServers(List<Server> servers) {
-    this.servers = servers;
-  }
+  private static final Random random = new Random();
 
-  public List<Server> getServers() {
-    return servers;
+  private final long version;
+  private final int[] weights;
+  private final int[] schedule;
+  private final AtomicInteger cursor;
+
+  private WeightRoundRobin(long version, int[] weights, int[] schedule) {
+    this.version = version;
+    this.weights = weights;
+    this.schedule = schedule;
+
+    // 起始位置使用随机数，避免多个客户端同时从第一个服务提供者开始调用
+    this.cursor = new AtomicInteger(random.nextInt(schedule.length));
   }
 
   /**
-   * 平滑的加权轮询算法
+   * 根据权重创建调度表
    *
-   * <p>
-   * 资料：
-   * https://blog.csdn.net/gqtcgq/article/details/52076997
-   * https://tenfy.cn/2018/11/12/smooth-weighted-round-robin/
-   * <p/>
+   * @param version 服务列表的版本号
+   * @param weights 各服务提供者的权重，下标与服务提供者数组一一对应；小于等于0的权重不参与选择，
+   *                全部小于等于0时按照相同的权重处理
    */
-  public Server getBestServer() {
-    Server server;
-    Server best = null;
-    int total = 0;
-    int size = servers.size();
+  public static WeightRoundRobin create(long version, int[] weights) {
+    if (weights == null || weights.length == 0) {
+      throw new IllegalArgumentException("权重数组不能为空");
+    }
+
+    int[] copy = Arrays.copyOf(weights, weights.length);
+    return new WeightRoundRobin(version, copy, buildSchedule(normalize(copy)));
+  }
+
+  /**
+   * 对权重进行约分和缩放，使调度表的长度不超过{@link #MAX_SCHEDULE_LENGTH}
+   */
+  static int[] normalize(int[] weights) {
+    int size = weights.length;
+    int[] result = new int[size];
+    long total = 0;
+    int gcd = 0;
 
     for (int i = 0; i < size; i++) {
-      server = servers.get(i);
+      if (weights[i] > 0) {
+        result[i] = weights[i];
+        total += weights[i];
+        gcd = gcd(gcd, weights[i]);
+      }
+    }
 
-      server.setCurrentWeight(server.getCurrentWeight() + server.getWeight());
-      total += server.getWeight();
+    if (total == 0) {
+      Arrays.fill(result, 1);
+      return result;
+    }
 
-      if (best == null || server.getCurrentWeight() > best.getCurrentWeight()) {
-        best = server;
+    total = 0;
+    for (int i = 0; i < size; i++) {
+      result[i] /= gcd;
+      total += result[i];
+    }
+
+    if (total > MAX_SCHEDULE_LENGTH) {
+      for (int i = 0; i < size; i++) {
+        if (result[i] > 0) {
+          result[i] = (int) Math.max(1L, (long) result[i] * MAX_SCHEDULE_LENGTH / total);
+        }
       }
     }
 
-    if (best == null) {
-      return null;
+    return result;
+  }
+
+  /**
+   * 按照平滑加权轮询算法生成一个完整周期的选择顺序
+   */
+  private static int[] buildSchedule(int[] weights) {
+    int size = weights.length;
+    int total = 0;
+    for (int weight : weights) {
+      total += weight;
     }
 
-    best.setCurrentWeight(best.getCurrentWeight() - total);
-    return best;
+    int[] schedule = new int[total];
+    int[] currentWeights = new int[size];
+    int best;
+
+    for (int n = 0; n < total; n++) {
+      best = -1;
+      for (int i = 0; i < size; i++) {
+        if (weights[i] <= 0) {
+          continue;
+        }
+        currentWeights[i] += weights[i];
+        if (best < 0 || currentWeights[i] > currentWeights[best]) {
+          best = i;
+        }
+      }
+
+      currentWeights[best] -= total;
+      schedule[n] = best;
+    }
+
+    return schedule;
+  }
+
+  private static int gcd(int a, int b) {
+    int temp;
+    while (b != 0) {
+      temp = a % b;
+      a = b;
+      b = temp;
+    }
+    return a;
+  }
+
+  /**
+   * 选择下一个服务提供者
+   *
+   * @return 服务提供者的下标
+   */
+  public int next() {
+    int index = cursor.getAndIncrement() & Integer.MAX_VALUE;
+    return schedule[index % schedule.length];
+  }
+
+  public long getVersion() {
+    return version;
+  }
+
+  /**
+   * 服务提供者的数量
+   */
+  public int size() {
+    return weights.length;
+  }
+
+  /**
+   * 判断调度表是否是根据指定的权重生成的
+   */
+  public boolean hasSameWeights(int[] weights) {
+    return Arrays.equals(this.weights, weights);
+  }
+
+  int scheduleLength() {
+    return schedule.length;
   }
 }
@@ -229,6 +229,8 @@ public class LoadBalanceTest {
         break;
       }
     }
+    // 直接修改了权重，需要重新生成服务提供者快照
+    zookeeperNameResolver.rebuildProvidersSnapshot();
 
     // 调用
     int LOOP_NUM = 100;
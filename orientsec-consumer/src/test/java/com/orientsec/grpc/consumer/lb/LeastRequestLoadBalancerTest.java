@@ -0,0 +1,89 @@
+/*
+ * Copyright 2019 Orient Securities Co., Ltd.
+ * Copyright 2019 BoCloud Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientsec.grpc.consumer.lb;
+
+import com.orientsec.grpc.consumer.strategy.ProviderLoad;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test for LeastRequestLoadBalancer
+ *
+ * @author sxp
+ * @since 2020/3/10
+ */
+public class LeastRequestLoadBalancerTest {
+
+  private static ProviderLoad[] newLoads(int count) {
+    ProviderLoad[] loads = new ProviderLoad[count];
+    for (int i = 0; i < count; i++) {
+      loads[i] = new ProviderLoad();
+    }
+    return loads;
+  }
+
+  @Test
+  public void chooseIndex() throws Exception {
+    Assert.assertEquals(-1, LeastRequestLoadBalancer.chooseIndex(new ProviderLoad[0]));
+    Assert.assertEquals(0, LeastRequestLoadBalancer.chooseIndex(newLoads(1)));
+  }
+
+  @Test
+  public void ignoreLatency() throws Exception {
+    ProviderLoad[] loads = newLoads(2);
+
+    // 第一个服务提供者响应慢但是空闲，第二个服务提供者响应快但有一个请求正在执行
+    loads[0].callStarted();
+    loads[0].callEnded(true, TimeUnit.MILLISECONDS.toNanos(1000));
+    loads[1].callStarted();
+    loads[1].callEnded(true, TimeUnit.MILLISECONDS.toNanos(10));
+    loads[1].callStarted();
+
+    // 只比较正在执行的请求数
+    for (int i = 0; i < 100; i++) {
+      Assert.assertEquals(0, LeastRequestLoadBalancer.chooseIndex(loads));
+    }
+  }
+
+  @Test
+  public void avoidBusyProvider() throws Exception {
+    ProviderLoad[] loads = newLoads(5);
+
+    // 第一个服务提供者积压了大量请求
+    for (int i = 0; i < 100; i++) {
+      loads[0].callStarted();
+    }
+
+    int[] times = new int[5];
+    int index;
+    for (int i = 0; i < 1000; i++) {
+      index = LeastRequestLoadBalancer.chooseIndex(loads);
+      times[index]++;
+      if (index != 0) {
+        loads[index].callStarted();
+        loads[index].callEnded();
+      }
+    }
+
+    Assert.assertEquals(0, times[0]);
+    for (int i = 1; i < 5; i++) {
+      Assert.assertTrue(times[i] > 0);
+    }
+  }
+}
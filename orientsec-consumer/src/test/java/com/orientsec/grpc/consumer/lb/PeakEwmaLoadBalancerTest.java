@@ -0,0 +1,102 @@
+/*
+ * Copyright 2019 Orient Securities Co., Ltd.
+ * Copyright 2019 BoCloud Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientsec.grpc.consumer.lb;
+
+import com.orientsec.grpc.consumer.strategy.ProviderLoad;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test for PeakEwmaLoadBalancer
+ *
+ * @author sxp
+ * @since 2020/3/11
+ */
+public class PeakEwmaLoadBalancerTest {
+
+  private static ProviderLoad[] newLoads(int count) {
+    ProviderLoad[] loads = new ProviderLoad[count];
+    for (int i = 0; i < count; i++) {
+      loads[i] = new ProviderLoad();
+    }
+    return loads;
+  }
+
+  private static void call(ProviderLoad load, long millis) {
+    load.callStarted();
+    load.callEnded(true, TimeUnit.MILLISECONDS.toNanos(millis));
+  }
+
+  @Test
+  public void chooseIndex() throws Exception {
+    Assert.assertEquals(-1, PeakEwmaLoadBalancer.chooseIndex(new ProviderLoad[0]));
+    Assert.assertEquals(0, PeakEwmaLoadBalancer.chooseIndex(newLoads(1)));
+  }
+
+  @Test
+  public void weighLatencyByInFlight() throws Exception {
+    ProviderLoad[] loads = newLoads(2);
+
+    // 第一个服务提供者响应慢但是空闲，第二个服务提供者响应快但有一个请求正在执行
+    call(loads[0], 1000);
+    call(loads[1], 10);
+    loads[1].callStarted();
+
+    // 响应时间乘以(正在执行的请求数 + 1)之后，第二个服务提供者的代价仍然较小
+    for (int i = 0; i < 100; i++) {
+      Assert.assertEquals(1, PeakEwmaLoadBalancer.chooseIndex(loads));
+    }
+  }
+
+  @Test
+  public void probeNewProviderOneAtATime() throws Exception {
+    ProviderLoad[] loads = newLoads(2);
+    call(loads[0], 10);
+
+    // 新上线的服务提供者还没有响应时间数据，空闲时优先探测
+    Assert.assertEquals(1, PeakEwmaLoadBalancer.chooseIndex(loads));
+
+    // 探测请求返回之前不再分配请求
+    loads[1].callStarted();
+    for (int i = 0; i < 100; i++) {
+      Assert.assertEquals(0, PeakEwmaLoadBalancer.chooseIndex(loads));
+    }
+  }
+
+  @Test
+  public void avoidSlowProvider() throws Exception {
+    ProviderLoad[] loads = newLoads(5);
+    for (int i = 0; i < 5; i++) {
+      call(loads[i], 10);
+    }
+
+    // 第一个服务提供者响应变慢
+    call(loads[0], 1000);
+
+    int[] times = new int[5];
+    for (int i = 0; i < 1000; i++) {
+      times[PeakEwmaLoadBalancer.chooseIndex(loads)]++;
+    }
+
+    Assert.assertEquals(0, times[0]);
+    for (int i = 1; i < 5; i++) {
+      Assert.assertTrue(times[i] > 0);
+    }
+  }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2019 Orient Securities Co., Ltd.
+ * Copyright 2019 BoCloud Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientsec.grpc.consumer.qos;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test for CircuitBreaker
+ *
+ * @author sxp
+ * @since 2020/3/11
+ */
+public class CircuitBreakerTest {
+  private static final long PERIOD = 10000L;
+
+  @Test
+  public void openWhenErrorRateExceeded() throws Exception {
+    CircuitBreaker breaker = new CircuitBreaker(PERIOD, 4, 50, 60000L, 1);
+    long now = 1000000L;
+
+    Assert.assertNull(breaker.record(true, now, breaker.getGeneration()));
+    Assert.assertNull(breaker.record(false, now, breaker.getGeneration()));
+    Assert.assertNull(breaker.record(true, now, breaker.getGeneration()));
+    Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+
+    // 请求数达到阈值，错误率为50%
+    Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.record(false, now, breaker.getGeneration()));
+    Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    Assert.assertFalse(breaker.allowRequest());
+  }
+
+  @Test
+  public void notOpenBelowThreshold() throws Exception {
+    CircuitBreaker breaker = new CircuitBreaker(PERIOD, 10, 50, 60000L, 1);
+    long now = 1000000L;
+
+    for (int i = 0; i < 9; i++) {
+      Assert.assertNull(breaker.record(false, now, breaker.getGeneration()));
+    }
+    Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    Assert.assertTrue(breaker.allowRequest());
+  }
+
+  @Test
+  public void slidingWindowExpires() throws Exception {
+    CircuitBreaker breaker = new CircuitBreaker(PERIOD, 4, 50, 60000L, 1);
+    long now = 1000000L;
+
+    breaker.record(false, now, breaker.getGeneration());
+    breaker.record(false, now, breaker.getGeneration());
+    breaker.record(false, now, breaker.getGeneration());
+
+    // 超出统计周期之后之前的失败不再计算在内
+    now += PERIOD;
+    Assert.assertNull(breaker.record(false, now, breaker.getGeneration()));
+    Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+
+    // 统计周期内的数据依然有效
+    now += PERIOD / 2;
+    breaker.record(false, now, breaker.getGeneration());
+    breaker.record(false, now, breaker.getGeneration());
+    Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.record(false, now, breaker.getGeneration()));
+  }
+
+  @Test
+  public void halfOpenProbes() throws Exception {
+    CircuitBreaker breaker = new CircuitBreaker(PERIOD, 1, 50, 60000L, 2);
+    long now = System.currentTimeMillis();
+
+    Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.record(false, now, breaker.getGeneration()));
+    Assert.assertTrue(breaker.halfOpen(now));
+    Assert.assertFalse(breaker.halfOpen(now));
+    Assert.assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+
+    // 只放行指定数量的探测请求
+    Assert.assertTrue(breaker.allowRequest());
+    Assert.assertTrue(breaker.allowRequest());
+    Assert.assertFalse(breaker.allowRequest());
+
+    // 探测请求失败，重新熔断
+    Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.record(false, now, breaker.getGeneration()));
+    Assert.assertFalse(breaker.allowRequest());
+
+    // 探测请求成功，关闭熔断器并清空统计数据
+    Assert.assertTrue(breaker.halfOpen(now));
+    Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.record(true, now, breaker.getGeneration()));
+    Assert.assertTrue(breaker.allowRequest());
+    Assert.assertNull(breaker.record(true, now, breaker.getGeneration()));
+    Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+  }
+
+  @Test
+  public void halfOpenFailureKeepsProbeCount() throws Exception {
+    CircuitBreaker breaker = new CircuitBreaker(PERIOD, 1, 50, 60000L, 1);
+    long now = System.currentTimeMillis();
+
+    Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.record(false, now, breaker.getGeneration()));
+    Assert.assertTrue(breaker.halfOpen(now));
+    Assert.assertTrue(breaker.allowRequest());
+    Assert.assertFalse(breaker.allowRequest());
+
+    // 已经是半熔断状态，再次转换失败时不能补充探测请求数
+    Assert.assertFalse(breaker.halfOpen(now));
+    Assert.assertFalse(breaker.allowRequest());
+  }
+
+  @Test
+  public void halfOpenIgnoresCallsSentBeforeTransition() throws Exception {
+    CircuitBreaker breaker = new CircuitBreaker(PERIOD, 1, 50, 60000L, 1);
+    long now = System.currentTimeMillis();
+
+    int before = breaker.getGeneration();
+    Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.record(false, now, before));
+    Assert.assertTrue(breaker.halfOpen(now));
+
+    // 熔断之前发出、半熔断之后才返回的调用不是探测请求
+    Assert.assertNull(breaker.record(false, now, before));
+    Assert.assertNull(breaker.record(true, now, before));
+    Assert.assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+
+    // 半熔断之后放行的探测请求决定熔断器的状态
+    Assert.assertTrue(breaker.allowRequest());
+    int probe = breaker.getGeneration();
+    Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.record(true, now, probe));
+  }
+
+  @Test
+  public void probeOfPreviousHalfOpenIsIgnored() throws Exception {
+    CircuitBreaker breaker = new CircuitBreaker(PERIOD, 1, 50, 60000L, 2);
+    long now = System.currentTimeMillis();
+
+    Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.record(false, now, breaker.getGeneration()));
+    Assert.assertTrue(breaker.halfOpen(now));
+    Assert.assertTrue(breaker.allowRequest());
+    int first = breaker.getGeneration();
+    Assert.assertTrue(breaker.allowRequest());
+    int second = breaker.getGeneration();
+
+    // 第一个探测请求失败后重新熔断，第二个探测请求在下一轮半熔断时才返回
+    Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.record(false, now, first));
+    Assert.assertTrue(breaker.halfOpen(now));
+    Assert.assertNull(breaker.record(true, now, second));
+    Assert.assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void invalidArguments() throws Exception {
+    new CircuitBreaker(PERIOD, 0, 50, 60000L, 1);
+  }
+}
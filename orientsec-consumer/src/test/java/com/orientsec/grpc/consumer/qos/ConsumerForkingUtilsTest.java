@@ -0,0 +1,51 @@
+/*
+ * Copyright 2019 Orient Securities Co., Ltd.
+ * Copyright 2019 BoCloud Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientsec.grpc.consumer.qos;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * forking模式额外调用数的上限
+ *
+ * @author sxp
+ * @since 2020/3/11
+ */
+public class ConsumerForkingUtilsTest {
+
+  @Test
+  public void extraRequestsLimited() throws Exception {
+    AtomicInteger counter = new AtomicInteger();
+
+    Assert.assertEquals(2, ConsumerForkingUtils.acquireExtraRequests(counter, 3, 2));
+    Assert.assertEquals(1, ConsumerForkingUtils.acquireExtraRequests(counter, 3, 2));
+    Assert.assertEquals(0, ConsumerForkingUtils.acquireExtraRequests(counter, 3, 1));
+    Assert.assertEquals(3, counter.get());
+
+    counter.decrementAndGet();
+    Assert.assertEquals(1, ConsumerForkingUtils.acquireExtraRequests(counter, 3, 4));
+  }
+
+  @Test
+  public void disabledWhenMaxIsZero() throws Exception {
+    AtomicInteger counter = new AtomicInteger();
+    Assert.assertEquals(0, ConsumerForkingUtils.acquireExtraRequests(counter, 0, 1));
+    Assert.assertEquals(0, counter.get());
+  }
+}
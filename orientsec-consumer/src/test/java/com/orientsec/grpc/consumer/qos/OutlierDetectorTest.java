@@ -0,0 +1,144 @@
+/*
+ * Copyright 2019 Orient Securities Co., Ltd.
+ * Copyright 2019 BoCloud Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientsec.grpc.consumer.qos;
+
+import com.orientsec.grpc.consumer.strategy.ProviderLoad;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Test for OutlierDetector
+ *
+ * @author sxp
+ * @since 2020/3/11
+ */
+public class OutlierDetectorTest {
+  private static final long BASE_EJECTION = 30000L;
+  private static final long MILLIS = 1000000L;
+
+  private String[] keys;
+  private ProviderLoad[] loads;
+
+  @Before
+  public void setUp() {
+    keys = new String[5];
+    loads = new ProviderLoad[5];
+    for (int i = 0; i < keys.length; i++) {
+      keys[i] = "192.168.0." + i + ":50051";
+      loads[i] = new ProviderLoad();
+    }
+  }
+
+  private OutlierDetector newDetector(int maxEjectionPercent) {
+    return new OutlierDetector(10, 3, maxEjectionPercent, 1.9D, 3.0D, BASE_EJECTION, 300000L);
+  }
+
+  private void call(int index, int times, boolean ok, long latencyMillis) {
+    for (int i = 0; i < times; i++) {
+      loads[index].callStarted();
+      loads[index].callEnded(ok, latencyMillis * MILLIS);
+    }
+  }
+
+  /**
+   * 模拟一个检测周期：第0个服务提供者使用指定的结果，其余服务提供者全部成功、响应时间10毫秒
+   */
+  private void interval(boolean ok, long latencyMillis) {
+    call(0, 20, ok, latencyMillis);
+    for (int i = 1; i < keys.length; i++) {
+      call(i, 20, true, 10);
+    }
+  }
+
+  @Test
+  public void ejectLowSuccessRate() throws Exception {
+    OutlierDetector detector = newDetector(50);
+    long now = 0L;
+
+    // 第一个周期只记录基准值
+    interval(false, 10);
+    Assert.assertTrue(detector.detect(keys, loads, now).isEmpty());
+
+    interval(false, 10);
+    List<String> ejected = detector.detect(keys, loads, now);
+    Assert.assertEquals(Collections.singletonList(keys[0]), ejected);
+    Assert.assertTrue(detector.isEjected(keys[0]));
+  }
+
+  @Test
+  public void ejectSlowProvider() throws Exception {
+    OutlierDetector detector = newDetector(50);
+    detector.detect(keys, loads, 0L);
+
+    // 没有报错，但响应时间是其它服务提供者的10倍
+    interval(true, 100);
+    Assert.assertEquals(Collections.singletonList(keys[0]), detector.detect(keys, loads, 0L));
+  }
+
+  @Test
+  public void healthyProvidersNotEjected() throws Exception {
+    OutlierDetector detector = newDetector(50);
+    detector.detect(keys, loads, 0L);
+
+    interval(true, 12);
+    Assert.assertTrue(detector.detect(keys, loads, 0L).isEmpty());
+
+    // 请求数不足时不参与比较
+    call(0, 5, false, 10);
+    Assert.assertTrue(detector.detect(keys, loads, 0L).isEmpty());
+  }
+
+  @Test
+  public void maxEjectionPercent() throws Exception {
+    OutlierDetector detector = newDetector(10);
+    detector.detect(keys, loads, 0L);
+
+    interval(false, 10);
+    Assert.assertTrue(detector.detect(keys, loads, 0L).isEmpty());
+  }
+
+  @Test
+  public void exponentialBackoff() throws Exception {
+    OutlierDetector detector = newDetector(50);
+    long now = 0L;
+    detector.detect(keys, loads, now);
+
+    interval(false, 10);
+    Assert.assertEquals(1, detector.detect(keys, loads, now).size());
+
+    // 第一次剔除baseEjectionTime
+    Assert.assertTrue(detector.expire(now + BASE_EJECTION - 1).isEmpty());
+    now += BASE_EJECTION;
+    Assert.assertEquals(Collections.singletonList(keys[0]), detector.expire(now));
+    Assert.assertFalse(detector.isEjected(keys[0]));
+
+    // 恢复后依然异常，剔除时间加倍
+    interval(false, 10);
+    Assert.assertEquals(1, detector.detect(keys, loads, now).size());
+    Assert.assertTrue(detector.expire(now + BASE_EJECTION).isEmpty());
+    Assert.assertEquals(1, detector.expire(now + 2 * BASE_EJECTION).size());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void invalidArguments() throws Exception {
+    new OutlierDetector(10, 3, 101, 1.9D, 3.0D, BASE_EJECTION, 300000L);
+  }
+}
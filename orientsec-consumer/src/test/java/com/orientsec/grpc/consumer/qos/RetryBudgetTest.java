@@ -0,0 +1,66 @@
+/*
+ * Copyright 2019 Orient Securities Co., Ltd.
+ * Copyright 2019 BoCloud Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientsec.grpc.consumer.qos;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test for RetryBudget
+ *
+ * @author sxp
+ * @since 2020/3/11
+ */
+public class RetryBudgetTest {
+
+  @Test
+  public void retriesLimitedToRatioOfRequests() throws Exception {
+    RetryBudget budget = new RetryBudget(0.2D, 2);
+
+    // 初始时预算是满的
+    Assert.assertTrue(budget.tryWithdraw());
+    Assert.assertTrue(budget.tryWithdraw());
+    Assert.assertFalse(budget.tryWithdraw());
+
+    // 每5个请求允许重试1次
+    for (int i = 0; i < 4; i++) {
+      budget.deposit();
+    }
+    Assert.assertFalse(budget.tryWithdraw());
+    budget.deposit();
+    Assert.assertTrue(budget.tryWithdraw());
+    Assert.assertFalse(budget.tryWithdraw());
+  }
+
+  @Test
+  public void balanceIsCapped() throws Exception {
+    RetryBudget budget = new RetryBudget(1D, 3);
+    for (int i = 0; i < 100; i++) {
+      budget.deposit();
+    }
+    Assert.assertEquals(3D, budget.getBalance(), 0.0001D);
+  }
+
+  @Test
+  public void zeroRatioAllowsOnlyReservedTokens() throws Exception {
+    RetryBudget budget = new RetryBudget(0D, 1);
+    budget.deposit();
+    Assert.assertTrue(budget.tryWithdraw());
+    budget.deposit();
+    Assert.assertFalse(budget.tryWithdraw());
+  }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2019 Orient Securities Co., Ltd.
+ * Copyright 2019 BoCloud Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientsec.grpc.consumer.qos;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test for TokenBucket
+ *
+ * @author sxp
+ * @since 2020/3/11
+ */
+public class TokenBucketTest {
+  private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+
+  @Test
+  public void burstThenSmoothRefill() throws Exception {
+    long now = 0L;
+    TokenBucket bucket = new TokenBucket(10, 5, now);
+
+    // 初始时桶是满的
+    for (int i = 0; i < 5; i++) {
+      Assert.assertEquals(0L, bucket.reserve(now, 0L));
+    }
+    Assert.assertEquals(-1L, bucket.reserve(now, 0L));
+
+    // 每100毫秒补充一个令牌，而不是每秒一次性补满
+    Assert.assertEquals(-1L, bucket.reserve(now + 99 * MILLIS, 0L));
+    Assert.assertEquals(0L, bucket.reserve(now + 100 * MILLIS, 0L));
+    Assert.assertEquals(-1L, bucket.reserve(now + 100 * MILLIS, 0L));
+
+    // 空闲较长时间后最多只有burst个令牌
+    now += TimeUnit.SECONDS.toNanos(10);
+    for (int i = 0; i < 5; i++) {
+      Assert.assertEquals(0L, bucket.reserve(now, 0L));
+    }
+    Assert.assertEquals(-1L, bucket.reserve(now, 0L));
+  }
+
+  @Test
+  public void reserveWithWait() throws Exception {
+    TokenBucket bucket = new TokenBucket(10, 1, 0L);
+    Assert.assertEquals(0L, bucket.reserve(0L, 0L));
+
+    // 允许等待时预约下一个令牌，返回需要等待的时间
+    Assert.assertEquals(-1L, bucket.reserve(0L, 50 * MILLIS));
+    Assert.assertEquals(100 * MILLIS, bucket.reserve(0L, 200 * MILLIS));
+    Assert.assertEquals(200 * MILLIS, bucket.reserve(0L, 200 * MILLIS));
+    Assert.assertEquals(-1L, bucket.reserve(0L, 200 * MILLIS));
+  }
+
+  @Test
+  public void concurrentAcquireNeverExceedsBurst() throws Exception {
+    final TokenBucket bucket = new TokenBucket(1, 100);
+    final int[] acquired = new int[4];
+    Thread[] threads = new Thread[acquired.length];
+
+    for (int i = 0; i < threads.length; i++) {
+      final int index = i;
+      threads[i] = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          for (int j = 0; j < 1000; j++) {
+            if (bucket.tryAcquire()) {
+              acquired[index]++;
+            }
+          }
+        }
+      });
+      threads[i].start();
+    }
+
+    int total = 0;
+    for (int i = 0; i < threads.length; i++) {
+      threads[i].join();
+      total += acquired[i];
+    }
+
+    // 测试期间最多补充1~2个令牌
+    Assert.assertTrue(total >= 100 && total <= 102);
+  }
+}
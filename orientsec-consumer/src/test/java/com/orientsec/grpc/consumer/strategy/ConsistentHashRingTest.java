@@ -0,0 +1,114 @@
+/*
+ * Copyright 2019 Orient Securities Co., Ltd.
+ * Copyright 2019 BoCloud Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientsec.grpc.consumer.strategy;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test for ConsistentHashRing
+ *
+ * @author sxp
+ * @since 2020/3/8
+ */
+public class ConsistentHashRingTest {
+  private static final String[] KEYS = {"192.168.0.1:50051", "192.168.0.2:50051", "192.168.0.3:50051"};
+
+  @Test
+  public void sameArgumentSameProvider() throws Exception {
+    ConsistentHashRing ring = ConsistentHashRing.create(1L, KEYS);
+    ConsistentHashRing another = ConsistentHashRing.create(2L, KEYS);
+
+    for (int i = 0; i < 100; i++) {
+      String jobId = "jobId-" + i;
+      Assert.assertEquals(ring.select(jobId), ring.select(jobId));
+      Assert.assertEquals(ring.select(jobId), another.select(jobId));
+    }
+
+    // 非字符串参数按照字符串处理
+    Assert.assertEquals(ring.select("12345"), ring.select(12345L));
+  }
+
+  @Test
+  public void balance() throws Exception {
+    ConsistentHashRing ring = ConsistentHashRing.create(1L, KEYS);
+    int[] times = new int[KEYS.length];
+    int loop = 30000;
+
+    for (int i = 0; i < loop; i++) {
+      times[ring.select("jobId-" + i)]++;
+    }
+
+    for (int time : times) {
+      Assert.assertTrue(time > loop / KEYS.length / 2);
+    }
+  }
+
+  @Test
+  public void providerRemoved() throws Exception {
+    ConsistentHashRing ring = ConsistentHashRing.create(1L, KEYS);
+    ConsistentHashRing smaller = ConsistentHashRing.create(2L, new String[]{KEYS[0], KEYS[1]});
+
+    // 未下线的服务提供者上的请求仍然发到原来的服务提供者
+    for (int i = 0; i < 1000; i++) {
+      String jobId = "jobId-" + i;
+      int index = ring.select(jobId);
+      if (index != 2) {
+        Assert.assertEquals(index, smaller.select(jobId));
+      }
+    }
+  }
+
+  @Test
+  public void bounded() throws Exception {
+    ConsistentHashRing ring = ConsistentHashRing.create(1L, KEYS);
+    ProviderLoad[] loads = new ProviderLoad[KEYS.length];
+    for (int i = 0; i < loads.length; i++) {
+      loads[i] = new ProviderLoad();
+    }
+
+    // 负载为空时与普通的一致性Hash结果相同
+    int index = ring.select("hot-job");
+    Assert.assertEquals(index, ring.selectBounded("hot-job", loads, 0.25D));
+
+    // 同一个参数的请求持续执行，超过上限后转发给其它服务提供者
+    for (int i = 0; i < 30; i++) {
+      loads[ring.selectBounded("hot-job", loads, 0.25D)].callStarted();
+    }
+
+    for (ProviderLoad load : loads) {
+      Assert.assertTrue(load.getInFlight() <= Math.ceil(1.25D * 30 / KEYS.length));
+    }
+    Assert.assertTrue(loads[index].getInFlight() >= loads[(index + 1) % 3].getInFlight());
+
+    // 负载降低后恢复原来的选择
+    for (ProviderLoad load : loads) {
+      while (load.getInFlight() > 0) {
+        load.callEnded();
+      }
+    }
+    Assert.assertEquals(index, ring.selectBounded("hot-job", loads, 0.25D));
+  }
+
+  @Test
+  public void wrapAround() throws Exception {
+    ConsistentHashRing ring = ConsistentHashRing.create(1L, KEYS);
+
+    // 大于所有虚拟节点的散列值时回到环的起点
+    Assert.assertEquals(ring.selectByHash(Long.MIN_VALUE), ring.selectByHash(Long.MAX_VALUE));
+  }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2019 Orient Securities Co., Ltd.
+ * Copyright 2019 BoCloud Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientsec.grpc.consumer.strategy;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test for ProviderLoad
+ *
+ * @author sxp
+ * @since 2020/3/11
+ */
+public class ProviderLoadTest {
+  private static final double DELTA = 1e-6;
+
+  @Test
+  public void inFlight() throws Exception {
+    ProviderLoad load = new ProviderLoad();
+    Assert.assertEquals(0D, load.getPeakEwmaCost(), DELTA);
+
+    // 没有响应时间数据时按照惩罚值计算代价
+    load.callStarted();
+    load.callStarted();
+    Assert.assertEquals(2, load.getInFlight());
+    Assert.assertEquals(ProviderLoad.PENALTY + 2, load.getPeakEwmaCost(), DELTA);
+
+    load.callEnded();
+    load.callEnded(true, 100L);
+    Assert.assertEquals(0, load.getInFlight());
+  }
+
+  @Test
+  public void peakEwma() throws Exception {
+    ProviderLoad load = new ProviderLoad();
+    long now = System.nanoTime();
+    long decay = TimeUnit.SECONDS.toNanos(10);
+
+    // 响应时间变长时立即生效
+    load.observe(true, 100L, now);
+    Assert.assertEquals(100D, load.getPeakEwmaCost(now), DELTA);
+    load.observe(true, 1000L, now);
+    Assert.assertEquals(1000D, load.getPeakEwmaCost(now), DELTA);
+
+    // 响应时间变短时按照经过的时间逐渐衰减
+    load.observe(true, 0L, now + decay);
+    Assert.assertEquals(1000D * Math.exp(-1), load.getPeakEwmaCost(now + decay), 1e-3);
+
+    // 失败且响应更快的请求不影响响应时间
+    double before = load.getPeakEwmaCost(now + decay);
+    load.observe(false, 1L, now + decay);
+    Assert.assertEquals(before, load.getPeakEwmaCost(now + decay), DELTA);
+
+    // 代价随正在执行的请求数增加
+    load.callStarted();
+    Assert.assertEquals(before * 2, load.getPeakEwmaCost(now + decay), 1e-3);
+  }
+}
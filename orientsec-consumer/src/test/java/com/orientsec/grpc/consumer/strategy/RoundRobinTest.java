@@ -0,0 +1,86 @@
+/*
+ * Copyright 2019 Orient Securities Co., Ltd.
+ * Copyright 2019 BoCloud Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientsec.grpc.consumer.strategy;
+
+import com.orientsec.grpc.consumer.model.ServiceProvider;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Test for RoundRobin
+ *
+ * @author sxp
+ * @since 2020/3/7
+ */
+public class RoundRobinTest {
+
+  private static ServiceProvider[] newProviders(int count) {
+    ServiceProvider[] providers = new ServiceProvider[count];
+    for (int i = 0; i < count; i++) {
+      providers[i] = new ServiceProvider();
+      providers[i].setHost("127.0.0.1");
+      providers[i].setPort(50001 + i);
+    }
+    return providers;
+  }
+
+  @Test
+  public void next() throws Exception {
+    ServiceProvider[] providers = newProviders(3);
+    RoundRobin rr = RoundRobin.create(1L, providers);
+
+    int first = rr.nextIndex();
+    Assert.assertEquals((first + 1) % 3, rr.nextIndex());
+    Assert.assertSame(providers[(first + 2) % 3], rr.next());
+
+    // 修改原始数组不影响选择器
+    providers[0] = null;
+    for (int i = 0; i < 3; i++) {
+      Assert.assertNotNull(rr.next());
+    }
+  }
+
+  @Test
+  public void concurrent() throws Exception {
+    final RoundRobin rr = RoundRobin.create(1L, newProviders(4));
+    final int threadNum = 8;
+    final int loop = 10000;
+    final AtomicIntegerArray times = new AtomicIntegerArray(4);
+    final CountDownLatch latch = new CountDownLatch(threadNum);
+
+    for (int i = 0; i < threadNum; i++) {
+      new Thread(new Runnable() {
+        @Override
+        public void run() {
+          for (int j = 0; j < loop; j++) {
+            times.incrementAndGet(rr.nextIndex());
+          }
+          latch.countDown();
+        }
+      }).start();
+    }
+
+    latch.await();
+
+    for (int i = 0; i < 4; i++) {
+      Assert.assertEquals(threadNum * loop / 4, times.get(i));
+    }
+  }
+}
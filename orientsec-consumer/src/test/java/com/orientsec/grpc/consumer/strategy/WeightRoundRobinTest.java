@@ -0,0 +1,132 @@
+/*
+ * Copyright 2019 Orient Securities Co., Ltd.
+ * Copyright 2019 BoCloud Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientsec.grpc.consumer.strategy;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Test for WeightRoundRobin
+ *
+ * @author sxp
+ * @since 2020/3/6
+ */
+public class WeightRoundRobinTest {
+
+  @Test
+  public void smooth() throws Exception {
+    WeightRoundRobin wrr = WeightRoundRobin.create(1L, new int[]{500, 100, 100});
+
+    // 约分后的调度表长度为7
+    Assert.assertEquals(7, wrr.scheduleLength());
+
+    int[] times = new int[3];
+    int previous = -1;
+    int continuous = 0;
+    int maxContinuous = 0;
+    int index;
+
+    for (int i = 0; i < 7; i++) {
+      index = wrr.next();
+      times[index]++;
+
+      continuous = (index == previous) ? continuous + 1 : 1;
+      maxContinuous = Math.max(maxContinuous, continuous);
+      previous = index;
+    }
+
+    Assert.assertArrayEquals(new int[]{5, 1, 1}, times);
+
+    // 平滑：权重最大的服务提供者不会连续被选中5次
+    Assert.assertTrue(maxContinuous < 5);
+  }
+
+  @Test
+  public void concurrent() throws Exception {
+    final WeightRoundRobin wrr = WeightRoundRobin.create(1L, new int[]{100, 200, 300, 400});
+    final int threadNum = 8;
+    final int loop = 10000;// 10000是调度表长度10的整数倍
+    final AtomicIntegerArray times = new AtomicIntegerArray(4);
+    final CountDownLatch latch = new CountDownLatch(threadNum);
+
+    for (int i = 0; i < threadNum; i++) {
+      new Thread(new Runnable() {
+        @Override
+        public void run() {
+          for (int j = 0; j < loop; j++) {
+            times.incrementAndGet(wrr.next());
+          }
+          latch.countDown();
+        }
+      }).start();
+    }
+
+    latch.await();
+
+    int total = threadNum * loop;
+    for (int i = 0; i < 4; i++) {
+      Assert.assertEquals(total * (i + 1) / 10, times.get(i));
+    }
+  }
+
+  @Test
+  public void invalidWeights() throws Exception {
+    WeightRoundRobin wrr = WeightRoundRobin.create(1L, new int[]{0, 100});
+    for (int i = 0; i < 10; i++) {
+      Assert.assertEquals(1, wrr.next());
+    }
+
+    // 全部权重无效时按照相同权重处理
+    wrr = WeightRoundRobin.create(1L, new int[]{0, -1});
+    Assert.assertEquals(2, wrr.scheduleLength());
+  }
+
+  @Test
+  public void maxScheduleLength() throws Exception {
+    int[] weights = new int[200];
+    for (int i = 0; i < weights.length; i++) {
+      weights[i] = 10000 + i;
+    }
+
+    WeightRoundRobin wrr = WeightRoundRobin.create(1L, weights);
+    Assert.assertTrue(wrr.scheduleLength() <= WeightRoundRobin.MAX_SCHEDULE_LENGTH);
+    Assert.assertTrue(wrr.hasSameWeights(weights));
+    Assert.assertEquals(200, wrr.size());
+  }
+
+  @Test
+  public void largeWeightsKeepRatio() throws Exception {
+    // 权重之和超过调度表的最大长度，缩放时不能溢出
+    int[] weights = new int[]{200000, 1};
+    WeightRoundRobin wrr = WeightRoundRobin.create(1L, weights);
+    Assert.assertTrue(wrr.scheduleLength() <= WeightRoundRobin.MAX_SCHEDULE_LENGTH);
+
+    int[] normalized = WeightRoundRobin.normalize(weights);
+    Assert.assertEquals(WeightRoundRobin.MAX_SCHEDULE_LENGTH - 1, normalized[0]);
+    Assert.assertEquals(1, normalized[1]);
+
+    int[] times = new int[2];
+    for (int i = 0; i < wrr.scheduleLength(); i++) {
+      times[wrr.next()]++;
+    }
+    Assert.assertEquals(1, times[1]);
+    Assert.assertEquals(wrr.scheduleLength() - 1, times[0]);
+  }
+}
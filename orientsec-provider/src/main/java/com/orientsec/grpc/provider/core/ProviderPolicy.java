@@ -0,0 +1,75 @@
+/*
+ * Copyright 2019 Orient Securities Co., Ltd.
+ * Copyright 2019 BoCloud Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientsec.grpc.provider.core;
+
+import com.orientsec.grpc.provider.qos.RequestsController;
+
+/**
+ * 服务提供者处理请求时使用的服务策略
+ * <p>
+ * 由服务配置信息预先解析得到，对象创建后不再修改；配置发生变化时整体替换，
+ * 请求处理过程中只需要读取字段，不需要再查询配置信息。
+ * </p>
+ *
+ * @author sxp
+ * @since 2020/3/11
+ */
+public final class ProviderPolicy {
+  private final String interfaceName;
+  private final boolean deprecated;
+  private final RequestsController controller;
+
+  public ProviderPolicy(String interfaceName, boolean deprecated, RequestsController controller) {
+    this.interfaceName = interfaceName;
+    this.deprecated = deprecated;
+    this.controller = controller;
+  }
+
+  /**
+   * 服务接口名，即interface
+   */
+  public String getInterfaceName() {
+    return interfaceName;
+  }
+
+  /**
+   * 服务是否已经过时
+   */
+  public boolean isDeprecated() {
+    return deprecated;
+  }
+
+  /**
+   * 服务的请求数控制器，没有启用服务端功能或者服务还没有完成注册时为null
+   */
+  public RequestsController getController() {
+    return controller;
+  }
+
+  /**
+   * 是否需要限制请求数
+   */
+  public boolean isLimited() {
+    return controller != null && controller.isLimited();
+  }
+
+  @Override
+  public String toString() {
+    return "ProviderPolicy{interfaceName=" + interfaceName + ", deprecated=" + deprecated
+            + ", controller=" + controller + "}";
+  }
+}
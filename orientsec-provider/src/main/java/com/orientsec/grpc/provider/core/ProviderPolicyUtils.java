@@ -0,0 +1,136 @@
+/*
+ * Copyright 2019 Orient Securities Co., Ltd.
+ * Copyright 2019 BoCloud Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientsec.grpc.provider.core;
+
+import com.orientsec.grpc.common.constant.GlobalConstants;
+import com.orientsec.grpc.common.resource.SystemSwitch;
+import com.orientsec.grpc.common.util.GrpcUtils;
+import com.orientsec.grpc.provider.qos.ProviderRequestsControllerUtils;
+import com.orientsec.grpc.provider.qos.RequestsController;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 服务策略工具类
+ * <p>
+ * 每个服务接口对应一个{@link ProviderPolicy}的引用，同一服务的所有方法共享该引用；
+ * 服务注册、注销以及注册中心的配置项发生变化时重新解析并整体替换。
+ * </p>
+ *
+ * @author sxp
+ * @since 2020/3/11
+ */
+public class ProviderPolicyUtils {
+  /**
+   * key值为服务接口名，即interface
+   */
+  private static final ConcurrentHashMap<String, AtomicReference<ProviderPolicy>> policies
+          = new ConcurrentHashMap<>();
+
+  /**
+   * key值为方法全名，即interface/method
+   */
+  private static final ConcurrentHashMap<String, AtomicReference<ProviderPolicy>> methodPolicies
+          = new ConcurrentHashMap<>();
+
+  /**
+   * 服务启动时预先解析各方法的服务策略
+   *
+   * @param fullMethodNames 方法全名的集合
+   */
+  public static void register(Collection<String> fullMethodNames) {
+    for (String fullMethodName : fullMethodNames) {
+      getPolicyReference(fullMethodName);
+    }
+  }
+
+  /**
+   * 获取方法对应的服务策略的引用
+   * <p>
+   * 调用方可以保存该引用，每次处理请求时通过get()读取最新的服务策略。
+   * </p>
+   */
+  public static AtomicReference<ProviderPolicy> getPolicyReference(String fullMethodName) {
+    AtomicReference<ProviderPolicy> reference = methodPolicies.get(fullMethodName);
+    if (reference != null) {
+      return reference;
+    }
+
+    String interfaceName = GrpcUtils.getInterfaceNameNoneException(fullMethodName);
+    reference = getInterfacePolicyReference(interfaceName);
+
+    AtomicReference<ProviderPolicy> oldValue = methodPolicies.putIfAbsent(fullMethodName, reference);
+    return (oldValue != null) ? oldValue : reference;
+  }
+
+  private static AtomicReference<ProviderPolicy> getInterfacePolicyReference(String interfaceName) {
+    AtomicReference<ProviderPolicy> reference = policies.get(interfaceName);
+    if (reference == null) {
+      reference = new AtomicReference<>(resolve(interfaceName));
+      AtomicReference<ProviderPolicy> oldValue = policies.putIfAbsent(interfaceName, reference);
+
+      if (oldValue != null) {
+        // 防止其他线程在这段时间内已经向policies中写入了新数据
+        reference = oldValue;
+      } else {
+        // 解析期间配置信息可能已经发生变化
+        refresh(interfaceName);
+      }
+    }
+    return reference;
+  }
+
+  /**
+   * 服务配置信息发生变化后，重新解析服务策略
+   *
+   * @param interfaceName 服务接口名
+   */
+  public static void refresh(String interfaceName) {
+    AtomicReference<ProviderPolicy> reference = policies.get(interfaceName);
+    if (reference == null) {
+      return;
+    }
+
+    // 串行执行，防止较早解析的结果覆盖较新的结果
+    synchronized (reference) {
+      reference.set(resolve(interfaceName));
+    }
+  }
+
+  /**
+   * 根据当前的服务配置信息解析服务策略
+   */
+  private static ProviderPolicy resolve(String interfaceName) {
+    boolean deprecated = false;
+    RequestsController controller = null;
+
+    Map<String, Object> serviceConfig = ServiceConfigUtils.getCurrentServicesConfig().get(interfaceName);
+    if (serviceConfig != null) {
+      Object value = serviceConfig.get(GlobalConstants.Provider.Key.DEPRECATED);
+      deprecated = (value != null) && Boolean.valueOf(value.toString()).booleanValue();
+
+      if (SystemSwitch.PROVIDER_ENABLED) {
+        controller = ProviderRequestsControllerUtils.getRequestsController(interfaceName);
+      }
+    }
+
+    return new ProviderPolicy(interfaceName, deprecated, controller);
+  }
+}
@@ -0,0 +1,362 @@
+/*
+ * Copyright 2019 Orient Securities Co., Ltd.
+ * Copyright 2019 BoCloud Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientsec.grpc.provider.qos;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 请求排队队列
+ * <p>
+ * 并发请求数达到上限时，请求先在队列中等待，其它请求处理结束释放出名额后再按照FIFO或者LIFO的顺序放行；
+ * 排队时间超过maxWait，或者根据请求的截止时间(Deadline)和平均处理时间判断已经无法按时完成的请求直接结束。
+ * 队列长度有上限，队列已满时请求立即被拒绝。
+ * </p>
+ * <p>
+ * 指定了定时器时，每个请求入队时注册一个超时任务，到达maxWait或者截止时间时即使没有其它请求处理结束也会被移出队列；
+ * 放行时只检查被取出的请求是否过期，不再扫描整个队列。
+ * </p>
+ * <p>
+ * 队列的回调({@link Waiter#admit(long)}、{@link Waiter#expire(long, boolean)})都在锁外执行。
+ * </p>
+ *
+ * @author sxp
+ * @since 2020/3/11
+ */
+public final class AdmissionQueue {
+  /** 没有截止时间 */
+  public static final long NO_DEADLINE = Long.MAX_VALUE;
+
+  /**
+   * 排队的请求
+   */
+  public interface Waiter {
+    /**
+     * 请求获得了一个并发请求数名额，处理结束后需要归还
+     *
+     * @param waitNanos 排队等待的时间(纳秒)
+     */
+    void admit(long waitNanos);
+
+    /**
+     * 请求排队超时，或者已经无法在截止时间之前完成
+     *
+     * @param waitNanos        排队等待的时间(纳秒)
+     * @param deadlineExceeded 是否因为截止时间无法满足而结束
+     */
+    void expire(long waitNanos, boolean deadlineExceeded);
+  }
+
+  private static final class Entry {
+    final Waiter waiter;
+    final long enqueueNanos;
+    final long deadlineNanos;
+
+    /** 超时任务，没有定时器时为null */
+    volatile ScheduledFuture<?> timeout;
+
+    Entry(Waiter waiter, long enqueueNanos, long deadlineNanos) {
+      this.waiter = waiter;
+      this.enqueueNanos = enqueueNanos;
+      this.deadlineNanos = deadlineNanos;
+    }
+
+    void cancelTimeout() {
+      ScheduledFuture<?> future = timeout;
+      if (future != null) {
+        future.cancel(false);
+      }
+    }
+  }
+
+  private final int capacity;
+  private final boolean lifo;
+  private final long maxWaitNanos;
+
+  /** 排队超时的定时器，为null时只在放行或者入队时检查过期 */
+  private final ScheduledExecutorService timer;
+
+  private final ArrayDeque<Entry> entries;
+
+  /** 请求平均处理时间的估计值(纳秒)，用于判断截止时间能否满足 */
+  private volatile long serviceNanos;
+
+  private final AtomicLong admitted = new AtomicLong();
+  private final AtomicLong expired = new AtomicLong();
+  private final AtomicLong rejected = new AtomicLong();
+  private final AtomicLong totalWaitNanos = new AtomicLong();
+
+  /**
+   * @param capacity     队列长度的上限
+   * @param lifo         是否优先放行最新到达的请求
+   * @param maxWaitNanos 排队等待的最长时间(纳秒)
+   */
+  public AdmissionQueue(int capacity, boolean lifo, long maxWaitNanos) {
+    this(capacity, lifo, maxWaitNanos, null);
+  }
+
+  /**
+   * @param capacity     队列长度的上限
+   * @param lifo         是否优先放行最新到达的请求
+   * @param maxWaitNanos 排队等待的最长时间(纳秒)
+   * @param timer        排队超时的定时器，可以为null
+   */
+  public AdmissionQueue(int capacity, boolean lifo, long maxWaitNanos, ScheduledExecutorService timer) {
+    if (capacity <= 0 || maxWaitNanos <= 0) {
+      throw new IllegalArgumentException("请求排队队列的参数不合法");
+    }
+
+    this.capacity = capacity;
+    this.lifo = lifo;
+    this.maxWaitNanos = maxWaitNanos;
+    this.timer = timer;
+    this.entries = new ArrayDeque<>(Math.min(capacity, 256));
+  }
+
+  /**
+   * 请求进入队列，队列已满时返回false
+   *
+   * @param deadlineNanos 请求的截止时间(System.nanoTime)，没有截止时间时为{@link #NO_DEADLINE}
+   */
+  public boolean offer(Waiter waiter, long deadlineNanos, long nowNanos) {
+    List<Entry> expiredEntries = null;
+    Entry entry = null;
+
+    synchronized (this) {
+      if (entries.size() >= capacity) {
+        expiredEntries = purgeOldestExpired(nowNanos);
+      }
+
+      if (entries.size() < capacity) {
+        entry = new Entry(waiter, nowNanos, deadlineNanos);
+        entries.addLast(entry);
+      }
+    }
+
+    if (entry == null) {
+      rejected.incrementAndGet();
+    } else {
+      scheduleTimeout(entry, nowNanos);
+    }
+    notifyExpired(expiredEntries, nowNanos);
+    return entry != null;
+  }
+
+  /**
+   * 放行下一个请求，取出的请求已经过期时直接结束并继续取下一个
+   *
+   * @return 是否有请求被放行；没有请求被放行时，调用方需要归还已经占用的名额
+   */
+  public boolean admitNext(long nowNanos) {
+    List<Entry> expiredEntries = null;
+    Entry next = null;
+
+    synchronized (this) {
+      while (!entries.isEmpty()) {
+        Entry entry = lifo ? entries.pollLast() : entries.pollFirst();
+        if (!isExpired(entry, nowNanos)) {
+          next = entry;
+          break;
+        }
+        if (expiredEntries == null) {
+          expiredEntries = new ArrayList<>();
+        }
+        expiredEntries.add(entry);
+      }
+    }
+
+    notifyExpired(expiredEntries, nowNanos);
+
+    if (next == null) {
+      return false;
+    }
+
+    next.cancelTimeout();
+    long waitNanos = nowNanos - next.enqueueNanos;
+    admitted.incrementAndGet();
+    totalWaitNanos.addAndGet(waitNanos);
+    next.waiter.admit(waitNanos);
+    return true;
+  }
+
+  /**
+   * 将请求移出队列(例如请求被取消)
+   *
+   * @return 请求是否还在队列中
+   */
+  public boolean remove(Waiter waiter) {
+    Entry removed = null;
+
+    synchronized (this) {
+      Iterator<Entry> iterator = entries.iterator();
+      while (iterator.hasNext()) {
+        Entry entry = iterator.next();
+        if (entry.waiter == waiter) {
+          iterator.remove();
+          removed = entry;
+          break;
+        }
+      }
+    }
+
+    if (removed == null) {
+      return false;
+    }
+    removed.cancelTimeout();
+    return true;
+  }
+
+  /**
+   * 队列已满时移除队首(最早入队)已经过期的请求，调用方需要持有锁
+   * <p>
+   * 启用定时器时过期的请求已经被及时移除，这里只处理队首，不扫描整个队列。
+   * </p>
+   */
+  private List<Entry> purgeOldestExpired(long nowNanos) {
+    List<Entry> expiredEntries = null;
+
+    while (!entries.isEmpty() && isExpired(entries.peekFirst(), nowNanos)) {
+      if (expiredEntries == null) {
+        expiredEntries = new ArrayList<>();
+      }
+      expiredEntries.add(entries.pollFirst());
+    }
+
+    return expiredEntries;
+  }
+
+  /**
+   * 在排队时间达到maxWait或者到达截止时间时将请求移出队列
+   */
+  private void scheduleTimeout(final Entry entry, long nowNanos) {
+    if (timer == null) {
+      return;
+    }
+
+    long delayNanos = maxWaitNanos;
+    if (entry.deadlineNanos != NO_DEADLINE) {
+      delayNanos = Math.min(delayNanos, entry.deadlineNanos - nowNanos);
+    }
+
+    entry.timeout = timer.schedule(new Runnable() {
+      @Override
+      public void run() {
+        expireOnTimeout(entry);
+      }
+    }, Math.max(0L, delayNanos), TimeUnit.NANOSECONDS);
+  }
+
+  private void expireOnTimeout(Entry entry) {
+    boolean removed;
+    synchronized (this) {
+      removed = entries.removeFirstOccurrence(entry);
+    }
+
+    if (removed) {
+      long nowNanos = System.nanoTime();
+      expired.incrementAndGet();
+      boolean deadlineExceeded = entry.deadlineNanos != NO_DEADLINE && nowNanos - entry.deadlineNanos >= 0;
+      entry.waiter.expire(nowNanos - entry.enqueueNanos, deadlineExceeded);
+    }
+  }
+
+  private boolean isExpired(Entry entry, long nowNanos) {
+    return nowNanos - entry.enqueueNanos >= maxWaitNanos || isDeadlineUnreachable(entry, nowNanos);
+  }
+
+  private boolean isDeadlineUnreachable(Entry entry, long nowNanos) {
+    return entry.deadlineNanos != NO_DEADLINE && entry.deadlineNanos - nowNanos <= serviceNanos;
+  }
+
+  private void notifyExpired(List<Entry> expiredEntries, long nowNanos) {
+    if (expiredEntries == null) {
+      return;
+    }
+
+    for (Entry entry : expiredEntries) {
+      entry.cancelTimeout();
+      expired.incrementAndGet();
+      entry.waiter.expire(nowNanos - entry.enqueueNanos, isDeadlineUnreachable(entry, nowNanos));
+    }
+  }
+
+  /**
+   * 记录一个请求的处理时间，按照指数加权移动平均估计平均处理时间
+   */
+  public void recordServiceTime(long rttNanos) {
+    long current = serviceNanos;
+    // 此处不需要严格地控制并发
+    serviceNanos = (current == 0L) ? rttNanos : current + (rttNanos - current) / 8;
+  }
+
+  /**
+   * 当前排队的请求数
+   */
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  public int getCapacity() {
+    return capacity;
+  }
+
+  public boolean isLifo() {
+    return lifo;
+  }
+
+  /**
+   * 排队后被放行的请求数
+   */
+  public long getAdmitted() {
+    return admitted.get();
+  }
+
+  /**
+   * 排队超时或者截止时间无法满足的请求数
+   */
+  public long getExpired() {
+    return expired.get();
+  }
+
+  /**
+   * 队列已满被拒绝的请求数
+   */
+  public long getRejected() {
+    return rejected.get();
+  }
+
+  /**
+   * 被放行的请求的平均排队时间(纳秒)
+   */
+  public long getAverageWaitNanos() {
+    long count = admitted.get();
+    return (count == 0L) ? 0L : totalWaitNanos.get() / count;
+  }
+
+  @Override
+  public String toString() {
+    return "AdmissionQueue{size=" + size() + ", capacity=" + capacity + ", lifo=" + lifo
+            + ", admitted=" + admitted.get() + ", expired=" + expired.get() + ", rejected=" + rejected.get()
+            + ", averageWaitNanos=" + getAverageWaitNanos() + "}";
+  }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2019 Orient Securities Co., Ltd.
+ * Copyright 2019 BoCloud Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientsec.grpc.provider.qos;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 加性增、乘性减(AIMD)的并发请求数上限
+ * <p>
+ * 请求处理时间超过timeout或者请求没有正常完成时，上限乘以backoffRatio；
+ * 否则在并发请求数达到上限的一半以上时，上限加1。
+ * 上限通过CAS更新，不需要加锁。
+ * </p>
+ *
+ * @author sxp
+ * @since 2020/3/11
+ */
+public final class AimdLimit implements LimitAlgorithm {
+  private final int minLimit;
+  private volatile int maxLimit;
+  private final long timeoutNanos;
+  private final double backoffRatio;
+  private final AtomicInteger limit;
+
+  /**
+   * @param initialLimit 初始上限
+   * @param minLimit     上限的最小值
+   * @param maxLimit     上限的最大值
+   * @param timeoutNanos 处理时间超过该值时减小上限(纳秒)
+   * @param backoffRatio 减小上限时乘以的系数，取值范围(0, 1]
+   */
+  public AimdLimit(int initialLimit, int minLimit, int maxLimit, long timeoutNanos, double backoffRatio) {
+    if (minLimit <= 0 || maxLimit < minLimit || timeoutNanos <= 0 || backoffRatio <= 0 || backoffRatio > 1) {
+      throw new IllegalArgumentException("AIMD算法的参数不合法");
+    }
+
+    this.minLimit = minLimit;
+    this.maxLimit = maxLimit;
+    this.timeoutNanos = timeoutNanos;
+    this.backoffRatio = backoffRatio;
+    this.limit = new AtomicInteger(Math.min(maxLimit, Math.max(minLimit, initialLimit)));
+  }
+
+  @Override
+  public int getLimit() {
+    return limit.get();
+  }
+
+  @Override
+  public void onSample(long rttNanos, int inFlight, boolean dropped) {
+    int current;
+    int next;
+
+    do {
+      current = limit.get();
+      if (dropped || rttNanos > timeoutNanos) {
+        next = Math.max(minLimit, (int) (current * backoffRatio));
+      } else if (inFlight * 2 >= current) {
+        next = Math.min(maxLimit, current + 1);
+      } else {
+        return;// 负载较低时不需要增加上限
+      }
+
+      if (next == current) {
+        return;
+      }
+    } while (!limit.compareAndSet(current, next));
+  }
+
+  @Override
+  public void setMaxLimit(int maxLimit) {
+    int newMax = Math.max(minLimit, maxLimit);
+    this.maxLimit = newMax;
+
+    int current;
+    do {
+      current = limit.get();
+      if (current <= newMax) {
+        return;
+      }
+    } while (!limit.compareAndSet(current, newMax));
+  }
+
+  @Override
+  public String toString() {
+    return "AimdLimit{limit=" + limit.get() + "}";
+  }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2019 Orient Securities Co., Ltd.
+ * Copyright 2019 BoCloud Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientsec.grpc.provider.qos;
+
+/**
+ * 基于处理时间梯度的并发请求数上限
+ * <p>
+ * 分别计算处理时间的长期平均值和短期平均值，二者的比值(梯度)反映服务端是否出现排队：
+ * 梯度 = max(0.5, min(1, tolerance * 长期平均值 / 短期平均值))，
+ * 新上限 = 当前上限 * 梯度 + sqrt(当前上限)，再按照smoothing平滑。
+ * 处理时间变长时上限随之减小，恢复正常后上限逐步增加；并发请求数不到上限的一半时不调整。
+ * </p>
+ * <p>
+ * 资料：https://github.com/Netflix/concurrency-limits (Gradient2Limit)
+ * </p>
+ *
+ * @author sxp
+ * @since 2020/3/11
+ */
+public final class GradientLimit implements LimitAlgorithm {
+  /** 长期平均值的样本窗口 */
+  private static final int LONG_WINDOW = 600;
+
+  /** 短期平均值的样本窗口 */
+  private static final int SHORT_WINDOW = 10;
+
+  private final int minLimit;
+  private int maxLimit;
+  private final double tolerance;
+  private final double smoothing;
+
+  private double estimatedLimit;
+  private double longRtt;
+  private double shortRtt;
+  private volatile int limit;
+
+  /**
+   * @param initialLimit 初始上限
+   * @param minLimit     上限的最小值
+   * @param maxLimit     上限的最大值
+   * @param tolerance    允许短期处理时间超过长期平均值的倍数，大于等于1
+   * @param smoothing    平滑系数，取值范围(0, 1]
+   */
+  public GradientLimit(int initialLimit, int minLimit, int maxLimit, double tolerance, double smoothing) {
+    if (minLimit <= 0 || maxLimit < minLimit || tolerance < 1 || smoothing <= 0 || smoothing > 1) {
+      throw new IllegalArgumentException("梯度算法的参数不合法");
+    }
+
+    this.minLimit = minLimit;
+    this.maxLimit = maxLimit;
+    this.tolerance = tolerance;
+    this.smoothing = smoothing;
+    this.estimatedLimit = Math.min(maxLimit, Math.max(minLimit, initialLimit));
+    this.limit = (int) estimatedLimit;
+  }
+
+  @Override
+  public int getLimit() {
+    return limit;
+  }
+
+  @Override
+  public synchronized void onSample(long rttNanos, int inFlight, boolean dropped) {
+    double rtt = (double) Math.max(1L, rttNanos);
+
+    if (longRtt == 0D) {
+      longRtt = rtt;
+      shortRtt = rtt;
+      return;
+    }
+
+    longRtt += (rtt - longRtt) / LONG_WINDOW;
+    shortRtt += (rtt - shortRtt) / SHORT_WINDOW;
+
+    // 长时间过载后长期平均值会偏高，逐步向短期平均值靠拢，便于恢复
+    if (longRtt / shortRtt > 2D) {
+      longRtt *= 0.95D;
+    }
+
+    if (inFlight < estimatedLimit / 2) {
+      return;
+    }
+
+    double gradient = Math.max(0.5D, Math.min(1D, tolerance * longRtt / shortRtt));
+    double newLimit = estimatedLimit * gradient + Math.sqrt(estimatedLimit);
+    newLimit = estimatedLimit * (1D - smoothing) + newLimit * smoothing;
+    newLimit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+
+    estimatedLimit = newLimit;
+    limit = (int) newLimit;
+  }
+
+  @Override
+  public synchronized void setMaxLimit(int maxLimit) {
+    this.maxLimit = Math.max(minLimit, maxLimit);
+    if (estimatedLimit > this.maxLimit) {
+      estimatedLimit = this.maxLimit;
+      limit = this.maxLimit;
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "GradientLimit{limit=" + limit + "}";
+  }
+}
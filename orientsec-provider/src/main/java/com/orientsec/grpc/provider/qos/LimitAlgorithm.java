@@ -0,0 +1,51 @@
+/*
+ * Copyright 2019 Orient Securities Co., Ltd.
+ * Copyright 2019 BoCloud Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientsec.grpc.provider.qos;
+
+/**
+ * 并发请求数上限的自适应算法
+ * <p>
+ * 根据每个请求的处理时间动态调整服务允许的并发请求数，
+ * 实际生效的上限不会超过{@link RequestsController}中配置的最大请求数。
+ * 实现类需要保证线程安全，{@link #getLimit()}在每次请求时调用，需要尽量轻量。
+ * </p>
+ *
+ * @author sxp
+ * @since 2020/3/11
+ */
+public interface LimitAlgorithm {
+  /**
+   * 当前允许的并发请求数
+   */
+  int getLimit();
+
+  /**
+   * 一个请求处理结束
+   *
+   * @param rttNanos 请求的处理时间(纳秒)
+   * @param inFlight 请求结束时正在处理的请求数(包括当前请求)
+   * @param dropped  请求是否因为过载(超时、取消、资源耗尽)没有正常完成，业务错误不计入
+   */
+  void onSample(long rttNanos, int inFlight, boolean dropped);
+
+  /**
+   * 修改上限的最大值(例如注册中心中的最大请求数配置发生变化)，当前上限超出时同时减小
+   *
+   * @param maxLimit 上限的最大值，小于上限的最小值时按最小值处理
+   */
+  void setMaxLimit(int maxLimit);
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2019 Orient Securities Co., Ltd.
+ * Copyright 2019 BoCloud Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientsec.grpc.provider.qos;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 服务端请求排队时间统计工具类
+ *
+ * @author sxp
+ * @since 2020/3/11
+ */
+public class ProviderQueueWaitUtils {
+  /**
+   * 各方法的排队时间统计
+   * <p>
+   * key值为方法全名，即interface/method；只记录已经注册的方法，避免未知的方法名撑大数据集
+   * </p>
+   */
+  private static final ConcurrentHashMap<String, QueueWaitStats> stats = new ConcurrentHashMap<>();
+
+  /**
+   * 记录请求在线程池中的排队时间
+   */
+  public static void recordWait(String fullMethodName, long waitNanos) {
+    getStats(fullMethodName).record(waitNanos);
+  }
+
+  /**
+   * 记录一个开始处理之前已经超过截止时间的请求
+   */
+  public static void recordExpired(String fullMethodName) {
+    getStats(fullMethodName).recordExpired();
+  }
+
+  /**
+   * 获取方法的排队时间统计
+   */
+  public static QueueWaitStats getStats(String fullMethodName) {
+    QueueWaitStats value = stats.get(fullMethodName);
+    if (value == null) {
+      value = new QueueWaitStats();
+      QueueWaitStats oldValue = stats.putIfAbsent(fullMethodName, value);
+
+      if (oldValue != null) {
+        // 防止其他线程在这段时间内已经向stats中写入了新数据
+        value = oldValue;
+      }
+    }
+    return value;
+  }
+
+  /**
+   * 获取所有方法的排队时间统计
+   */
+  public static Map<String, QueueWaitStats> getAllStats() {
+    return Collections.unmodifiableMap(stats);
+  }
+}
@@ -16,15 +16,26 @@
  */
 package com.orientsec.grpc.provider.qos;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.orientsec.grpc.common.constant.GlobalConstants;
 import com.orientsec.grpc.common.exception.BusinessException;
+import com.orientsec.grpc.common.resource.SystemConfig;
 import com.orientsec.grpc.common.resource.SystemSwitch;
 import com.orientsec.grpc.common.util.MathUtils;
+import com.orientsec.grpc.common.util.PropertiesUtils;
+import com.orientsec.grpc.common.util.StringUtils;
 import com.orientsec.grpc.provider.core.ServiceConfigUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.util.Map;
+import java.util.Properties;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * 服务连接数控制器工具类
@@ -33,6 +44,22 @@ import java.util.concurrent.ConcurrentHashMap;
  * @since V1.0 2017/3/29
  */
 public class ProviderRequestsControllerUtils {
+  private static final Logger logger = LoggerFactory.getLogger(ProviderRequestsControllerUtils.class);
+
+  /** 固定上限 */
+  public static final String LIMIT_FIXED = "fixed";
+
+  /** 加性增、乘性减 */
+  public static final String LIMIT_AIMD = "aimd";
+
+  /** 处理时间梯度 */
+  public static final String LIMIT_GRADIENT = "gradient";
+
+  private static Properties properties = SystemConfig.getProperties();
+
+  /** 并发请求数上限的算法 */
+  private static String limitAlgorithm = initLimitAlgorithm();
+
   /**
    * 服务连接数控制器的数据集
    * <p>
@@ -41,6 +68,38 @@ public class ProviderRequestsControllerUtils {
    */
   private volatile static ConcurrentHashMap<String, RequestsController> controllers = new ConcurrentHashMap<>();
 
+  /** 请求排队队列的长度，0表示不排队 */
+  private static int queueSize = initQueueSize();
+
+  /** 排队请求是否后到先放行 */
+  private static boolean queueLifo = initQueueLifo();
+
+  /** 请求排队等待的最长时间(纳秒) */
+  private static long queueMaxWaitNanos = TimeUnit.MILLISECONDS.toNanos(
+          getPositiveInt(GlobalConstants.Provider.Key.REQUESTS_QUEUE_MAX_WAIT, 1000));
+
+  /**
+   * 各服务接口的请求排队队列
+   * <p>
+   * key值为服务接口名，即interface
+   * </p>
+   */
+  private static final ConcurrentHashMap<String, AdmissionQueue> queues = new ConcurrentHashMap<>();
+
+  /**
+   * 所有排队队列共用的超时定时器，第一次创建队列时初始化
+   */
+  private static final class TimerHolder {
+    static final ScheduledExecutorService TIMER = createTimer();
+
+    private static ScheduledExecutorService createTimer() {
+      ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1,
+              new ThreadFactoryBuilder().setDaemon(true).setNameFormat("provider-queue-timer-%d").build());
+      timer.setRemoveOnCancelPolicy(true);
+      return timer;
+    }
+  }
+
 
   /**
    * 检验当前服务接口的连接数是否满足条件
@@ -155,6 +214,253 @@ public class ProviderRequestsControllerUtils {
     return controller.increase();
   }
 
+  /**
+   * 服务接口是否需要限制请求数
+   *
+   * @author sxp
+   * @since 2020/3/11
+   */
+  public static boolean isLimited(String interfaceName) {
+    if (!SystemSwitch.PROVIDER_ENABLED) {
+      return false;
+    }
+
+    Preconditions.checkNotNull(interfaceName, "interfaceName");
+
+    return getController(interfaceName).isLimited();
+  }
+
+  /**
+   * 获取服务接口当前实际生效的请求数上限
+   *
+   * @author sxp
+   * @since 2020/3/11
+   */
+  public static int getLimit(String interfaceName) {
+    if (!SystemSwitch.PROVIDER_ENABLED) {
+      return RequestsController.NO_LIMIT_NUM;
+    }
+
+    Preconditions.checkNotNull(interfaceName, "interfaceName");
+
+    return getController(interfaceName).getLimit();
+  }
+
+  /**
+   * 将指定服务的当前连接数减1，并记录请求的处理时间
+   *
+   * @param rttNanos 请求的处理时间(纳秒)
+   * @param dropped  请求是否没有正常完成
+   * @author sxp
+   * @since 2020/3/11
+   */
+  public static void decreaseRequest(String interfaceName, long rttNanos, boolean dropped) {
+    if (!SystemSwitch.PROVIDER_ENABLED) {
+      return;
+    }
+
+    Preconditions.checkNotNull(interfaceName, "interfaceName");
+
+    decreaseRequest(getController(interfaceName), interfaceName, rttNanos, dropped);
+  }
+
+  /**
+   * 将指定服务的当前连接数减1，并记录请求的处理时间
+   * <p>
+   * 调用方已经持有服务的请求数控制器时使用，省去查找控制器的开销
+   * </p>
+   *
+   * @author sxp
+   * @since 2020/3/11
+   */
+  public static void decreaseRequest(RequestsController controller, String interfaceName, long rttNanos,
+                                     boolean dropped) {
+    controller.decrease(rttNanos, dropped);
+
+    AdmissionQueue queue = queues.get(interfaceName);
+    if (queue != null) {
+      if (!dropped) {
+        queue.recordServiceTime(rttNanos);
+      }
+      dispatchQueuedRequests(interfaceName, queue);
+    }
+  }
+
+  /**
+   * 是否启用了请求排队
+   *
+   * @author sxp
+   * @since 2020/3/11
+   */
+  public static boolean isQueueEnabled() {
+    return queueSize > 0;
+  }
+
+  /**
+   * 并发请求数达到上限时，请求进入排队队列
+   * <p>
+   * 入队后立即尝试放行一次，防止入队期间其它请求已经全部处理结束、没有请求再触发放行。
+   * </p>
+   *
+   * @param deadlineNanos 请求的截止时间(System.nanoTime)，没有截止时间时为{@link AdmissionQueue#NO_DEADLINE}
+   * @return 队列已满或者没有启用排队时返回false
+   * @author sxp
+   * @since 2020/3/11
+   */
+  public static boolean enqueueRequest(String interfaceName, AdmissionQueue.Waiter waiter, long deadlineNanos) {
+    if (!SystemSwitch.PROVIDER_ENABLED || !isQueueEnabled()) {
+      return false;
+    }
+
+    Preconditions.checkNotNull(interfaceName, "interfaceName");
+
+    AdmissionQueue queue = getQueue(interfaceName);
+    if (!queue.offer(waiter, deadlineNanos, System.nanoTime())) {
+      return false;
+    }
+
+    dispatchQueuedRequests(interfaceName, queue);
+    return true;
+  }
+
+  /**
+   * 将请求移出排队队列(例如请求被取消)
+   *
+   * @return 请求是否还在队列中
+   * @author sxp
+   * @since 2020/3/11
+   */
+  public static boolean removeQueuedRequest(String interfaceName, AdmissionQueue.Waiter waiter) {
+    AdmissionQueue queue = queues.get(interfaceName);
+    return queue != null && queue.remove(waiter);
+  }
+
+  /**
+   * 获取服务接口当前排队的请求数
+   *
+   * @author sxp
+   * @since 2020/3/11
+   */
+  public static int getQueuedRequests(String interfaceName) {
+    AdmissionQueue queue = queues.get(interfaceName);
+    return (queue == null) ? 0 : queue.size();
+  }
+
+  /**
+   * 服务接口是否有请求正在排队
+   * <p>
+   * 有请求排队时新到达的请求也需要排队，不能抢在排队的请求之前占用名额
+   * </p>
+   *
+   * @author sxp
+   * @since 2020/3/11
+   */
+  public static boolean hasQueuedRequests(String interfaceName) {
+    if (!isQueueEnabled()) {
+      return false;
+    }
+    AdmissionQueue queue = queues.get(interfaceName);
+    return queue != null && queue.size() > 0;
+  }
+
+  /**
+   * 获取服务接口的请求排队队列(用于获取排队长度、排队时间等统计数据)，没有排队过的服务返回null
+   *
+   * @author sxp
+   * @since 2020/3/11
+   */
+  public static AdmissionQueue getAdmissionQueue(String interfaceName) {
+    return queues.get(interfaceName);
+  }
+
+  private static AdmissionQueue getQueue(String interfaceName) {
+    AdmissionQueue queue = queues.get(interfaceName);
+    if (queue == null) {
+      queue = new AdmissionQueue(queueSize, queueLifo, queueMaxWaitNanos, TimerHolder.TIMER);
+      AdmissionQueue oldValue = queues.putIfAbsent(interfaceName, queue);
+
+      if (oldValue != null) {
+        queue = oldValue;
+      }
+    }
+    return queue;
+  }
+
+  /**
+   * 有空闲的名额时放行排队的请求
+   */
+  private static void dispatchQueuedRequests(String interfaceName, AdmissionQueue queue) {
+    RequestsController controller = getController(interfaceName);
+
+    while (queue.size() > 0 && controller.increase()) {
+      if (!queue.admitNext(System.nanoTime())) {
+        // 队列中的请求都已经过期，归还名额
+        controller.decrease();
+        return;
+      }
+    }
+  }
+
+  /**
+   * 修改请求排队的参数，已经创建的排队队列全部丢弃(仅用于测试)
+   *
+   * @param size          队列长度，0表示不排队
+   * @param lifo          是否后到先放行
+   * @param maxWaitMillis 最长排队时间(毫秒)
+   * @author sxp
+   * @since 2020/3/11
+   */
+  @VisibleForTesting
+  public static void setQueueConfig(int size, boolean lifo, long maxWaitMillis) {
+    queueSize = Math.max(0, size);
+    queueLifo = lifo;
+    queueMaxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+    queues.clear();
+  }
+
+  private static int initQueueSize() {
+    String key = GlobalConstants.Provider.Key.REQUESTS_QUEUE_SIZE;
+    int value = PropertiesUtils.getValidIntegerValue(properties, key, 0);
+    if (value < 0) {
+      value = 0;
+    }
+    if (value > 0) {
+      logger.info(key + " = " + value);
+    }
+    return value;
+  }
+
+  private static boolean initQueueLifo() {
+    String value = properties.getProperty(GlobalConstants.Provider.Key.REQUESTS_QUEUE_ORDER);
+    return value != null && "lifo".equals(value.trim().toLowerCase());
+  }
+
+  /**
+   * 获取服务接口的请求数控制器，不存在时按照服务配置信息创建
+   *
+   * @author sxp
+   * @since 2020/3/11
+   */
+  public static RequestsController getRequestsController(String interfaceName) {
+    Preconditions.checkNotNull(interfaceName, "interfaceName");
+
+    return getController(interfaceName);
+  }
+
+  private static RequestsController getController(String interfaceName) {
+    RequestsController controller = controllers.get(interfaceName);
+    if (controller == null) {
+      controller = getControllerInstance(interfaceName);
+      RequestsController oldValue = controllers.putIfAbsent(interfaceName, controller);
+
+      if (oldValue != null) {
+        // 防止其他线程在这段时间内已经向controllers中写入了新数据
+        controller = oldValue;
+      }
+    }
+    return controller;
+  }
+
   /**
    * 将指定服务的当前连接数减1
    *
@@ -183,6 +489,11 @@ public class ProviderRequestsControllerUtils {
     }
 
     controller.decrease();
+
+    AdmissionQueue queue = queues.get(interfaceName);
+    if (queue != null) {
+      dispatchQueuedRequests(interfaceName, queue);
+    }
   }
 
   /**
@@ -207,9 +518,86 @@ public class ProviderRequestsControllerUtils {
       requestsNum = RequestsController.getValidMax(requestsNum);
     }
 
-    RequestsController controller = new RequestsController(requestsNum);
+    return newController(requestsNum);
+  }
 
-    return controller;
+  /**
+   * 按照配置的算法创建一个服务连接数控制器
+   *
+   * @param max 最大请求数
+   * @author sxp
+   * @since 2020/3/11
+   */
+  public static RequestsController newController(int max) {
+    return new RequestsController(max, newLimitAlgorithm(max));
+  }
+
+  private static String initLimitAlgorithm() {
+    String key = GlobalConstants.Provider.Key.REQUESTS_LIMIT_ALGORITHM;
+    String value = properties.getProperty(key);
+    if (StringUtils.isEmpty(value)) {
+      return LIMIT_FIXED;
+    }
+
+    value = value.trim().toLowerCase();
+    if (!LIMIT_AIMD.equals(value) && !LIMIT_GRADIENT.equals(value) && !LIMIT_FIXED.equals(value)) {
+      logger.warn(key + "的参数值[" + value + "]不合法，使用固定的并发请求数上限");
+      return LIMIT_FIXED;
+    }
+
+    logger.info(key + " = " + value);
+    return value;
+  }
+
+  /**
+   * 创建并发请求数上限的自适应算法，使用固定上限时返回null
+   */
+  private static LimitAlgorithm newLimitAlgorithm(int max) {
+    if (LIMIT_FIXED.equals(limitAlgorithm)) {
+      return null;
+    }
+
+    int maxLimit = getAdaptiveMaxLimit(max);
+    int minLimit = Math.min(maxLimit, getPositiveInt(GlobalConstants.Provider.Key.REQUESTS_LIMIT_MIN, 1));
+    int initialLimit = getPositiveInt(GlobalConstants.Provider.Key.REQUESTS_LIMIT_INITIAL, 20);
+
+    if (LIMIT_AIMD.equals(limitAlgorithm)) {
+      int timeout = getPositiveInt(GlobalConstants.Provider.Key.REQUESTS_LIMIT_AIMD_TIMEOUT, 1000);
+      double backoffRatio = getDouble(GlobalConstants.Provider.Key.REQUESTS_LIMIT_AIMD_BACKOFF_RATIO, 0.9D, 0D, 1D);
+      return new AimdLimit(initialLimit, minLimit, maxLimit, TimeUnit.MILLISECONDS.toNanos(timeout), backoffRatio);
+    }
+
+    double tolerance = getDouble(GlobalConstants.Provider.Key.REQUESTS_LIMIT_GRADIENT_TOLERANCE,
+            1.5D, 1D, Double.MAX_VALUE);
+    double smoothing = getDouble(GlobalConstants.Provider.Key.REQUESTS_LIMIT_GRADIENT_SMOOTHING, 0.2D, 0D, 1D);
+    return new GradientLimit(initialLimit, minLimit, maxLimit, tolerance, smoothing);
+  }
+
+  /**
+   * 自适应算法的上限的最大值：配置了最大请求数时使用最大请求数，不限制时使用配置的上限最大值
+   *
+   * @author sxp
+   * @since 2020/3/11
+   */
+  static int getAdaptiveMaxLimit(int max) {
+    if (max != RequestsController.NO_LIMIT_NUM) {
+      return max;
+    }
+    return getPositiveInt(GlobalConstants.Provider.Key.REQUESTS_LIMIT_MAX,
+            GlobalConstants.Provider.DEFAULT_REQUESTS_NUM);
+  }
+
+  private static int getPositiveInt(String key, int defaultValue) {
+    int value = PropertiesUtils.getValidIntegerValue(properties, key, defaultValue);
+    return (value > 0) ? value : defaultValue;
+  }
+
+  /**
+   * 获取(lowerBound, upperBound]范围内的参数值
+   */
+  private static double getDouble(String key, double defaultValue, double lowerBound, double upperBound) {
+    double value = PropertiesUtils.getValidDoubleValue(properties, key, defaultValue);
+    return (value > lowerBound && value <= upperBound) ? value : defaultValue;
   }
 
   /**
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2019 Orient Securities Co., Ltd.
+ * Copyright 2019 BoCloud Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientsec.grpc.provider.qos;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 一个方法的请求在线程池中的排队时间统计
+ * <p>
+ * 排队时间是请求到达后等待线程池开始处理的时间，服务端过载时排队时间先于处理时间上升；
+ * 在开始处理之前已经超过截止时间的请求直接结束，不执行业务逻辑，单独计数。
+ * </p>
+ *
+ * @author sxp
+ * @since 2020/3/11
+ */
+public final class QueueWaitStats {
+  private final AtomicLong count = new AtomicLong();
+  private final AtomicLong totalWaitNanos = new AtomicLong();
+  private final AtomicLong maxWaitNanos = new AtomicLong();
+  private final AtomicLong expired = new AtomicLong();
+
+  /** 排队时间的指数加权移动平均值(纳秒)，反映最近的排队情况 */
+  private volatile long recentWaitNanos;
+
+  /**
+   * 记录一个请求的排队时间
+   */
+  public void record(long waitNanos) {
+    count.incrementAndGet();
+    totalWaitNanos.addAndGet(waitNanos);
+
+    long max;
+    do {
+      max = maxWaitNanos.get();
+      if (waitNanos <= max) {
+        break;
+      }
+    } while (!maxWaitNanos.compareAndSet(max, waitNanos));
+
+    long current = recentWaitNanos;
+    // 此处不需要严格地控制并发
+    recentWaitNanos = (current == 0L) ? waitNanos : current + (waitNanos - current) / 8;
+  }
+
+  /**
+   * 记录一个开始处理之前已经超过截止时间的请求
+   */
+  public void recordExpired() {
+    expired.incrementAndGet();
+  }
+
+  /**
+   * 记录了排队时间的请求数
+   */
+  public long getCount() {
+    return count.get();
+  }
+
+  /**
+   * 平均排队时间(纳秒)
+   */
+  public long getAverageWaitNanos() {
+    long n = count.get();
+    return (n == 0L) ? 0L : totalWaitNanos.get() / n;
+  }
+
+  /**
+   * 最近的平均排队时间(纳秒)
+   */
+  public long getRecentWaitNanos() {
+    return recentWaitNanos;
+  }
+
+  /**
+   * 最长排队时间(纳秒)
+   */
+  public long getMaxWaitNanos() {
+    return maxWaitNanos.get();
+  }
+
+  /**
+   * 开始处理之前已经超过截止时间的请求数
+   */
+  public long getExpired() {
+    return expired.get();
+  }
+
+  @Override
+  public String toString() {
+    return "QueueWaitStats{count=" + count.get() + ", averageWaitNanos=" + getAverageWaitNanos()
+            + ", recentWaitNanos=" + recentWaitNanos + ", maxWaitNanos=" + maxWaitNanos.get()
+            + ", expired=" + expired.get() + "}";
+  }
+}
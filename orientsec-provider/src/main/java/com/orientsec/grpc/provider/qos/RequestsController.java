@@ -26,9 +26,14 @@ import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * 服务端请求数控制器
+ * <p>
+ * 配置了{@link LimitAlgorithm}时，实际生效的上限由算法根据请求的处理时间动态调整，
+ * 配置的最大请求数作为上限的上界。
+ * </p>
  *
  * @author sxp
  * @since V1.0 2017/3/29
+ * @since 2020/3/11 modify by sxp 支持自适应的并发请求数上限
  */
 public class RequestsController {
   private static final Logger logger = LoggerFactory.getLogger(RequestsController.class);
@@ -51,9 +56,19 @@ public class RequestsController {
    */
   private volatile AtomicInteger current = new AtomicInteger(0);
 
+  /**
+   * 自适应的并发请求数上限，为null时使用固定的最大请求数
+   */
+  private final LimitAlgorithm limitAlgorithm;
+
   public RequestsController(int max) {
+    this(max, null);
+  }
+
+  public RequestsController(int max, LimitAlgorithm limitAlgorithm) {
     max = getValidMax(max);
     this.max = max;
+    this.limitAlgorithm = limitAlgorithm;
   }
 
   /**
@@ -85,11 +100,45 @@ public class RequestsController {
    * 不会出现多个线程同时修改max，因此这里不加同步控制
    *
    * @author sxp
+   * @since 2020/3/11 modify by sxp 同时修改自适应算法的上限的最大值
    */
   public void setMax(int max) {
     max = getValidMax(max);
 
     this.max = max;
+
+    if (limitAlgorithm != null) {
+      limitAlgorithm.setMaxLimit(ProviderRequestsControllerUtils.getAdaptiveMaxLimit(max));
+    }
+  }
+
+  /**
+   * 获取当前实际生效的请求数上限，不限制时返回{@link #NO_LIMIT_NUM}
+   *
+   * @author sxp
+   * @since 2020/3/11
+   */
+  public int getLimit() {
+    int limit = max;
+    if (limitAlgorithm != null) {
+      int adaptive = Math.max(1, limitAlgorithm.getLimit());
+      limit = (limit == NO_LIMIT_NUM) ? adaptive : Math.min(limit, adaptive);
+    }
+    return limit;
+  }
+
+  /**
+   * 是否需要限制请求数
+   *
+   * @author sxp
+   * @since 2020/3/11
+   */
+  public boolean isLimited() {
+    return max != NO_LIMIT_NUM || limitAlgorithm != null;
+  }
+
+  public LimitAlgorithm getLimitAlgorithm() {
+    return limitAlgorithm;
   }
 
   /**
@@ -106,14 +155,20 @@ public class RequestsController {
    * 当前请求数加1
    *
    * @author sxp
+   * @since 2020/3/11 modify by sxp 通过CAS保证并发时不会超过上限
    */
   public boolean increase() {
-    if (current.get() >= max) {
-      // 修改max会出现current>max的情况
-      return false;
-    }
+    int limit = getLimit();
+    int currentNum;
+
+    do {
+      currentNum = current.get();
+      if (limit != NO_LIMIT_NUM && currentNum >= limit) {
+        // 修改max会出现current>max的情况
+        return false;
+      }
+    } while (!current.compareAndSet(currentNum, currentNum + 1));
 
-    current.incrementAndGet();
     return true;
   }
 
@@ -138,6 +193,23 @@ public class RequestsController {
     current.decrementAndGet();
   }
 
+  /**
+   * 当前请求数减1，并将请求的处理时间提供给自适应算法
+   *
+   * @param rttNanos 请求的处理时间(纳秒)
+   * @param dropped  请求是否没有正常完成
+   * @author sxp
+   * @since 2020/3/11
+   */
+  public void decrease(long rttNanos, boolean dropped) {
+    int inFlight = current.get();
+    decrease();
+
+    if (limitAlgorithm != null) {
+      limitAlgorithm.onSample(rttNanos, inFlight, dropped);
+    }
+  }
+
   /**
    * 检验当前服务接口的请求数是否满足条件
    * <p>
@@ -148,16 +220,18 @@ public class RequestsController {
    * @since V1.0 2017-3-29
    */
   public boolean checkRequests() {
-    if (max == NO_LIMIT_NUM) {
+    int limit = getLimit();
+    if (limit == NO_LIMIT_NUM) {
       return true;
     }
-    return (current.get() < max);
+    return (current.get() < limit);
   }
 
   @Override
   public String toString() {
     return "RequestsController{" +
             "max=" + max +
+            ", limit=" + getLimit() +
             ", current=" + current.get() +
             '}';
   }
@@ -25,6 +25,7 @@ import com.orientsec.grpc.common.model.ConfigFile;
 import com.orientsec.grpc.common.resource.SystemConfig;
 import com.orientsec.grpc.common.util.*;
 import com.orientsec.grpc.provider.common.ProviderConstants;
+import com.orientsec.grpc.provider.core.ProviderPolicyUtils;
 import com.orientsec.grpc.provider.core.ProviderServiceRegistryImpl;
 import com.orientsec.grpc.provider.core.ServiceConfigUtils;
 import com.orientsec.grpc.provider.watch.ProvidersListener;
@@ -301,6 +302,9 @@ public class RegistryTask {
       servicesConfig.add(confItem);
       currentServicesConfig.put(interfaceName, confItem);
       initialServicesConfig.put(interfaceName, new LinkedHashMap<>(confItem));
+
+      // 服务配置信息已经就绪，重新解析服务策略
+      ProviderPolicyUtils.refresh(interfaceName);
     }
   }
 
@@ -17,6 +17,7 @@
 package com.orientsec.grpc.provider.task;
 
 import com.orientsec.grpc.common.constant.GlobalConstants;
+import com.orientsec.grpc.provider.core.ProviderPolicyUtils;
 import com.orientsec.grpc.provider.core.ProviderServiceRegistryImpl;
 import com.orientsec.grpc.provider.core.ServiceConfigUtils;
 import com.orientsec.grpc.provider.watch.ProvidersListener;
@@ -68,6 +69,7 @@ public class UnRegisterTask {
     for (String name : keysWillDel) {
       currentServicesConfig.remove(name);
       initialServicesConfig.remove(name);
+      ProviderPolicyUtils.refresh(name);
     }
 
     Provider provider;
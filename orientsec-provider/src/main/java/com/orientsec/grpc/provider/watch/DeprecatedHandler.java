@@ -20,6 +20,7 @@ import com.google.common.base.Preconditions;
 import com.orientsec.grpc.common.constant.GlobalConstants;
 import com.orientsec.grpc.common.constant.RegistryConstants;
 import com.orientsec.grpc.common.util.StringUtils;
+import com.orientsec.grpc.provider.core.ProviderPolicyUtils;
 import com.orientsec.grpc.provider.core.ServiceConfigUtils;
 import com.orientsec.grpc.registry.common.Constants;
 import com.orientsec.grpc.registry.common.URL;
@@ -138,6 +139,7 @@ public class DeprecatedHandler {
         serviceConfig = currentServicesConfig.get(interfaceName);
         serviceConfig.put(GlobalConstants.Provider.Key.DEPRECATED, String.valueOf(deprecated));
       }
+      ProviderPolicyUtils.refresh(interfaceName);
 
       if (needUpdate) {
         logger.info("服务提供者[" + interfaceName + "]监听到服务过期配置项，参数值为["
@@ -21,6 +21,7 @@ import com.orientsec.grpc.common.constant.GlobalConstants;
 import com.orientsec.grpc.common.constant.RegistryConstants;
 import com.orientsec.grpc.common.util.MathUtils;
 import com.orientsec.grpc.common.util.StringUtils;
+import com.orientsec.grpc.provider.core.ProviderPolicyUtils;
 import com.orientsec.grpc.provider.core.ServiceConfigUtils;
 import com.orientsec.grpc.provider.qos.ProviderRequestsControllerUtils;
 import com.orientsec.grpc.provider.qos.RequestsController;
@@ -145,7 +146,7 @@ public class RequestsHandler {
       if (controllers.containsKey(interfaceName)) {
         controller = controllers.get(interfaceName);
       } else {
-        controller = new RequestsController(requestsNum);
+        controller = ProviderRequestsControllerUtils.newController(requestsNum);
         oldValue = controllers.putIfAbsent(interfaceName, controller);
         if (oldValue != null) {
           controller = oldValue;
@@ -158,6 +159,7 @@ public class RequestsHandler {
         serviceConfig = currentServicesConfig.get(interfaceName);
         serviceConfig.put(GlobalConstants.Provider.Key.DEFAULT_REQUESTS, String.valueOf(requestsNum));
       }
+      ProviderPolicyUtils.refresh(interfaceName);
 
       if (needUpdate) {
         logger.info("服务提供者[" + interfaceName + "]监听到最大并发请求数配置项，参数值为["
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2019 Orient Securities Co., Ltd.
+ * Copyright 2019 BoCloud Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientsec.grpc.provider.core;
+
+import com.orientsec.grpc.common.constant.GlobalConstants;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Test for ProviderPolicyUtils
+ *
+ * @author sxp
+ * @since 2020/3/11
+ */
+public class ProviderPolicyUtilsTest {
+  private static final String INTERFACE_NAME = "com.orientsec.test.PolicyService";
+
+  @After
+  public void tearDown() {
+    ServiceConfigUtils.getCurrentServicesConfig().remove(INTERFACE_NAME);
+    ProviderPolicyUtils.refresh(INTERFACE_NAME);
+  }
+
+  @Test
+  public void methodsOfSameServiceShareReference() throws Exception {
+    ProviderPolicyUtils.register(Collections.singletonList(INTERFACE_NAME + "/sayHello"));
+
+    AtomicReference<ProviderPolicy> hello = ProviderPolicyUtils.getPolicyReference(INTERFACE_NAME + "/sayHello");
+    AtomicReference<ProviderPolicy> bye = ProviderPolicyUtils.getPolicyReference(INTERFACE_NAME + "/sayBye");
+    Assert.assertSame(hello, bye);
+    Assert.assertEquals(INTERFACE_NAME, hello.get().getInterfaceName());
+  }
+
+  @Test
+  public void refreshAfterConfigChanged() throws Exception {
+    AtomicReference<ProviderPolicy> reference = ProviderPolicyUtils.getPolicyReference(INTERFACE_NAME + "/sayHello");
+    Assert.assertFalse(reference.get().isDeprecated());
+
+    Map<String, Object> config = new HashMap<>();
+    config.put(GlobalConstants.Provider.Key.DEPRECATED, "true");
+    config.put(GlobalConstants.Provider.Key.DEFAULT_REQUESTS, "0");
+    ServiceConfigUtils.getCurrentServicesConfig().put(INTERFACE_NAME, config);
+
+    // 配置发生变化后，刷新前仍然使用原来的服务策略
+    ProviderPolicy old = reference.get();
+    Assert.assertFalse(old.isDeprecated());
+
+    ProviderPolicyUtils.refresh(INTERFACE_NAME);
+    Assert.assertNotSame(old, reference.get());
+    Assert.assertTrue(reference.get().isDeprecated());
+  }
+}
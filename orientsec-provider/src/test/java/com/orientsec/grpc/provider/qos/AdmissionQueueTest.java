@@ -0,0 +1,138 @@
+/*
+ * Copyright 2019 Orient Securities Co., Ltd.
+ * Copyright 2019 BoCloud Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientsec.grpc.provider.qos;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Test for AdmissionQueue
+ *
+ * @author sxp
+ * @since 2020/3/11
+ */
+public class AdmissionQueueTest {
+  private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+
+  private final List<String> events = new ArrayList<>();
+
+  private AdmissionQueue.Waiter waiter(final String name) {
+    return new AdmissionQueue.Waiter() {
+      @Override
+      public void admit(long waitNanos) {
+        events.add("admit:" + name);
+      }
+
+      @Override
+      public void expire(long waitNanos, boolean deadlineExceeded) {
+        events.add((deadlineExceeded ? "deadline:" : "timeout:") + name);
+      }
+    };
+  }
+
+  @Test
+  public void fifoAndBounded() throws Exception {
+    AdmissionQueue queue = new AdmissionQueue(2, false, 1000 * MILLIS);
+    Assert.assertTrue(queue.offer(waiter("a"), AdmissionQueue.NO_DEADLINE, 0L));
+    Assert.assertTrue(queue.offer(waiter("b"), AdmissionQueue.NO_DEADLINE, 0L));
+    Assert.assertFalse(queue.offer(waiter("c"), AdmissionQueue.NO_DEADLINE, 0L));
+    Assert.assertEquals(1, queue.getRejected());
+
+    Assert.assertTrue(queue.admitNext(10 * MILLIS));
+    Assert.assertTrue(queue.admitNext(30 * MILLIS));
+    Assert.assertFalse(queue.admitNext(30 * MILLIS));
+    Assert.assertEquals("[admit:a, admit:b]", events.toString());
+    Assert.assertEquals(20 * MILLIS, queue.getAverageWaitNanos());
+  }
+
+  @Test
+  public void lifo() throws Exception {
+    AdmissionQueue queue = new AdmissionQueue(10, true, 1000 * MILLIS);
+    queue.offer(waiter("a"), AdmissionQueue.NO_DEADLINE, 0L);
+    queue.offer(waiter("b"), AdmissionQueue.NO_DEADLINE, 0L);
+    queue.admitNext(0L);
+    Assert.assertEquals("[admit:b]", events.toString());
+  }
+
+  @Test
+  public void expireByMaxWaitAndDeadline() throws Exception {
+    AdmissionQueue queue = new AdmissionQueue(10, false, 100 * MILLIS);
+    queue.recordServiceTime(20 * MILLIS);
+
+    queue.offer(waiter("a"), AdmissionQueue.NO_DEADLINE, 0L);
+    queue.offer(waiter("b"), 60 * MILLIS, 0L);
+    queue.offer(waiter("c"), AdmissionQueue.NO_DEADLINE, 50 * MILLIS);
+
+    // b的剩余时间已经不足平均处理时间，a已经超过最长排队时间
+    Assert.assertTrue(queue.admitNext(100 * MILLIS));
+    Assert.assertEquals("[timeout:a, deadline:b, admit:c]", events.toString());
+    Assert.assertEquals(2, queue.getExpired());
+    Assert.assertEquals(0, queue.size());
+  }
+
+  @Test
+  public void remove() throws Exception {
+    AdmissionQueue queue = new AdmissionQueue(10, false, 100 * MILLIS);
+    AdmissionQueue.Waiter a = waiter("a");
+    queue.offer(a, AdmissionQueue.NO_DEADLINE, 0L);
+    Assert.assertTrue(queue.remove(a));
+    Assert.assertFalse(queue.remove(a));
+    Assert.assertFalse(queue.admitNext(0L));
+  }
+
+  @Test
+  public void expireOnTimerWithoutDispatch() throws Exception {
+    ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+    try {
+      AdmissionQueue queue = new AdmissionQueue(10, false, 100 * MILLIS, timer);
+      final CountDownLatch latch = new CountDownLatch(1);
+      final AtomicLong waited = new AtomicLong();
+
+      // 没有请求处理结束，也没有新的请求入队，排队的请求仍然需要按时超时
+      long start = System.nanoTime();
+      queue.offer(new AdmissionQueue.Waiter() {
+        @Override
+        public void admit(long waitNanos) {
+          Assert.fail();
+        }
+
+        @Override
+        public void expire(long waitNanos, boolean deadlineExceeded) {
+          Assert.assertFalse(deadlineExceeded);
+          waited.set(waitNanos);
+          latch.countDown();
+        }
+      }, AdmissionQueue.NO_DEADLINE, start);
+
+      Assert.assertTrue(latch.await(1, TimeUnit.SECONDS));
+      Assert.assertTrue(waited.get() >= 100 * MILLIS);
+      Assert.assertTrue(waited.get() < 500 * MILLIS);
+      Assert.assertEquals(0, queue.size());
+      Assert.assertEquals(1, queue.getExpired());
+    } finally {
+      timer.shutdownNow();
+    }
+  }
+}
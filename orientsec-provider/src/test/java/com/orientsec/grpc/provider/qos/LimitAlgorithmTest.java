@@ -0,0 +1,113 @@
+/*
+ * Copyright 2019 Orient Securities Co., Ltd.
+ * Copyright 2019 BoCloud Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientsec.grpc.provider.qos;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 并发请求数上限的自适应算法
+ *
+ * @author sxp
+ * @since 2020/3/11
+ */
+public class LimitAlgorithmTest {
+  private static final long FAST = TimeUnit.MILLISECONDS.toNanos(10);
+  private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(2000);
+
+  @Test
+  public void aimd() throws Exception {
+    AimdLimit limit = new AimdLimit(10, 1, 12, TimeUnit.SECONDS.toNanos(1), 0.5D);
+    Assert.assertEquals(10, limit.getLimit());
+
+    // 负载较低时不增加上限
+    limit.onSample(FAST, 2, false);
+    Assert.assertEquals(10, limit.getLimit());
+
+    limit.onSample(FAST, 8, false);
+    limit.onSample(FAST, 8, false);
+    limit.onSample(FAST, 8, false);
+    Assert.assertEquals(12, limit.getLimit());
+
+    limit.onSample(SLOW, 8, false);
+    Assert.assertEquals(6, limit.getLimit());
+
+    limit.onSample(FAST, 8, true);
+    limit.onSample(FAST, 8, true);
+    limit.onSample(FAST, 8, true);
+    limit.onSample(FAST, 8, true);
+    Assert.assertEquals(1, limit.getLimit());
+  }
+
+  @Test
+  public void gradient() throws Exception {
+    GradientLimit limit = new GradientLimit(20, 1, 100, 1.5D, 1D);
+
+    // 处理时间稳定时上限逐步增加
+    for (int i = 0; i < 10; i++) {
+      limit.onSample(FAST, limit.getLimit(), false);
+    }
+    int grown = limit.getLimit();
+    Assert.assertTrue(grown > 20);
+
+    // 处理时间变长时上限减小
+    for (int i = 0; i < 20; i++) {
+      limit.onSample(SLOW, limit.getLimit(), false);
+    }
+    Assert.assertTrue(limit.getLimit() < grown);
+  }
+
+  @Test
+  public void controllerUsesAdaptiveLimitBelowMax() throws Exception {
+    AimdLimit algorithm = new AimdLimit(2, 1, 100, TimeUnit.SECONDS.toNanos(1), 0.5D);
+    RequestsController controller = new RequestsController(3, algorithm);
+    Assert.assertTrue(controller.isLimited());
+    Assert.assertEquals(2, controller.getLimit());
+
+    Assert.assertTrue(controller.increase());
+    Assert.assertTrue(controller.increase());
+    Assert.assertFalse(controller.increase());
+
+    // 自适应上限增加后仍然不超过配置的最大请求数
+    controller.decrease(FAST, false);
+    controller.increase();
+    controller.decrease(FAST, false);
+    controller.increase();
+    controller.decrease(FAST, false);
+    Assert.assertEquals(3, controller.getLimit());
+    Assert.assertEquals(1, controller.getCurrent());
+  }
+
+  @Test
+  public void setMaxRaisesAdaptiveCeiling() throws Exception {
+    AimdLimit algorithm = new AimdLimit(2, 1, 3, TimeUnit.SECONDS.toNanos(1), 0.5D);
+    RequestsController controller = new RequestsController(3, algorithm);
+
+    // 注册中心中的最大请求数调大后，自适应上限可以继续增加
+    controller.setMax(10);
+    for (int i = 0; i < 10; i++) {
+      algorithm.onSample(FAST, algorithm.getLimit(), false);
+    }
+    Assert.assertEquals(10, controller.getLimit());
+
+    // 调小后当前上限同时减小
+    controller.setMax(4);
+    Assert.assertEquals(4, algorithm.getLimit());
+  }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2019 Orient Securities Co., Ltd.
+ * Copyright 2019 BoCloud Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientsec.grpc.provider.qos;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * 请求排队时间统计
+ *
+ * @author sxp
+ * @since 2020/3/11
+ */
+public class QueueWaitStatsTest {
+
+  @Test
+  public void record() throws Exception {
+    QueueWaitStats stats = new QueueWaitStats();
+    Assert.assertEquals(0L, stats.getAverageWaitNanos());
+
+    stats.record(100L);
+    stats.record(300L);
+    stats.recordExpired();
+
+    Assert.assertEquals(2L, stats.getCount());
+    Assert.assertEquals(200L, stats.getAverageWaitNanos());
+    Assert.assertEquals(300L, stats.getMaxWaitNanos());
+    Assert.assertEquals(125L, stats.getRecentWaitNanos());
+    Assert.assertEquals(1L, stats.getExpired());
+  }
+
+  @Test
+  public void statsPerMethod() throws Exception {
+    ProviderQueueWaitUtils.recordWait("test.Greeter/sayHello", 10L);
+    ProviderQueueWaitUtils.recordExpired("test.Greeter/sayHello");
+
+    QueueWaitStats stats = ProviderQueueWaitUtils.getStats("test.Greeter/sayHello");
+    Assert.assertEquals(1L, stats.getCount());
+    Assert.assertEquals(1L, stats.getExpired());
+    Assert.assertSame(stats, ProviderQueueWaitUtils.getAllStats().get("test.Greeter/sayHello"));
+  }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2019 Orient Securities Co., Ltd.
+ * Copyright 2019 BoCloud Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientsec.grpc.registry;
+
+import com.orientsec.grpc.registry.common.URL;
+
+import java.util.List;
+
+/**
+ * 支持增量处理的变更通知监听器
+ * <p>
+ * 注册中心在全量数据之外，同时提供与该监听器上一次收到的同类型数据相比新增和删除的URL，
+ * 监听器可以只处理发生变化的部分；新增和删除的列表都为空时说明数据没有变化。
+ * </p>
+ *
+ * @author sxp
+ * @since 2020/3/11
+ */
+public interface IncrementalNotifyListener extends NotifyListener {
+  /**
+   * 当收到服务变更通知时触发，该方法被调用时不再调用{@link #notify(List)}
+   *
+   * @param urls    同一类型的全量数据，含义同{@link #notify(List)}的参数
+   * @param added   新增的URL，不含empty协议的URL
+   * @param removed 删除的URL，不含empty协议的URL
+   */
+  void notify(List<URL> urls, List<URL> added, List<URL> removed);
+}
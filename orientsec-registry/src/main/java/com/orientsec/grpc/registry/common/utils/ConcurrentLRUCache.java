@@ -0,0 +1,331 @@
+/*
+ * Copyright 2019 Orient Securities Co., Ltd.
+ * Copyright 2019 BoCloud Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientsec.grpc.registry.common.utils;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 支持并发访问的有容量上限的缓存
+ * <p>
+ * 缓存分为多个分段，每个分段有自己的锁和容量上限，不同分段的写操作互不影响。<br>
+ * 读操作不加锁：直接从ConcurrentHashMap中读取，只设置条目的访问标志；
+ * 写操作超出分段的容量上限时，在分段的锁内按照CLOCK(second chance)算法淘汰条目：
+ * 依次检查条目，最近被访问过的条目清除访问标志后放到队尾，没有被访问过的条目被删除。
+ * 淘汰的效果近似于LRU(最近最少使用)。
+ * </p>
+ * <p>
+ * 用于替代{@link LRUCache}，后者每次读操作都需要获取同一个锁。
+ * </p>
+ *
+ * @author sxp
+ * @since 2020/3/11
+ */
+public class ConcurrentLRUCache<K, V> {
+  /** 默认容量 */
+  private static final int DEFAULT_MAX_CAPACITY = 1000;
+
+  /** 最大分段数 */
+  private static final int MAX_SEGMENTS = 16;
+
+  private final int maxCapacity;
+  private final Segment<K, V>[] segments;
+  private final int segmentShift;
+
+  public ConcurrentLRUCache() {
+    this(DEFAULT_MAX_CAPACITY);
+  }
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  public ConcurrentLRUCache(int maxCapacity) {
+    if (maxCapacity <= 0) {
+      throw new IllegalArgumentException("缓存的容量必须大于0");
+    }
+
+    int segmentCount = 1;
+    int segmentBits = 0;
+    while (segmentCount < MAX_SEGMENTS && segmentCount * 2 <= maxCapacity) {
+      segmentCount *= 2;
+      segmentBits++;
+    }
+
+    this.maxCapacity = maxCapacity;
+    this.segments = new Segment[segmentCount];
+    this.segmentShift = 32 - segmentBits;
+
+    // 容量按分段均分，余数分给前面的分段，保证总条目数不超过maxCapacity
+    int base = maxCapacity / segmentCount;
+    int remainder = maxCapacity % segmentCount;
+    for (int i = 0; i < segmentCount; i++) {
+      segments[i] = new Segment<K, V>(i < remainder ? base + 1 : base);
+    }
+  }
+
+  /**
+   * 使用斐波那契散列取hashCode乘积的高位选择分段，避免连续的hashCode集中在部分分段
+   */
+  private Segment<K, V> segmentFor(Object key) {
+    if (segments.length == 1) {
+      return segments[0];
+    }
+    int h = key.hashCode() * 0x9E3779B9;
+    return segments[h >>> segmentShift];
+  }
+
+  /**
+   * 根据key获取value，不存在时返回null
+   */
+  public V get(K key) {
+    return segmentFor(key).get(key);
+  }
+
+  /**
+   * 检测指定的key值是否存在，不影响命中统计和淘汰顺序
+   */
+  public boolean containsKey(K key) {
+    return segmentFor(key).map.containsKey(key);
+  }
+
+  /**
+   * 向缓存中增加数据
+   *
+   * @return 之前的value值，不存在时返回null
+   */
+  public V put(K key, V value) {
+    if (value == null) {
+      throw new NullPointerException("value == null");
+    }
+    return segmentFor(key).put(key, value, false);
+  }
+
+  /**
+   * key值不存在时向缓存中增加数据
+   *
+   * @return 已经存在的value值，不存在时返回null
+   */
+  public V putIfAbsent(K key, V value) {
+    if (value == null) {
+      throw new NullPointerException("value == null");
+    }
+    return segmentFor(key).put(key, value, true);
+  }
+
+  /**
+   * 从缓存中删除指定key值的键值对
+   */
+  public V remove(K key) {
+    return segmentFor(key).remove(key);
+  }
+
+  /**
+   * 清空缓存中的所有数据，不清除命中统计
+   */
+  public void clear() {
+    for (Segment<K, V> segment : segments) {
+      segment.clear();
+    }
+  }
+
+  /**
+   * 缓存目前的大小
+   */
+  public int size() {
+    int size = 0;
+    for (Segment<K, V> segment : segments) {
+      size += segment.map.size();
+    }
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size() == 0;
+  }
+
+  /**
+   * 获取缓存的最大容量
+   */
+  public int getMaxCapacity() {
+    return maxCapacity;
+  }
+
+  /**
+   * 获取命中次数
+   */
+  public long getHitCount() {
+    long count = 0L;
+    for (Segment<K, V> segment : segments) {
+      count += segment.hits.get();
+    }
+    return count;
+  }
+
+  /**
+   * 获取未命中次数
+   */
+  public long getMissCount() {
+    long count = 0L;
+    for (Segment<K, V> segment : segments) {
+      count += segment.misses.get();
+    }
+    return count;
+  }
+
+  @Override
+  public String toString() {
+    return "ConcurrentLRUCache{size=" + size() + ", maxCapacity=" + maxCapacity
+            + ", hitCount=" + getHitCount() + ", missCount=" + getMissCount() + "}";
+  }
+
+  private static final class Node<K, V> {
+    final K key;
+    volatile V value;
+
+    /** 最近是否被访问过 */
+    volatile boolean referenced;
+
+    /** 是否已经从map中删除 */
+    boolean removed;
+
+    Node(K key, V value) {
+      this.key = key;
+      this.value = value;
+    }
+  }
+
+  private static final class Segment<K, V> {
+    final int capacity;
+    final ConcurrentHashMap<K, Node<K, V>> map = new ConcurrentHashMap<K, Node<K, V>>();
+
+    /** 淘汰顺序的队列，只在锁内访问；可能包含已经删除的条目，淘汰时跳过 */
+    final ArrayDeque<Node<K, V>> clock = new ArrayDeque<Node<K, V>>();
+    final ReentrantLock lock = new ReentrantLock();
+
+    final AtomicLong hits = new AtomicLong();
+    final AtomicLong misses = new AtomicLong();
+
+    Segment(int capacity) {
+      this.capacity = capacity;
+    }
+
+    V get(Object key) {
+      Node<K, V> node = map.get(key);
+      if (node == null) {
+        misses.incrementAndGet();
+        return null;
+      }
+
+      hits.incrementAndGet();
+      if (!node.referenced) {// 避免重复写入
+        node.referenced = true;
+      }
+      return node.value;
+    }
+
+    V put(K key, V value, boolean onlyIfAbsent) {
+      lock.lock();
+      try {
+        Node<K, V> node = map.get(key);
+        if (node != null) {
+          V oldValue = node.value;
+          if (!onlyIfAbsent) {
+            node.value = value;
+            node.referenced = true;
+          }
+          return oldValue;
+        }
+
+        while (map.size() >= capacity && evict()) {
+          // 循环淘汰直到有空余容量
+        }
+
+        node = new Node<K, V>(key, value);
+        map.put(key, node);
+        clock.addLast(node);
+        return null;
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    V remove(Object key) {
+      lock.lock();
+      try {
+        Node<K, V> node = map.remove(key);
+        if (node == null) {
+          return null;
+        }
+        node.removed = true;
+
+        // 队列中已删除的条目过多时清理
+        if (clock.size() > 2 * capacity) {
+          purgeRemoved();
+        }
+        return node.value;
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    void clear() {
+      lock.lock();
+      try {
+        map.clear();
+        clock.clear();
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    /**
+     * 淘汰一个条目，调用方需要持有锁
+     *
+     * @return 没有可以淘汰的条目时返回false
+     */
+    private boolean evict() {
+      while (true) {
+        Node<K, V> node = clock.pollFirst();
+        if (node == null) {
+          return false;
+        }
+        if (node.removed) {
+          continue;
+        }
+        if (node.referenced) {
+          node.referenced = false;
+          clock.addLast(node);
+          continue;
+        }
+
+        map.remove(node.key, node);
+        node.removed = true;
+        return true;
+      }
+    }
+
+    private void purgeRemoved() {
+      int size = clock.size();
+      for (int i = 0; i < size; i++) {
+        Node<K, V> node = clock.pollFirst();
+        if (!node.removed) {
+          clock.addLast(node);
+        }
+      }
+    }
+  }
+}
@@ -31,7 +31,10 @@ import java.util.concurrent.locks.ReentrantLock;
  *
  * @author heiden
  * @since 2018/3/15.
+ * @since 2020/3/11 modify by sxp 每次读操作都需要获取同一个锁，并发访问时请使用{@link ConcurrentLRUCache}
+ * @deprecated 使用{@link ConcurrentLRUCache}代替
  */
+@Deprecated
 public class LRUCache<K, V> extends LinkedHashMap<K, V> {
   private static final long serialVersionUID = -5167631809472116969L;
 
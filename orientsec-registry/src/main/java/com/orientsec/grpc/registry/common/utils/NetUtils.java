@@ -30,7 +30,6 @@ import java.net.NetworkInterface;
 import java.net.ServerSocket;
 import java.net.UnknownHostException;
 import java.util.Enumeration;
-import java.util.Map;
 import java.util.Random;
 import java.util.regex.Pattern;
 
@@ -367,7 +366,7 @@ public class NetUtils {
   /**
    * 容量为1000的主机名缓存
    */
-  private static final Map<String, String> hostNameCache = new LRUCache<String, String>(1000);
+  private static final ConcurrentLRUCache<String, String> hostNameCache = new ConcurrentLRUCache<String, String>(1000);
 
   /**
    * 获取主机名
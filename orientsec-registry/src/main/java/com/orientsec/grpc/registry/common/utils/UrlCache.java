@@ -0,0 +1,123 @@
+/*
+ * Copyright 2019 Orient Securities Co., Ltd.
+ * Copyright 2019 BoCloud Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientsec.grpc.registry.common.utils;
+
+import com.orientsec.grpc.common.util.MapUtils;
+import com.orientsec.grpc.registry.common.URL;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 注册中心节点名称到URL对象的缓存
+ * <p>
+ * 注册中心每次推送变更、客户端查询以及断线恢复时，都需要将编码后的节点名称解码并解析为URL对象，
+ * 服务提供者批量上下线时同样的字符串会被反复解析。URL对象是不可变的，解析结果可以共享，
+ * 因此以注册中心返回的原始节点名称为key缓存解析结果；解析时参数名统一intern，减少重复的字符串对象。
+ * </p>
+ * <p>
+ * 缓存的条目数有上限，达到上限后淘汰最近没有被访问过的条目。
+ * </p>
+ *
+ * @author sxp
+ * @since 2020/3/11
+ */
+public final class UrlCache {
+  /** 缓存的最大条目数 */
+  static final int MAX_SIZE = 10000;
+
+  private static final ConcurrentLRUCache<String, URL> cache = new ConcurrentLRUCache<String, URL>(MAX_SIZE);
+
+  private UrlCache() {
+    throw new IllegalStateException("Utility class");
+  }
+
+  /**
+   * 将注册中心的节点名称解码并解析为URL对象
+   *
+   * @param encoded 注册中心返回的原始(编码后的)节点名称
+   * @return 节点名称不是URL格式时返回null
+   */
+  public static URL parseEncoded(String encoded) {
+    if (encoded == null) {
+      return null;
+    }
+
+    URL url = cache.get(encoded);
+    if (url != null) {
+      return url;
+    }
+
+    String decoded = URL.decode(encoded);
+    if (!decoded.contains("://")) {
+      return null;
+    }
+
+    url = internKeys(URL.valueOf(decoded));
+
+    URL oldValue = cache.putIfAbsent(encoded, url);
+    if (oldValue != null) {
+      // 防止其他线程在这段时间内已经向cache中写入了新数据
+      url = oldValue;
+    }
+
+    return url;
+  }
+
+  private static URL internKeys(URL url) {
+    Map<String, String> parameters = url.getParameters();
+    if (parameters.isEmpty()) {
+      return url;
+    }
+
+    Map<String, String> interned = new HashMap<String, String>(MapUtils.capacity(parameters.size()));
+    for (Map.Entry<String, String> entry : parameters.entrySet()) {
+      interned.put(entry.getKey().intern(), entry.getValue());
+    }
+
+    return new URL(url.getProtocol(), url.getUsername(), url.getPassword(), url.getHost(), url.getPort(),
+            url.getPath(), interned);
+  }
+
+  /**
+   * 当前缓存的条目数
+   */
+  public static int size() {
+    return cache.size();
+  }
+
+  /**
+   * 命中次数
+   */
+  public static long getHitCount() {
+    return cache.getHitCount();
+  }
+
+  /**
+   * 未命中次数
+   */
+  public static long getMissCount() {
+    return cache.getMissCount();
+  }
+
+  /**
+   * 清空缓存
+   */
+  public static void clear() {
+    cache.clear();
+  }
+}
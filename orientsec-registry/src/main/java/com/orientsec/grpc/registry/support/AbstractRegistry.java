@@ -19,6 +19,7 @@
 
 package com.orientsec.grpc.registry.support;
 
+import com.orientsec.grpc.registry.IncrementalNotifyListener;
 import com.orientsec.grpc.registry.NotifyListener;
 import com.orientsec.grpc.registry.Registry;
 import com.orientsec.grpc.registry.common.Constants;
@@ -31,6 +32,7 @@ import org.slf4j.LoggerFactory;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -54,14 +56,22 @@ public abstract class AbstractRegistry implements Registry {
 
   private URL registryUrl;
 
+  // 本地缓存文件，没有启用缓存时为null
+  private final RegistryCacheFile cacheFile;
+
   private final Set<URL> registered = new ConcurrentHashSet<URL>();
 
   private final ConcurrentMap<URL, Set<NotifyListener>> subscribed = new ConcurrentHashMap<URL, Set<NotifyListener>>();
 
   private final ConcurrentMap<URL, Map<String, List<URL>>> notified = new ConcurrentHashMap<URL, Map<String, List<URL>>>();
 
+  // 每个增量监听器上一次收到的各类型数据，用于计算新增和删除的URL
+  private final ConcurrentMap<URL, ConcurrentMap<NotifyListener, Map<String, List<URL>>>> listenerNotified
+          = new ConcurrentHashMap<URL, ConcurrentMap<NotifyListener, Map<String, List<URL>>>>();
+
   public AbstractRegistry(URL url) {
     setUrl(url);
+    cacheFile = RegistryCacheFile.forRegistry(url);
     notify(url.getBackupUrls());
   }
 
@@ -163,6 +173,10 @@ public abstract class AbstractRegistry implements Registry {
     if (listeners != null) {
       listeners.remove(listener);
     }
+    Map<NotifyListener, Map<String, List<URL>>> lastNotified = listenerNotified.get(url);
+    if (lastNotified != null) {
+      lastNotified.remove(listener);
+    }
   }
 
   protected void recover() throws Exception {
@@ -201,6 +215,9 @@ public abstract class AbstractRegistry implements Registry {
     }
   }
 
+  /**
+   * @since 2020/3/11 modify by sxp 向增量监听器同时推送新增和删除的URL
+   */
   protected void notify(URL url, NotifyListener listener, List<URL> urls) {
     if (url == null) {
       throw new IllegalArgumentException("notify url == null");
@@ -238,8 +255,155 @@ public abstract class AbstractRegistry implements Registry {
       String category = entry.getKey();
       List<URL> categoryList = entry.getValue();
       categoryNotified.put(category, categoryList);
-      listener.notify(categoryList);
+      if (listener instanceof IncrementalNotifyListener) {
+        notifyIncremental(url, (IncrementalNotifyListener) listener, category, categoryList);
+      } else {
+        listener.notify(categoryList);
+      }
+    }
+    saveCache(url, categoryNotified);
+  }
+
+  /**
+   * 向增量监听器推送全量数据以及与其上一次收到的数据相比新增和删除的URL
+   *
+   * @author sxp
+   * @since 2020/3/11
+   */
+  private void notifyIncremental(URL url, IncrementalNotifyListener listener, String category, List<URL> categoryList) {
+    ConcurrentMap<NotifyListener, Map<String, List<URL>>> lastNotified = listenerNotified.get(url);
+    if (lastNotified == null) {
+      listenerNotified.putIfAbsent(url, new ConcurrentHashMap<NotifyListener, Map<String, List<URL>>>());
+      lastNotified = listenerNotified.get(url);
+    }
+    Map<String, List<URL>> lastCategoryNotified = lastNotified.get(listener);
+    if (lastCategoryNotified == null) {
+      lastNotified.putIfAbsent(listener, new ConcurrentHashMap<String, List<URL>>());
+      lastCategoryNotified = lastNotified.get(listener);
+    }
+
+    List<URL> previous = lastCategoryNotified.put(category, categoryList);
+    List<URL> added = new ArrayList<URL>();
+    List<URL> removed = new ArrayList<URL>();
+    diff(previous, categoryList, added, removed);
+
+    listener.notify(categoryList, added, removed);
+  }
+
+  /**
+   * 计算两次通知之间新增和删除的URL，忽略empty协议的URL
+   *
+   * @param previous 上一次通知的数据，可以为null
+   * @param current  本次通知的数据
+   * @param added    输出参数，新增的URL
+   * @param removed  输出参数，删除的URL
+   * @author sxp
+   * @since 2020/3/11
+   */
+  static void diff(List<URL> previous, List<URL> current, List<URL> added, List<URL> removed) {
+    Set<URL> previousSet = toNonEmptySet(previous);
+    Set<URL> currentSet = toNonEmptySet(current);
+
+    for (URL u : currentSet) {
+      if (!previousSet.contains(u)) {
+        added.add(u);
+      }
+    }
+    for (URL u : previousSet) {
+      if (!currentSet.contains(u)) {
+        removed.add(u);
+      }
+    }
+  }
+
+  private static Set<URL> toNonEmptySet(List<URL> urls) {
+    if (urls == null || urls.isEmpty()) {
+      return new HashSet<URL>();
+    }
+    Set<URL> result = new LinkedHashSet<URL>(urls.size() * 2);
+    for (URL u : urls) {
+      if (!Constants.EMPTY_PROTOCOL.equals(u.getProtocol())) {
+        result.add(u);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * 将订阅的服务各个分类的URL分别保存到本地缓存文件
+   * <p>
+   * 同一个服务接口的客户端和服务端都可能订阅(例如服务端订阅configurators)，缓存的key值同时包含订阅方、服务接口和分类，
+   * 各自只覆盖自己的数据，多个进程共用缓存文件时也按照分类合并。
+   * </p>
+   *
+   * @author sxp
+   * @since 2020/3/11
+   */
+  private void saveCache(URL url, Map<String, List<URL>> categoryNotified) {
+    String serviceInterface = url.getServiceInterface();
+    if (cacheFile == null || serviceInterface == null || Constants.ANY_VALUE.equals(serviceInterface)) {
+      return;
+    }
+
+    String side = url.getParameter(Constants.SIDE_KEY, "");
+    for (Map.Entry<String, List<URL>> entry : categoryNotified.entrySet()) {
+      StringBuilder buf = new StringBuilder();
+      for (URL u : entry.getValue()) {
+        if (buf.length() > 0) {
+          buf.append(URL_SEPARATOR);
+        }
+        buf.append(u.toFullString());
+      }
+
+      String key = getCacheKey(side, serviceInterface, entry.getKey());
+      try {
+        cacheFile.put(key, buf.toString());
+      } catch (Throwable t) {
+        logger.warn("Failed to save registry cache for " + key + ", cause: " + t.getMessage(), t);
+      }
+    }
+  }
+
+  /**
+   * 本地缓存文件中的key值：订阅方/服务接口/分类，例如consumer/com.orientsec.Greeter/providers
+   *
+   * @author sxp
+   * @since 2020/3/11
+   */
+  static String getCacheKey(String side, String serviceInterface, String category) {
+    return side + "/" + serviceInterface + "/" + category;
+  }
+
+  /**
+   * 获取本地缓存文件中指定订阅方订阅的服务的某个分类的URL列表，没有缓存时返回空列表
+   *
+   * @param side             订阅方，例如consumer
+   * @param serviceInterface 服务接口名
+   * @param category         分类，例如providers
+   * @author sxp
+   * @since 2020/3/11
+   */
+  public static List<URL> getCachedUrls(URL registryUrl, String side, String serviceInterface, String category) {
+    List<URL> result = new ArrayList<URL>();
+
+    RegistryCacheFile cacheFile = RegistryCacheFile.forRegistry(registryUrl);
+    if (cacheFile == null || serviceInterface == null) {
+      return result;
+    }
+
+    String value = cacheFile.get(getCacheKey(side, serviceInterface, category));
+    if (value == null || value.trim().length() == 0) {
+      return result;
+    }
+
+    for (String u : value.trim().split(URL_SPLIT)) {
+      try {
+        result.add(URL.valueOf(u));
+      } catch (Throwable t) {
+        logger.warn("Ignore invalid cached url " + u + ", cause: " + t.getMessage());
+      }
     }
+    return result;
   }
 
   public void destroy() {
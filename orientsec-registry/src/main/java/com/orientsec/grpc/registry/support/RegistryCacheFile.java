@@ -0,0 +1,269 @@
+/*
+ * Copyright 2019 Orient Securities Co., Ltd.
+ * Copyright 2019 BoCloud Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientsec.grpc.registry.support;
+
+import com.orientsec.grpc.common.constant.GlobalConstants;
+import com.orientsec.grpc.common.resource.SystemConfig;
+import com.orientsec.grpc.common.util.PropertiesUtils;
+import com.orientsec.grpc.common.util.StringUtils;
+import com.orientsec.grpc.registry.common.Constants;
+import com.orientsec.grpc.registry.common.URL;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 注册中心数据的本地缓存文件
+ * <p>
+ * 每个注册中心对应一个缓存文件，key值为订阅方/服务接口/分类，value值为注册中心推送的该分类的URL列表。<br>
+ * 数据变化后异步写文件：一段时间内的多次变化合并为一次写入，先写临时文件再重命名，其它进程不会读到写了一半的文件。<br>
+ * 同一台机器上的多个进程可能共用同一个缓存文件，写文件时先加文件锁，再与文件中已有的数据合并，避免互相覆盖。
+ * </p>
+ *
+ * @author sxp
+ * @since 2020/3/11
+ */
+public final class RegistryCacheFile {
+  private static final Logger logger = LoggerFactory.getLogger(RegistryCacheFile.class);
+
+  /** 合并写文件的时间窗口(毫秒) */
+  private static final long WRITE_DELAY_MILLIS = 1000L;
+
+  private static final String DEFAULT_DIR_NAME = ".orientsec-grpc";
+
+  private static final boolean ENABLED = PropertiesUtils.getValidBooleanValue(
+          SystemConfig.getProperties(), GlobalConstants.REGISTRY_CACHE_ENABLED, true);
+
+  /** key值为缓存文件的绝对路径 */
+  private static final ConcurrentHashMap<String, RegistryCacheFile> cacheFiles = new ConcurrentHashMap<>();
+
+  private static final ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor(
+          new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+              Thread thread = new Thread(r, "registry-cache-writer-" + count.incrementAndGet());
+              thread.setDaemon(true);
+              return thread;
+            }
+          });
+
+  private final File file;
+  private final Properties properties = new Properties();
+  private final AtomicBoolean writeScheduled = new AtomicBoolean(false);
+
+  private final Runnable writeTask = new Runnable() {
+    @Override
+    public void run() {
+      write();
+    }
+  };
+
+  RegistryCacheFile(File file) {
+    this.file = file;
+    load();
+  }
+
+  /**
+   * 获取注册中心对应的缓存文件，没有启用缓存时返回null
+   */
+  public static RegistryCacheFile forRegistry(URL registryUrl) {
+    if (!ENABLED || registryUrl == null) {
+      return null;
+    }
+
+    File file = getFile(registryUrl);
+    String key = file.getAbsolutePath();
+
+    RegistryCacheFile cacheFile = cacheFiles.get(key);
+    if (cacheFile == null) {
+      cacheFile = new RegistryCacheFile(file);
+      RegistryCacheFile oldValue = cacheFiles.putIfAbsent(key, cacheFile);
+
+      if (oldValue != null) {
+        // 防止其他线程在这段时间内已经向cacheFiles中写入了新数据
+        cacheFile = oldValue;
+      }
+    }
+    return cacheFile;
+  }
+
+  /**
+   * 缓存文件路径：优先使用注册中心地址中的file参数，否则按照注册中心的地址生成
+   */
+  static File getFile(URL registryUrl) {
+    String fileName = registryUrl.getParameter(Constants.FILE_KEY);
+    if (StringUtils.isNotEmpty(fileName)) {
+      return new File(fileName);
+    }
+
+    String dir = SystemConfig.getProperties() == null ? null
+            : SystemConfig.getProperties().getProperty(GlobalConstants.REGISTRY_CACHE_DIR);
+    if (StringUtils.isEmpty(dir)) {
+      dir = System.getProperty("user.home") + File.separator + DEFAULT_DIR_NAME;
+    }
+
+    String name = "registry-" + registryUrl.getHost() + "-" + registryUrl.getPort() + ".cache";
+    return new File(dir.trim(), name.replaceAll("[^0-9A-Za-z._-]", "_"));
+  }
+
+  public File getFile() {
+    return file;
+  }
+
+  private void load() {
+    if (readFile(file, properties)) {
+      logger.info("加载注册中心本地缓存文件" + file + "，服务个数为" + properties.size());
+    }
+  }
+
+  /**
+   * 读取缓存文件中的数据，文件不存在或读取失败时返回false
+   */
+  private static boolean readFile(File file, Properties target) {
+    if (!file.exists()) {
+      return false;
+    }
+
+    InputStream in = null;
+    try {
+      in = new FileInputStream(file);
+      target.load(in);
+      return true;
+    } catch (Throwable e) {
+      logger.warn("加载注册中心本地缓存文件" + file + "出错", e);
+      return false;
+    } finally {
+      closeQuietly(in);
+    }
+  }
+
+  /**
+   * 获取缓存的数据
+   */
+  public String get(String key) {
+    return properties.getProperty(key);
+  }
+
+  /**
+   * 更新缓存的数据，异步写入文件
+   */
+  public void put(String key, String value) {
+    Object oldValue = properties.setProperty(key, value);
+    if (value.equals(oldValue)) {
+      return;
+    }
+
+    if (writeScheduled.compareAndSet(false, true)) {
+      writer.schedule(writeTask, WRITE_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /**
+   * 写文件，写入期间发生的变化由下一次写入处理
+   * <p>
+   * 持有文件锁期间重新读取文件，保留其它进程写入的服务，当前进程缓存的服务覆盖文件中的同名服务
+   * </p>
+   */
+  void write() {
+    writeScheduled.set(false);
+
+    // Hashtable的clone持有properties的锁，不会与put并发修改冲突
+    Properties snapshot = (Properties) properties.clone();
+
+    File dir = file.getAbsoluteFile().getParentFile();
+    File tmpFile = null;
+    OutputStream out = null;
+    RandomAccessFile lockFile = null;
+    FileLock lock = null;
+
+    try {
+      if (!dir.exists() && !dir.mkdirs() && !dir.exists()) {
+        logger.warn("无法创建注册中心本地缓存文件所在的目录" + dir);
+        return;
+      }
+
+      lockFile = new RandomAccessFile(new File(dir, file.getName() + ".lock"), "rw");
+      lock = lockFile.getChannel().lock();
+
+      Properties merged = new Properties();
+      readFile(file, merged);
+      merged.putAll(snapshot);
+
+      tmpFile = File.createTempFile(file.getName(), ".tmp", dir);
+      out = new FileOutputStream(tmpFile);
+      merged.store(out, "gRPC Registry Cache");
+      out.close();
+      out = null;
+
+      try {
+        Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      }
+      tmpFile = null;
+    } catch (Throwable e) {
+      logger.warn("写注册中心本地缓存文件" + file + "出错", e);
+    } finally {
+      closeQuietly(out);
+      if (tmpFile != null && !tmpFile.delete()) {
+        tmpFile.deleteOnExit();
+      }
+      if (lock != null) {
+        try {
+          lock.release();
+        } catch (IOException e) {
+          // ignore
+        }
+      }
+      closeQuietly(lockFile);
+    }
+  }
+
+  private static void closeQuietly(Closeable closeable) {
+    if (closeable == null) {
+      return;
+    }
+    try {
+      closeable.close();
+    } catch (IOException e) {
+      // ignore
+    }
+  }
+}
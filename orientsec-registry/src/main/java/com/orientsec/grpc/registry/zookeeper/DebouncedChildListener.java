@@ -0,0 +1,115 @@
+/*
+ * Copyright 2019 Orient Securities Co., Ltd.
+ * Copyright 2019 BoCloud Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientsec.grpc.registry.zookeeper;
+
+import com.orientsec.grpc.common.constant.GlobalConstants;
+import com.orientsec.grpc.common.resource.SystemConfig;
+import com.orientsec.grpc.common.util.PropertiesUtils;
+import com.orientsec.grpc.registry.remoting.ChildListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 合并变更通知的子节点监听器
+ * <p>
+ * 同一个节点在合并窗口内的多次变更只保留最后一次的子节点列表，窗口结束时统一通知一次；
+ * 所有注册中心的通知都在同一个线程中执行，保证通知的顺序。合并窗口为0时直接通知。
+ * </p>
+ *
+ * @author sxp
+ * @since 2020/3/11
+ */
+abstract class DebouncedChildListener implements ChildListener {
+  private static final Logger logger = LoggerFactory.getLogger(DebouncedChildListener.class);
+
+  private static final long DEFAULT_DEBOUNCE_MILLIS = 100L;
+
+  static final long DEBOUNCE_MILLIS = getDebounceMillis();
+
+  private static final ScheduledExecutorService notifier = Executors.newSingleThreadScheduledExecutor(
+          new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+              Thread thread = new Thread(r, "registry-notifier-" + count.incrementAndGet());
+              thread.setDaemon(true);
+              return thread;
+            }
+          });
+
+  private final long debounceMillis;
+
+  /** key值为节点路径，value值为窗口内最后一次收到的子节点列表 */
+  private final ConcurrentHashMap<String, List<String>> pending = new ConcurrentHashMap<>();
+
+  DebouncedChildListener() {
+    this(DEBOUNCE_MILLIS);
+  }
+
+  DebouncedChildListener(long debounceMillis) {
+    this.debounceMillis = debounceMillis;
+  }
+
+  private static long getDebounceMillis() {
+    int value = PropertiesUtils.getValidIntegerValue(SystemConfig.getProperties(),
+            GlobalConstants.REGISTRY_NOTIFY_DEBOUNCE_MILLIS, (int) DEFAULT_DEBOUNCE_MILLIS);
+    if (value < 0) {
+      value = (int) DEFAULT_DEBOUNCE_MILLIS;
+    }
+    return value;
+  }
+
+  /**
+   * 合并窗口结束时处理节点的最新子节点列表
+   */
+  protected abstract void flush(String parentPath, List<String> currentChilds);
+
+  @Override
+  public void childChanged(final String parentPath, List<String> currentChilds) {
+    if (debounceMillis <= 0) {
+      flush(parentPath, currentChilds);
+      return;
+    }
+
+    // 窗口内的第一次变更负责调度通知，后续变更只替换子节点列表
+    if (pending.put(parentPath, currentChilds) == null) {
+      notifier.schedule(new Runnable() {
+        @Override
+        public void run() {
+          List<String> children = pending.remove(parentPath);
+          if (children == null) {
+            return;
+          }
+          try {
+            flush(parentPath, children);
+          } catch (Throwable t) {
+            logger.error("处理注册中心节点[" + parentPath + "]的变更通知出错", t);
+          }
+        }
+      }, debounceMillis, TimeUnit.MILLISECONDS);
+    }
+  }
+}
@@ -26,6 +26,7 @@ import com.orientsec.grpc.registry.common.Constants;
 import com.orientsec.grpc.registry.common.URL;
 import com.orientsec.grpc.common.collect.ConcurrentHashSet;
 import com.orientsec.grpc.registry.common.utils.StringUtils;
+import com.orientsec.grpc.registry.common.utils.UrlCache;
 import com.orientsec.grpc.registry.common.utils.UrlUtils;
 import com.orientsec.grpc.registry.exception.RpcException;
 import com.orientsec.grpc.registry.remoting.ChildListener;
@@ -119,6 +120,9 @@ public class ZookeeperRegistry extends FailbackRegistry {
     }
   }
 
+  /**
+   * @since 2020/3/11 modify by sxp 合并短时间内同一节点的多次变更通知
+   */
   protected void doSubscribe(final URL url, final NotifyListener listener) {
     try {
       if (Constants.ANY_VALUE.equals(url.getServiceInterface())) {
@@ -164,8 +168,9 @@ public class ZookeeperRegistry extends FailbackRegistry {
           }
           ChildListener zkListener = listeners.get(listener);
           if (zkListener == null) {
-            listeners.putIfAbsent(listener, new ChildListener() {
-              public void childChanged(String parentPath, List<String> currentChilds) {
+            // 合并短时间内的多次变更，只通知最后一次的数据
+            listeners.putIfAbsent(listener, new DebouncedChildListener() {
+              protected void flush(String parentPath, List<String> currentChilds) {
                 ZookeeperRegistry.this.notify(url, listener, toUrlsWithEmpty(url, parentPath, currentChilds));
               }
             });
@@ -262,16 +267,16 @@ public class ZookeeperRegistry extends FailbackRegistry {
     return toCategoryPath(url) + Constants.PATH_SEPARATOR + URL.encode(url.toFullString());
   }
 
+  /**
+   * @since 2020/3/11 modify by sxp 复用缓存中已经解析过的URL对象
+   */
   private List<URL> toUrlsWithoutEmpty(URL consumer, List<String> providers) {
     List<URL> urls = new ArrayList<URL>();
     if (providers != null && providers.size() > 0) {
       for (String provider : providers) {
-        provider = URL.decode(provider);
-        if (provider.contains("://")) {
-          URL url = URL.valueOf(provider);
-          if (UrlUtils.isMatch(consumer, url)) {
-            urls.add(url);
-          }
+        URL url = UrlCache.parseEncoded(provider);
+        if (url != null && UrlUtils.isMatch(consumer, url)) {
+          urls.add(url);
         }
       }
     }
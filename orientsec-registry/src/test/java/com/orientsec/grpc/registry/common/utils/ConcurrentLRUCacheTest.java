@@ -0,0 +1,75 @@
+/*
+ * Copyright 2019 Orient Securities Co., Ltd.
+ * Copyright 2019 BoCloud Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientsec.grpc.registry.common.utils;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test for ConcurrentLRUCache
+ *
+ * @author sxp
+ * @since 2020/3/11
+ */
+public class ConcurrentLRUCacheTest {
+
+  @Test
+  public void usage() throws Exception {
+    ConcurrentLRUCache<String, Integer> cache = new ConcurrentLRUCache<String, Integer>(3);
+    cache.put("1", 10);
+    cache.put("2", 20);
+    Assert.assertEquals(Integer.valueOf(10), cache.put("1", 11));
+    Assert.assertEquals(Integer.valueOf(11), cache.putIfAbsent("1", 12));
+
+    Assert.assertEquals(Integer.valueOf(11), cache.get("1"));
+    Assert.assertNull(cache.get("3"));
+    Assert.assertEquals(1L, cache.getHitCount());
+    Assert.assertEquals(1L, cache.getMissCount());
+
+    Assert.assertTrue(cache.containsKey("2"));
+    Assert.assertEquals(Integer.valueOf(20), cache.remove("2"));
+    Assert.assertFalse(cache.containsKey("2"));
+
+    cache.clear();
+    Assert.assertTrue(cache.isEmpty());
+  }
+
+  @Test
+  public void evictUnreferenced() throws Exception {
+    ConcurrentLRUCache<String, Integer> cache = new ConcurrentLRUCache<String, Integer>(1000);
+    for (int i = 0; i < 800; i++) {
+      cache.put(String.valueOf(i), i);
+    }
+    for (int i = 0; i < 800; i += 2) {
+      cache.get(String.valueOf(i));
+    }
+    for (int i = 1000; i < 1300; i++) {
+      cache.put(String.valueOf(i), i);
+    }
+
+    Assert.assertTrue(cache.size() <= cache.getMaxCapacity());
+
+    // 最近被访问过的条目优先保留
+    int kept = 0;
+    for (int i = 0; i < 800; i += 2) {
+      if (cache.containsKey(String.valueOf(i))) {
+        kept++;
+      }
+    }
+    Assert.assertEquals(400, kept);
+  }
+}
@@ -25,6 +25,7 @@ import org.junit.Test;
  * @author sxp
  * @since 2018/11/29
  */
+@SuppressWarnings("deprecation")
 public class LRUCacheTest {
   @Test
   public void usage() throws Exception {
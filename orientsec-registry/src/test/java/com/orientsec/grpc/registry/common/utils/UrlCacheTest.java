@@ -0,0 +1,55 @@
+/*
+ * Copyright 2019 Orient Securities Co., Ltd.
+ * Copyright 2019 BoCloud Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientsec.grpc.registry.common.utils;
+
+import com.orientsec.grpc.registry.common.URL;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test for UrlCache
+ *
+ * @author sxp
+ * @since 2020/3/11
+ */
+public class UrlCacheTest {
+
+  @Test
+  public void parseEncoded() throws Exception {
+    String full = "grpc://127.0.0.1:50051/com.orientsec.Greeter?category=providers&weight=100";
+    String encoded = URL.encode(full);
+
+    URL url = UrlCache.parseEncoded(encoded);
+    Assert.assertEquals(URL.valueOf(full), url);
+    Assert.assertSame(url, UrlCache.parseEncoded(encoded));
+
+    for (String key : url.getParameters().keySet()) {
+      Assert.assertSame(key.intern(), key);
+    }
+
+    Assert.assertNull(UrlCache.parseEncoded("com.orientsec.Greeter"));
+  }
+
+  @Test
+  public void bounded() throws Exception {
+    UrlCache.clear();
+    for (int i = 0; i < UrlCache.MAX_SIZE + 10; i++) {
+      UrlCache.parseEncoded(URL.encode("grpc://127.0.0.1:" + (10000 + i) + "/com.orientsec.Greeter"));
+    }
+    Assert.assertTrue(UrlCache.size() <= UrlCache.MAX_SIZE);
+  }
+}
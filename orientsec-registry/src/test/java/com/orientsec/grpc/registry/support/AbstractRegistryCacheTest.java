@@ -0,0 +1,81 @@
+/*
+ * Copyright 2019 Orient Securities Co., Ltd.
+ * Copyright 2019 BoCloud Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientsec.grpc.registry.support;
+
+import com.orientsec.grpc.registry.NotifyListener;
+import com.orientsec.grpc.registry.common.Constants;
+import com.orientsec.grpc.registry.common.URL;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Test for AbstractRegistry local cache
+ *
+ * @author sxp
+ * @since 2020/3/11
+ */
+public class AbstractRegistryCacheTest {
+  private static final String INTERFACE = "com.orientsec.Greeter";
+  private static final URL PROVIDER = URL.valueOf("grpc://127.0.0.1:50051/" + INTERFACE + "?category=providers");
+  private static final URL CONFIGURATOR = URL.valueOf("override://0.0.0.0/" + INTERFACE + "?category=configurators");
+
+  private static final NotifyListener LISTENER = new NotifyListener() {
+    @Override
+    public void notify(List<URL> urls) {
+    }
+  };
+
+  @Test
+  public void providerSubscriptionDoesNotOverwriteConsumerProviders() throws Exception {
+    File file = File.createTempFile("registry", ".cache");
+    try {
+      URL registryUrl = URL.valueOf("zookeeper://127.0.0.1:2181/com.orientsec.grpc.registry.RegistryService")
+              .addParameter(Constants.FILE_KEY, file.getPath());
+      AbstractRegistry registry = new AbstractRegistry(registryUrl) {
+        @Override
+        public boolean isAvailable() {
+          return true;
+        }
+
+        @Override
+        public String getData(String path) {
+          return null;
+        }
+      };
+
+      // 同一个服务接口：客户端订阅providers，服务端订阅configurators
+      URL consumerUrl = URL.valueOf("consumer://127.0.0.1/" + INTERFACE + "?side=consumer&category=providers");
+      URL providerUrl = URL.valueOf("override://127.0.0.1:50051/" + INTERFACE + "?side=provider&category=configurators");
+      registry.notify(consumerUrl, LISTENER, Collections.singletonList(PROVIDER));
+      registry.notify(providerUrl, LISTENER, Collections.singletonList(CONFIGURATOR));
+
+      Assert.assertEquals(Collections.singletonList(PROVIDER), AbstractRegistry.getCachedUrls(registryUrl,
+              Constants.CONSUMER_SIDE, INTERFACE, Constants.PROVIDERS_CATEGORY));
+      Assert.assertEquals(Collections.singletonList(CONFIGURATOR), AbstractRegistry.getCachedUrls(registryUrl,
+              Constants.PROVIDER_SIDE, INTERFACE, Constants.CONFIGURATORS_CATEGORY));
+      Assert.assertTrue(AbstractRegistry.getCachedUrls(registryUrl,
+              Constants.CONSUMER_SIDE, INTERFACE, Constants.CONFIGURATORS_CATEGORY).isEmpty());
+    } finally {
+      file.delete();
+      new File(file.getPath() + ".lock").delete();
+    }
+  }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2019 Orient Securities Co., Ltd.
+ * Copyright 2019 BoCloud Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientsec.grpc.registry.support;
+
+import com.orientsec.grpc.registry.common.URL;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Test for AbstractRegistry.diff
+ *
+ * @author sxp
+ * @since 2020/3/11
+ */
+public class AbstractRegistryDiffTest {
+  private static final URL A = URL.valueOf("grpc://127.0.0.1:50051/com.orientsec.Greeter?category=providers");
+  private static final URL B = URL.valueOf("grpc://127.0.0.1:50052/com.orientsec.Greeter?category=providers");
+  private static final URL C = URL.valueOf("grpc://127.0.0.1:50053/com.orientsec.Greeter?category=providers");
+  private static final URL EMPTY = URL.valueOf("empty://127.0.0.1/com.orientsec.Greeter?category=providers");
+
+  @Test
+  public void diff() throws Exception {
+    List<URL> added = new ArrayList<URL>();
+    List<URL> removed = new ArrayList<URL>();
+    AbstractRegistry.diff(Arrays.asList(A, B), Arrays.asList(B, C), added, removed);
+    Assert.assertEquals(Collections.singletonList(C), added);
+    Assert.assertEquals(Collections.singletonList(A), removed);
+
+    added.clear();
+    removed.clear();
+    AbstractRegistry.diff(Arrays.asList(A, B), Arrays.asList(B, A), added, removed);
+    Assert.assertTrue(added.isEmpty());
+    Assert.assertTrue(removed.isEmpty());
+  }
+
+  @Test
+  public void diffIgnoresEmptyProtocol() throws Exception {
+    List<URL> added = new ArrayList<URL>();
+    List<URL> removed = new ArrayList<URL>();
+    AbstractRegistry.diff(null, Collections.singletonList(EMPTY), added, removed);
+    Assert.assertTrue(added.isEmpty());
+    Assert.assertTrue(removed.isEmpty());
+
+    AbstractRegistry.diff(Collections.singletonList(EMPTY), Collections.singletonList(A), added, removed);
+    Assert.assertEquals(Collections.singletonList(A), added);
+    Assert.assertTrue(removed.isEmpty());
+  }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2019 Orient Securities Co., Ltd.
+ * Copyright 2019 BoCloud Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientsec.grpc.registry.support;
+
+import com.orientsec.grpc.registry.common.Constants;
+import com.orientsec.grpc.registry.common.URL;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+
+/**
+ * Test for RegistryCacheFile
+ *
+ * @author sxp
+ * @since 2020/3/11
+ */
+public class RegistryCacheFileTest {
+
+  @Test
+  public void writeAndLoad() throws Exception {
+    File file = File.createTempFile("registry", ".cache");
+    try {
+      RegistryCacheFile cacheFile = new RegistryCacheFile(file);
+      cacheFile.put("com.orientsec.Greeter", "grpc://127.0.0.1:50051/com.orientsec.Greeter?category=providers");
+      cacheFile.write();
+
+      RegistryCacheFile loaded = new RegistryCacheFile(file);
+      Assert.assertEquals("grpc://127.0.0.1:50051/com.orientsec.Greeter?category=providers",
+              loaded.get("com.orientsec.Greeter"));
+      Assert.assertNull(loaded.get("com.orientsec.Unknown"));
+    } finally {
+      file.delete();
+      new File(file.getPath() + ".lock").delete();
+    }
+  }
+
+  @Test
+  public void writeKeepsEntriesOfOtherProcesses() throws Exception {
+    File file = File.createTempFile("registry", ".cache");
+    File lockFile = new File(file.getPath() + ".lock");
+    try {
+      // 两个实例模拟共用同一个缓存文件的两个进程
+      RegistryCacheFile first = new RegistryCacheFile(file);
+      RegistryCacheFile second = new RegistryCacheFile(file);
+
+      first.put("com.orientsec.Greeter", "grpc://127.0.0.1:50051/com.orientsec.Greeter");
+      first.write();
+      second.put("com.orientsec.Hello", "grpc://127.0.0.1:50052/com.orientsec.Hello");
+      second.write();
+
+      RegistryCacheFile loaded = new RegistryCacheFile(file);
+      Assert.assertEquals("grpc://127.0.0.1:50051/com.orientsec.Greeter", loaded.get("com.orientsec.Greeter"));
+      Assert.assertEquals("grpc://127.0.0.1:50052/com.orientsec.Hello", loaded.get("com.orientsec.Hello"));
+    } finally {
+      file.delete();
+      lockFile.delete();
+    }
+  }
+
+  @Test
+  public void fileFromRegistryUrl() throws Exception {
+    URL registryUrl = URL.valueOf("zookeeper://127.0.0.1:2181/com.orientsec.grpc.registry.RegistryService");
+    Assert.assertEquals("registry-127.0.0.1-2181.cache", RegistryCacheFile.getFile(registryUrl).getName());
+
+    URL withFile = registryUrl.addParameter(Constants.FILE_KEY, "/tmp/my-registry.cache");
+    Assert.assertEquals(new File("/tmp/my-registry.cache"), RegistryCacheFile.getFile(withFile));
+  }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2019 Orient Securities Co., Ltd.
+ * Copyright 2019 BoCloud Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientsec.grpc.registry.zookeeper;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test for DebouncedChildListener
+ *
+ * @author sxp
+ * @since 2020/3/11
+ */
+public class DebouncedChildListenerTest {
+
+  @Test
+  public void coalesceChanges() throws Exception {
+    final List<List<String>> flushed = new CopyOnWriteArrayList<List<String>>();
+    final CountDownLatch latch = new CountDownLatch(1);
+    DebouncedChildListener listener = new DebouncedChildListener(200L) {
+      @Override
+      protected void flush(String parentPath, List<String> currentChilds) {
+        flushed.add(currentChilds);
+        latch.countDown();
+      }
+    };
+
+    listener.childChanged("/Application/grpc/Greeter/providers", Arrays.asList("a"));
+    listener.childChanged("/Application/grpc/Greeter/providers", Arrays.asList("a", "b"));
+    listener.childChanged("/Application/grpc/Greeter/providers", Arrays.asList("b"));
+
+    Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+    Thread.sleep(300L);
+    Assert.assertEquals(1, flushed.size());
+    Assert.assertEquals(Arrays.asList("b"), flushed.get(0));
+  }
+
+  @Test
+  public void noDebounce() throws Exception {
+    final List<List<String>> flushed = new CopyOnWriteArrayList<List<String>>();
+    DebouncedChildListener listener = new DebouncedChildListener(0L) {
+      @Override
+      protected void flush(String parentPath, List<String> currentChilds) {
+        flushed.add(currentChilds);
+      }
+    };
+
+    listener.childChanged("/Application/grpc/Greeter/providers", Arrays.asList("a"));
+    listener.childChanged("/Application/grpc/Greeter/providers", Arrays.asList("b"));
+    Assert.assertEquals(2, flushed.size());
+  }
+}
@@ -21,21 +21,25 @@ package io.grpc.stub;
 import com.google.common.base.MoreObjects;
 import com.google.common.base.Preconditions;
 import com.google.common.util.concurrent.AbstractFuture;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
-import com.google.protobuf.Descriptors;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.protobuf.GeneratedMessageV3;
-import com.orientsec.grpc.common.constant.GlobalConstants;
 import com.orientsec.grpc.common.enums.LoadBalanceMode;
-import com.orientsec.grpc.common.resource.SystemConfig;
 import com.orientsec.grpc.common.util.GrpcUtils;
 import com.orientsec.grpc.common.util.LoadBalanceUtil;
-import com.orientsec.grpc.common.util.PropertiesUtils;
 import com.orientsec.grpc.common.util.StringUtils;
 import com.orientsec.grpc.consumer.ConsistentHashArguments;
 import com.orientsec.grpc.consumer.FailoverUtils;
-import com.orientsec.grpc.consumer.ThreadLocalVariableUtils;
+import com.orientsec.grpc.consumer.ForkingGroup;
+import com.orientsec.grpc.consumer.HashKeyExtractor;
 import com.orientsec.grpc.consumer.internal.ZookeeperNameResolver;
+import com.orientsec.grpc.consumer.qos.ConsumerForkingUtils;
 import com.orientsec.grpc.consumer.qos.ConsumerRequestsControllerUtils;
+import com.orientsec.grpc.consumer.qos.ConsumerRetryUtils;
+import com.orientsec.grpc.consumer.qos.RequestsLimitException;
+import com.orientsec.grpc.consumer.qos.RetryBudget;
 import io.grpc.CallOptions;
 import io.grpc.Channel;
 import io.grpc.ClientCall;
@@ -50,15 +54,14 @@ import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nullable;
 import java.util.Iterator;
-import java.util.Map;
 import java.util.NoSuchElementException;
-import java.util.Properties;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
@@ -70,28 +73,6 @@ import static com.google.common.base.Preconditions.checkNotNull;
 public final class ClientCalls {
   private static final Logger logger = LoggerFactory.getLogger(ClientCalls.class);
 
-  private static Properties properties = SystemConfig.getProperties();
-
-  /**
-   * 失败重试次数
-   */
-  private static int failureRetryNum = initFailureRetryNum();
-
-
-  private static int initFailureRetryNum() {
-    String key = GlobalConstants.Consumer.Key.CONSUME_RDEFAULT_RETRIES;
-    int defaultValue = 0;
-
-    int num = PropertiesUtils.getValidIntegerValue(properties, key, defaultValue);
-    if (num < 0) {
-      num = defaultValue;
-    }
-
-    logger.info(key + " = " + num);
-
-    return num;
-  }
-
   // Prevent instantiation
   private ClientCalls() {}
 
@@ -104,6 +85,38 @@ public final class ClientCalls {
     asyncUnaryRequestCall(call, req, responseObserver, false);
   }
 
+  /**
+   * Executes a unary call with a response {@link StreamObserver}, failing over to another provider
+   * when the call fails and retries are configured for the method.
+   * 失败重试不会阻塞调用线程：每次调用结束后在回调中重选服务器并发起下一次调用。
+   *
+   * @author sxp
+   * @since 2020/3/11
+   */
+  public static <ReqT, RespT> void asyncUnaryCall(
+      Channel channel, MethodDescriptor<ReqT, RespT> method, CallOptions callOptions, ReqT req,
+      final StreamObserver<RespT> responseObserver) {
+    if (responseObserver instanceof ClientResponseObserver) {
+      // 需要访问ClientCall的观察者(例如流量控制)只能对应一个调用，不进行失败重试
+      asyncUnaryCall(channel.newCall(method, callOptions), req, responseObserver);
+      return;
+    }
+
+    ListenableFuture<RespT> responseFuture = futureUnaryCall(channel, method, callOptions, req);
+    Futures.addCallback(responseFuture, new FutureCallback<RespT>() {
+      @Override
+      public void onSuccess(RespT result) {
+        responseObserver.onNext(result);
+        responseObserver.onCompleted();
+      }
+
+      @Override
+      public void onFailure(Throwable t) {
+        responseObserver.onError(t);
+      }
+    }, MoreExecutors.directExecutor());
+  }
+
   /**
    * Executes a server-streaming call with a response {@link StreamObserver}.  The {@code call}
    * should not be already started.  After calling this method, {@code call} should no longer be
@@ -159,12 +172,31 @@ public final class ClientCalls {
    * started.  After calling this method, {@code call} should no longer be used.
    *
    * @return the single response message.
+   * @since 2020/3/11 modify by sxp forking模式下同时调用多个服务提供者
    */
   public static <ReqT, RespT> RespT blockingUnaryCall(
       Channel channel, MethodDescriptor<ReqT, RespT> method, CallOptions callOptions, ReqT req) {
+    int forks = getForks(channel, method.getFullMethodName());
+    if (forks > 1) {
+      ListenableFuture<RespT> responseFuture = forkingUnaryCall(channel, method, callOptions, req, forks);
+      try {
+        return getUnchecked(responseFuture);
+      } catch (RuntimeException e) {
+        responseFuture.cancel(true);
+        throw e;
+      }
+    }
+
     ThreadlessExecutor executor = new ThreadlessExecutor();
     ClientCall<ReqT, RespT> call = channel.newCall(method, callOptions.withExecutor(executor));
 
+    int retries = ConsumerRetryUtils.getRetries(method.getFullMethodName());
+    RetryBudget budget = null;
+    if (retries > 0) {
+      budget = ConsumerRetryUtils.getBudget(method.getFullMethodName());
+      budget.deposit();
+    }
+
     try {
       ListenableFuture<RespT> responseFuture = futureUnaryCall(call, req);
       judgeResponseFuture(responseFuture, executor);
@@ -175,14 +207,14 @@ public final class ClientCalls {
       return result;
     } catch (RuntimeException e) {
       FailoverUtils.recordRequest(channel, false, call, e);
-      RespT respT = failureRetry(channel, method, callOptions, req, call, executor);
+      RespT respT = failureRetry(channel, method, callOptions, req, call, executor, e, retries, budget);
       if (respT != null) {
         return respT;
       }
       throw cancelThrow(call, e);
     } catch (Error e) {
       FailoverUtils.recordRequest(channel, false, call, null);
-      RespT respT = failureRetry(channel, method, callOptions, req, call, executor);
+      RespT respT = failureRetry(channel, method, callOptions, req, call, executor, e, retries, budget);
       if (respT != null) {
         return respT;
       }
@@ -196,7 +228,7 @@ public final class ClientCalls {
    * @Author yuanzhonglin
    * @since 2019/4/8
    */
-  private static void reelectServer(Channel channel, String fullMethod){
+  private static void reelectServer(Channel channel, String fullMethod, Object argument){
     NameResolver nameResolver = channel.getNameResolver();
     if (nameResolver instanceof ZookeeperNameResolver) {
 
@@ -205,29 +237,11 @@ public final class ClientCalls {
       if (LoadBalanceMode.connection.name().equals(
               LoadBalanceUtil.getLoadBalanceMode(nameResolver, method))) {
 
-        zkResolver.resolveServerInfo(getArgument(nameResolver), method);
+        zkResolver.resolveServerInfo(argument, method);
       }
     }
   }
 
-  /**
-   * 获取Argument值
-   *
-   * @Author yuanzhonglin
-   * @since 2019/4/8
-   */
-  private static Object getArgument(NameResolver nameResolver) {
-    String serviceName = null;
-    if (nameResolver != null) {
-      serviceName = nameResolver.getServiceName();
-    }
-    final Object argument = ConsistentHashArguments.getArgument(serviceName);
-    if (argument != null) {
-      ConsistentHashArguments.resetArgument(serviceName);
-    }
-    return argument;
-  }
-
   /**
    * 校验ResponseFuture
    *
@@ -254,6 +268,7 @@ public final class ClientCalls {
    *
    * @Author yuanzhonglin
    * @since 2019/4/8
+   * @since 2020/3/11 modify by sxp 重试次数预先解析；重试次数受服务的重试预算限制；取消和超时的调用不再重试
    */
   private static <ReqT, RespT> RespT failureRetry (
           Channel channel,
@@ -261,43 +276,26 @@ public final class ClientCalls {
           CallOptions callOptions,
           ReqT req,
           ClientCall<ReqT, RespT> call,
-          ThreadlessExecutor executor) {
-
-    int retryNum, methodRetryNum, serviceRetryNum;
-
-    /**
-     * 1. 从配置文件中获取指定Method的重试次数
-     * 2. 如果Method没有配置，则取服务的配置次数
-     * 3. 如果服务没有配置，则取默认次数
-     */
-    String interfaceName = GrpcUtils.getInterfaceNameNoneException(method.getFullMethodName());
-    String methodName = GrpcUtils.getSimpleMethodName(method.getFullMethodName());
-    String serviceRetryConfKey = GlobalConstants.Consumer.Key.CONSUME_RDEFAULT_RETRIES + "[" + interfaceName + "]";
-    String methodRetryConfKey = GlobalConstants.Consumer.Key.CONSUME_RDEFAULT_RETRIES + "[" + interfaceName + "." + methodName + "]";
-
-    methodRetryNum = PropertiesUtils.getValidIntegerValue(properties, methodRetryConfKey, 0);
-    serviceRetryNum = PropertiesUtils.getValidIntegerValue(properties, serviceRetryConfKey, 0);
-
-    if (methodRetryNum > 0) {
-      retryNum = methodRetryNum;
-    } else if (serviceRetryNum > 0) {
-      retryNum = serviceRetryNum;
-    } else {
-      retryNum = failureRetryNum;
-    }
-
-    if (retryNum == 0) {
-      return null;
-    }
-
+          ThreadlessExecutor executor,
+          Throwable cause,
+          int retryNum,
+          RetryBudget budget) {
     ListenableFuture<RespT> responseFuture;
     RespT result;
 
     for (int i = 0; i < retryNum; i++) {
+      if (!isRetryable(cause)) {
+        return null;
+      }
+      if (!budget.tryWithdraw()) {
+        logger.warn("服务[" + method.getFullMethodName() + "]的失败重试次数超出重试预算，不再重试");
+        return null;
+      }
+
       try {
         logger.info("失败重试第" + (i + 1) + "次...");
 
-        reelectServer(channel, method.getFullMethodName());
+        reelectServer(channel, method.getFullMethodName(), call.getConsistentHashArgument());
         call = channel.newCall(method, callOptions.withExecutor(executor));
         responseFuture = futureUnaryCall(call, req);
         judgeResponseFuture(responseFuture, executor);
@@ -307,12 +305,24 @@ public final class ClientCalls {
         return result;
       } catch (Exception e) {
         FailoverUtils.recordRequest(channel, false, call, e);
+        cause = e;
       }
     }
 
     return null;
   }
 
+  /**
+   * 调用失败后是否可以重试：被取消或者已经超过截止时间的调用重试也无法成功
+   *
+   * @author sxp
+   * @since 2020/3/11
+   */
+  private static boolean isRetryable(Throwable t) {
+    Status.Code code = Status.fromThrowable(t).getCode();
+    return code != Status.Code.CANCELLED && code != Status.Code.DEADLINE_EXCEEDED;
+  }
+
   /**
    * Executes a server-streaming call returning a blocking {@link Iterator} over the
    * response stream.  The {@code call} should not be already started.  After calling this method,
@@ -375,6 +385,95 @@ public final class ClientCalls {
     return responseFuture;
   }
 
+  /**
+   * Executes a unary call and returns a {@link ListenableFuture} to the response, failing over to
+   * another provider when the call fails and retries are configured for the method.
+   * 失败重试不会阻塞调用线程：每次调用结束后在回调中重选服务器并发起下一次调用。
+   *
+   * @author sxp
+   * @since 2020/3/11
+   */
+  public static <ReqT, RespT> ListenableFuture<RespT> futureUnaryCall(
+      Channel channel, MethodDescriptor<ReqT, RespT> method, CallOptions callOptions, ReqT req) {
+    int forks = getForks(channel, method.getFullMethodName());
+    if (forks > 1) {
+      return forkingUnaryCall(channel, method, callOptions, req, forks);
+    }
+
+    int retries = ConsumerRetryUtils.getRetries(method.getFullMethodName());
+    RetryBudget budget = null;
+    if (retries > 0) {
+      budget = ConsumerRetryUtils.getBudget(method.getFullMethodName());
+      budget.deposit();
+    }
+
+    return failoverUnaryCall(channel, method, callOptions, req, retries, budget);
+  }
+
+  /**
+   * 支持失败重试的单次调用，重试次数和重试预算由调用方确定
+   *
+   * @param retries 最多重试次数
+   * @param budget  服务的重试预算，不重试时可以为null
+   * @author sxp
+   * @since 2020/3/11
+   */
+  static <ReqT, RespT> ListenableFuture<RespT> failoverUnaryCall(
+      Channel channel, MethodDescriptor<ReqT, RespT> method, CallOptions callOptions, ReqT req,
+      int retries, @Nullable RetryBudget budget) {
+    FailoverFuture<ReqT, RespT> responseFuture =
+        new FailoverFuture<ReqT, RespT>(channel, method, callOptions, req, retries, budget);
+    responseFuture.start();
+    return responseFuture;
+  }
+
+  /**
+   * 获取forking模式下同时调用的服务提供者个数，不使用forking模式时返回1
+   * <p>
+   * 调用需要发给不同的服务提供者，只有启用了subchannel池时负载均衡才能为每个调用单独选择服务提供者；
+   * 个数不超过可用的服务提供者个数，额外的调用数受全局上限控制。
+   * </p>
+   *
+   * @author sxp
+   * @since 2020/3/11
+   */
+  private static int getForks(Channel channel, String fullMethodName) {
+    if (!ConsumerForkingUtils.isForking(fullMethodName)) {
+      return 1;
+    }
+
+    NameResolver nameResolver = channel.getNameResolver();
+    if (!(nameResolver instanceof ZookeeperNameResolver)) {
+      return 1;
+    }
+    ZookeeperNameResolver zkResolver = (ZookeeperNameResolver) nameResolver;
+    if (!zkResolver.isProviderPoolEnabled()) {
+      return 1;
+    }
+
+    int wanted = Math.min(ConsumerForkingUtils.getForks(), zkResolver.getProvidersSnapshot().size());
+    if (wanted <= 1) {
+      return 1;
+    }
+    return 1 + ConsumerForkingUtils.acquireExtraRequests(wanted - 1);
+  }
+
+  /**
+   * forking模式：同时调用多个不同的服务提供者，使用最先成功返回的结果并取消其余调用，所有调用都失败时才失败
+   *
+   * @param forks 同时调用的个数，其中额外的调用数(forks - 1)需要预先申请
+   * @author sxp
+   * @since 2020/3/11
+   */
+  static <ReqT, RespT> ListenableFuture<RespT> forkingUnaryCall(
+      Channel channel, MethodDescriptor<ReqT, RespT> method, CallOptions callOptions, ReqT req,
+      int forks) {
+    ForkingFuture<ReqT, RespT> responseFuture =
+        new ForkingFuture<ReqT, RespT>(channel, method, callOptions, forks);
+    responseFuture.start(req);
+    return responseFuture;
+  }
+
   /**
    * Returns the result of calling {@link Future#get()} interruptibly on a task known not to throw a
    * checked exception.
@@ -462,15 +561,11 @@ public final class ClientCalls {
       ReqT req,
       ClientCall.Listener<RespT> responseListener,
       boolean streamingResponse) {
-    //----begin----获取一致性Hash的参数值，放入ThreadLocal变量中----
-    Object value = getArgumentFromRequest(req);
-    String serviceName = GrpcUtils.getInterfaceNameNoneException(call.getFullMethod());
-    ConsistentHashArguments.setArgument(serviceName, value);
-    //----end------获取一致性Hash的参数值，放入ThreadLocal变量中----
-
-    //----begin----获取调用方法参数值，放入ThreadLocal变量中----
-    ThreadLocalVariableUtils.setServiceMethodName(serviceName, call.getFullMethod());
-    //----end------获取调用方法参数值，放入ThreadLocal变量中----
+    //----begin----获取一致性Hash的参数值，随调用的CallOptions传递给负载均衡----
+    if (ConsistentHashArguments.isArgumentRequired(call.getNameResolver(), call.getFullMethod())) {
+      call.setConsistentHashArgument(getArgumentFromRequest(req));
+    }
+    //----end------获取一致性Hash的参数值，随调用的CallOptions传递给负载均衡----
 
     startCall(call, responseListener, streamingResponse);
     try {
@@ -486,7 +581,8 @@ public final class ClientCalls {
   /**
    * 根据请求参数获取对应参数列表的值
    * <p>
-   * 目前的方法是将参数列表中的各参数值转化为String拼接起来。 <br>
+   * 请求类型注册了{@link HashKeyExtractor}时直接调用提取器获取参数值。 <br>
+   * 否则将参数列表中的各参数值转化为String拼接起来，每种消息类型需要读取的字段只解析一次。 <br>
    * 对于参数列表也有一定的限制，不支持参数在嵌套的层次中，即必须在第一层。 <br>
    * 如果客户端为未配置参数列表，或者参数值列表不正确，则取按照参数名升序获取第一个非嵌套类型参数的参数值返回。  <br>
    * </p>
@@ -495,59 +591,26 @@ public final class ClientCalls {
    * @since 2019/2/1
    */
   public static Object getArgumentFromRequest(Object request) {
-    Map<String, Boolean> validArgs = ConsistentHashArguments.getValidArgs();
-
-    boolean isGetFirst = false;
-    if (validArgs.size() == 0) {
-      isGetFirst = true;
-    }
-
-    // 遍历入参的所有参数，取出参数列表对应的参数值
-    GeneratedMessageV3 param;
-    try {
-      param = GeneratedMessageV3.class.cast(request);
-    } catch (ClassCastException e) {
-      return ConsistentHashArguments.NULL_VALUE;// 入参不是GeneratedMessageV3的子类
+    if (request == null) {
+      return ConsistentHashArguments.NULL_VALUE;
     }
 
-    Map<Descriptors.FieldDescriptor, Object> fieldMap = param.getAllFields();
-    Descriptors.FieldDescriptor field;
-    String name;
-    String value;
-    Descriptors.FieldDescriptor.JavaType type;
-    StringBuilder sb = new StringBuilder();
-
-    for (Iterator<Descriptors.FieldDescriptor> keys = fieldMap.keySet().iterator(); keys.hasNext(); ) {
-      field = keys.next();
-      name = field.getName();
-
-      if (!validArgs.containsKey(name) && !isGetFirst) {
-        continue;
-      }
-
-      type = field.getJavaType();
-      if (type.equals(Descriptors.FieldDescriptor.JavaType.MESSAGE)) {
-        // 嵌套数据类型
-      } else if (type.equals(Descriptors.FieldDescriptor.JavaType.ENUM)) {
-        Descriptors.EnumValueDescriptor en = (Descriptors.EnumValueDescriptor) fieldMap.get(field);
-        value = String.valueOf(en.toProto().getNumber());
-        sb.append(value);
-      } else {
-        value = String.valueOf(fieldMap.get(field));
-        sb.append(value);
-      }
+    Object value;
+    HashKeyExtractor<Object> extractor = ConsistentHashArguments.getExtractor(request.getClass());
 
-      if (isGetFirst && sb.length() > 0) {
-        break;
-      }
+    if (extractor != null) {
+      value = extractor.extract(request);
+    } else if (request instanceof GeneratedMessageV3) {
+      GeneratedMessageV3 param = (GeneratedMessageV3) request;
+      value = MessageHashKeyExtractor.forDescriptor(param.getDescriptorForType()).extract(param);
+    } else {
+      return ConsistentHashArguments.NULL_VALUE;// 入参不是GeneratedMessageV3的子类
     }
 
-    String result = sb.toString();
-
-    if (StringUtils.isEmpty(result)) {
+    if (value == null || (value instanceof CharSequence && ((CharSequence) value).length() == 0)) {
       return String.valueOf(System.currentTimeMillis());
     } else {
-      return result;
+      return value;
     }
   }
 
@@ -576,6 +639,8 @@ public final class ClientCalls {
       if (ConsumerRequestsControllerUtils.isNeedRequestsControl(fullMethodName)) {
         ConsumerRequestsControllerUtils.addRequestNum(fullMethodName);
       }
+    } catch (RequestsLimitException e) {
+      throw cancelThrow(call, Status.RESOURCE_EXHAUSTED.withDescription(e.getMessage()).asRuntimeException());
     } catch (Throwable t) {
       throw cancelThrow(call, t);
     }
@@ -790,6 +855,201 @@ public final class ClientCalls {
     }
   }
 
+  /**
+   * 支持失败重试的单次调用结果
+   * <p>
+   * 每次调用结束后在回调中记录调用结果，失败时重选服务器并发起下一次调用，不阻塞任何线程。
+   * 前一次调用结束后才会发起下一次调用，因此回调之间不存在并发。
+   * </p>
+   *
+   * @author sxp
+   * @since 2020/3/11
+   */
+  private static final class FailoverFuture<ReqT, RespT> extends AbstractFuture<RespT>
+      implements FutureCallback<RespT> {
+    private final Channel channel;
+    private final MethodDescriptor<ReqT, RespT> method;
+    private final CallOptions callOptions;
+    private final ReqT req;
+    private final RetryBudget budget;
+    private int retriesLeft;
+    private volatile ClientCall<ReqT, RespT> call;
+
+    // Non private to avoid synthetic class
+    FailoverFuture(Channel channel, MethodDescriptor<ReqT, RespT> method, CallOptions callOptions,
+        ReqT req, int retries, @Nullable RetryBudget budget) {
+      this.channel = channel;
+      this.method = method;
+      this.callOptions = callOptions;
+      this.req = req;
+      this.retriesLeft = retries;
+      this.budget = budget;
+    }
+
+    /**
+     * 发起第一次调用，同步抛出的异常(例如客户端流量控制)直接抛给调用方
+     */
+    void start() {
+      attempt();
+    }
+
+    private void attempt() {
+      ClientCall<ReqT, RespT> newCall = channel.newCall(method, callOptions);
+      call = newCall;
+      Futures.addCallback(futureUnaryCall(newCall, req), this, MoreExecutors.directExecutor());
+    }
+
+    @Override
+    public void onSuccess(RespT result) {
+      FailoverUtils.recordRequest(channel, true, call, null);
+      set(result);
+    }
+
+    @Override
+    public void onFailure(Throwable t) {
+      if (isCancelled()) {
+        return;
+      }
+
+      ClientCall<ReqT, RespT> failedCall = call;
+      FailoverUtils.recordRequest(channel, false, failedCall, (t instanceof Exception) ? (Exception) t : null);
+
+      if (retriesLeft > 0 && isRetryable(t)) {
+        if (budget.tryWithdraw()) {
+          retriesLeft--;
+          logger.info("失败重试，剩余重试次数" + retriesLeft + "...");
+
+          try {
+            reelectServer(channel, method.getFullMethodName(), failedCall.getConsistentHashArgument());
+            attempt();
+          } catch (Throwable e) {
+            setException(e);
+          }
+          return;
+        }
+        logger.warn("服务[" + method.getFullMethodName() + "]的失败重试次数超出重试预算，不再重试");
+      }
+
+      setException(t);
+    }
+
+    @Override
+    protected void interruptTask() {
+      call.cancel("FailoverFuture was cancelled", null);
+    }
+
+    @SuppressWarnings("MissingOverride") // Add @Override once Java 6 support is dropped
+    protected String pendingToString() {
+      return MoreObjects.toStringHelper(this).add("clientCall", call).toString();
+    }
+  }
+
+  /**
+   * forking模式下一组调用的结果
+   * <p>
+   * 第一个成功的调用的结果作为最终结果，同时取消其余调用；所有调用都失败时以最后一个失败作为最终结果。
+   * 除第一个调用之外的调用都是额外的调用，结束时归还额外调用数的名额。
+   * </p>
+   *
+   * @author sxp
+   * @since 2020/3/11
+   */
+  private static final class ForkingFuture<ReqT, RespT> extends AbstractFuture<RespT> {
+    private final Channel channel;
+    private final ClientCall<ReqT, RespT>[] calls;
+    private final AtomicInteger pending;
+
+    // Non private to avoid synthetic class
+    @SuppressWarnings("unchecked")
+    ForkingFuture(Channel channel, MethodDescriptor<ReqT, RespT> method, CallOptions callOptions,
+        int forks) {
+      this.channel = channel;
+      this.calls = new ClientCall[forks];
+      this.pending = new AtomicInteger(forks);
+
+      ForkingGroup group = new ForkingGroup();
+      for (int i = 0; i < forks; i++) {
+        calls[i] = channel.newCall(method,
+            callOptions.withOption(ForkingGroup.CALL_OPTIONS_KEY, group.newSlot()));
+      }
+    }
+
+    /**
+     * 发起所有调用，第一个调用同步抛出的异常(例如客户端流量控制)直接抛给调用方
+     */
+    void start(ReqT req) {
+      for (int i = 0; i < calls.length; i++) {
+        ListenableFuture<RespT> future;
+        try {
+          future = futureUnaryCall(calls[i], req);
+        } catch (RuntimeException e) {
+          if (i == 0) {
+            for (int j = 1; j < calls.length; j++) {
+              ConsumerForkingUtils.releaseExtraRequest();
+            }
+            throw e;
+          }
+          onComplete(calls[i], true, false, null, e);
+          continue;
+        }
+
+        final ClientCall<ReqT, RespT> call = calls[i];
+        final boolean extra = (i > 0);
+        Futures.addCallback(future, new FutureCallback<RespT>() {
+          @Override
+          public void onSuccess(RespT result) {
+            onComplete(call, extra, true, result, null);
+          }
+
+          @Override
+          public void onFailure(Throwable t) {
+            onComplete(call, extra, false, null, t);
+          }
+        }, MoreExecutors.directExecutor());
+      }
+    }
+
+    // Non private to avoid synthetic class
+    void onComplete(ClientCall<ReqT, RespT> call, boolean extra, boolean success, RespT result,
+        Throwable t) {
+      if (extra) {
+        ConsumerForkingUtils.releaseExtraRequest();
+      }
+
+      if (success) {
+        FailoverUtils.recordRequest(channel, true, call, null);
+        if (set(result)) {
+          cancelOthers(call);
+        }
+      } else if (!isDone()) {
+        // 已经有调用成功返回后，其余调用是被主动取消的，不计入出错次数
+        FailoverUtils.recordRequest(channel, false, call, (t instanceof Exception) ? (Exception) t : null);
+      }
+
+      if (pending.decrementAndGet() == 0 && !success) {
+        setException(t);
+      }
+    }
+
+    private void cancelOthers(ClientCall<ReqT, RespT> winner) {
+      for (ClientCall<ReqT, RespT> call : calls) {
+        if (call != winner) {
+          call.cancel("Another forking call has completed", null);
+        }
+      }
+    }
+
+    @Override
+    protected void interruptTask() {
+      cancelOthers(null);
+    }
+
+    @SuppressWarnings("MissingOverride") // Add @Override once Java 6 support is dropped
+    protected String pendingToString() {
+      return MoreObjects.toStringHelper(this).add("pending", pending.get()).toString();
+    }
+  }
+
   /**
    * Convert events on a {@link ClientCall.Listener} into a blocking {@link Iterator}.
    *
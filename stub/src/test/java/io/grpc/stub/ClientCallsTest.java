@@ -18,6 +18,7 @@ package io.grpc.stub;
 
 import static com.google.common.truth.Truth.assertThat;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
@@ -25,7 +26,10 @@ import static org.junit.Assert.fail;
 
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.SettableFuture;
+import com.orientsec.grpc.consumer.qos.ConsumerForkingUtils;
+import com.orientsec.grpc.consumer.qos.RetryBudget;
 import io.grpc.CallOptions;
+import io.grpc.Channel;
 import io.grpc.ClientCall;
 import io.grpc.ManagedChannel;
 import io.grpc.Metadata;
@@ -63,6 +67,14 @@ import org.mockito.MockitoAnnotations;
 @RunWith(JUnit4.class)
 public class ClientCallsTest {
 
+  private static final MethodDescriptor<Integer, Integer> UNARY_METHOD =
+      MethodDescriptor.<Integer, Integer>newBuilder()
+          .setType(MethodDescriptor.MethodType.UNARY)
+          .setFullMethodName("some/unary")
+          .setRequestMarshaller(new IntegerMarshaller())
+          .setResponseMarshaller(new IntegerMarshaller())
+          .build();
+
   private static final MethodDescriptor<Integer, Integer> STREAMING_METHOD =
       MethodDescriptor.<Integer, Integer>newBuilder()
           .setType(MethodDescriptor.MethodType.BIDI_STREAMING)
@@ -220,6 +232,116 @@ public class ClientCallsTest {
     }
   }
 
+  @Test
+  public void failoverFutureRetriesUnavailableOnNewCall() throws Exception {
+    FakeChannel fakeChannel = new FakeChannel();
+    ListenableFuture<Integer> future = ClientCalls.failoverUnaryCall(
+        fakeChannel, UNARY_METHOD, CallOptions.DEFAULT, 2, 1, new RetryBudget(0.2D, 10));
+    assertEquals(1, fakeChannel.calls.size());
+
+    fakeChannel.calls.get(0).fail(Status.UNAVAILABLE);
+    assertEquals(2, fakeChannel.calls.size());
+    assertFalse(future.isDone());
+
+    fakeChannel.calls.get(1).succeed(3);
+    assertEquals(Integer.valueOf(3), future.get());
+  }
+
+  @Test
+  public void failoverFutureDoesNotRetryDeadlineExceededOrCancelled() throws Exception {
+    for (Status status : Arrays.asList(Status.DEADLINE_EXCEEDED, Status.CANCELLED)) {
+      FakeChannel fakeChannel = new FakeChannel();
+      ListenableFuture<Integer> future = ClientCalls.failoverUnaryCall(
+          fakeChannel, UNARY_METHOD, CallOptions.DEFAULT, 2, 3, new RetryBudget(0.2D, 10));
+
+      fakeChannel.calls.get(0).fail(status);
+
+      assertEquals(1, fakeChannel.calls.size());
+      assertFailedWith(status.getCode(), future);
+    }
+  }
+
+  @Test
+  public void failoverFutureStopsWhenBudgetExhausted() throws Exception {
+    FakeChannel fakeChannel = new FakeChannel();
+    // 预算中只有一次重试的令牌，且不会因为新的请求增加
+    ListenableFuture<Integer> future = ClientCalls.failoverUnaryCall(
+        fakeChannel, UNARY_METHOD, CallOptions.DEFAULT, 2, 3, new RetryBudget(0D, 1));
+
+    fakeChannel.calls.get(0).fail(Status.UNAVAILABLE);
+    assertEquals(2, fakeChannel.calls.size());
+    fakeChannel.calls.get(1).fail(Status.UNAVAILABLE);
+
+    assertEquals(2, fakeChannel.calls.size());
+    assertFailedWith(Status.Code.UNAVAILABLE, future);
+  }
+
+  @Test
+  public void failoverFutureCancelReachesInFlightCall() throws Exception {
+    FakeChannel fakeChannel = new FakeChannel();
+    ListenableFuture<Integer> future = ClientCalls.failoverUnaryCall(
+        fakeChannel, UNARY_METHOD, CallOptions.DEFAULT, 2, 1, new RetryBudget(0.2D, 10));
+    fakeChannel.calls.get(0).fail(Status.UNAVAILABLE);
+
+    assertTrue(future.cancel(true));
+
+    assertFalse(fakeChannel.calls.get(0).cancelled);
+    assertTrue(fakeChannel.calls.get(1).cancelled);
+    fakeChannel.calls.get(1).fail(Status.CANCELLED);
+    assertEquals(2, fakeChannel.calls.size());
+  }
+
+  @Test
+  public void forkingFutureFirstSuccessCancelsOthers() throws Exception {
+    int extraRequests = ConsumerForkingUtils.getExtraRequests();
+    assertEquals(2, ConsumerForkingUtils.acquireExtraRequests(2));
+    FakeChannel fakeChannel = new FakeChannel();
+    ListenableFuture<Integer> future = ClientCalls.forkingUnaryCall(
+        fakeChannel, UNARY_METHOD, CallOptions.DEFAULT, 2, 3);
+    assertEquals(3, fakeChannel.calls.size());
+
+    fakeChannel.calls.get(1).succeed(5);
+
+    assertEquals(Integer.valueOf(5), future.get());
+    assertTrue(fakeChannel.calls.get(0).cancelled);
+    assertFalse(fakeChannel.calls.get(1).cancelled);
+    assertTrue(fakeChannel.calls.get(2).cancelled);
+
+    // 被取消的调用结束后归还额外调用数的名额
+    fakeChannel.calls.get(0).fail(Status.CANCELLED);
+    fakeChannel.calls.get(2).fail(Status.CANCELLED);
+    assertEquals(Integer.valueOf(5), future.get());
+    assertEquals(extraRequests, ConsumerForkingUtils.getExtraRequests());
+  }
+
+  @Test
+  public void forkingFutureAllFailedPropagatesLastFailure() throws Exception {
+    int extraRequests = ConsumerForkingUtils.getExtraRequests();
+    assertEquals(1, ConsumerForkingUtils.acquireExtraRequests(1));
+    FakeChannel fakeChannel = new FakeChannel();
+    ListenableFuture<Integer> future = ClientCalls.forkingUnaryCall(
+        fakeChannel, UNARY_METHOD, CallOptions.DEFAULT, 2, 2);
+
+    fakeChannel.calls.get(0).fail(Status.UNAVAILABLE);
+    assertFalse(future.isDone());
+    fakeChannel.calls.get(1).fail(Status.INTERNAL);
+
+    assertFailedWith(Status.Code.INTERNAL, future);
+    assertFalse(fakeChannel.calls.get(0).cancelled);
+    assertFalse(fakeChannel.calls.get(1).cancelled);
+    assertEquals(extraRequests, ConsumerForkingUtils.getExtraRequests());
+  }
+
+  private static void assertFailedWith(Status.Code code, ListenableFuture<?> future)
+      throws InterruptedException {
+    try {
+      future.get();
+      fail("Should fail");
+    } catch (ExecutionException e) {
+      assertEquals(code, Status.fromThrowable(e.getCause()).getCode());
+    }
+  }
+
   @Test
   public void cannotSetOnReadyAfterCallStarted() throws Exception {
     NoopClientCall<Integer, String> call = new NoopClientCall<Integer, String>();
@@ -564,4 +686,49 @@ public class ClientCallsTest {
       assertSame(trailers, metadata);
     }
   }
+
+  /**
+   * 记录每次新建的调用，由测试决定调用的结果
+   */
+  private static final class FakeChannel extends Channel {
+    final List<FakeCall> calls = new ArrayList<FakeCall>();
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public <ReqT, RespT> ClientCall<ReqT, RespT> newCall(
+        MethodDescriptor<ReqT, RespT> method, CallOptions callOptions) {
+      FakeCall call = new FakeCall();
+      calls.add(call);
+      return (ClientCall<ReqT, RespT>) call;
+    }
+
+    @Override
+    public String authority() {
+      return "fake-authority";
+    }
+  }
+
+  private static final class FakeCall extends NoopClientCall<Integer, Integer> {
+    ClientCall.Listener<Integer> listener;
+    boolean cancelled;
+
+    @Override
+    public void start(ClientCall.Listener<Integer> listener, Metadata headers) {
+      this.listener = listener;
+    }
+
+    @Override
+    public void cancel(String message, Throwable cause) {
+      cancelled = true;
+    }
+
+    void succeed(Integer response) {
+      listener.onMessage(response);
+      listener.onClose(Status.OK, new Metadata());
+    }
+
+    void fail(Status status) {
+      listener.onClose(status, new Metadata());
+    }
+  }
 }
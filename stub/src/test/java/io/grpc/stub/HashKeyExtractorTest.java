@@ -0,0 +1,86 @@
+/*
+ * Copyright 2019 Orient Securities Co., Ltd.
+ * Copyright 2019 BoCloud Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.grpc.stub;
+
+import com.google.protobuf.Int32Value;
+import com.google.protobuf.StringValue;
+import com.orientsec.grpc.consumer.ConsistentHashArguments;
+import com.orientsec.grpc.consumer.HashKeyExtractor;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Test for HashKeyExtractor
+ *
+ * @author sxp
+ * @since 2020/3/11
+ */
+public class HashKeyExtractorTest {
+
+  @Test
+  public void compiledExtractor() throws Exception {
+    Map<String, Boolean> noArgs = Collections.emptyMap();
+    MessageHashKeyExtractor extractor = MessageHashKeyExtractor.compile(StringValue.getDescriptor(), noArgs);
+    Assert.assertEquals("abc", extractor.extract(StringValue.newBuilder().setValue("abc").build()));
+    Assert.assertNull(extractor.extract(StringValue.getDefaultInstance()));
+
+    // 只读取参数列表中的字段
+    extractor = MessageHashKeyExtractor.compile(StringValue.getDescriptor(),
+            Collections.singletonMap("value", Boolean.TRUE));
+    Assert.assertEquals(1, extractor.fieldCount());
+    Assert.assertEquals("abc", extractor.extract(StringValue.newBuilder().setValue("abc").build()));
+
+    extractor = MessageHashKeyExtractor.compile(StringValue.getDescriptor(),
+            Collections.singletonMap("userId", Boolean.TRUE));
+    Assert.assertEquals(0, extractor.fieldCount());
+    Assert.assertNull(extractor.extract(StringValue.newBuilder().setValue("abc").build()));
+
+    // 同一种消息类型只解析一次
+    Assert.assertSame(MessageHashKeyExtractor.forDescriptor(StringValue.getDescriptor()),
+            MessageHashKeyExtractor.forDescriptor(StringValue.getDescriptor()));
+  }
+
+  @Test
+  public void registeredExtractor() throws Exception {
+    ConsistentHashArguments.registerExtractor(Int32Value.class, new HashKeyExtractor<Int32Value>() {
+      @Override
+      public Object extract(Int32Value request) {
+        return "user-" + request.getValue();
+      }
+    });
+
+    try {
+      Object argument = ClientCalls.getArgumentFromRequest(Int32Value.newBuilder().setValue(7).build());
+      Assert.assertEquals("user-7", argument);
+    } finally {
+      ConsistentHashArguments.unregisterExtractor(Int32Value.class);
+    }
+  }
+
+  @Test
+  public void invalidRequest() throws Exception {
+    Assert.assertEquals(ConsistentHashArguments.NULL_VALUE, ClientCalls.getArgumentFromRequest(null));
+    Assert.assertEquals(ConsistentHashArguments.NULL_VALUE, ClientCalls.getArgumentFromRequest(1));
+
+    // 没有取到参数值时使用当前时间
+    Object argument = ClientCalls.getArgumentFromRequest(StringValue.getDefaultInstance());
+    Assert.assertTrue(String.valueOf(argument).length() > 0);
+  }
+}